@@ -0,0 +1,49 @@
+package com.paicbd.module.components;
+
+import com.paicbd.module.utils.BindStats;
+import com.paicbd.module.utils.SpSession;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Actuator endpoint with the deliver_sm waiting for response and the response latency of each bind.
+ */
+@Component
+@Endpoint(id = "binds")
+@RequiredArgsConstructor
+public class BindWindowEndpoint {
+    private final ConcurrentMap<Integer, SpSession> spSessionMap;
+    private final DeliverSmDispatcher deliverSmDispatcher;
+
+    public record BindWindow(String sessionId, int inFlight, double latencyMillis) {
+    }
+
+    public record ProviderBinds(String systemId, int windowSize, int waiting, List<BindWindow> binds) {
+    }
+
+    @ReadOperation
+    public Map<Integer, ProviderBinds> binds() {
+        Map<Integer, ProviderBinds> binds = new TreeMap<>();
+        spSessionMap.forEach((networkId, spSession) -> {
+            List<BindWindow> windows = spSession.getCurrentSmppSessions().stream()
+                    .map(session -> {
+                        BindStats stats = spSession.getBindStats(session);
+                        return Objects.isNull(stats) ? null
+                                : new BindWindow(session.getSessionId(), stats.getOutstanding(), stats.getLatencyEwmaNanos() / 1_000_000.0);
+                    })
+                    .filter(Objects::nonNull)
+                    .toList();
+            binds.put(networkId, new ProviderBinds(spSession.getCurrentServiceProvider().getSystemId(),
+                    deliverSmDispatcher.effectiveWindowSize(networkId), deliverSmDispatcher.getWaiting(networkId), windows));
+        });
+        return binds;
+    }
+}
@@ -0,0 +1,170 @@
+package com.paicbd.module.components;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.paicbd.module.utils.AppProperties;
+import com.paicbd.module.utils.SpSession;
+import com.paicbd.module.utils.TpsLimiter;
+import com.paicbd.smsc.utils.Converter;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import redis.clients.jedis.JedisCluster;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.paicbd.module.utils.Constants.STOPPED;
+
+/**
+ * Shares the TPS of each service provider between all the SMPP server instances.
+ * <p>
+ * Time is split in windows of {@code smpp.server.tps.leaseIntervalMillis}, every instance leases from Redis
+ * a chunk of the window budget ({@code tps * interval / 1000}, the fraction of a permit is carried to the next windows)
+ * with a single INCRBY per service provider, and enforces it locally through the {@link TpsLimiter} of the SpSession.
+ * The leases of all the service providers are requested at once, when Redis fails or does not answer
+ * within {@code smpp.server.tps.leaseTimeoutMillis} the instance uses its fair share of the budget,
+ * calculated with the SMPP instances registered in the configurations hash.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ClusterTpsLeaseManager {
+    public static final String MODE_CLUSTER = "CLUSTER";
+    private static final long INSTANCES_REFRESH_MILLIS = 10_000;
+
+    private final AtomicInteger activeInstances = new AtomicInteger(1);
+    private final ExecutorService leaseExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final JedisCluster jedisCluster;
+    private final AppProperties appProperties;
+    private final ConcurrentMap<Integer, SpSession> spSessionMap;
+
+    private long lastInstancesRefresh;
+
+    private record PendingLease(TpsLimiter tpsLimiter, int networkId, long fairShare, CompletableFuture<Long> granted) {
+    }
+
+    @Scheduled(fixedRateString = "${smpp.server.tps.leaseIntervalMillis:100}")
+    public void renewLeases() {
+        if (!MODE_CLUSTER.equalsIgnoreCase(appProperties.getTpsMode())) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        if (now - lastInstancesRefresh >= INSTANCES_REFRESH_MILLIS) {
+            lastInstancesRefresh = now;
+            refreshActiveInstances();
+        }
+
+        long interval = Math.max(1, appProperties.getTpsLeaseIntervalMillis());
+        long window = now / interval;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(1, appProperties.getTpsLeaseTimeoutMillis()));
+        List<PendingLease> pendingLeases = new ArrayList<>();
+        spSessionMap.values().forEach(spSession -> {
+            PendingLease pendingLease = requestLease(spSession, window, interval);
+            if (Objects.nonNull(pendingLease)) {
+                pendingLeases.add(pendingLease);
+            }
+        });
+
+        // all the leases share the same deadline, a slow Redis delays the tick once and not once per service provider
+        for (PendingLease pendingLease : pendingLeases) {
+            long granted;
+            try {
+                granted = pendingLease.granted().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException | TimeoutException e) {
+                log.debug("Unable to lease tps for networkId {}, using fair share {}: {}",
+                        pendingLease.networkId(), pendingLease.fairShare(), e.getMessage());
+                granted = pendingLease.fairShare();
+            }
+            pendingLease.tpsLimiter().grantLease(granted);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        leaseExecutor.shutdownNow();
+    }
+
+    int getActiveInstances() {
+        return activeInstances.get();
+    }
+
+    /**
+     * Budget of the window, {@code tps * interval / 1000} permits. The fraction left by each window is carried to the
+     * next ones, so the windows of a second add up to the tps. It only depends on the window, every instance agrees on it.
+     */
+    static long windowBudget(int tps, long interval, long window) {
+        long permits = tps * interval;
+        long remainder = permits % 1000;
+        return permits / 1000 + remainder * (window + 1) / 1000 - remainder * window / 1000;
+    }
+
+    private PendingLease requestLease(SpSession spSession, long window, long interval) {
+        TpsLimiter tpsLimiter = spSession.getTpsLimiter();
+        int tps = tpsLimiter.getTps();
+        if (tps <= 0) {
+            tpsLimiter.clearLease();
+            return null;
+        }
+        if (spSession.getCurrentSmppSessions().isEmpty()) {
+            tpsLimiter.drainDemand();
+            return null;
+        }
+
+        long budget = windowBudget(tps, interval, window);
+        long demand = tpsLimiter.drainDemand();
+        if (budget == 0) {
+            tpsLimiter.grantLease(0);
+            return null;
+        }
+        long fairShare = (budget + activeInstances.get() - 1) / activeInstances.get();
+        long requested = Math.min(budget, Math.max(fairShare, demand));
+        int networkId = spSession.getCurrentServiceProvider().getNetworkId();
+        String key = appProperties.getTpsLeaseKeyPrefix() + ":" + networkId + ":" + window;
+        return new PendingLease(tpsLimiter, networkId, fairShare,
+                CompletableFuture.supplyAsync(() -> lease(key, requested, budget, interval), leaseExecutor));
+    }
+
+    private long lease(String key, long requested, long budget, long interval) {
+        long total = jedisCluster.incrBy(key, requested);
+        if (total == requested) {
+            jedisCluster.pexpire(key, interval * 10);
+        }
+        return Math.max(0, Math.min(requested, budget - (total - requested)));
+    }
+
+    private void refreshActiveInstances() {
+        try {
+            Map<String, String> instances = jedisCluster.hgetAll(appProperties.getConfigurationHash());
+            if (Objects.isNull(instances)) {
+                return;
+            }
+            long smppInstances = instances.values().stream()
+                    .map(instance -> Converter.stringToObject(instance, new TypeReference<Map<String, Object>>() {
+                    }))
+                    .filter(Objects::nonNull)
+                    .filter(instance -> appProperties.getInstanceProtocol().equalsIgnoreCase(String.valueOf(instance.get("protocol"))))
+                    .filter(instance -> !STOPPED.equalsIgnoreCase(String.valueOf(instance.get("state"))))
+                    .count();
+            activeInstances.set((int) Math.max(1, smppInstances));
+        } catch (Exception e) {
+            log.warn("Unable to refresh the active SMPP instances: {}", e.getMessage());
+        }
+    }
+}
@@ -13,7 +13,6 @@ import org.springframework.stereotype.Component;
 import redis.clients.jedis.JedisCluster;
 
 import java.util.Objects;
-import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
 
 import static com.paicbd.module.utils.Constants.UPDATE_SERVICE_PROVIDER_ENDPOINT;
@@ -36,8 +35,9 @@ public class CustomFrameHandler implements FrameHandler {
     private final ConcurrentMap<Integer, SpSession> spSessionMap;
     private final JedisCluster jedisCluster;
     private final AppProperties appProperties;
-    private final Set<ServiceProvider> providers;
+    private final ServiceProviderRegistry providerRegistry;
     private final ServerHandler serverHandler;
+    private final ServiceProviderStateWriter serviceProviderStateWriter;
 
     @Override
     public void handleFrameLogic(StompHeaders headers, Object payload) {
@@ -113,14 +113,17 @@ public class CustomFrameHandler implements FrameHandler {
             this.spSessionMap.put(Integer.valueOf(networkId), spSession);
         }
 
-        if (spSession.updateCurrentServiceProvider(sp)) {
+        boolean stopped = spSession.updateCurrentServiceProvider(sp);
+        synchronized (spSession) {
+            this.serviceProviderStateWriter.markChanged(spSession.getCurrentServiceProvider());
+        }
+        if (stopped) {
             log.warn("Sending notification to websocket for service provider {} on processUpdateServiceProvider", networkId);
             this.socketSession.getStompSession().send(WEBSOCKET_STATUS_ENDPOINT, String.format("%s,%s,%s,%s", TYPE, networkId, PARAM_UPDATE_STATUS, STOPPED));
         }
 
-        // Replace provider in providers list
-        this.providers.removeIf(provider -> String.valueOf(provider.getNetworkId()).equals(networkId));
-        this.providers.add(spSession.getCurrentServiceProvider());
+        // Replace provider in the registry
+        this.providerRegistry.put(spSession.getCurrentServiceProvider());
     }
 
     private void deleteSp(String networkId) {
@@ -135,8 +138,9 @@ public class CustomFrameHandler implements FrameHandler {
             spSession.autoDestroy();
             this.spSessionMap.remove(Integer.parseInt(networkId));
         }
+        this.serviceProviderStateWriter.remove(Integer.parseInt(networkId));
 
         this.jedisCluster.hdel(this.appProperties.getServiceProvidersHashName(), networkId);
-        this.providers.removeIf(sp -> sp.getNetworkId() == Integer.parseInt(networkId));
+        this.providerRegistry.removeByNetworkId(Integer.parseInt(networkId));
     }
 }
@@ -0,0 +1,300 @@
+package com.paicbd.module.components;
+
+import com.paicbd.module.utils.AppProperties;
+import com.paicbd.module.utils.DeliverSmResult;
+import com.paicbd.module.utils.SpSession;
+import com.paicbd.module.utils.StaticMethods;
+import com.paicbd.smsc.cdr.CdrProcessor;
+import com.paicbd.smsc.dto.MessageEvent;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.jsmpp.session.SMPPServerSession;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Sends the deliver_sm without holding the consumer workers while the service provider answers.
+ * <p>
+ * Each bind accepts up to {@code queue.consumer.window.size} deliver_sm waiting for deliver_sm_resp, or the size
+ * configured for the networkId in {@code queue.consumer.window.overrides}. A deliver_sm that finds every bind of
+ * its service provider with the window full waits in the lane of the service provider and is sent as soon as
+ * a response arrives, so a slow ESME only delays its own deliver_sm. Each deliver_sm is sent in a virtual thread
+ * and its result is completed asynchronously.
+ * <p>
+ * When the service provider answers with throttling the window of its binds is halved, down to 1, and it grows again
+ * by one with every deliver_sm accepted until it reaches the configured size.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class DeliverSmDispatcher {
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final ConcurrentMap<Integer, Lane> lanes = new ConcurrentHashMap<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicInteger capacityWaiters = new AtomicInteger();
+    private final Lock capacityLock = new ReentrantLock();
+    private final Condition capacityAvailable = capacityLock.newCondition();
+
+    private final CdrProcessor cdrProcessor;
+    private final AppProperties appProperties;
+    private final GeneralSettingsCacheConfig generalSettingsCacheConfig;
+
+    private volatile Map<Integer, Integer> windowOverrides;
+
+    private record Task(MessageEvent deliverSmEvent, CompletableFuture<DeliverSmResult> result) {
+    }
+
+    private static final class Lane {
+        private final int networkId;
+        private final Queue<Task> waiting = new ConcurrentLinkedQueue<>();
+        private volatile SpSession spSession;
+        // window reduced after throttling, 0 when the configured window applies
+        private volatile int throttledWindow;
+
+        private Lane(int networkId, SpSession spSession) {
+            this.networkId = networkId;
+            this.spSession = spSession;
+        }
+    }
+
+    /**
+     * Queues the deliver_sm in the lane of its service provider, it is sent when one of its binds has room in the window.
+     */
+    public CompletableFuture<DeliverSmResult> dispatch(int networkId, SpSession spSession, MessageEvent deliverSmEvent) {
+        CompletableFuture<DeliverSmResult> result = new CompletableFuture<>();
+        pending.incrementAndGet();
+        result.whenComplete((outcome, throwable) -> {
+            pending.decrementAndGet();
+            if (capacityWaiters.get() > 0) {
+                signalCapacity();
+            }
+        });
+
+        Lane lane = lanes.compute(networkId, (key, current) -> {
+            if (Objects.isNull(current)) {
+                return new Lane(key, spSession);
+            }
+            // the SpSession is replaced when the service provider is deleted and created again
+            current.spSession = spSession;
+            return current;
+        });
+        lane.waiting.add(new Task(deliverSmEvent, result));
+        drain(lane);
+        return result;
+    }
+
+    /**
+     * @return number of deliver_sm that can be dispatched before reaching {@code queue.consumer.window.maxPending}
+     */
+    public int remainingCapacity() {
+        int maxPending = appProperties.getDeliverSmMaxPending();
+        if (maxPending <= 0) {
+            return Integer.MAX_VALUE;
+        }
+        return Math.max(0, maxPending - pending.get());
+    }
+
+    /**
+     * Waits until a deliver_sm can be dispatched, at most timeoutMillis.
+     */
+    public void awaitCapacity(long timeoutMillis) throws InterruptedException {
+        capacityWaiters.incrementAndGet();
+        capacityLock.lock();
+        try {
+            long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            while (remainingCapacity() <= 0 && remaining > 0) {
+                remaining = capacityAvailable.awaitNanos(remaining);
+            }
+        } finally {
+            capacityLock.unlock();
+            capacityWaiters.decrementAndGet();
+        }
+    }
+
+    private void signalCapacity() {
+        capacityLock.lock();
+        try {
+            capacityAvailable.signalAll();
+        } finally {
+            capacityLock.unlock();
+        }
+    }
+
+    public int getPending() {
+        return pending.get();
+    }
+
+    /**
+     * @return deliver_sm of the service provider waiting for a bind with room in the window
+     */
+    public int getWaiting(int networkId) {
+        Lane lane = lanes.get(networkId);
+        return Objects.isNull(lane) ? 0 : lane.waiting.size();
+    }
+
+    public int windowSize(int networkId) {
+        Map<Integer, Integer> overrides = this.windowOverrides;
+        if (Objects.isNull(overrides)) {
+            overrides = parseWindowOverrides(appProperties.getDeliverSmWindowOverrides());
+            this.windowOverrides = overrides;
+        }
+        return overrides.getOrDefault(networkId, Math.max(1, appProperties.getDeliverSmWindowSize()));
+    }
+
+    /**
+     * @return window size of the binds of the service provider, reduced while it is throttling
+     */
+    public int effectiveWindowSize(int networkId) {
+        Lane lane = lanes.get(networkId);
+        return Objects.isNull(lane) ? windowSize(networkId) : effectiveWindowSize(lane);
+    }
+
+    private int effectiveWindowSize(Lane lane) {
+        int configured = windowSize(lane.networkId);
+        int throttled = lane.throttledWindow;
+        return throttled > 0 ? Math.min(configured, throttled) : configured;
+    }
+
+    void adjustWindow(int networkId, DeliverSmResult result) {
+        Lane lane = lanes.get(networkId);
+        if (Objects.isNull(lane)) {
+            return;
+        }
+        synchronized (lane) {
+            if (result == DeliverSmResult.THROTTLED) {
+                int reduced = Math.max(1, effectiveWindowSize(lane) / 2);
+                if (lane.throttledWindow != reduced) {
+                    log.warn("Service provider with network id {} is throttling, deliver_sm window reduced to {}", networkId, reduced);
+                }
+                lane.throttledWindow = reduced;
+            } else if (result == DeliverSmResult.SENT && lane.throttledWindow > 0) {
+                int increased = lane.throttledWindow + 1;
+                lane.throttledWindow = increased >= windowSize(networkId) ? 0 : increased;
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private void drain(Lane lane) {
+        List<Task> unsent = new ArrayList<>();
+        RuntimeException failure = null;
+        // a single thread takes deliver_sm from the lane at a time, the sends run outside the lock
+        synchronized (lane) {
+            try {
+                while (!lane.waiting.isEmpty()) {
+                    SpSession spSession = lane.spSession;
+                    if (spSession.getCurrentSmppSessions().isEmpty()) {
+                        pollAll(lane, unsent);
+                        break;
+                    }
+                    SpSession.Reservation reservation = spSession.tryReserveSession(effectiveWindowSize(lane));
+                    if (Objects.isNull(reservation)) {
+                        // every window is full, the lane is drained again when a response arrives
+                        break;
+                    }
+                    Task task = lane.waiting.poll();
+                    if (Objects.isNull(task)) {
+                        spSession.onRequestCompleted(reservation.session(), reservation.startNanos());
+                        break;
+                    }
+                    send(lane, spSession, reservation, task);
+                }
+            } catch (RuntimeException e) {
+                log.error("Error dispatching deliver_sm: {}", e.getMessage());
+                failure = e;
+                pollAll(lane, unsent);
+            }
+        }
+
+        // completed outside the lock, the callbacks of the consumer can write to Redis
+        for (Task task : unsent) {
+            if (Objects.isNull(failure)) {
+                task.result().complete(DeliverSmResult.NO_SESSION);
+            } else {
+                task.result().completeExceptionally(failure);
+            }
+        }
+    }
+
+    private void send(Lane lane, SpSession spSession, SpSession.Reservation reservation, Task task) {
+        try {
+            executor.execute(() -> {
+                DeliverSmResult result = DeliverSmResult.FAILED;
+                Exception failure = null;
+                try {
+                    result = StaticMethods.sendDeliverSm((SMPPServerSession) reservation.session(), task.deliverSmEvent(),
+                            generalSettingsCacheConfig.getCurrentGeneralSettings(), cdrProcessor);
+                } catch (Exception e) {
+                    log.error("Error sending deliver_sm with id {}: {}", task.deliverSmEvent().getId(), e.getMessage());
+                    failure = e;
+                } finally {
+                    spSession.onRequestCompleted(reservation.session(), reservation.startNanos());
+                    adjustWindow(lane.networkId, result);
+                    // FAILED means its CDR was written, otherwise the deliver_sm was not handled
+                    if (Objects.isNull(failure)) {
+                        task.result().complete(result);
+                    } else {
+                        task.result().completeExceptionally(failure);
+                    }
+                    drain(lane);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            spSession.onRequestCompleted(reservation.session(), reservation.startNanos());
+            task.result().completeExceptionally(e);
+        }
+    }
+
+    private static void pollAll(Lane lane, List<Task> tasks) {
+        Task task;
+        while ((task = lane.waiting.poll()) != null) {
+            tasks.add(task);
+        }
+    }
+
+    /**
+     * @param overrides window size per networkId with the format {@code networkId:size,networkId:size}
+     */
+    static Map<Integer, Integer> parseWindowOverrides(String overrides) {
+        Map<Integer, Integer> windowSizes = new HashMap<>();
+        if (Objects.isNull(overrides) || overrides.isBlank()) {
+            return windowSizes;
+        }
+        for (String override : overrides.split(",")) {
+            String[] parts = override.trim().split(":");
+            try {
+                if (parts.length == 2) {
+                    windowSizes.put(Integer.parseInt(parts[0].trim()), Math.max(1, Integer.parseInt(parts[1].trim())));
+                    continue;
+                }
+            } catch (NumberFormatException e) {
+                // logged below
+            }
+            log.warn("Ignoring invalid deliver_sm window override {}", override);
+        }
+        return windowSizes;
+    }
+}
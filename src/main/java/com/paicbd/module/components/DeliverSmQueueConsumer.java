@@ -1,61 +1,241 @@
 package com.paicbd.module.components;
 
 import com.paicbd.module.utils.AppProperties;
+import com.paicbd.module.utils.DeliverSmResult;
+import com.paicbd.module.utils.MessageEventCodec;
+import com.paicbd.module.utils.PayloadFormat;
 import com.paicbd.module.utils.SpSession;
-import com.paicbd.module.utils.StaticMethods;
 import com.paicbd.smsc.exception.RTException;
 import com.paicbd.smsc.utils.Watcher;
-import com.paicbd.smsc.cdr.CdrProcessor;
-import com.paicbd.smsc.dto.GeneralSettings;
 import com.paicbd.smsc.dto.MessageEvent;
-import com.paicbd.smsc.utils.Converter;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.jsmpp.session.SMPPServerSession;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 import reactor.core.publisher.Flux;
 import reactor.core.scheduler.Schedulers;
+import redis.clients.jedis.ClusterPipeline;
 import redis.clients.jedis.JedisCluster;
+import redis.clients.jedis.StreamEntryID;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.params.XAutoClaimParams;
+import redis.clients.jedis.params.XPendingParams;
+import redis.clients.jedis.params.XReadGroupParams;
+import redis.clients.jedis.resps.StreamEntry;
+import redis.clients.jedis.resps.StreamPendingEntry;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
+/**
+ * Consumes the deliver_sm queue and sends every deliver_sm through a bind of its service provider.
+ * <p>
+ * With mode {@code POLLING} every worker pops a batch each {@code queue.consumer.scheduler} ms.
+ * With mode {@code BLOCKING} the workers consume continuously: the batch doubles while the queue returns full batches,
+ * up to {@code queue.consumer.batch.size}, shrinks to the items returned otherwise, and when the queue is empty
+ * the worker blocks on BLPOP, so a deliver_sm is sent as soon as it arrives and an idle queue is not polled.
+ * With mode {@code STREAM} the deliver_sm are read from a stream with a consumer group where every instance is a consumer,
+ * an entry is acknowledged only when it was handled, and the entries left unacknowledged by a crash or a failed send
+ * are reclaimed with XAUTOCLAIM and sent again, up to {@code queue.consumer.stream.maxDeliveries} attempts.
+ * <p>
+ * With routing enabled, the polling and blocking workers consume only the network queues of the service providers
+ * bound to this instance, see {@link DeliverSmRouter}. The global queue, left for producers that do not push to the
+ * network queues and for the network queues moved back, is then popped every {@code queue.consumer.scheduler} ms by
+ * {@link #distributeGlobalQueue()}. Every batch popped goes first through a routing pre-pass that
+ * reads only the route of each deliver_sm, the ones for service providers without binds in this instance are requeued
+ * untouched in a single pipeline, without being deserialized.
+ * <p>
+ * The deliver_sm are sent through the {@link DeliverSmDispatcher}, the workers do not wait for the deliver_sm_resp
+ * and pop only as many deliver_sm as the dispatcher can still accept. The deliver_sm the service provider throttled
+ * or did not answer in time are sent again later from the {@link DeliverSmRetryQueue}.
+ */
 @Slf4j
 @Component
 @RequiredArgsConstructor
 public class DeliverSmQueueConsumer {
+    public static final String MODE_POLLING = "POLLING";
+    public static final String MODE_BLOCKING = "BLOCKING";
+    public static final String MODE_STREAM = "STREAM";
+
     private final AtomicInteger redisCounterPerSecond = new AtomicInteger(0);
     private final AtomicInteger deliverSmCounterPerSecond = new AtomicInteger(0);
+    private final List<Thread> blockingWorkers = new ArrayList<>();
 
     private final JedisCluster jedisCluster;
-    private final CdrProcessor cdrProcessor;
     private final AppProperties appProperties;
     private final ConcurrentMap<Integer, SpSession> spSessionMap;
-    private final GeneralSettingsCacheConfig generalSettingsCacheConfig;
+    private final DeliverSmRouter deliverSmRouter;
+    private final DeliverSmDispatcher deliverSmDispatcher;
+    private final DeliverSmRetryQueue deliverSmRetryQueue;
+    private final PendingDeliverSmStore pendingDeliverSmStore;
+
+    private volatile boolean running;
+    private volatile StreamEntryID reclaimCursor = new StreamEntryID();
+
+    /**
+     * Item of a batch with the route read by the pre-pass.
+     */
+    private record Routed<T>(T item, String deliverSmRaw, int networkId, SpSession spSession) {
+    }
 
     @PostConstruct
-    private void startQueueProcessing() {
-        log.warn("Starting DeliverSmQueueConsumer with {} workers", appProperties.getDeliverSmWorkers());
+    void startQueueProcessing() {
+        log.warn("Starting DeliverSmQueueConsumer with {} workers, mode {}", appProperties.getDeliverSmWorkers(), appProperties.getDeliverSmConsumerMode());
         Thread.startVirtualThread(() -> new Watcher("RedisWatcher", redisCounterPerSecond, 1));
         Thread.startVirtualThread(() -> new Watcher("DeliverSmWatcher", deliverSmCounterPerSecond, 1));
+        if (isPollingMode()) {
+            return;
+        }
+        this.running = true;
+        Runnable consumerLoop = this::blockingConsumerLoop;
+        if (isStreamMode()) {
+            createStreamGroup();
+            consumerLoop = this::streamConsumerLoop;
+        }
+        for (int i = 0; i < Math.max(1, appProperties.getDeliverSmWorkers()); i++) {
+            blockingWorkers.add(Thread.ofVirtual().name("deliver_sm_consumer-" + i).start(consumerLoop));
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        this.running = false;
+        blockingWorkers.forEach(Thread::interrupt);
     }
 
     @Async
     @Scheduled(fixedDelayString = "${queue.consumer.scheduler}")
     public void startScheduler() {
+        if (!isPollingMode()) {
+            return;
+        }
         Flux.range(0, appProperties.getDeliverSmWorkers())
                 .flatMap(worker -> Flux.defer(this::queueProcessingBatchThread).subscribeOn(Schedulers.boundedElastic()))
                 .subscribe();
     }
 
+    /**
+     * With routing enabled, pops the global queue while it returns full batches, the deliver_sm of the service providers
+     * bound to this instance are sent and the others forwarded to their network queue or pending list.
+     */
+    @Async
+    @Scheduled(fixedDelayString = "${queue.consumer.scheduler}")
+    public void distributeGlobalQueue() {
+        if (!deliverSmRouter.isEnabled()) {
+            return;
+        }
+        String queue = appProperties.getDeliverSmQueue();
+        int maxBatchSize = Math.max(1, appProperties.getDeliverSmBatchSizePerWorker());
+        try {
+            int count = Math.min(maxBatchSize, deliverSmDispatcher.remainingCapacity());
+            while (count > 0) {
+                List<String> deliverSmRawList = jedisCluster.lpop(queue, count);
+                if (Objects.isNull(deliverSmRawList) || deliverSmRawList.isEmpty()) {
+                    return;
+                }
+                redisCounterPerSecond.getAndAdd(deliverSmRawList.size());
+                sendBatch(deliverSmRawList);
+                if (deliverSmRawList.size() < count) {
+                    return;
+                }
+                count = Math.min(maxBatchSize, deliverSmDispatcher.remainingCapacity());
+            }
+        } catch (Exception e) {
+            log.error("Error distributing the deliver_sm of {}: {}", queue, e.getMessage());
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${queue.consumer.stream.reclaimIntervalMillis:5000}")
+    public void reclaimStaleDeliverSm() {
+        if (!running || !isStreamMode()) {
+            return;
+        }
+        String streamKey = appProperties.getDeliverSmStreamKey();
+        try {
+            Map.Entry<StreamEntryID, List<StreamEntry>> claimed = jedisCluster.xautoclaim(streamKey,
+                    appProperties.getDeliverSmStreamGroup(), appProperties.getInstanceName(),
+                    appProperties.getDeliverSmStreamClaimIdleMillis(), reclaimCursor,
+                    XAutoClaimParams.xAutoClaimParams().count(Math.max(1, appProperties.getDeliverSmBatchSizePerWorker())));
+            if (Objects.isNull(claimed)) {
+                return;
+            }
+            // the cursor returns to 0-0 once the whole pending entries list was scanned
+            this.reclaimCursor = claimed.getKey();
+            List<StreamEntry> entries = claimed.getValue().stream().filter(Objects::nonNull).toList();
+            if (entries.isEmpty()) {
+                return;
+            }
+
+            Map<StreamEntryID, Long> deliveries = deliveriesOf(entries);
+            int maxDeliveries = Math.max(1, appProperties.getDeliverSmStreamMaxDeliveries());
+            List<StreamEntry> retries = new ArrayList<>();
+            List<StreamEntryID> discarded = new ArrayList<>();
+            for (StreamEntry entry : entries) {
+                if (deliveries.getOrDefault(entry.getID(), 0L) > maxDeliveries) {
+                    discarded.add(entry.getID());
+                } else {
+                    retries.add(entry);
+                }
+            }
+            if (!discarded.isEmpty()) {
+                log.error("Discarding {} deliver_sm from {} after {} deliveries: {}", discarded.size(), streamKey, maxDeliveries, discarded);
+                acknowledge(discarded);
+            }
+            if (!retries.isEmpty()) {
+                log.warn("Reclaimed {} unacknowledged deliver_sm from {}", retries.size(), streamKey);
+                processStreamEntries(retries);
+            }
+        } catch (Exception e) {
+            log.error("Error reclaiming deliver_sm from {}: {}", streamKey, e.getMessage());
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${queue.consumer.retry.pollIntervalMillis:500}")
+    public void dispatchDueRetries() {
+        try {
+            int count = Math.min(Math.max(1, appProperties.getDeliverSmBatchSizePerWorker()), deliverSmDispatcher.remainingCapacity());
+            for (DeliverSmRetryQueue.Retry retry : deliverSmRetryQueue.pollDue(count)) {
+                try {
+                    deliverSm(retry.deliverSmRaw(), retry.attempt());
+                } catch (RTException e) {
+                    // already logged, the other retries are sent
+                }
+            }
+        } catch (Exception e) {
+            log.error("Error dispatching the deliver_sm retries: {}", e.getMessage());
+        }
+    }
+
+    private boolean isPollingMode() {
+        return !isBlockingMode() && !isStreamMode();
+    }
+
+    private boolean isBlockingMode() {
+        return MODE_BLOCKING.equalsIgnoreCase(appProperties.getDeliverSmConsumerMode());
+    }
+
+    private boolean isStreamMode() {
+        return MODE_STREAM.equalsIgnoreCase(appProperties.getDeliverSmConsumerMode());
+    }
+
     private Flux<Void> queueProcessingBatchThread() {
-        return Flux.fromIterable(pullDeliverSmRawListFromRedis())
+        return Flux.fromIterable(routeBatch(pullDeliverSmRawListFromRedis(), Function.identity()))
                 .parallel(appProperties.getDeliverSmWorkers())
                 .runOn(Schedulers.parallel())
                 .flatMap(this::processDeliverSm)
@@ -63,46 +243,340 @@ public class DeliverSmQueueConsumer {
     }
 
     private List<String> pullDeliverSmRawListFromRedis() {
-        List<String> list = jedisCluster.lpop(appProperties.getDeliverSmQueue(),
-                appProperties.getDeliverSmBatchSizePerWorker());
-        if (Objects.nonNull(list)) {
-            redisCounterPerSecond.getAndAdd(list.size());
-            return list;
+        int batchSize = Math.min(appProperties.getDeliverSmBatchSizePerWorker(), deliverSmDispatcher.remainingCapacity());
+        if (batchSize <= 0) {
+            return Collections.emptyList();
         }
-        return Collections.emptyList();
+        List<String> deliverSmRawList = pop(batchSize);
+        redisCounterPerSecond.getAndAdd(deliverSmRawList.size());
+        return deliverSmRawList;
     }
 
-    private Flux<Void> processDeliverSm(String deliverSmRaw) {
-        return Flux.defer(() -> {
+    /**
+     * Pops from the network queues of the service providers bound to this instance when routing is enabled,
+     * from the global queue otherwise.
+     */
+    private List<String> pop(int count) {
+        if (deliverSmRouter.isEnabled()) {
+            return deliverSmRouter.popLocal(count);
+        }
+        List<String> deliverSmRawList = jedisCluster.lpop(appProperties.getDeliverSmQueue(), count);
+        return Objects.isNull(deliverSmRawList) ? Collections.emptyList() : deliverSmRawList;
+    }
+
+    private void blockingConsumerLoop() {
+        String queue = appProperties.getDeliverSmQueue();
+        int maxBatchSize = Math.max(1, appProperties.getDeliverSmBatchSizePerWorker());
+        int blockTimeoutSeconds = Math.max(1, appProperties.getDeliverSmBlockTimeoutSeconds());
+        int batchSize = 1;
+
+        while (running && !Thread.currentThread().isInterrupted()) {
             try {
-                log.debug("Processing deliver_sm {}", deliverSmRaw);
-                MessageEvent deliverSmEvent = Converter.stringToObject(deliverSmRaw, MessageEvent.class);
-                if (Objects.isNull(deliverSmEvent)) {
-                    return Flux.empty();
+                int count = Math.min(batchSize, deliverSmDispatcher.remainingCapacity());
+                if (count <= 0) {
+                    waitForCapacity();
+                    continue;
+                }
+                List<String> deliverSmRawList = pop(count);
+                if (deliverSmRawList.isEmpty()) {
+                    batchSize = 1;
+                    List<String> queues = deliverSmRouter.isEnabled() ? deliverSmRouter.localQueues() : List.of(queue);
+                    if (queues.isEmpty()) {
+                        // no binds in this instance, nothing to consume until one is opened
+                        TimeUnit.SECONDS.sleep(blockTimeoutSeconds);
+                        continue;
+                    }
+                    // [key, value] or null when the timeout elapses without items, the network queues share one slot
+                    List<String> popped = queues.size() == 1
+                            ? jedisCluster.blpop(blockTimeoutSeconds, queues.getFirst())
+                            : jedisCluster.blpop(blockTimeoutSeconds, queues.toArray(String[]::new));
+                    if (Objects.isNull(popped) || popped.size() < 2) {
+                        continue;
+                    }
+                    deliverSmRawList = List.of(popped.get(1));
+                } else if (deliverSmRawList.size() == count) {
+                    batchSize = Math.min(maxBatchSize, batchSize * 2);
+                } else {
+                    batchSize = deliverSmRawList.size();
                 }
 
-                int networkId = deliverSmEvent.getDestNetworkId();
-                SpSession spSession = spSessionMap.get(networkId);
-                if (Objects.isNull(spSession)) {
-                    log.warn("No session found for service provider with network id {}, putting deliver_sm in queue for later processing", networkId);
-                    jedisCluster.lpush(String.valueOf(networkId).concat("_smpp_pending_dlr"), deliverSmRaw);
-                    return Flux.empty();
+                redisCounterPerSecond.getAndAdd(deliverSmRawList.size());
+                sendBatch(deliverSmRawList);
+            } catch (Exception e) {
+                if (!running) {
+                    return;
                 }
+                log.error("Error consuming deliver_sm from {}: {}", queue, e.getMessage());
+                sleepAfterError();
+            }
+        }
+    }
 
-                SMPPServerSession serverSession = (SMPPServerSession) spSession.getNextRoundRobinSession();
-                if (serverSession != null) {
-                    GeneralSettings smppGeneralSettings = generalSettingsCacheConfig.getCurrentGeneralSettings();
-                    StaticMethods.sendDeliverSm(serverSession, deliverSmEvent, smppGeneralSettings, cdrProcessor);
-                    deliverSmCounterPerSecond.getAndIncrement();
-                } else {
-                    jedisCluster.lpush(String.valueOf(networkId).concat("_smpp_pending_dlr"), deliverSmRaw);
-                    log.warn("No active session to send deliver_sm with id {}", deliverSmEvent.getId());
+    // same fan-out as the polling mode, the caller waits for the batch to be dispatched before popping again
+    private void sendBatch(List<String> deliverSmRawList) {
+        Flux.fromIterable(routeBatch(deliverSmRawList, Function.identity()))
+                .parallel(Math.max(1, appProperties.getDeliverSmWorkers()))
+                .runOn(Schedulers.parallel())
+                .flatMap(routed -> processDeliverSm(routed).onErrorResume(e -> Flux.empty()))
+                .sequential()
+                .blockLast();
+    }
+
+    private void createStreamGroup() {
+        String streamKey = appProperties.getDeliverSmStreamKey();
+        try {
+            // from 0-0 so the entries added before the group existed are delivered too
+            jedisCluster.xgroupCreate(streamKey, appProperties.getDeliverSmStreamGroup(), new StreamEntryID(), true);
+            log.info("Consumer group {} created on {}", appProperties.getDeliverSmStreamGroup(), streamKey);
+        } catch (JedisDataException e) {
+            if (!String.valueOf(e.getMessage()).startsWith("BUSYGROUP")) {
+                log.error("Error creating the consumer group {} on {}: {}", appProperties.getDeliverSmStreamGroup(), streamKey, e.getMessage());
+            }
+        }
+    }
+
+    private void streamConsumerLoop() {
+        String streamKey = appProperties.getDeliverSmStreamKey();
+        int maxBatchSize = Math.max(1, appProperties.getDeliverSmBatchSizePerWorker());
+        int blockMillis = (int) TimeUnit.SECONDS.toMillis(Math.max(1, appProperties.getDeliverSmBlockTimeoutSeconds()));
+        Map<String, StreamEntryID> streams = Map.of(streamKey, StreamEntryID.UNRECEIVED_ENTRY);
+
+        while (running && !Thread.currentThread().isInterrupted()) {
+            try {
+                int count = Math.min(maxBatchSize, deliverSmDispatcher.remainingCapacity());
+                if (count <= 0) {
+                    waitForCapacity();
+                    continue;
+                }
+                XReadGroupParams params = XReadGroupParams.xReadGroupParams().count(count).block(blockMillis);
+                List<Map.Entry<String, List<StreamEntry>>> read = jedisCluster.xreadGroup(
+                        appProperties.getDeliverSmStreamGroup(), appProperties.getInstanceName(), params, streams);
+                if (Objects.isNull(read)) {
+                    continue;
+                }
+                for (Map.Entry<String, List<StreamEntry>> stream : read) {
+                    processStreamEntries(stream.getValue());
                 }
-                return Flux.empty();
             } catch (Exception e) {
-                log.error("Error on process deliverSm {} on method processDeliverSm", e.getMessage());
-                throw new RTException("Error on process deliverSm");
+                if (!running) {
+                    return;
+                }
+                log.error("Error consuming deliver_sm from {}: {}", streamKey, e.getMessage());
+                if (String.valueOf(e.getMessage()).startsWith("NOGROUP")) {
+                    createStreamGroup();
+                }
+                sleepAfterError();
             }
+        }
+    }
+
+    private void processStreamEntries(List<StreamEntry> entries) {
+        if (Objects.isNull(entries) || entries.isEmpty()) {
+            return;
+        }
+        redisCounterPerSecond.getAndAdd(entries.size());
+        String field = appProperties.getDeliverSmStreamField();
+        List<Routed<StreamEntry>> routedEntries = routeBatch(entries, entry -> entry.getFields().get(field));
+        Set<StreamEntryID> toSend = new HashSet<>();
+        routedEntries.forEach(routed -> toSend.add(routed.item().getID()));
+        List<StreamEntryID> handled = Collections.synchronizedList(new ArrayList<>(entries.size()));
+        // requeued or moved to the dead letter list
+        entries.stream().map(StreamEntry::getID).filter(id -> !toSend.contains(id)).forEach(handled::add);
+        List<CompletableFuture<Void>> outcomes = Collections.synchronizedList(new ArrayList<>(entries.size()));
+        // entries that fail are left pending, they are reclaimed once they exceed the claim idle time
+        Flux.fromIterable(routedEntries)
+                .parallel(Math.max(1, appProperties.getDeliverSmWorkers()))
+                .runOn(Schedulers.parallel())
+                .flatMap(routed -> Flux.<Void>defer(() -> {
+                    CompletableFuture<Boolean> delivered = deliverSm(routed.deliverSmRaw(), routed.networkId(), routed.spSession(), 0);
+                    outcomes.add(delivered.thenAccept(ok -> {
+                        if (Boolean.TRUE.equals(ok)) {
+                            handled.add(routed.item().getID());
+                        }
+                    }));
+                    return Flux.empty();
+                }).onErrorResume(e -> Flux.empty()))
+                .sequential()
+                .blockLast();
+
+        // acknowledged once every deliver_sm of the batch has an outcome, without holding the worker
+        CompletableFuture.allOf(outcomes.toArray(CompletableFuture[]::new)).whenComplete((result, throwable) -> {
+            try {
+                acknowledge(handled);
+            } catch (Exception e) {
+                log.error("Error acknowledging {} deliver_sm on {}: {}", handled.size(), appProperties.getDeliverSmStreamKey(), e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Acknowledges and deletes the entries, once handled they are not read by any consumer again.
+     */
+    private void acknowledge(List<StreamEntryID> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        StreamEntryID[] entryIds = ids.toArray(StreamEntryID[]::new);
+        jedisCluster.xack(appProperties.getDeliverSmStreamKey(), appProperties.getDeliverSmStreamGroup(), entryIds);
+        jedisCluster.xdel(appProperties.getDeliverSmStreamKey(), entryIds);
+    }
+
+    private Map<StreamEntryID, Long> deliveriesOf(List<StreamEntry> entries) {
+        StreamEntryID first = entries.stream().map(StreamEntry::getID).min(Comparator.naturalOrder()).orElseThrow();
+        StreamEntryID last = entries.stream().map(StreamEntry::getID).max(Comparator.naturalOrder()).orElseThrow();
+        List<StreamPendingEntry> pendingEntries = jedisCluster.xpending(appProperties.getDeliverSmStreamKey(),
+                appProperties.getDeliverSmStreamGroup(),
+                new XPendingParams(first, last, entries.size()).consumer(appProperties.getInstanceName()));
+        Map<StreamEntryID, Long> deliveries = new HashMap<>();
+        if (Objects.nonNull(pendingEntries)) {
+            pendingEntries.forEach(pending -> deliveries.put(pending.getID(), pending.getDeliveredTimes()));
+        }
+        return deliveries;
+    }
+
+    private void waitForCapacity() throws InterruptedException {
+        deliverSmDispatcher.awaitCapacity(1000);
+    }
+
+    private static void sleepAfterError() {
+        try {
+            Thread.sleep(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Flux<Void> processDeliverSm(Routed<?> routed) {
+        return Flux.defer(() -> {
+            deliverSm(routed.deliverSmRaw(), routed.networkId(), routed.spSession(), 0);
+            return Flux.empty();
         });
     }
+
+    /**
+     * Routing pre-pass of a batch, only the route of each deliver_sm is read. The ones for service providers without
+     * binds in this instance are pushed as they were popped to the network queue, when another instance holds binds of
+     * the service provider, or to its pending list, with one push per list and all of them in a single pipeline.
+     * The ones whose route can not be read are moved to the dead letter list.
+     *
+     * @return the deliver_sm to send, followed by the ones to requeue one by one when the pipeline failed
+     */
+    private <T> List<Routed<T>> routeBatch(List<T> batch, Function<T, String> rawOf) {
+        List<Routed<T>> routed = new ArrayList<>(batch.size());
+        List<Routed<T>> unbound = new ArrayList<>();
+        Map<String, List<String>> requeued = new LinkedHashMap<>();
+        for (T item : batch) {
+            String deliverSmRaw = rawOf.apply(item);
+            MessageEventCodec.Route route = MessageEventCodec.peek(deliverSmRaw);
+            if (Objects.isNull(route)) {
+                deadLetterInvalid(deliverSmRaw);
+                continue;
+            }
+            int networkId = route.destNetworkId();
+            SpSession spSession = spSessionMap.get(networkId);
+            if (Objects.nonNull(spSession) && !isUnbound(spSession)) {
+                routed.add(new Routed<>(item, deliverSmRaw, networkId, spSession));
+                continue;
+            }
+            unbound.add(new Routed<>(item, deliverSmRaw, networkId, null));
+            String key = deliverSmRouter.isHeldByOther(networkId) ? deliverSmRouter.networkQueue(networkId) : PendingDeliverSmStore.key(networkId);
+            requeued.computeIfAbsent(key, k -> new ArrayList<>()).add(deliverSmRaw);
+        }
+        if (requeued.isEmpty()) {
+            return routed;
+        }
+
+        try (ClusterPipeline pipeline = jedisCluster.pipelined()) {
+            requeued.forEach((key, deliverSmRawList) -> pipeline.lpush(key, deliverSmRawList.toArray(String[]::new)));
+            pipeline.sync();
+            log.warn("{} deliver_sm for service providers without binds in this instance requeued to {}", unbound.size(), requeued.keySet());
+        } catch (Exception e) {
+            log.error("Error requeuing {} deliver_sm: {}", unbound.size(), e.getMessage());
+            routed.addAll(unbound);
+        }
+        return routed;
+    }
+
+    private void deadLetterInvalid(String deliverSmRaw) {
+        try {
+            deliverSmRetryQueue.deadLetterInvalid(deliverSmRaw);
+        } catch (Exception e) {
+            log.error("Error moving the invalid deliver_sm {} to the dead letter list: {}", deliverSmRaw, e.getMessage());
+        }
+    }
+
+    // a service provider whose binds can not be read is left to the dispatcher
+    private static boolean isUnbound(SpSession spSession) {
+        try {
+            return spSession.getCurrentSmppSessions().isEmpty();
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param attempt number of retries of the deliver_sm, 0 when it comes from the queue
+     * @return completed with false when the retry could not be scheduled, with true when it was sent, failed with its
+     * FAILED CDR written, scheduled for retry, moved to the pending list of the service provider or to the dead letter
+     * list because it is not valid
+     */
+    private CompletableFuture<Boolean> deliverSm(String deliverSmRaw, int attempt) {
+        // only the route is read until the deliver_sm can be sent from this instance
+        MessageEventCodec.Route route = MessageEventCodec.peek(deliverSmRaw);
+        if (Objects.isNull(route)) {
+            deadLetterInvalid(deliverSmRaw);
+            return CompletableFuture.completedFuture(true);
+        }
+        return deliverSm(deliverSmRaw, route.destNetworkId(), spSessionMap.get(route.destNetworkId()), attempt);
+    }
+
+    /**
+     * @param spSession session of the service provider, null when it has none in this instance
+     */
+    private CompletableFuture<Boolean> deliverSm(String deliverSmRaw, int networkId, SpSession spSession, int attempt) {
+        try {
+            log.debug("Processing deliver_sm {}", deliverSmRaw);
+            if (Objects.isNull(spSession)) {
+                if (!deliverSmRouter.forward(networkId, deliverSmRaw)) {
+                    log.warn("No session found for service provider with network id {}, putting deliver_sm in queue for later processing", networkId);
+                    pendingDeliverSmStore.add(networkId, deliverSmRaw);
+                }
+                return CompletableFuture.completedFuture(true);
+            }
+
+            MessageEvent deliverSmEvent = PayloadFormat.decode(deliverSmRaw);
+            if (Objects.isNull(deliverSmEvent)) {
+                return CompletableFuture.completedFuture(true);
+            }
+
+            return deliverSmDispatcher.dispatch(networkId, spSession, deliverSmEvent).thenApply(result -> {
+                if (result == DeliverSmResult.NO_SESSION) {
+                    if (!deliverSmRouter.forward(networkId, deliverSmRaw)) {
+                        pendingDeliverSmStore.add(networkId, deliverSmRaw);
+                        log.warn("No active session to send deliver_sm with id {}", deliverSmEvent.getId());
+                    }
+                    return true;
+                }
+                deliverSmCounterPerSecond.getAndIncrement();
+                if (result == DeliverSmResult.SENT) {
+                    deliverSmRetryQueue.onSent(networkId);
+                    return true;
+                }
+                if (!result.isRetryable()) {
+                    // its FAILED CDR was written, handled so the stream does not reclaim it and write another one
+                    return true;
+                }
+                try {
+                    deliverSmRetryQueue.schedule(networkId, deliverSmEvent, deliverSmRaw, attempt + 1, result);
+                    return true;
+                } catch (Exception e) {
+                    log.error("Error scheduling the retry of deliver_sm with id {}: {}", deliverSmEvent.getId(), e.getMessage());
+                    return false;
+                }
+            });
+        } catch (Exception e) {
+            log.error("Error on process deliverSm {} on method processDeliverSm", e.getMessage());
+            throw new RTException("Error on process deliverSm");
+        }
+    }
 }
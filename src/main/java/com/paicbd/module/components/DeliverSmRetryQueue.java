@@ -0,0 +1,164 @@
+package com.paicbd.module.components;
+
+import com.paicbd.module.utils.AppProperties;
+import com.paicbd.module.utils.DeliverSmResult;
+import com.paicbd.smsc.cdr.CdrProcessor;
+import com.paicbd.smsc.dto.MessageEvent;
+import com.paicbd.smsc.utils.UtilsEnum;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import redis.clients.jedis.JedisCluster;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Delayed retries of the deliver_sm the service provider throttled or did not answer in time.
+ * <p>
+ * The retries are kept in the sorted set {@code queue.consumer.retry.key} with the time they are due as score and
+ * members {@code attempt:token:deliverSm}, so they survive a restart and any instance can send them again. The random
+ * token keeps apart the retries of the same deliver_sm and attempt, which would otherwise share a member and a score. The delay doubles
+ * with every attempt from {@code queue.consumer.retry.baseDelayMillis} up to {@code queue.consumer.retry.maxDelayMillis},
+ * and while a service provider keeps throttling its retries are delayed as if they were on a later attempt.
+ * After {@code queue.consumer.retry.maxAttempts} the deliver_sm is moved to the dead letter list and its FAILED CDR is written.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class DeliverSmRetryQueue {
+    private static final String ATTEMPT_SEPARATOR = ":";
+    private static final int MAX_EXPONENT = 20;
+    // KEYS[1] retry key, ARGV[1] now, ARGV[2] max, removes and returns the due members so each one is claimed once
+    private static final String CLAIM_SCRIPT = """
+            local due = redis.call('ZRANGEBYSCORE', KEYS[1], 0, ARGV[1], 'LIMIT', 0, ARGV[2])
+            if #due > 0 then
+                redis.call('ZREM', KEYS[1], unpack(due))
+            end
+            return due
+            """;
+
+    private final ConcurrentMap<Integer, AtomicInteger> throttleLevels = new ConcurrentHashMap<>();
+
+    private final JedisCluster jedisCluster;
+    private final AppProperties appProperties;
+    private final CdrProcessor cdrProcessor;
+
+    public record Retry(int attempt, String deliverSmRaw) {
+    }
+
+    /**
+     * Schedules the next attempt of a deliver_sm that was not accepted.
+     *
+     * @param attempt number of the attempt being scheduled, the first retry is attempt 1
+     * @return true if the retry was scheduled, false if the attempts were exhausted and it was dead-lettered
+     */
+    public boolean schedule(int networkId, MessageEvent deliverSmEvent, String deliverSmRaw, int attempt, DeliverSmResult result) {
+        if (result == DeliverSmResult.THROTTLED) {
+            throttleLevels.computeIfAbsent(networkId, key -> new AtomicInteger())
+                    .updateAndGet(level -> Math.min(MAX_EXPONENT, level + 1));
+        }
+        if (attempt > appProperties.getDeliverSmRetryMaxAttempts()) {
+            deadLetter(deliverSmEvent, deliverSmRaw, attempt - 1, result);
+            return false;
+        }
+        long delay = delayOf(networkId, attempt);
+        jedisCluster.zadd(appProperties.getDeliverSmRetryKey(), (double) System.currentTimeMillis() + delay, memberOf(attempt, deliverSmRaw));
+        log.debug("deliver_sm with id {} {}, attempt {} scheduled in {} ms", deliverSmEvent.getId(), result, attempt, delay);
+        return true;
+    }
+
+    /**
+     * A deliver_sm accepted by the service provider ends its throttling back-off.
+     */
+    public void onSent(int networkId) {
+        AtomicInteger level = throttleLevels.get(networkId);
+        if (Objects.nonNull(level) && level.get() > 0) {
+            level.set(0);
+        }
+    }
+
+    /**
+     * Takes the retries that are due in a single script, each one is returned only to the instance that removed it from the sorted set.
+     */
+    public List<Retry> pollDue(int max) {
+        if (max <= 0) {
+            return List.of();
+        }
+        Object members = jedisCluster.eval(CLAIM_SCRIPT, List.of(appProperties.getDeliverSmRetryKey()),
+                List.of(String.valueOf(System.currentTimeMillis()), String.valueOf(max)));
+        if (!(members instanceof List<?> claimed) || claimed.isEmpty()) {
+            return List.of();
+        }
+        List<Retry> due = new ArrayList<>(claimed.size());
+        for (Object item : claimed) {
+            String member = item instanceof byte[] bytes ? SafeEncoder.encode(bytes) : String.valueOf(item);
+            try {
+                due.add(retryOf(member));
+            } catch (RuntimeException e) {
+                log.error("Discarding invalid deliver_sm retry {}", member);
+            }
+        }
+        return due;
+    }
+
+    private static String memberOf(int attempt, String deliverSmRaw) {
+        return attempt + ATTEMPT_SEPARATOR + UUID.randomUUID() + ATTEMPT_SEPARATOR + deliverSmRaw;
+    }
+
+    private static Retry retryOf(String member) {
+        int separator = member.indexOf(ATTEMPT_SEPARATOR);
+        int attempt = Integer.parseInt(member.substring(0, separator));
+        // members scheduled before the token was added are attempt:deliverSm, the deliver_sm is a JSON object
+        if (member.startsWith("{", separator + 1)) {
+            return new Retry(attempt, member.substring(separator + 1));
+        }
+        int tokenEnd = member.indexOf(ATTEMPT_SEPARATOR, separator + 1);
+        if (tokenEnd < 0) {
+            throw new IllegalArgumentException("retry without token");
+        }
+        return new Retry(attempt, member.substring(tokenEnd + 1));
+    }
+
+    long delayOf(int networkId, int attempt) {
+        AtomicInteger level = throttleLevels.get(networkId);
+        int exponent = Math.max(attempt - 1, Objects.isNull(level) ? 0 : level.get());
+        long baseDelay = Math.max(1, appProperties.getDeliverSmRetryBaseDelayMillis());
+        long maxDelay = Math.max(baseDelay, appProperties.getDeliverSmRetryMaxDelayMillis());
+        long delay = Math.min(maxDelay, baseDelay << Math.min(MAX_EXPONENT, exponent));
+        // jitter so the retries of a service provider do not arrive all at once
+        return delay + ThreadLocalRandom.current().nextLong(delay / 10 + 1);
+    }
+
+    /**
+     * Moves to the dead letter list a deliver_sm that can not be decoded, without an event there is no CDR to write.
+     */
+    public void deadLetterInvalid(int networkId, String deliverSmRaw) {
+        log.error("Invalid deliver_sm for networkId {}, moving it to {}: {}", networkId, appProperties.getDeliverSmDeadLetterQueue(), deliverSmRaw);
+        jedisCluster.lpush(appProperties.getDeliverSmDeadLetterQueue(), deliverSmRaw);
+    }
+
+    /**
+     * Moves to the dead letter list a deliver_sm whose route can not be read, it does not belong to any service provider.
+     */
+    public void deadLetterInvalid(String deliverSmRaw) {
+        log.error("Invalid deliver_sm without route, moving it to {}: {}", appProperties.getDeliverSmDeadLetterQueue(), deliverSmRaw);
+        jedisCluster.lpush(appProperties.getDeliverSmDeadLetterQueue(), deliverSmRaw);
+    }
+
+    private void deadLetter(MessageEvent deliverSmEvent, String deliverSmRaw, int attempts, DeliverSmResult result) {
+        log.error("deliver_sm with id {} {} after {} retries, moving it to {}", deliverSmEvent.getId(), result, attempts,
+                appProperties.getDeliverSmDeadLetterQueue());
+        jedisCluster.lpush(appProperties.getDeliverSmDeadLetterQueue(), deliverSmRaw);
+        cdrProcessor.putCdrDetailOnRedis(deliverSmEvent.toCdrDetail(UtilsEnum.Module.SMPP_SERVER, UtilsEnum.MessageType.DELIVER,
+                UtilsEnum.CdrStatus.FAILED, "DELIVER_SM " + result + " AFTER " + attempts + " RETRIES"));
+        cdrProcessor.createCdr(deliverSmEvent.getMessageId());
+    }
+}
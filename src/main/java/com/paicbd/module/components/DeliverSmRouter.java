@@ -0,0 +1,299 @@
+package com.paicbd.module.components;
+
+import com.paicbd.module.utils.AppProperties;
+import com.paicbd.module.utils.SpSession;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import redis.clients.jedis.JedisCluster;
+import redis.clients.jedis.params.ScanParams;
+import redis.clients.jedis.resps.ScanResult;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Routes the deliver_sm to the instances holding binds of their service provider.
+ * <p>
+ * Every {@code queue.consumer.routing.advertiseIntervalMillis} each instance advertises in the routes hash
+ * the networkIds it holds binds for, as fields {@code networkId|instanceName} with the time the advertisement expires,
+ * and refreshes its copy of the routes advertised by all the instances. The deliver_sm of a networkId are pushed by the
+ * producers to the network queue {@code {deliverSmQueue}:networkId} and the instances consume only the network queues
+ * of the networkIds they hold binds for. A deliver_sm popped from the global queue for a service provider bound to another
+ * instance is forwarded to the network queue instead of the pending list. The hash tag keeps the network queues in the
+ * slot of the global queue, so the network queues of an instance are popped with a single script.
+ * <p>
+ * When this instance releases the binds of a networkId that no other instance holds, its network queue is moved back to
+ * the global queue during the ttl of the routes, so the deliver_sm forwarded meanwhile reach the pending list. With
+ * routing disabled the network queues left by a previous run are moved back to the global queue once.
+ * <p>
+ * Routing is disabled with the consumer mode {@code STREAM}, whose workers only read the stream and would never consume
+ * the network queues.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class DeliverSmRouter {
+    private static final String FIELD_SEPARATOR = "|";
+    // KEYS network queues, ARGV[1] count, pops from each queue in order until count items are popped
+    private static final String POP_SCRIPT = """
+            local count = tonumber(ARGV[1])
+            local popped = {}
+            for _, key in ipairs(KEYS) do
+                local items = redis.call('LPOP', key, count - #popped)
+                if items then
+                    for _, item in ipairs(items) do
+                        popped[#popped + 1] = item
+                    end
+                    if #popped >= count then
+                        break
+                    end
+                end
+            end
+            return popped
+            """;
+    // KEYS[1] network queue, KEYS[2] global queue
+    private static final String DRAIN_SCRIPT = """
+            local moved = 0
+            local items = redis.call('LPOP', KEYS[1], 1000)
+            while items do
+                redis.call('LPUSH', KEYS[2], unpack(items))
+                moved = moved + #items
+                items = redis.call('LPOP', KEYS[1], 1000)
+            end
+            return moved
+            """;
+
+    private final Set<Integer> advertised = new HashSet<>();
+    // networkIds whose binds this instance released, with the time their network queue stops being drained
+    private final Map<Integer, Long> released = new HashMap<>();
+
+    private final JedisCluster jedisCluster;
+    private final AppProperties appProperties;
+    private final ConcurrentMap<Integer, SpSession> spSessionMap;
+
+    private volatile Map<Integer, Set<String>> routes = Map.of();
+    private boolean networkQueuesDrained;
+
+    public boolean isEnabled() {
+        return appProperties.isDeliverSmRoutingEnabled() && !isStreamMode();
+    }
+
+    @PostConstruct
+    void warnIfDisabledByStreamMode() {
+        if (appProperties.isDeliverSmRoutingEnabled() && isStreamMode()) {
+            log.warn("Deliver_sm routing is ignored with consumer mode {}, the deliver_sm of service providers without binds in this instance are kept in their pending lists",
+                    DeliverSmQueueConsumer.MODE_STREAM);
+        }
+    }
+
+    private boolean isStreamMode() {
+        return DeliverSmQueueConsumer.MODE_STREAM.equalsIgnoreCase(appProperties.getDeliverSmConsumerMode());
+    }
+
+    @Scheduled(fixedRateString = "${queue.consumer.routing.advertiseIntervalMillis:5000}")
+    public synchronized void advertise() {
+        if (!isEnabled()) {
+            drainNetworkQueuesOnce();
+            return;
+        }
+        String hash = appProperties.getDeliverSmRoutingHash();
+        long now = System.currentTimeMillis();
+        try {
+            Set<Integer> held = heldNetworkIds();
+            long ttl = appProperties.getDeliverSmRoutingTtlMillis();
+            if (!held.isEmpty()) {
+                String expiresAt = String.valueOf(now + ttl);
+                Map<String, String> fields = new HashMap<>();
+                held.forEach(networkId -> fields.put(fieldOf(networkId, appProperties.getInstanceName()), expiresAt));
+                jedisCluster.hset(hash, fields);
+            }
+            String[] withdrawn = advertised.stream()
+                    .filter(networkId -> !held.contains(networkId))
+                    .map(networkId -> fieldOf(networkId, appProperties.getInstanceName()))
+                    .toArray(String[]::new);
+            if (withdrawn.length > 0) {
+                jedisCluster.hdel(hash, withdrawn);
+            }
+            advertised.stream().filter(networkId -> !held.contains(networkId)).forEach(networkId -> released.put(networkId, now + ttl));
+            held.forEach(released::remove);
+            advertised.clear();
+            advertised.addAll(held);
+
+            this.routes = readRoutes(hash, now);
+            drainReleased(now);
+        } catch (Exception e) {
+            log.error("Error advertising the deliver_sm routes on {}: {}", hash, e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public synchronized void withdraw() {
+        if (!isEnabled() || advertised.isEmpty()) {
+            return;
+        }
+        try {
+            jedisCluster.hdel(appProperties.getDeliverSmRoutingHash(), advertised.stream()
+                    .map(networkId -> fieldOf(networkId, appProperties.getInstanceName()))
+                    .toArray(String[]::new));
+            // the binds are closed with the instance
+            advertised.stream()
+                    .filter(networkId -> !isHeldByOther(networkId))
+                    .forEach(networkId -> drain(networkQueue(networkId)));
+            advertised.clear();
+        } catch (Exception e) {
+            log.error("Error withdrawing the deliver_sm routes: {}", e.getMessage());
+        }
+    }
+
+    public String networkQueue(int networkId) {
+        return "{" + appProperties.getDeliverSmQueue() + "}:" + networkId;
+    }
+
+    /**
+     * @return network queues of the service providers with binds in this instance, empty when routing is disabled
+     */
+    public List<String> localQueues() {
+        if (!isEnabled()) {
+            return List.of();
+        }
+        List<String> queues = new ArrayList<>();
+        heldNetworkIds().forEach(networkId -> queues.add(networkQueue(networkId)));
+        return queues;
+    }
+
+    /**
+     * Pops up to count deliver_sm from the network queues of the service providers with binds in this instance,
+     * in a single round trip.
+     *
+     * @return the deliver_sm popped, empty when there are none or routing is disabled
+     */
+    public List<String> popLocal(int count) {
+        List<String> queues = localQueues();
+        if (queues.isEmpty() || count <= 0) {
+            return List.of();
+        }
+        if (queues.size() == 1) {
+            List<String> popped = jedisCluster.lpop(queues.getFirst(), count);
+            return Objects.isNull(popped) ? List.of() : popped;
+        }
+        Object popped = jedisCluster.eval(POP_SCRIPT, queues, List.of(String.valueOf(count)));
+        if (!(popped instanceof List<?> items)) {
+            return List.of();
+        }
+        List<String> deliverSmRawList = new ArrayList<>(items.size());
+        items.forEach(item -> deliverSmRawList.add(item instanceof byte[] bytes ? SafeEncoder.encode(bytes) : String.valueOf(item)));
+        return deliverSmRawList;
+    }
+
+    /**
+     * Forwards the deliver_sm to the network queue when another instance holds binds of the service provider.
+     *
+     * @return true if the deliver_sm was forwarded
+     */
+    public boolean forward(int networkId, String deliverSmRaw) {
+        if (!isHeldByOther(networkId)) {
+            return false;
+        }
+        jedisCluster.lpush(networkQueue(networkId), deliverSmRaw);
+        return true;
+    }
+
+    /**
+     * @return true if routing is enabled and another instance holds binds of the service provider
+     */
+    public boolean isHeldByOther(int networkId) {
+        if (!isEnabled()) {
+            return false;
+        }
+        Set<String> instances = routes.getOrDefault(networkId, Set.of());
+        return instances.stream().anyMatch(instance -> !instance.equals(appProperties.getInstanceName()));
+    }
+
+    Map<Integer, Set<String>> getRoutes() {
+        return routes;
+    }
+
+    private Set<Integer> heldNetworkIds() {
+        Set<Integer> held = new HashSet<>();
+        spSessionMap.forEach((networkId, spSession) -> {
+            if (!spSession.getCurrentSmppSessions().isEmpty()) {
+                held.add(networkId);
+            }
+        });
+        return held;
+    }
+
+    private void drainReleased(long now) {
+        released.values().removeIf(until -> until < now);
+        released.keySet().stream()
+                .filter(networkId -> !isHeldByOther(networkId))
+                .forEach(networkId -> drain(networkQueue(networkId)));
+    }
+
+    private void drainNetworkQueuesOnce() {
+        if (networkQueuesDrained || isStreamMode()) {
+            return;
+        }
+        try {
+            ScanParams params = new ScanParams().match("{" + appProperties.getDeliverSmQueue() + "}:*").count(1000);
+            String cursor = ScanParams.SCAN_POINTER_START;
+            do {
+                ScanResult<String> scan = jedisCluster.scan(cursor, params);
+                scan.getResult().forEach(this::drain);
+                cursor = scan.getCursor();
+            } while (!ScanParams.SCAN_POINTER_START.equals(cursor));
+            networkQueuesDrained = true;
+        } catch (Exception e) {
+            log.error("Error moving the network queues back to {}: {}", appProperties.getDeliverSmQueue(), e.getMessage());
+        }
+    }
+
+    private void drain(String networkQueue) {
+        Object moved = jedisCluster.eval(DRAIN_SCRIPT, List.of(networkQueue, appProperties.getDeliverSmQueue()), List.of());
+        if (moved instanceof Long count && count > 0) {
+            log.warn("{} deliver_sm moved from {} back to {}", count, networkQueue, appProperties.getDeliverSmQueue());
+        }
+    }
+
+    private Map<Integer, Set<String>> readRoutes(String hash, long now) {
+        Map<String, String> fields = jedisCluster.hgetAll(hash);
+        if (Objects.isNull(fields)) {
+            return Map.of();
+        }
+        Map<Integer, Set<String>> current = new HashMap<>();
+        List<String> expired = new ArrayList<>();
+        fields.forEach((field, expiresAt) -> {
+            int separator = field.indexOf(FIELD_SEPARATOR);
+            try {
+                if (separator < 0 || Long.parseLong(expiresAt) < now) {
+                    expired.add(field);
+                    return;
+                }
+                current.computeIfAbsent(Integer.parseInt(field.substring(0, separator)), k -> new HashSet<>())
+                        .add(field.substring(separator + 1));
+            } catch (NumberFormatException e) {
+                expired.add(field);
+            }
+        });
+        // advertisements of instances that stopped without withdrawing them
+        if (!expired.isEmpty()) {
+            jedisCluster.hdel(hash, expired.toArray(String[]::new));
+        }
+        return current;
+    }
+
+    private static String fieldOf(int networkId, String instanceName) {
+        return networkId + FIELD_SEPARATOR + instanceName;
+    }
+}
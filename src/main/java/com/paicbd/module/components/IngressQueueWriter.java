@@ -0,0 +1,179 @@
+package com.paicbd.module.components;
+
+import com.paicbd.module.utils.AppProperties;
+import com.paicbd.module.utils.PayloadFormat;
+import com.paicbd.smsc.cdr.CdrProcessor;
+import com.paicbd.smsc.dto.MessageEvent;
+import com.paicbd.smsc.utils.UtilsEnum;
+import com.paicbd.smsc.utils.Watcher;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import redis.clients.jedis.JedisCluster;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Write-behind stage for the submit_sm ingress path.
+ * <p>
+ * Accepted events are queued in a bounded buffer and flushed by a small set of workers, each flush groups
+ * up to {@code smpp.server.ingress.batchSize} events in a single multi-value LPUSH over the preMessage list,
+ * waiting at most {@code smpp.server.ingress.maxBatchDelayMicros} for a batch to fill.
+ * With ack mode AFTER_FLUSH the submit_sm_resp is sent once the flush completes, with IMMEDIATE it is sent
+ * as soon as the event is buffered.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class IngressQueueWriter {
+    public static final String ACK_AFTER_FLUSH = "AFTER_FLUSH";
+    public static final String ACK_IMMEDIATE = "IMMEDIATE";
+
+    private final AtomicInteger flushedCounterPerSecond = new AtomicInteger(0);
+
+    private final JedisCluster jedisCluster;
+    private final CdrProcessor cdrProcessor;
+    private final AppProperties appProperties;
+
+    private BlockingQueue<PendingEvent> buffer;
+    private PayloadFormat payloadFormat;
+    private List<Thread> flushWorkers;
+    private volatile boolean running;
+
+    private record PendingEvent(MessageEvent event, String cdrComment, CompletableFuture<Void> flushed) {
+    }
+
+    @PostConstruct
+    public void init() {
+        int workers = Math.max(1, appProperties.getIngressFlushWorkers());
+        this.buffer = new ArrayBlockingQueue<>(Math.max(1, appProperties.getIngressQueueCapacity()));
+        this.payloadFormat = PayloadFormat.fromValue(appProperties.getPayloadFormat());
+        this.running = true;
+        this.flushWorkers = new ArrayList<>(workers);
+        for (int i = 0; i < workers; i++) {
+            flushWorkers.add(Thread.ofVirtual().name("ingress_flush-" + i).start(this::flushLoop));
+        }
+        Thread.startVirtualThread(() -> new Watcher("IngressWatcher", flushedCounterPerSecond, 1));
+        log.warn("Starting IngressQueueWriter with {} workers, batchSize {}, maxBatchDelay {}us, ackMode {}, payloadFormat {}",
+                workers, appProperties.getIngressBatchSize(), appProperties.getIngressMaxBatchDelayMicros(),
+                appProperties.getIngressAckMode(), payloadFormat);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        this.running = false;
+        for (Thread worker : flushWorkers) {
+            try {
+                worker.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                log.warn("Interrupted while draining the ingress buffer: {}", e.getMessage());
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Buffers the event to be pushed to the preMessage list.
+     *
+     * @param submitSmEvent event to push
+     * @param cdrComment    comment of the RECEIVED CDR written after the push
+     * @return future completed once the event was written to Redis
+     * @throws RejectedExecutionException if the buffer is full
+     */
+    public CompletableFuture<Void> enqueue(MessageEvent submitSmEvent, String cdrComment) {
+        var pendingEvent = new PendingEvent(submitSmEvent, cdrComment, new CompletableFuture<>());
+        if (!running || !buffer.offer(pendingEvent)) {
+            throw new RejectedExecutionException("Ingress buffer is full");
+        }
+        return pendingEvent.flushed();
+    }
+
+    public boolean isAckAfterFlush() {
+        return !ACK_IMMEDIATE.equalsIgnoreCase(appProperties.getIngressAckMode());
+    }
+
+    public int getPendingEvents() {
+        return buffer.size();
+    }
+
+    private void flushLoop() {
+        int batchSize = Math.max(1, appProperties.getIngressBatchSize());
+        long maxBatchDelayNanos = TimeUnit.MICROSECONDS.toNanos(Math.max(0, appProperties.getIngressMaxBatchDelayMicros()));
+        List<PendingEvent> batch = new ArrayList<>(batchSize);
+
+        while (running || !buffer.isEmpty()) {
+            try {
+                PendingEvent first = buffer.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                fillBatch(batch, batchSize, System.nanoTime() + maxBatchDelayNanos);
+                flush(batch);
+            } catch (InterruptedException e) {
+                log.warn("Ingress flush worker interrupted: {}", e.getMessage());
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void fillBatch(List<PendingEvent> batch, int batchSize, long deadline) throws InterruptedException {
+        while (batch.size() < batchSize) {
+            buffer.drainTo(batch, batchSize - batch.size());
+            long remaining = deadline - System.nanoTime();
+            if (batch.size() >= batchSize || remaining <= 0) {
+                return;
+            }
+            PendingEvent next = buffer.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+        }
+    }
+
+    private void flush(List<PendingEvent> batch) {
+        try {
+            if (payloadFormat == PayloadFormat.JSON) {
+                String[] payloads = new String[batch.size()];
+                for (int i = 0; i < batch.size(); i++) {
+                    payloads[i] = batch.get(i).event().toString();
+                }
+                jedisCluster.lpush(appProperties.getPreMessageList(), payloads);
+            } else {
+                // binary payloads, the String commands would encode them as UTF-8
+                byte[][] payloads = new byte[batch.size()][];
+                for (int i = 0; i < batch.size(); i++) {
+                    payloads[i] = payloadFormat.encode(batch.get(i).event());
+                }
+                jedisCluster.lpush(SafeEncoder.encode(appProperties.getPreMessageList()), payloads);
+            }
+        } catch (Exception e) {
+            log.error("Error pushing {} events to {}: {}", batch.size(), appProperties.getPreMessageList(), e.getMessage());
+            batch.forEach(pendingEvent -> pendingEvent.flushed().completeExceptionally(e));
+            return;
+        }
+
+        batch.forEach(pendingEvent -> pendingEvent.flushed().complete(null));
+        // CdrProcessor writes one detail per call under keys it owns, there is no batch write to group them in
+        for (PendingEvent pendingEvent : batch) {
+            cdrProcessor.putCdrDetailOnRedis(
+                    pendingEvent.event().toCdrDetail(UtilsEnum.Module.SMPP_SERVER, UtilsEnum.MessageType.MESSAGE, UtilsEnum.CdrStatus.RECEIVED, pendingEvent.cdrComment()));
+        }
+        flushedCounterPerSecond.getAndAdd(batch.size());
+    }
+}
@@ -0,0 +1,238 @@
+package com.paicbd.module.components;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.paicbd.module.utils.AppProperties;
+import com.paicbd.smsc.dto.MessageEvent;
+import com.paicbd.smsc.dto.MessagePart;
+import com.paicbd.smsc.utils.Converter;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import redis.clients.jedis.JedisCluster;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persistence of the multipart reassemblies in the messageParts hash.
+ * <p>
+ * With mode {@code FULL} the parent, including every part received so far, is written on each segment.
+ * With mode {@code INCREMENTAL} the parent is written once and each segment appends only its own part in a
+ * field {@code key#sequence}, the writes are queued and flushed in batches by a single worker.
+ * Incremental fields are prefixed with the instance name, so on restart every instance recovers its own reassemblies.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class MultipartPartsWriter {
+    public static final String MODE_FULL = "FULL";
+    public static final String MODE_INCREMENTAL = "INCREMENTAL";
+    private static final String PART_SEPARATOR = "#";
+    private static final ObjectMapper objectMapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private final BlockingQueue<PendingWrite> pendingWrites = new LinkedBlockingQueue<>();
+
+    private final JedisCluster jedisCluster;
+    private final AppProperties appProperties;
+
+    private Thread flushWorker;
+    private volatile boolean running;
+
+    /**
+     * @param value value of the field, null to delete it
+     */
+    private record PendingWrite(String field, String value) {
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!isIncremental()) {
+            return;
+        }
+        this.running = true;
+        this.flushWorker = Thread.ofVirtual().name("multipart_flush").start(this::flushLoop);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        this.running = false;
+        if (Objects.isNull(flushWorker)) {
+            return;
+        }
+        try {
+            flushWorker.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            log.warn("Interrupted while flushing the multipart writes: {}", e.getMessage());
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public boolean isIncremental() {
+        return MODE_INCREMENTAL.equalsIgnoreCase(appProperties.getMultipartPersistenceMode());
+    }
+
+    /**
+     * Writes the parent with all its parts, used by mode FULL.
+     */
+    public void writeFull(String key, String parentJson) {
+        jedisCluster.hset(appProperties.getMessagePartsHash(), key, parentJson);
+    }
+
+    /**
+     * Queues the part and, for the first segment, the parent serialized without parts. Used by mode INCREMENTAL.
+     *
+     * @param parentJson parent of the reassembly, null when it was already written
+     */
+    public void append(String key, String parentJson, MessagePart messagePart) {
+        try {
+            if (Objects.nonNull(parentJson)) {
+                pendingWrites.add(new PendingWrite(fieldOf(key), parentJson));
+            }
+            pendingWrites.add(new PendingWrite(fieldOf(key) + PART_SEPARATOR + messagePart.getSegmentSequence(),
+                    objectMapper.writeValueAsString(messagePart)));
+        } catch (JsonProcessingException e) {
+            log.error("Error serializing the part {} of {}: {}", messagePart.getSegmentSequence(), key, e.getMessage());
+        }
+    }
+
+    public void remove(String key, int totalSegments) {
+        if (!isIncremental()) {
+            jedisCluster.hdel(appProperties.getMessagePartsHash(), key);
+            return;
+        }
+        pendingWrites.add(new PendingWrite(fieldOf(key), null));
+        for (int sequence = 1; sequence <= totalSegments; sequence++) {
+            pendingWrites.add(new PendingWrite(fieldOf(key) + PART_SEPARATOR + sequence, null));
+        }
+    }
+
+    /**
+     * Reads the reassemblies written in mode INCREMENTAL by this instance.
+     *
+     * @return parents with their parts sorted by sequence, by reassembly key
+     */
+    public Map<String, MessageEvent> recover() {
+        Map<String, String> fields = jedisCluster.hgetAll(appProperties.getMessagePartsHash());
+        if (Objects.isNull(fields) || fields.isEmpty()) {
+            return Map.of();
+        }
+
+        String prefix = fieldOf("");
+        Map<String, MessageEvent> parents = new HashMap<>();
+        Map<String, List<MessagePart>> parts = new HashMap<>();
+        fields.forEach((field, value) -> {
+            if (!field.startsWith(prefix)) {
+                return;
+            }
+            String name = field.substring(prefix.length());
+            int separator = name.lastIndexOf(PART_SEPARATOR);
+            if (separator < 0) {
+                parents.put(name, Converter.stringToObject(value, MessageEvent.class));
+            } else {
+                parts.computeIfAbsent(name.substring(0, separator), k -> new ArrayList<>())
+                        .add(readPart(field, value));
+            }
+        });
+
+        parents.entrySet().removeIf(entry -> {
+            List<MessagePart> messageParts = parts.get(entry.getKey());
+            if (Objects.isNull(entry.getValue()) || Objects.isNull(messageParts)) {
+                return true;
+            }
+            messageParts.removeIf(Objects::isNull);
+            messageParts.sort(Comparator.comparingInt(MessagePart::getSegmentSequence));
+            entry.getValue().setMessageParts(messageParts);
+            return messageParts.isEmpty();
+        });
+
+        // fields of a parent without parts or of parts without parent can not be completed anymore
+        String[] discarded = fields.keySet().stream()
+                .filter(field -> field.startsWith(prefix))
+                .filter(field -> {
+                    String name = field.substring(prefix.length());
+                    int separator = name.lastIndexOf(PART_SEPARATOR);
+                    return !parents.containsKey(separator < 0 ? name : name.substring(0, separator));
+                })
+                .toArray(String[]::new);
+        if (discarded.length > 0) {
+            log.warn("Discarding {} multipart fields of incomplete reassemblies", discarded.length);
+            jedisCluster.hdel(appProperties.getMessagePartsHash(), discarded);
+        }
+        return parents;
+    }
+
+    private static MessagePart readPart(String field, String value) {
+        try {
+            return objectMapper.readValue(value, MessagePart.class);
+        } catch (JsonProcessingException e) {
+            log.error("Error parsing the multipart field {}: {}", field, e.getMessage());
+            return null;
+        }
+    }
+
+    private String fieldOf(String key) {
+        return appProperties.getInstanceName() + "|" + key;
+    }
+
+    private void flushLoop() {
+        int batchSize = Math.max(1, appProperties.getMultipartWriteBatchSize());
+        List<PendingWrite> batch = new ArrayList<>(batchSize);
+        while (running || !pendingWrites.isEmpty()) {
+            try {
+                PendingWrite first = pendingWrites.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                pendingWrites.drainTo(batch, batchSize - 1);
+                flush(batch);
+            } catch (InterruptedException e) {
+                log.warn("Multipart flush worker interrupted: {}", e.getMessage());
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<PendingWrite> batch) {
+        // the last write of each field wins, so a delete followed by a new reassembly with the same key keeps the new one
+        Map<String, String> values = new HashMap<>();
+        Set<String> deletes = new LinkedHashSet<>();
+        for (PendingWrite pendingWrite : batch) {
+            if (Objects.isNull(pendingWrite.value())) {
+                values.remove(pendingWrite.field());
+                deletes.add(pendingWrite.field());
+            } else {
+                deletes.remove(pendingWrite.field());
+                values.put(pendingWrite.field(), pendingWrite.value());
+            }
+        }
+
+        try {
+            if (!values.isEmpty()) {
+                jedisCluster.hset(appProperties.getMessagePartsHash(), values);
+            }
+            if (!deletes.isEmpty()) {
+                jedisCluster.hdel(appProperties.getMessagePartsHash(), deletes.toArray(String[]::new));
+            }
+        } catch (Exception e) {
+            log.error("Error writing {} multipart fields to {}: {}", batch.size(), appProperties.getMessagePartsHash(), e.getMessage());
+        }
+    }
+}
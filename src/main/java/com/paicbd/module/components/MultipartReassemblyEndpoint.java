@@ -0,0 +1,21 @@
+package com.paicbd.module.components;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+/**
+ * Actuator endpoint with the multipart reassemblies in progress and the completed, expired and evicted ones since startup.
+ */
+@Component
+@Endpoint(id = "multipart")
+@RequiredArgsConstructor
+public class MultipartReassemblyEndpoint {
+    private final MultipartReassemblyStore multipartReassemblyStore;
+
+    @ReadOperation
+    public MultipartReassemblyStore.Stats multipart() {
+        return multipartReassemblyStore.getStats();
+    }
+}
@@ -0,0 +1,403 @@
+package com.paicbd.module.components;
+
+import com.paicbd.module.utils.AppProperties;
+import com.paicbd.smsc.cdr.CdrProcessor;
+import com.paicbd.smsc.dto.MessageEvent;
+import com.paicbd.smsc.dto.MessagePart;
+import com.paicbd.smsc.utils.MessageIDGeneratorImpl;
+import com.paicbd.smsc.utils.UtilsEnum;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.jsmpp.util.MessageIDGenerator;
+import org.jsmpp.util.MessageId;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * In-memory reassembly of multipart submit_sm, shared by all the binds.
+ * <p>
+ * Every reassembly lives at most {@code smpp.server.multipart.ttlMillis}, deadlines are kept in a timing wheel
+ * with one slot per {@code smpp.server.multipart.tickMillis}, so expiring is proportional to the entries that are due.
+ * When more than {@code smpp.server.multipart.maxEntries} reassemblies are in progress the oldest one is evicted.
+ * Expired and evicted reassemblies are handled with the expiry policy, {@code DROP} writes a FAILED CDR and
+ * {@code FORWARD_PARTIAL} queues the parts received so far.
+ * <p>
+ * Every reassembly is persisted through the {@link MultipartPartsWriter}, in mode INCREMENTAL the reassemblies
+ * of this instance are recovered on startup with a new TTL. The writes and the removal of a reassembly are done
+ * while holding its key, so a write can not land after the removal.
+ * <p>
+ * A completed reassembly is kept until its message is queued, see {@link #release(String, Progress, boolean)}.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class MultipartReassemblyStore {
+    public static final String EXPIRY_DROP = "DROP";
+    public static final String EXPIRY_FORWARD_PARTIAL = "FORWARD_PARTIAL";
+
+    private final MessageIDGenerator messageIDGenerator = new MessageIDGeneratorImpl();
+    private final ConcurrentMap<String, Reassembly> reassemblies = new ConcurrentHashMap<>();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+
+    private final CdrProcessor cdrProcessor;
+    private final AppProperties appProperties;
+    private final IngressQueueWriter ingressQueueWriter;
+    private final MultipartPartsWriter multipartPartsWriter;
+
+    private List<Queue<Reassembly>> wheel;
+    private long tickMillis;
+    private long ttlTicks;
+    private int maxEntries;
+    private long lastTick;
+
+    /**
+     * State of a reassembly after adding a part.
+     *
+     * @param parent   parent event holding the parts received so far
+     * @param received number of distinct segments received
+     * @param complete true when this part completed the message, the reassembly is kept until it is released
+     */
+    public record Progress(MessageEvent parent, int received, boolean complete) {
+    }
+
+    public record Stats(int live, long completed, long expired, long evicted) {
+    }
+
+    private static final class Reassembly {
+        private final String key;
+        private final MessageEvent parent;
+        private final int totalSegments;
+        private final long expiryTick;
+        private final BitSet received = new BitSet();
+        // the message is being queued, set and read while holding the key
+        private boolean completing;
+
+        private Reassembly(String key, MessageEvent parent, int totalSegments, long expiryTick) {
+            this.key = key;
+            this.parent = parent;
+            this.totalSegments = totalSegments;
+            this.expiryTick = expiryTick;
+        }
+
+        private boolean add(MessagePart messagePart) {
+            int sequence = messagePart.getSegmentSequence();
+            if (sequence < 1 || sequence > totalSegments || received.get(sequence)) {
+                return false;
+            }
+            received.set(sequence);
+            if (Objects.isNull(parent.getMessageParts())) {
+                parent.setMessageParts(new ArrayList<>());
+            }
+            parent.getMessageParts().add(messagePart);
+            return true;
+        }
+
+        private boolean isComplete() {
+            return received.cardinality() == totalSegments;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        this.tickMillis = Math.max(1, appProperties.getMultipartTickMillis());
+        this.ttlTicks = Math.max(1, (appProperties.getMultipartTtlMillis() + tickMillis - 1) / tickMillis);
+        this.maxEntries = appProperties.getMultipartMaxEntries();
+        int slots = (int) Math.min(Integer.MAX_VALUE - 1, ttlTicks + 1);
+        this.wheel = new ArrayList<>(slots);
+        for (int i = 0; i < slots; i++) {
+            wheel.add(new ConcurrentLinkedQueue<>());
+        }
+        this.lastTick = currentTick();
+        log.warn("Starting MultipartReassemblyStore with ttl {}ms, tick {}ms, maxEntries {}, expiryPolicy {}, persistenceMode {}",
+                appProperties.getMultipartTtlMillis(), tickMillis, maxEntries, appProperties.getMultipartExpiryPolicy(),
+                appProperties.getMultipartPersistenceMode());
+        if (multipartPartsWriter.isIncremental()) {
+            this.recover();
+        }
+    }
+
+    private void recover() {
+        Map<String, MessageEvent> recovered;
+        try {
+            recovered = multipartPartsWriter.recover();
+        } catch (Exception e) {
+            log.error("Error recovering the multipart messages: {}", e.getMessage());
+            return;
+        }
+
+        long expiryTick = currentTick() + ttlTicks;
+        recovered.forEach((key, parent) -> {
+            try {
+                this.recover(key, parent, expiryTick);
+            } catch (Exception e) {
+                log.error("Error recovering the multipart message {}: {}", key, e.getMessage());
+            }
+        });
+        log.warn("Recovered {} multipart messages", recovered.size());
+    }
+
+    private void recover(String key, MessageEvent parent, long expiryTick) {
+        Reassembly reassembly = new Reassembly(key, parent, parent.getMessageParts().getFirst().getTotalSegment(), expiryTick);
+        List<MessagePart> messageParts = parent.getMessageParts();
+        parent.setMessageParts(new ArrayList<>());
+        messageParts.forEach(reassembly::add);
+        if (reassembly.isComplete()) {
+            this.forwardRecovered(reassembly);
+            return;
+        }
+        reassemblies.put(key, reassembly);
+        wheel.get(slotOf(expiryTick)).add(reassembly);
+    }
+
+    private void forwardRecovered(Reassembly reassembly) {
+        String cdrComment = String.format("MULTIPART MESSAGE RECEIVED %s OF %s", reassembly.totalSegments, reassembly.totalSegments);
+        try {
+            // the fields are kept until the message is stored, a failed write is recovered again on the next start
+            ingressQueueWriter.enqueue(reassembly.parent, cdrComment).whenComplete((result, error) -> {
+                if (Objects.nonNull(error)) {
+                    log.error("Unable to store the recovered multipart message {}: {}", reassembly.parent.getParentId(), error.getMessage());
+                    return;
+                }
+                completed.increment();
+                multipartPartsWriter.remove(reassembly.key, reassembly.totalSegments);
+            });
+        } catch (RejectedExecutionException e) {
+            log.error("Unable to queue the recovered multipart message {}: {}", reassembly.parent.getParentId(), e.getMessage());
+        }
+    }
+
+    /**
+     * Adds the part to the reassembly of the key, the first part creates it using the event as parent.
+     * A part with a different total of segments than the reassembly in progress means the reference number
+     * was reused, the old reassembly is expired and a new one is started.
+     * <p>
+     * When the progress is complete the caller queues the parent and then calls {@link #release(String, Progress, boolean)}.
+     */
+    public Progress addPart(String key, MessageEvent submitSmEvent, MessagePart messagePart) {
+        return addPart(key, submitSmEvent, messagePart, parent -> {
+        });
+    }
+
+    /**
+     * @param onParent called with the event before it is kept as the parent of a new reassembly
+     */
+    public Progress addPart(String key, MessageEvent submitSmEvent, MessagePart messagePart, Consumer<MessageEvent> onParent) {
+        long expiryTick = currentTick() + ttlTicks;
+        boolean incremental = multipartPartsWriter.isIncremental();
+        Reassembly[] replaced = new Reassembly[1];
+        Reassembly[] created = new Reassembly[1];
+        Progress[] progress = new Progress[1];
+
+        reassemblies.compute(key, (k, current) -> {
+            Reassembly reassembly = current;
+            if (Objects.nonNull(reassembly) && !reassembly.completing && reassembly.totalSegments != messagePart.getTotalSegment()) {
+                replaced[0] = reassembly;
+                this.removePersisted(reassembly);
+                reassembly = null;
+            }
+            String parentJson = null;
+            if (Objects.isNull(reassembly)) {
+                onParent.accept(submitSmEvent);
+                MessageId parentMessageId = messageIDGenerator.newMessageId();
+                submitSmEvent.setId(parentMessageId.toString());
+                submitSmEvent.setMessageId(parentMessageId.toString());
+                submitSmEvent.setParentId(parentMessageId.toString());
+                reassembly = new Reassembly(k, submitSmEvent, messagePart.getTotalSegment(), expiryTick);
+                created[0] = reassembly;
+                parentJson = incremental ? submitSmEvent.toString() : null;
+            }
+            if (!reassembly.add(messagePart)) {
+                log.debug("Ignoring segment {} of {} for {}", messagePart.getSegmentSequence(), messagePart.getTotalSegment(), k);
+            } else if (!reassembly.isComplete()) {
+                // written while holding the key, so the writes of a reassembly keep the order of its segments
+                this.persist(reassembly, parentJson, messagePart, incremental);
+            }
+            // a segment resent after the message could not be queued completes it again
+            boolean complete = reassembly.isComplete() && !reassembly.completing;
+            reassembly.completing = reassembly.isComplete();
+            progress[0] = new Progress(reassembly.parent, reassembly.received.cardinality(), complete);
+            return reassembly;
+        });
+
+        if (Objects.nonNull(replaced[0])) {
+            expired.increment();
+            this.handleExpired(replaced[0], "REPLACED");
+        }
+        if (Objects.nonNull(created[0])) {
+            wheel.get(slotOf(created[0].expiryTick)).add(created[0]);
+            if (maxEntries > 0 && reassemblies.size() > maxEntries) {
+                this.evictOldest();
+            }
+        }
+        return progress[0];
+    }
+
+    /**
+     * Ends a completed reassembly. Once its message was queued the reassembly and its persisted parts are removed,
+     * otherwise it is kept so the segment resent by the ESME completes it again.
+     *
+     * @param queued true when the parent was stored in the ingress queue
+     */
+    public void release(String key, Progress progress, boolean queued) {
+        Reassembly[] reopened = new Reassembly[1];
+        reassemblies.computeIfPresent(key, (k, current) -> {
+            if (current.parent != progress.parent() || !current.completing) {
+                return current;
+            }
+            if (!queued) {
+                current.completing = false;
+                reopened[0] = current;
+                return current;
+            }
+            completed.increment();
+            this.removePersisted(current);
+            return null;
+        });
+        // the wheel skipped it while it was being queued, a second entry of a reassembly is ignored once it is detached
+        if (Objects.nonNull(reopened[0])) {
+            wheel.get(slotOf(reopened[0].expiryTick)).add(reopened[0]);
+        }
+    }
+
+    /**
+     * Advances the wheel up to the current tick, expiring the reassemblies that are due.
+     */
+    @Scheduled(fixedRateString = "${smpp.server.multipart.tickMillis:1000}")
+    public void expireDue() {
+        List<Reassembly> due = new ArrayList<>();
+        synchronized (this) {
+            long nowTick = currentTick();
+            for (long tick = Math.max(lastTick + 1, nowTick - wheel.size() + 1); tick <= nowTick; tick++) {
+                Queue<Reassembly> slot = wheel.get(slotOf(tick));
+                List<Reassembly> notDue = new ArrayList<>();
+                Reassembly reassembly;
+                while ((reassembly = slot.poll()) != null) {
+                    if (reassembly.expiryTick > nowTick) {
+                        notDue.add(reassembly);
+                    } else if (detach(reassembly)) {
+                        due.add(reassembly);
+                    }
+                }
+                slot.addAll(notDue);
+            }
+            lastTick = Math.max(lastTick, nowTick);
+        }
+        due.forEach(reassembly -> {
+            expired.increment();
+            this.handleExpired(reassembly, "EXPIRED");
+        });
+    }
+
+    public Stats getStats() {
+        return new Stats(reassemblies.size(), completed.sum(), expired.sum(), evicted.sum());
+    }
+
+    private void evictOldest() {
+        Reassembly oldest = null;
+        synchronized (this) {
+            for (int i = 1; i <= wheel.size() && Objects.isNull(oldest); i++) {
+                Queue<Reassembly> slot = wheel.get(slotOf(lastTick + i));
+                Reassembly reassembly;
+                while (Objects.isNull(oldest) && (reassembly = slot.poll()) != null) {
+                    if (detach(reassembly)) {
+                        oldest = reassembly;
+                    }
+                }
+            }
+        }
+        if (Objects.nonNull(oldest)) {
+            evicted.increment();
+            this.handleExpired(oldest, "EVICTED");
+        }
+    }
+
+    /**
+     * Removes the reassembly from the store if it is still the one of its key and its message is not being queued.
+     */
+    private boolean detach(Reassembly reassembly) {
+        boolean[] detached = new boolean[1];
+        reassemblies.computeIfPresent(reassembly.key, (k, current) -> {
+            if (current != reassembly || current.completing) {
+                return current;
+            }
+            detached[0] = true;
+            this.removePersisted(reassembly);
+            return null;
+        });
+        return detached[0];
+    }
+
+    // called while holding the key
+    private void persist(Reassembly reassembly, String parentJson, MessagePart messagePart, boolean incremental) {
+        if (incremental) {
+            multipartPartsWriter.append(reassembly.key, parentJson, messagePart);
+            return;
+        }
+        try {
+            multipartPartsWriter.writeFull(reassembly.key, reassembly.parent.toString());
+        } catch (Exception e) {
+            log.error("Error writing the multipart message {} to Redis: {}", reassembly.key, e.getMessage());
+        }
+    }
+
+    // called while holding the key, a new reassembly with the same key can not be written before the removal
+    private void removePersisted(Reassembly reassembly) {
+        try {
+            multipartPartsWriter.remove(reassembly.key, reassembly.totalSegments);
+        } catch (Exception e) {
+            log.error("Error removing the multipart message {} from Redis: {}", reassembly.key, e.getMessage());
+        }
+    }
+
+    private void handleExpired(Reassembly reassembly, String reason) {
+        MessageEvent parent = reassembly.parent;
+        String cdrComment = String.format("MULTIPART MESSAGE %s RECEIVED %s OF %s",
+                reason, reassembly.received.cardinality(), reassembly.totalSegments);
+        log.warn("Multipart message {} of {} {} with {} of {} segments", parent.getParentId(), parent.getSystemId(),
+                reason, reassembly.received.cardinality(), reassembly.totalSegments);
+
+        if (EXPIRY_FORWARD_PARTIAL.equalsIgnoreCase(appProperties.getMultipartExpiryPolicy())) {
+            try {
+                ingressQueueWriter.enqueue(parent, cdrComment).whenComplete((result, error) -> {
+                    if (Objects.nonNull(error)) {
+                        log.error("Unable to store the partial multipart message {}: {}", parent.getParentId(), error.getMessage());
+                        this.putFailedCdr(parent, cdrComment);
+                    }
+                });
+                return;
+            } catch (RejectedExecutionException e) {
+                log.error("Unable to forward the partial multipart message {}: {}", parent.getParentId(), e.getMessage());
+            }
+        }
+        this.putFailedCdr(parent, cdrComment);
+    }
+
+    private void putFailedCdr(MessageEvent parent, String cdrComment) {
+        cdrProcessor.putCdrDetailOnRedis(
+                parent.toCdrDetail(UtilsEnum.Module.SMPP_SERVER, UtilsEnum.MessageType.MESSAGE, UtilsEnum.CdrStatus.FAILED, cdrComment));
+    }
+
+    private long currentTick() {
+        return System.currentTimeMillis() / tickMillis;
+    }
+
+    private int slotOf(long tick) {
+        return (int) (tick % wheel.size());
+    }
+}
@@ -0,0 +1,23 @@
+package com.paicbd.module.components;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * Actuator endpoint with the tasks queued and the wait and run times of the tasks of each service provider.
+ */
+@Component
+@Endpoint(id = "networktasks")
+@RequiredArgsConstructor
+public class NetworkTaskEndpoint {
+    private final NetworkTaskScheduler networkTaskScheduler;
+
+    @ReadOperation
+    public Map<Integer, NetworkTaskScheduler.Stats> networkTasks() {
+        return networkTaskScheduler.getStats();
+    }
+}
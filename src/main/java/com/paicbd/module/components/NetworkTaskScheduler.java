@@ -0,0 +1,114 @@
+package com.paicbd.module.components;
+
+import com.paicbd.module.utils.AppProperties;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs the work of the service providers that must not hold the SMPP sessions, like the drain of the pending deliver_sm.
+ * <p>
+ * All the service providers share a virtual thread per task executor, the tasks of a networkId run one after the other
+ * in the order they were submitted. At most {@code smpp.server.tasks.maxQueued} tasks wait or run at the same time,
+ * the queued tasks, the wait and run times of each networkId are exposed by the {@code /actuator/networktasks} endpoint.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class NetworkTaskScheduler {
+    private static final int EWMA_SHIFT = 3;
+
+    private final ConcurrentMap<Integer, CompletableFuture<Void>> tails = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Integer, NetworkStats> networkStats = new ConcurrentHashMap<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("network_task-", 0).factory());
+
+    private final AppProperties appProperties;
+
+    /**
+     * @param waitMillis moving average of the time the tasks waited for the previous tasks of the networkId
+     * @param runMillis  moving average of the time the tasks took to run
+     */
+    public record Stats(int queued, long completed, long rejected, double waitMillis, double runMillis) {
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Queues the task after the tasks of the networkId submitted before.
+     *
+     * @return false when the scheduler is full and the task was not queued
+     */
+    public boolean submit(int networkId, String name, Runnable task) {
+        NetworkStats stats = networkStats.computeIfAbsent(networkId, id -> new NetworkStats());
+        int maxQueued = appProperties.getSmppServerTasksMaxQueued();
+        if (queued.incrementAndGet() > maxQueued && maxQueued > 0) {
+            queued.decrementAndGet();
+            stats.rejected.increment();
+            log.warn("Task {} of networkId {} rejected, {} tasks queued", name, networkId, maxQueued);
+            return false;
+        }
+        stats.queued.incrementAndGet();
+        long submittedAt = System.nanoTime();
+        CompletableFuture<Void> next = tails.compute(networkId, (id, tail) ->
+                (Objects.isNull(tail) ? CompletableFuture.<Void>completedFuture(null) : tail)
+                        .thenRunAsync(() -> run(networkId, name, task, submittedAt, stats), executor));
+        next.whenComplete((result, throwable) -> tails.remove(networkId, next));
+        return true;
+    }
+
+    public Map<Integer, Stats> getStats() {
+        Map<Integer, Stats> stats = new TreeMap<>();
+        networkStats.forEach((networkId, network) -> stats.put(networkId, network.toStats()));
+        return stats;
+    }
+
+    private void run(int networkId, String name, Runnable task, long submittedAt, NetworkStats stats) {
+        long startedAt = System.nanoTime();
+        stats.record(stats.waitEwmaNanos, startedAt - submittedAt);
+        try {
+            task.run();
+        } catch (Exception e) {
+            log.error("Error running task {} of networkId {}: {}", name, networkId, e.getMessage());
+        } finally {
+            stats.record(stats.runEwmaNanos, System.nanoTime() - startedAt);
+            stats.completed.increment();
+            stats.queued.decrementAndGet();
+            queued.decrementAndGet();
+        }
+    }
+
+    private static class NetworkStats {
+        private final AtomicInteger queued = new AtomicInteger();
+        private final LongAdder completed = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+        private final AtomicLong waitEwmaNanos = new AtomicLong();
+        private final AtomicLong runEwmaNanos = new AtomicLong();
+
+        private void record(AtomicLong ewmaNanos, long sample) {
+            ewmaNanos.accumulateAndGet(Math.max(0, sample), (current, newSample) ->
+                    current == 0 ? newSample : current + ((newSample - current) >> EWMA_SHIFT));
+        }
+
+        private Stats toStats() {
+            return new Stats(queued.get(), completed.sum(), rejected.sum(),
+                    waitEwmaNanos.get() / 1_000_000.0, runEwmaNanos.get() / 1_000_000.0);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.paicbd.module.components;
+
+import com.paicbd.module.utils.AppProperties;
+import com.paicbd.module.utils.DeliverSmResult;
+import com.paicbd.module.utils.PayloadFormat;
+import com.paicbd.module.utils.SpSession;
+import com.paicbd.module.utils.TpsLimiter;
+import com.paicbd.smsc.dto.MessageEvent;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends the deliver_sm kept in the pending list of a service provider while it had no binds.
+ * <p>
+ * The list is popped in chunks of {@code queue.consumer.pending.chunkSize} and the next chunk is popped once every
+ * deliver_sm of the previous one has a result, so only one chunk is held in memory. The deliver_sm are paced at the
+ * TPS of the service provider and sent through the {@link DeliverSmDispatcher}, which spreads them across the binds
+ * open at each moment within their windows. When the binds are lost during the drain, the deliver_sm not sent are
+ * pushed back to the head of the pending list in their original order and the drain stops until the next bind.
+ * A deliver_sm that can not be decoded is moved to the dead letter list.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class PendingDeliverSmDrainer {
+    // the waits are signalled, the timeout only bounds how late a lost bind is noticed
+    private static final long WAIT_MILLIS = 1000;
+
+    private final Set<Integer> draining = ConcurrentHashMap.newKeySet();
+    private final Set<Integer> requested = ConcurrentHashMap.newKeySet();
+
+    private final PendingDeliverSmStore pendingDeliverSmStore;
+    private final AppProperties appProperties;
+    private final ConcurrentMap<Integer, SpSession> spSessionMap;
+    private final DeliverSmDispatcher deliverSmDispatcher;
+    private final DeliverSmRetryQueue deliverSmRetryQueue;
+    private final NetworkTaskScheduler networkTaskScheduler;
+
+    /**
+     * @param unsent  deliver_sm of the chunk that were not sent because the service provider has no binds
+     * @param invalid number of deliver_sm of the chunk that could not be decoded and were dead-lettered
+     */
+    private record ChunkResult(List<String> unsent, int invalid) {
+    }
+
+    /**
+     * Queues the drain of the pending list in the {@link NetworkTaskScheduler}. A drain already queued and not started
+     * is not queued again, a bind opened while a drain runs queues the next one after it, so it is not missed.
+     */
+    public void drain(int networkId) {
+        if (!requested.add(networkId)) {
+            return;
+        }
+        if (!networkTaskScheduler.submit(networkId, "pending_dlr_drain", () -> runDrain(networkId))) {
+            requested.remove(networkId);
+        }
+    }
+
+    public boolean isDraining(int networkId) {
+        return draining.contains(networkId);
+    }
+
+    private void runDrain(int networkId) {
+        requested.remove(networkId);
+        draining.add(networkId);
+        try {
+            long drained = drainPending(networkId);
+            if (drained > 0) {
+                log.info("{} pending deliver_sm drained for networkId {}", drained, networkId);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("Error draining the pending deliver_sm of networkId {}: {}", networkId, e.getMessage());
+        } finally {
+            draining.remove(networkId);
+        }
+    }
+
+    /**
+     * @return number of deliver_sm popped from the pending list and sent or scheduled for retry
+     */
+    long drainPending(int networkId) throws InterruptedException {
+        int chunkSize = Math.max(1, appProperties.getPendingDeliverSmChunkSize());
+        TpsLimiter tpsLimiter = null;
+        long drained = 0;
+
+        while (true) {
+            SpSession spSession = spSessionMap.get(networkId);
+            if (Objects.isNull(spSession) || spSession.getCurrentSmppSessions().isEmpty()) {
+                return drained;
+            }
+            if (Objects.isNull(tpsLimiter)) {
+                // its own limiter, the one of the service provider admits its submit_sm
+                tpsLimiter = new TpsLimiter(spSession.getTpsLimiter().getTps());
+            }
+            int count = Math.min(chunkSize, deliverSmDispatcher.remainingCapacity());
+            if (count <= 0) {
+                deliverSmDispatcher.awaitCapacity(WAIT_MILLIS);
+                continue;
+            }
+            List<String> chunk = pendingDeliverSmStore.pop(networkId, count);
+            if (chunk.isEmpty()) {
+                if (pendingDeliverSmStore.getBuffered(networkId) == 0) {
+                    return drained;
+                }
+                // added while the service provider had no binds and not flushed yet
+                pendingDeliverSmStore.awaitFlushed(networkId, WAIT_MILLIS);
+                continue;
+            }
+
+            ChunkResult result = sendChunk(networkId, spSession, chunk, tpsLimiter);
+            List<String> unsent = result.unsent();
+            drained += chunk.size() - unsent.size() - result.invalid();
+            if (!unsent.isEmpty()) {
+                pendingDeliverSmStore.pushBack(networkId, unsent);
+                log.warn("Binds of networkId {} lost while draining, {} deliver_sm returned to the pending list", networkId, unsent.size());
+                return drained;
+            }
+        }
+    }
+
+    private ChunkResult sendChunk(int networkId, SpSession spSession, List<String> chunk, TpsLimiter tpsLimiter) throws InterruptedException {
+        Set<Integer> unsent = ConcurrentHashMap.newKeySet();
+        int invalid = 0;
+        List<CompletableFuture<Void>> results = new ArrayList<>(chunk.size());
+        for (int i = 0; i < chunk.size(); i++) {
+            if (spSession.getCurrentSmppSessions().isEmpty()) {
+                for (int j = i; j < chunk.size(); j++) {
+                    unsent.add(j);
+                }
+                break;
+            }
+            MessageEvent deliverSmEvent = PayloadFormat.decode(chunk.get(i));
+            if (Objects.isNull(deliverSmEvent)) {
+                try {
+                    deliverSmRetryQueue.deadLetterInvalid(networkId, chunk.get(i));
+                    invalid++;
+                } catch (Exception e) {
+                    log.error("Error dead-lettering an invalid deliver_sm of networkId {}: {}", networkId, e.getMessage());
+                    unsent.add(i);
+                }
+                continue;
+            }
+            while (!tpsLimiter.tryAcquire()) {
+                TimeUnit.NANOSECONDS.sleep(tpsLimiter.nanosToNextPermit());
+            }
+            int index = i;
+            results.add(deliverSmDispatcher.dispatch(networkId, spSession, deliverSmEvent)
+                    .handle((result, throwable) -> {
+                        DeliverSmResult deliverSmResult = Objects.isNull(throwable) ? result : DeliverSmResult.NO_SESSION;
+                        if (!onResult(networkId, deliverSmEvent, chunk.get(index), deliverSmResult)) {
+                            unsent.add(index);
+                        }
+                        return null;
+                    }));
+        }
+        CompletableFuture.allOf(results.toArray(CompletableFuture[]::new)).join();
+        // in the order they were popped, pushBack returns them to the head of the list as they were
+        List<String> ordered = new ArrayList<>(unsent.size());
+        for (int i = 0; i < chunk.size(); i++) {
+            if (unsent.contains(i)) {
+                ordered.add(chunk.get(i));
+            }
+        }
+        return new ChunkResult(ordered, invalid);
+    }
+
+    /**
+     * @return false when the deliver_sm must return to the pending list
+     */
+    private boolean onResult(int networkId, MessageEvent deliverSmEvent, String deliverSmRaw, DeliverSmResult result) {
+        if (result == DeliverSmResult.SENT) {
+            deliverSmRetryQueue.onSent(networkId);
+        } else if (result == DeliverSmResult.NO_SESSION) {
+            return false;
+        } else if (result.isRetryable()) {
+            try {
+                deliverSmRetryQueue.schedule(networkId, deliverSmEvent, deliverSmRaw, 1, result);
+            } catch (Exception e) {
+                log.error("Error scheduling the retry of deliver_sm with id {}: {}", deliverSmEvent.getId(), e.getMessage());
+                return false;
+            }
+        }
+        return true;
+    }
+}
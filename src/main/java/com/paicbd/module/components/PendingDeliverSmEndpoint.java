@@ -0,0 +1,35 @@
+package com.paicbd.module.components;
+
+import com.paicbd.module.utils.SpSession;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Actuator endpoint with the deliver_sm kept in the pending list of each service provider.
+ */
+@Component
+@Endpoint(id = "pendingdlr")
+@RequiredArgsConstructor
+public class PendingDeliverSmEndpoint {
+    private final ConcurrentMap<Integer, SpSession> spSessionMap;
+    private final PendingDeliverSmStore pendingDeliverSmStore;
+    private final PendingDeliverSmDrainer pendingDeliverSmDrainer;
+
+    public record PendingDepth(String systemId, long depth, int buffered, boolean draining) {
+    }
+
+    @ReadOperation
+    public Map<Integer, PendingDepth> pending() {
+        Map<Integer, PendingDepth> pending = new TreeMap<>();
+        spSessionMap.forEach((networkId, spSession) -> pending.put(networkId, new PendingDepth(
+                spSession.getCurrentServiceProvider().getSystemId(), pendingDeliverSmStore.depth(networkId),
+                pendingDeliverSmStore.getBuffered(networkId), pendingDeliverSmDrainer.isDraining(networkId))));
+        return pending;
+    }
+}
@@ -0,0 +1,224 @@
+package com.paicbd.module.components;
+
+import com.paicbd.module.utils.AppProperties;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import redis.clients.jedis.ClusterPipeline;
+import redis.clients.jedis.JedisCluster;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Pending lists {@code networkId_smpp_pending_dlr} with the deliver_sm of service providers without binds.
+ * <p>
+ * The deliver_sm added are buffered and flushed by a worker, each flush groups up to
+ * {@code queue.consumer.pending.batchSize} deliver_sm waiting at most {@code queue.consumer.pending.maxBatchDelayMillis}
+ * and writes them with a multi-value LPUSH per networkId, all of them in a single pipeline.
+ * When the buffer is full the deliver_sm is pushed directly.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class PendingDeliverSmStore {
+    private static final String PENDING_SUFFIX = "_smpp_pending_dlr";
+
+    private final ConcurrentMap<Integer, AtomicInteger> buffered = new ConcurrentHashMap<>();
+    private final Lock flushLock = new ReentrantLock();
+    private final Condition flushed = flushLock.newCondition();
+
+    private final JedisCluster jedisCluster;
+    private final AppProperties appProperties;
+
+    private BlockingQueue<PendingDeliverSm> buffer;
+    private Thread flushWorker;
+    private volatile boolean running;
+
+    private record PendingDeliverSm(int networkId, String deliverSmRaw) {
+    }
+
+    @PostConstruct
+    public void init() {
+        this.buffer = new ArrayBlockingQueue<>(Math.max(1, appProperties.getPendingDeliverSmBufferCapacity()));
+        this.running = true;
+        this.flushWorker = Thread.ofVirtual().name("pending_dlr_flush").start(this::flushLoop);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        this.running = false;
+        try {
+            flushWorker.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            log.warn("Interrupted while flushing the pending deliver_sm: {}", e.getMessage());
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static String key(int networkId) {
+        return networkId + PENDING_SUFFIX;
+    }
+
+    /**
+     * Adds the deliver_sm to the pending list of the service provider, it is written with the next flush.
+     */
+    public void add(int networkId, String deliverSmRaw) {
+        AtomicInteger count = buffered.computeIfAbsent(networkId, id -> new AtomicInteger());
+        count.incrementAndGet();
+        if (running && buffer.offer(new PendingDeliverSm(networkId, deliverSmRaw))) {
+            return;
+        }
+        count.decrementAndGet();
+        jedisCluster.lpush(key(networkId), deliverSmRaw);
+    }
+
+    public List<String> pop(int networkId, int count) {
+        List<String> popped = jedisCluster.lpop(key(networkId), count);
+        return Objects.isNull(popped) ? List.of() : popped;
+    }
+
+    /**
+     * Returns deliver_sm popped and not sent to the head of the pending list, the first one ends at the head.
+     */
+    public void pushBack(int networkId, List<String> deliverSmRawList) {
+        if (deliverSmRawList.isEmpty()) {
+            return;
+        }
+        // LPUSH inserts the values one by one at the head
+        List<String> reversed = new ArrayList<>(deliverSmRawList);
+        Collections.reverse(reversed);
+        jedisCluster.lpush(key(networkId), reversed.toArray(String[]::new));
+    }
+
+    /**
+     * @return deliver_sm added for the service provider and not written to Redis yet
+     */
+    public int getBuffered(int networkId) {
+        AtomicInteger count = buffered.get(networkId);
+        return Objects.isNull(count) ? 0 : count.get();
+    }
+
+    /**
+     * Waits until the deliver_sm buffered for the service provider are written to Redis, at most timeoutMillis.
+     *
+     * @return true if nothing is buffered for the service provider
+     */
+    public boolean awaitFlushed(int networkId, long timeoutMillis) throws InterruptedException {
+        long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        flushLock.lock();
+        try {
+            while (getBuffered(networkId) > 0) {
+                if (remaining <= 0) {
+                    return false;
+                }
+                remaining = flushed.awaitNanos(remaining);
+            }
+            return true;
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * @return length of the pending list of the service provider, including the deliver_sm not flushed yet
+     */
+    public long depth(int networkId) {
+        return jedisCluster.llen(key(networkId)) + getBuffered(networkId);
+    }
+
+    private void flushLoop() {
+        int batchSize = Math.max(1, appProperties.getPendingDeliverSmBatchSize());
+        long maxBatchDelayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, appProperties.getPendingDeliverSmMaxBatchDelayMillis()));
+        List<PendingDeliverSm> batch = new ArrayList<>(batchSize);
+
+        while (running || !buffer.isEmpty()) {
+            try {
+                PendingDeliverSm first = buffer.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                fillBatch(batch, batchSize, System.nanoTime() + maxBatchDelayNanos);
+                if (!flush(batch) && running) {
+                    Thread.sleep(1000);
+                }
+            } catch (InterruptedException e) {
+                log.warn("Pending deliver_sm flush worker interrupted: {}", e.getMessage());
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void fillBatch(List<PendingDeliverSm> batch, int batchSize, long deadline) throws InterruptedException {
+        while (batch.size() < batchSize) {
+            buffer.drainTo(batch, batchSize - batch.size());
+            long remaining = deadline - System.nanoTime();
+            if (batch.size() >= batchSize || remaining <= 0) {
+                return;
+            }
+            PendingDeliverSm next = buffer.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+        }
+    }
+
+    /**
+     * @return false when the batch could not be written, it is buffered again to be retried
+     */
+    private boolean flush(List<PendingDeliverSm> batch) {
+        Map<Integer, List<String>> byNetwork = new LinkedHashMap<>();
+        batch.forEach(pending -> byNetwork.computeIfAbsent(pending.networkId(), id -> new ArrayList<>()).add(pending.deliverSmRaw()));
+        try (ClusterPipeline pipeline = jedisCluster.pipelined()) {
+            byNetwork.forEach((networkId, values) -> pipeline.lpush(key(networkId), values.toArray(String[]::new)));
+            pipeline.sync();
+        } catch (Exception e) {
+            log.error("Error pushing {} pending deliver_sm: {}", batch.size(), e.getMessage());
+            // a deliver_sm written twice is better than a lost one, the pipeline is not atomic
+            int lost = 0;
+            for (PendingDeliverSm pending : batch) {
+                if (!buffer.offer(pending)) {
+                    buffered.get(pending.networkId()).decrementAndGet();
+                    lost++;
+                }
+            }
+            if (lost > 0) {
+                log.error("{} pending deliver_sm lost, the buffer is full", lost);
+                signalFlushed();
+            }
+            return false;
+        }
+        byNetwork.forEach((networkId, values) -> buffered.get(networkId).addAndGet(-values.size()));
+        signalFlushed();
+        return true;
+    }
+
+    private void signalFlushed() {
+        flushLock.lock();
+        try {
+            flushed.signalAll();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.paicbd.module.components;
+
+import com.paicbd.smsc.dto.ServiceProvider;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Registry of the SMPP service providers known by this instance, indexed by systemId and by networkId.
+ * Lookups are lock-free, writes are serialized so both indexes are always replaced together.
+ */
+@Component
+public class ServiceProviderRegistry {
+    private final ConcurrentMap<String, ServiceProvider> bySystemId = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Integer, ServiceProvider> byNetworkId = new ConcurrentHashMap<>();
+    // systemId used to index each networkId, providers are updated in place so it can differ from the current one
+    private final ConcurrentMap<Integer, String> indexedSystemIds = new ConcurrentHashMap<>();
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    public Optional<ServiceProvider> findBySystemId(String systemId) {
+        if (Objects.isNull(systemId)) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(bySystemId.get(systemId));
+    }
+
+    public Optional<ServiceProvider> findByNetworkId(int networkId) {
+        return Optional.ofNullable(byNetworkId.get(networkId));
+    }
+
+    /**
+     * Adds the service provider only if there is no provider registered with the same networkId or systemId.
+     *
+     * @return true if the provider was added
+     */
+    public boolean putIfAbsent(ServiceProvider serviceProvider) {
+        Objects.requireNonNull(serviceProvider, "Service provider cannot be null");
+        writeLock.lock();
+        try {
+            if (byNetworkId.containsKey(serviceProvider.getNetworkId()) || findBySystemId(serviceProvider.getSystemId()).isPresent()) {
+                return false;
+            }
+            index(serviceProvider);
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Registers the service provider replacing the previous one with the same networkId,
+     * the systemId index of the previous provider is dropped in the same operation.
+     */
+    public void put(ServiceProvider serviceProvider) {
+        Objects.requireNonNull(serviceProvider, "Service provider cannot be null");
+        writeLock.lock();
+        try {
+            unindex(serviceProvider.getNetworkId());
+            findBySystemId(serviceProvider.getSystemId()).ifPresent(previous -> unindex(previous.getNetworkId()));
+            index(serviceProvider);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public Optional<ServiceProvider> removeByNetworkId(int networkId) {
+        writeLock.lock();
+        try {
+            return Optional.ofNullable(unindex(networkId));
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Returns an immutable copy of the registered providers, safe to iterate while the registry is updated.
+     */
+    public List<ServiceProvider> snapshot() {
+        return List.copyOf(byNetworkId.values());
+    }
+
+    public int size() {
+        return byNetworkId.size();
+    }
+
+    private void index(ServiceProvider serviceProvider) {
+        byNetworkId.put(serviceProvider.getNetworkId(), serviceProvider);
+        if (Objects.nonNull(serviceProvider.getSystemId())) {
+            bySystemId.put(serviceProvider.getSystemId(), serviceProvider);
+            indexedSystemIds.put(serviceProvider.getNetworkId(), serviceProvider.getSystemId());
+        }
+    }
+
+    private ServiceProvider unindex(int networkId) {
+        String systemId = indexedSystemIds.remove(networkId);
+        if (Objects.nonNull(systemId)) {
+            bySystemId.remove(systemId);
+        }
+        return byNetworkId.remove(networkId);
+    }
+}
@@ -0,0 +1,111 @@
+package com.paicbd.module.components;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.paicbd.module.utils.AppProperties;
+import com.paicbd.smsc.dto.ServiceProvider;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import redis.clients.jedis.ClusterPipeline;
+import redis.clients.jedis.JedisCluster;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Persistence of the bind state of the service providers.
+ * <p>
+ * Binds and unbinds only keep a snapshot of the state of the service provider, every {@code smpp.serviceProviders.stateFlushIntervalMillis}
+ * the latest snapshot of each service provider changed is written, all of them in a single pipeline.
+ * With mode {@code FULL} the whole service provider is written in the service providers hash.
+ * With mode {@code RUNTIME} only the status, the binds count and the bind ids are written in the hash
+ * {@code smpp.serviceProviders.runtimeHashName}, so the provisioned service providers are not rewritten on every bind.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ServiceProviderStateWriter {
+    public static final String MODE_FULL = "FULL";
+    public static final String MODE_RUNTIME = "RUNTIME";
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final ConcurrentMap<Integer, String> changed = new ConcurrentHashMap<>();
+
+    private final JedisCluster jedisCluster;
+    private final AppProperties appProperties;
+
+    public record RuntimeState(String status, int currentBindsCount, List<String> binds) {
+    }
+
+    public boolean isRuntime() {
+        return MODE_RUNTIME.equalsIgnoreCase(appProperties.getServiceProvidersStateMode());
+    }
+
+    /**
+     * Marks the service provider to be written with the next flush. Its state is copied here, so it must be called
+     * while holding the lock its bind state is changed with.
+     */
+    public void markChanged(ServiceProvider serviceProvider) {
+        try {
+            changed.put(serviceProvider.getNetworkId(), isRuntime() ? runtimeState(serviceProvider) : fullState(serviceProvider));
+        } catch (JsonProcessingException e) {
+            log.error("Error serializing the state of service provider {}: {}", serviceProvider.getNetworkId(), e.getMessage());
+        }
+    }
+
+    /**
+     * Drops the state not written yet of a deleted service provider, and with mode {@code RUNTIME} its runtime state.
+     */
+    public void remove(int networkId) {
+        changed.remove(networkId);
+        if (isRuntime()) {
+            jedisCluster.hdel(appProperties.getServiceProvidersRuntimeHashName(), String.valueOf(networkId));
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    @Scheduled(fixedDelayString = "${smpp.serviceProviders.stateFlushIntervalMillis:200}")
+    public void flush() {
+        if (changed.isEmpty()) {
+            return;
+        }
+        Map<Integer, String> batch = new HashMap<>(changed.size());
+        for (Integer networkId : changed.keySet()) {
+            String state = changed.remove(networkId);
+            if (Objects.nonNull(state)) {
+                batch.put(networkId, state);
+            }
+        }
+
+        String hashName = isRuntime() ? appProperties.getServiceProvidersRuntimeHashName() : appProperties.getServiceProvidersHashName();
+        try (ClusterPipeline pipeline = jedisCluster.pipelined()) {
+            batch.forEach((networkId, state) -> pipeline.hset(hashName, String.valueOf(networkId), state));
+            pipeline.sync();
+        } catch (Exception e) {
+            log.error("Error writing the state of {} service providers: {}", batch.size(), e.getMessage());
+            // written with the next flush unless it changed again meanwhile
+            batch.forEach(changed::putIfAbsent);
+        }
+    }
+
+    private static String fullState(ServiceProvider serviceProvider) {
+        // Using this to skip backslash coming from regex in redis
+        return serviceProvider.toString().replace("\\\\", "\\");
+    }
+
+    private static String runtimeState(ServiceProvider serviceProvider) throws JsonProcessingException {
+        return objectMapper.writeValueAsString(new RuntimeState(serviceProvider.getStatus(),
+                serviceProvider.getCurrentBindsCount(), List.copyOf(serviceProvider.getBinds())));
+    }
+}
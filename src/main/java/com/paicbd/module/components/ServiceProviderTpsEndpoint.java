@@ -0,0 +1,36 @@
+package com.paicbd.module.components;
+
+import com.paicbd.module.utils.SpSession;
+import com.paicbd.module.utils.TpsLimiter;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Actuator endpoint with the TPS admitted and rejected per service provider since the SpSession was created.
+ */
+@Component
+@Endpoint(id = "tps")
+@RequiredArgsConstructor
+public class ServiceProviderTpsEndpoint {
+    private final ConcurrentMap<Integer, SpSession> spSessionMap;
+
+    public record TpsStats(String systemId, int tps, long admitted, long rejected) {
+    }
+
+    @ReadOperation
+    public Map<Integer, TpsStats> tps() {
+        Map<Integer, TpsStats> stats = new TreeMap<>();
+        spSessionMap.forEach((networkId, spSession) -> {
+            TpsLimiter tpsLimiter = spSession.getTpsLimiter();
+            stats.put(networkId, new TpsStats(spSession.getCurrentServiceProvider().getSystemId(),
+                    tpsLimiter.getTps(), tpsLimiter.getAdmitted(), tpsLimiter.getRejected()));
+        });
+        return stats;
+    }
+}
@@ -0,0 +1,70 @@
+package com.paicbd.module.components;
+
+import com.paicbd.smsc.ws.SocketSession;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.paicbd.module.utils.Constants.TYPE;
+import static com.paicbd.module.utils.Constants.WEBSOCKET_STATUS_ENDPOINT;
+
+/**
+ * Sends the status and the sessions count of the service providers to the WebSocket without blocking the sessions.
+ * <p>
+ * The changes are queued per networkId and flushed every {@code websocket.notifier.flushIntervalMillis}. Until the
+ * flush, a new value of a parameter replaces the queued one, so only the latest status and sessions count are sent,
+ * in the order they were last changed.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class SessionStatusNotifier {
+    private final ConcurrentMap<Integer, Map<String, String>> pendingUpdates = new ConcurrentHashMap<>();
+
+    private final SocketSession socketSession;
+
+    public void enqueue(int networkId, String param, String value) {
+        pendingUpdates.compute(networkId, (id, updates) -> {
+            Map<String, String> current = Objects.isNull(updates) ? new LinkedHashMap<>() : updates;
+            current.remove(param);
+            current.put(param, value);
+            return current;
+        });
+    }
+
+    @Scheduled(fixedDelayString = "${websocket.notifier.flushIntervalMillis:100}")
+    public void flush() {
+        for (Integer networkId : pendingUpdates.keySet()) {
+            Map<String, String> updates = pendingUpdates.remove(networkId);
+            if (Objects.isNull(updates)) {
+                continue;
+            }
+            StompSession stompSession = socketSession.getStompSession();
+            if (Objects.isNull(stompSession)) {
+                log.debug("No WebSocket session, discarding {} updates of networkId {}", updates.size(), networkId);
+                continue;
+            }
+            updates.forEach((param, value) -> send(stompSession, networkId, param, value));
+        }
+    }
+
+    private void send(StompSession stompSession, int networkId, String param, String value) {
+        String message = String.format("%s,%s,%s,%s", TYPE, networkId, param, value);
+        log.info(WEBSOCKET_STATUS_ENDPOINT + " -> {}", message);
+        try {
+            synchronized (stompSession) {
+                stompSession.send(WEBSOCKET_STATUS_ENDPOINT, message);
+            }
+        } catch (Exception e) {
+            log.error("Error sending {} to the WebSocket: {}", message, e.getMessage());
+        }
+    }
+}
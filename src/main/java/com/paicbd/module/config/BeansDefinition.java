@@ -3,7 +3,6 @@ package com.paicbd.module.config;
 import com.paicbd.module.utils.AppProperties;
 import com.paicbd.module.utils.SpSession;
 import com.paicbd.smsc.cdr.CdrProcessor;
-import com.paicbd.smsc.dto.ServiceProvider;
 import com.paicbd.smsc.dto.UtilsRecords;
 import com.paicbd.smsc.utils.Converter;
 import com.paicbd.smsc.utils.Generated;
@@ -13,7 +12,6 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import redis.clients.jedis.JedisCluster;
 
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
@@ -23,11 +21,6 @@ import java.util.concurrent.ConcurrentMap;
 public class BeansDefinition {
     private final AppProperties appProperties;
 
-    @Bean
-    public Set<ServiceProvider> providers() {
-        return ConcurrentHashMap.newKeySet();
-    }
-
     @Bean
     public ConcurrentMap<Integer, SpSession> spSessionMap() {
         return new ConcurrentHashMap<>();
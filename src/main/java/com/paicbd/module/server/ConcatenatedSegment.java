@@ -0,0 +1,144 @@
+package com.paicbd.module.server;
+
+import com.paicbd.module.utils.Constants;
+import com.paicbd.smsc.dto.UtilsRecords;
+import com.paicbd.smsc.utils.Converter;
+import com.paicbd.smsc.utils.SmppEncoding;
+import org.jsmpp.bean.OptionalParameter;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Concatenation data of a single submit_sm, parsed per PDU from the UDH or from the SAR optional parameters.
+ *
+ * @param reference message reference number, shared by all the segments of the message
+ * @param total     total number of segments
+ * @param sequence  sequence number of this segment, starting at 1
+ * @param message   text of this segment without the UDH
+ */
+public record ConcatenatedSegment(int reference, int total, int sequence, String message) {
+    private static final byte IEI_CONCATENATED_8_BIT = 0x00;
+    private static final byte IEI_CONCATENATED_16_BIT = 0x08;
+    private static final short TAG_SAR_MSG_REF_NUM = 524;
+    private static final short TAG_SAR_TOTAL_SEGMENTS = 526;
+    private static final short TAG_SAR_SEGMENT_SEQNUM = 527;
+    private static final int SAR_MSG_REF_NUM_BIT = 0b001;
+    private static final int SAR_TOTAL_SEGMENTS_BIT = 0b010;
+    private static final int SAR_SEGMENT_SEQNUM_BIT = 0b100;
+    private static final int ALL_SAR_TAGS = SAR_MSG_REF_NUM_BIT | SAR_TOTAL_SEGMENTS_BIT | SAR_SEGMENT_SEQNUM_BIT;
+
+    /**
+     * Parses the concatenation information element (8 or 16 bit reference) from the UDH at the start of the short message.
+     *
+     * @return the segment or null if the UDH is malformed or has no concatenation information element
+     */
+    public static ConcatenatedSegment fromUdh(byte[] shortMessage, int encodingType) {
+        if (Objects.isNull(shortMessage) || shortMessage.length < 1) {
+            return null;
+        }
+
+        int headerEnd = 1 + (shortMessage[0] & 0xFF);
+        if (headerEnd > shortMessage.length) {
+            return null;
+        }
+
+        int reference = -1;
+        int total = 0;
+        int sequence = 0;
+        int index = 1;
+        while (index + 1 < headerEnd) {
+            byte iei = shortMessage[index];
+            int length = shortMessage[index + 1] & 0xFF;
+            int data = index + 2;
+            if (data + length > headerEnd) {
+                return null;
+            }
+            if (iei == IEI_CONCATENATED_8_BIT && length == 3) {
+                reference = shortMessage[data] & 0xFF;
+                total = shortMessage[data + 1] & 0xFF;
+                sequence = shortMessage[data + 2] & 0xFF;
+            } else if (iei == IEI_CONCATENATED_16_BIT && length == 4) {
+                reference = ((shortMessage[data] & 0xFF) << 8) | (shortMessage[data + 1] & 0xFF);
+                total = shortMessage[data + 2] & 0xFF;
+                sequence = shortMessage[data + 3] & 0xFF;
+            }
+            index = data + length;
+        }
+
+        if (reference < 0) {
+            return null;
+        }
+        String message = SmppEncoding.decodeMessage(Arrays.copyOfRange(shortMessage, headerEnd, shortMessage.length), encodingType);
+        return new ConcatenatedSegment(reference, total, sequence, message);
+    }
+
+    /**
+     * Checks the tags of the optional parameters of the PDU, before they are converted.
+     *
+     * @return true if the sar_msg_ref_num, sar_total_segments and sar_segment_seqnum optional parameters are present
+     */
+    public static boolean hasSarParameters(OptionalParameter[] optionalParameters) {
+        if (Objects.isNull(optionalParameters)) {
+            return false;
+        }
+
+        int found = 0;
+        for (OptionalParameter optionalParameter : optionalParameters) {
+            found |= sarTagBit(optionalParameter.tag);
+        }
+        return found == ALL_SAR_TAGS;
+    }
+
+    /**
+     * Reads the sar_msg_ref_num, sar_total_segments and sar_segment_seqnum optional parameters.
+     *
+     * @return the segment or null if any of the three parameters is missing
+     */
+    public static ConcatenatedSegment fromSarParameters(List<UtilsRecords.OptionalParameter> optionalParameters, String message) {
+        if (Objects.isNull(optionalParameters)) {
+            return null;
+        }
+
+        int reference = 0;
+        int total = 0;
+        int sequence = 0;
+        int found = 0;
+        for (UtilsRecords.OptionalParameter optionalParameter : optionalParameters) {
+            int bit = sarTagBit(optionalParameter.tag());
+            if (bit == 0) {
+                continue;
+            }
+            int value = Integer.parseInt(optionalParameter.value());
+            switch (bit) {
+                case SAR_MSG_REF_NUM_BIT -> reference = value;
+                case SAR_TOTAL_SEGMENTS_BIT -> total = value;
+                default -> sequence = value;
+            }
+            found |= bit;
+        }
+        return found == ALL_SAR_TAGS ? new ConcatenatedSegment(reference, total, sequence, message) : null;
+    }
+
+    private static int sarTagBit(short tag) {
+        return switch (tag) {
+            case TAG_SAR_MSG_REF_NUM -> SAR_MSG_REF_NUM_BIT;
+            case TAG_SAR_TOTAL_SEGMENTS -> SAR_TOTAL_SEGMENTS_BIT;
+            case TAG_SAR_SEGMENT_SEQNUM -> SAR_SEGMENT_SEQNUM_BIT;
+            default -> 0;
+        };
+    }
+
+    /**
+     * Serializes the segment with the same layout used by {@link Converter#udhMapToJson(Map)} for the message parts.
+     */
+    public String toUdhJson() {
+        Map<String, Object> udhMap = new HashMap<>();
+        udhMap.put(Constants.IEI_CONCATENATED_MESSAGE, new int[]{reference, total, sequence});
+        udhMap.put("message", message);
+        return Converter.udhMapToJson(udhMap);
+    }
+}
@@ -1,102 +1,87 @@
 package com.paicbd.module.server;
 
-import com.paicbd.module.utils.AppProperties;
-import com.paicbd.module.utils.Constants;
-import com.paicbd.module.utils.SpSession;
+import com.paicbd.module.components.IngressQueueWriter;
+import com.paicbd.module.components.MultipartReassemblyStore;
 import com.paicbd.smsc.cdr.CdrProcessor;
 import com.paicbd.smsc.dto.MessageEvent;
 import com.paicbd.smsc.dto.MessagePart;
-import com.paicbd.smsc.utils.Converter;
-import com.paicbd.smsc.utils.MessageIDGeneratorImpl;
 import com.paicbd.smsc.utils.UtilsEnum;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.jsmpp.util.MessageIDGenerator;
-import org.jsmpp.util.MessageId;
 
-import java.util.ArrayList;
-import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
 
 @Slf4j
 @RequiredArgsConstructor
 public class MultiPartsHandler {
-    private final MessageIDGenerator messageIDGenerator = new MessageIDGeneratorImpl();
-    private final ConcurrentMap<String, MessageEvent> messagesEventQueue = new ConcurrentHashMap<>(); // key:  systemId + msgReferenceNumber
-    private final Map<String, AtomicLong> messageQueueCount = new ConcurrentHashMap<>();
     private final CdrProcessor cdrProcessor;
-    private final SpSession spSession;
-    private final AppProperties appProperties;
+    private final IngressQueueWriter ingressQueueWriter;
+    private final MultipartReassemblyStore multipartReassemblyStore;
 
-    public void processPart(MessageEvent submitSmEvent, Map<String, Object> mapUdh) {
+    /**
+     * Stores the part and, once all the parts were received, queues the parent message.
+     *
+     * @return future of the ingress write when this part completed the message, null otherwise
+     */
+    public CompletableFuture<Void> processPart(MessageEvent submitSmEvent, ConcatenatedSegment segment) {
+        return processPart(submitSmEvent, segment, parent -> {
+        });
+    }
+
+    /**
+     * @param onParent completes the event when this part is the first one received and it becomes the parent of the message
+     */
+    public CompletableFuture<Void> processPart(MessageEvent submitSmEvent, ConcatenatedSegment segment, Consumer<MessageEvent> onParent) {
         try {
             MessagePart messagePartEvent = new MessagePart();
-            String key = submitSmEvent.getSystemId();
-            int totalSegment;
-            int segmentSequence;
-            int[] udh = (int[]) mapUdh.get(Constants.IEI_CONCATENATED_MESSAGE);
-            String msgReferenceNumber = String.valueOf(udh[0]);
-            totalSegment = udh[1];
-            segmentSequence = udh[2];
+            String msgReferenceNumber = String.valueOf(segment.reference());
 
-            String messagePart = Converter.udhMapToJson(mapUdh);
-            String message = mapUdh.get("message").toString();
             messagePartEvent.setMessageId(submitSmEvent.getMessageId());
-            messagePartEvent.setUdhJson(messagePart);
-            messagePartEvent.setShortMessage(message);
+            messagePartEvent.setUdhJson(segment.toUdhJson());
+            messagePartEvent.setShortMessage(segment.message());
             messagePartEvent.setMsgReferenceNumber(msgReferenceNumber);
-            messagePartEvent.setTotalSegment(totalSegment);
-            messagePartEvent.setSegmentSequence(segmentSequence);
+            messagePartEvent.setTotalSegment(segment.total());
+            messagePartEvent.setSegmentSequence(segment.sequence());
 
-            key = key + msgReferenceNumber;
-            if (!messagesEventQueue.containsKey(key)) {
-                MessageId parentMessageId = messageIDGenerator.newMessageId();
-                submitSmEvent.setId(parentMessageId.toString());
-                submitSmEvent.setMessageId(parentMessageId.toString());
-                submitSmEvent.setParentId(parentMessageId.toString());
-                messagesEventQueue.put(key, submitSmEvent);
-            }
-
-            MessageEvent parentSubmitSmEvent = this.updateMessagesEventQueue(key, messagePartEvent);
-            this.messageCounterHandler(key, messagePartEvent.getTotalSegment(), parentSubmitSmEvent);
+            // the reference number is only 8 or 16 bits, the addresses keep apart messages of the same provider
+            String key = String.join("_", submitSmEvent.getSystemId(), submitSmEvent.getSourceAddr(),
+                    submitSmEvent.getDestinationAddr(), msgReferenceNumber);
+            MultipartReassemblyStore.Progress progress = multipartReassemblyStore.addPart(key, submitSmEvent, messagePartEvent, onParent);
+            return this.messageCounterHandler(key, segment.total(), progress);
+        } catch (RejectedExecutionException e) {
+            throw e;
         } catch (Exception e) {
             log.error("Error to process part message: -> {}", e.getMessage());
+            return null;
         }
     }
 
-    private MessageEvent updateMessagesEventQueue(String key, MessagePart newMessagePart) {
-        return messagesEventQueue.computeIfPresent(key, (k, messageEvent) -> {
-            if (Objects.isNull(messageEvent.getMessageParts())) {
-                messageEvent.setMessageParts(new ArrayList<>());
-            }
-            messageEvent.getMessageParts().add(newMessagePart);
-            return messageEvent;
-        });
-    }
-
-    private void messageCounterHandler(String key, int totalParts, MessageEvent submitSmEvent) {
-        long totalPartsReceived = messageQueueCount.computeIfAbsent(key, k -> new AtomicLong()).addAndGet(1L);
-        String cdrComment = String.format("MULTIPART MESSAGE RECEIVED %s OF %s", totalParts, totalPartsReceived);
+    private CompletableFuture<Void> messageCounterHandler(String key, int totalParts, MultipartReassemblyStore.Progress progress) {
+        MessageEvent submitSmEvent = progress.parent();
+        String cdrComment = String.format("MULTIPART MESSAGE RECEIVED %s OF %s", totalParts, progress.received());
 
-        if (totalParts == totalPartsReceived) {
-            spSession.getJedisCluster().lpush(appProperties.getPreMessageList(), submitSmEvent.toString());
-            cdrProcessor.putCdrDetailOnRedis(
-                    submitSmEvent.toCdrDetail(UtilsEnum.Module.SMPP_SERVER, UtilsEnum.MessageType.MESSAGE, UtilsEnum.CdrStatus.RECEIVED, cdrComment));
-            this.cleaningObjects(key);
-            return;
+        if (progress.complete()) {
+            return this.enqueueComplete(key, progress, cdrComment);
         }
 
-        spSession.getJedisCluster().hset(appProperties.getMessagePartsHash(), key, submitSmEvent.toString());
         cdrProcessor.putCdrDetailOnRedis(
                 submitSmEvent.toCdrDetail(UtilsEnum.Module.SMPP_SERVER, UtilsEnum.MessageType.MESSAGE, UtilsEnum.CdrStatus.ENQUEUE, cdrComment));
+        return null;
     }
 
-    private void cleaningObjects(String key) {
-        messagesEventQueue.remove(key);
-        messageQueueCount.remove(key);
-        spSession.getJedisCluster().hdel(appProperties.getMessagePartsHash(), key);
+    // the reassembly is only removed once the message is stored, if not the segment resent by the ESME completes it again
+    private CompletableFuture<Void> enqueueComplete(String key, MultipartReassemblyStore.Progress progress, String cdrComment) {
+        CompletableFuture<Void> queued;
+        try {
+            queued = ingressQueueWriter.enqueue(progress.parent(), cdrComment);
+        } catch (RuntimeException e) {
+            multipartReassemblyStore.release(key, progress, false);
+            throw e;
+        }
+        // the listener waits on the returned future, so the reassembly is released before the submit_sm is answered
+        return queued.whenComplete((result, error) -> multipartReassemblyStore.release(key, progress, Objects.isNull(error)));
     }
 }
@@ -1,21 +1,16 @@
 package com.paicbd.module.server;
 
 import com.paicbd.module.components.GeneralSettingsCacheConfig;
+import com.paicbd.module.components.IngressQueueWriter;
 import com.paicbd.module.utils.AppProperties;
-import com.paicbd.module.utils.Constants;
 import com.paicbd.module.utils.SpSession;
 import com.paicbd.module.utils.StaticMethods;
-import com.paicbd.smsc.cdr.CdrProcessor;
 import com.paicbd.smsc.dto.GeneralSettings;
 import com.paicbd.smsc.dto.MessageEvent;
 import com.paicbd.smsc.dto.ServiceProvider;
-import com.paicbd.smsc.dto.UtilsRecords;
-import com.paicbd.smsc.utils.Converter;
 import com.paicbd.smsc.utils.Generated;
 import com.paicbd.smsc.utils.MessageIDGeneratorImpl;
-import com.paicbd.smsc.utils.SmppEncoding;
 import com.paicbd.smsc.utils.SmppUtils;
-import com.paicbd.smsc.utils.UtilsEnum;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.jsmpp.SMPPConstant;
@@ -45,12 +40,13 @@ import org.jsmpp.util.MessageIDGenerator;
 import org.jsmpp.util.MessageId;
 
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Objects;
-import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Collectors;
 
 @Slf4j
 @RequiredArgsConstructor
@@ -60,16 +56,9 @@ public class ServerMessageReceiverListenerImpl implements ServerMessageReceiverL
     private final SpSession spSession;
     private final GeneralSettingsCacheConfig generalSettingsCacheConfig;
     private final AppProperties properties;
-    private final CdrProcessor cdrProcessor;
     private final MultiPartsHandler multiPartsHandler;
-
-    private final Map<Short, Integer> tagMultiPartMessageToIndexMap = Map.of(
-            (short) 524, 0,
-            (short) 526, 1,
-            (short) 527, 2
-    );
-
-    private Map<String, Object> udhMap;
+    private final IngressQueueWriter ingressQueueWriter;
+    private final SubmitWindow submitWindow;
 
     @Override
     public SubmitSmResult onAcceptSubmitSm(SubmitSm submitSm, SMPPServerSession smppServerSession) throws ProcessRequestException {
@@ -85,61 +74,83 @@ public class ServerMessageReceiverListenerImpl implements ServerMessageReceiverL
             throw new ProcessRequestException("Throttling error", SMPPConstant.STAT_ESME_RTHROTTLED);
         }
 
+        // the window is checked first, a submit_sm rejected by it does not take a TPS token
+        if (!submitWindow.tryAcquire()) {
+            log.info("The submit window is full for session: {}, outstanding {}", smppServerSession.getSessionId(), submitWindow.getOutstanding());
+            throw new ProcessRequestException("Throttling error", SMPPConstant.STAT_ESME_RTHROTTLED);
+        }
+
+        if (!spSession.tryAcquireTps()) {
+            submitWindow.releaseWhenDone(null);
+            log.debug("TPS exceeded for session: {}", smppServerSession.getSessionId());
+            throw new ProcessRequestException("Throttling error", SMPPConstant.STAT_ESME_RTHROTTLED);
+        }
+
         MessageId messageId = messageIDGenerator.newMessageId();
-        addInQ(submitSm, messageId);
+        CompletableFuture<Void> queued = null;
+        try {
+            queued = addInQ(submitSm, messageId);
+        } catch (RejectedExecutionException e) {
+            log.info("The ingress buffer is full for session: {}", smppServerSession.getSessionId());
+            throw new ProcessRequestException("Throttling error", SMPPConstant.STAT_ESME_RTHROTTLED);
+        } finally {
+            submitWindow.releaseWhenDone(queued);
+        }
+        awaitFlush(queued, smppServerSession);
         requestCounter.incrementAndGet();
         return new SubmitSmResult(messageId, new OptionalParameter[0]);
     }
 
-    private void addInQ(SubmitSm submitSm, MessageId messageId) {
+    private void awaitFlush(CompletableFuture<Void> queued, SMPPServerSession smppServerSession) throws ProcessRequestException {
+        if (Objects.isNull(queued) || !ingressQueueWriter.isAckAfterFlush()) {
+            return;
+        }
+
+        try {
+            queued.get(properties.getSmppServerTransactionTimer(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProcessRequestException("Interrupted while storing message", SMPPConstant.STAT_ESME_RSYSERR);
+        } catch (ExecutionException | TimeoutException e) {
+            log.error("Unable to store message for session {}: {}", smppServerSession.getSessionId(), e.getMessage());
+            throw new ProcessRequestException("System error", SMPPConstant.STAT_ESME_RSYSERR);
+        }
+    }
+
+    private CompletableFuture<Void> addInQ(SubmitSm submitSm, MessageId messageId) {
         var isGSMSpecificFeatureDefault = GSMSpecificFeature.DEFAULT.containedIn(submitSm.getEsmClass());
         ServiceProvider currentServiceProvider = spSession.getCurrentServiceProvider();
         GeneralSettings smppGeneralSettings = generalSettingsCacheConfig.getCurrentGeneralSettings();
         int encodingType = SmppUtils.determineEncodingType(submitSm.getDataCoding(), smppGeneralSettings);
-        MessageEvent submitSmEvent = createSubmitSmEvent(submitSm, messageId, currentServiceProvider, encodingType);
+        MessageEvent submitSmEvent = createSubmitSmEvent(submitSm, messageId, currentServiceProvider);
         submitSmEvent.setOriginNetworkType("SP");
         submitSmEvent.setOriginProtocol("SMPP");
         submitSmEvent.setUdhi((isGSMSpecificFeatureDefault) ? "0" : "1");
 
-        log.debug("Adding SubmitSm {} to {} queue.", submitSmEvent, properties.getPreMessageList());
-        if (isConcatenatedMessage(submitSm, encodingType, submitSmEvent)) {
-            multiPartsHandler.processPart(submitSmEvent, udhMap);
-            return;
-        }
-        spSession.getJedisCluster().lpush(properties.getPreMessageList(), submitSmEvent.toString());
-        cdrProcessor.putCdrDetailOnRedis(
-                submitSmEvent.toCdrDetail(UtilsEnum.Module.SMPP_SERVER, UtilsEnum.MessageType.MESSAGE, UtilsEnum.CdrStatus.RECEIVED, "Received"));
-    }
-
-    private boolean isConcatenatedMessage(SubmitSm submitSm, int encodingType, MessageEvent messageEvent) {
-        boolean isConcatenated = false;
-
+        // parsed per PDU, the listener is shared by all the PDU processor threads of the session
         if (submitSm.isUdhi()) {
-            udhMap = Converter.bytesToUdhMap(submitSm.getShortMessage(), encodingType);
-            return udhMap.containsKey(Constants.IEI_CONCATENATED_MESSAGE);
-        } else if (isTlvMessagePart(messageEvent)) {
-            udhMap = new HashMap<>();
-            int[] segment = new int[3];
-
-            messageEvent.getOptionalParameters().stream()
-                    .filter(opt -> tagMultiPartMessageToIndexMap.containsKey(opt.tag()))
-                    .forEach(opt -> {
-                        Integer index = tagMultiPartMessageToIndexMap.get(opt.tag());
-                        segment[index] = Integer.parseInt(opt.value());
-                    });
-
-            udhMap.put(Constants.IEI_CONCATENATED_MESSAGE, segment);
-            udhMap.put("message", messageEvent.getShortMessage());
-
-            return true;
+            ConcatenatedSegment segment = ConcatenatedSegment.fromUdh(submitSm.getShortMessage(), encodingType);
+            if (Objects.nonNull(segment)) {
+                log.debug("Adding part {} of {} of SubmitSm {}", segment.sequence(), segment.total(), submitSmEvent.getMessageId());
+                return multiPartsHandler.processPart(submitSmEvent, segment,
+                        parent -> parent.setShortMessage(SubmitSmDecoder.text(submitSm, encodingType)));
+            }
         }
 
-        return isConcatenated;
+        submitSmEvent.setShortMessage(SubmitSmDecoder.text(submitSm, encodingType));
+        log.debug("Adding SubmitSm {} to {} queue.", submitSmEvent, properties.getPreMessageList());
+        // also for a UDH without a concatenation IE, the parts may still be numbered with the sar_* TLVs
+        if (ConcatenatedSegment.hasSarParameters(submitSm.getOptionalParameters())) {
+            ConcatenatedSegment segment = ConcatenatedSegment.fromSarParameters(submitSmEvent.getOptionalParameters(), submitSmEvent.getShortMessage());
+            if (Objects.nonNull(segment)) {
+                return multiPartsHandler.processPart(submitSmEvent, segment);
+            }
+        }
+        return ingressQueueWriter.enqueue(submitSmEvent, "Received");
     }
 
-    private MessageEvent createSubmitSmEvent(SubmitSm submitSm, MessageId messageId,
-                                             ServiceProvider currentServiceProvider, int encodingType) {
-        MessageEvent event = getSubmitSmEvent(submitSm, encodingType);
+    private MessageEvent createSubmitSmEvent(SubmitSm submitSm, MessageId messageId, ServiceProvider currentServiceProvider) {
+        MessageEvent event = SubmitSmDecoder.toEvent(submitSm);
         event.setSystemId(currentServiceProvider.getSystemId());
         event.setOriginNetworkId(currentServiceProvider.getNetworkId());
         event.setId(messageId.getValue());
@@ -153,39 +164,6 @@ public class ServerMessageReceiverListenerImpl implements ServerMessageReceiverL
         return event;
     }
 
-    private MessageEvent getSubmitSmEvent(SubmitSm submitSm, int encodingType) {
-        String decodedMessage = SmppEncoding.decodeMessage(submitSm.getShortMessage(), encodingType);
-        MessageEvent submitSmEvent = new MessageEvent();
-        submitSmEvent.setRetry(false);
-        submitSmEvent.setRetryDestNetworkId("");
-        submitSmEvent.setCommandStatus(submitSm.getCommandStatus());
-        submitSmEvent.setSequenceNumber(submitSm.getSequenceNumber());
-        submitSmEvent.setSourceAddrTon((int) submitSm.getSourceAddrTon());
-        submitSmEvent.setSourceAddrNpi((int) submitSm.getSourceAddrNpi());
-        submitSmEvent.setSourceAddr(submitSm.getSourceAddr());
-        submitSmEvent.setDestAddrTon((int) submitSm.getDestAddrTon());
-        submitSmEvent.setDestAddrNpi((int) submitSm.getDestAddrNpi());
-        submitSmEvent.setDestinationAddr(submitSm.getDestAddress());
-        submitSmEvent.setEsmClass((int) submitSm.getEsmClass());
-        submitSmEvent.setStringValidityPeriod(submitSm.getValidityPeriod());
-        submitSmEvent.setRegisteredDelivery((int) submitSm.getRegisteredDelivery());
-        submitSmEvent.setDataCoding((int) submitSm.getDataCoding());
-        submitSmEvent.setSmDefaultMsgId(submitSm.getSmDefaultMsgId());
-        submitSmEvent.setShortMessage(decodedMessage);
-        return submitSmEvent;
-    }
-
-    private boolean isTlvMessagePart(MessageEvent messageEvent) {
-        if (Objects.isNull(messageEvent.getOptionalParameters())) {
-            return false;
-        }
-
-        Set<Short> eventTags = messageEvent.getOptionalParameters().stream()
-                .map(UtilsRecords.OptionalParameter::tag)
-                .collect(Collectors.toSet());
-        return eventTags.containsAll(tagMultiPartMessageToIndexMap.keySet());
-    }
-
     @Generated
     @Override
     public SubmitMultiResult onAcceptSubmitMulti(SubmitMulti submitMulti, SMPPServerSession smppServerSession) {
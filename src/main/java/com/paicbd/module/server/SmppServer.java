@@ -1,7 +1,13 @@
 package com.paicbd.module.server;
 
 import com.paicbd.module.components.GeneralSettingsCacheConfig;
+import com.paicbd.module.components.IngressQueueWriter;
+import com.paicbd.module.components.MultipartReassemblyStore;
+import com.paicbd.module.components.PendingDeliverSmDrainer;
 import com.paicbd.module.components.ServerHandler;
+import com.paicbd.module.components.ServiceProviderRegistry;
+import com.paicbd.module.components.ServiceProviderStateWriter;
+import com.paicbd.module.components.SessionStatusNotifier;
 import com.paicbd.module.utils.SpSession;
 import com.paicbd.module.utils.AppProperties;
 import com.paicbd.smsc.utils.Converter;
@@ -9,7 +15,6 @@ import com.paicbd.smsc.utils.UtilsEnum;
 import com.paicbd.smsc.utils.Watcher;
 import com.paicbd.smsc.cdr.CdrProcessor;
 import com.paicbd.smsc.dto.ServiceProvider;
-import com.paicbd.smsc.ws.SocketSession;
 import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -19,23 +24,19 @@ import org.jsmpp.session.SMPPServerSessionListener;
 import org.jsmpp.session.SMPPServerSession;
 import org.jsmpp.session.BindRequest;
 import org.jsmpp.session.connection.socket.ServerSocketConnectionFactory;
-import org.springframework.messaging.simp.stomp.StompSession;
 import org.springframework.stereotype.Component;
 import redis.clients.jedis.JedisCluster;
 
 import java.io.IOException;
 
 import java.net.InetAddress;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.Callable;
@@ -48,15 +49,20 @@ import static com.paicbd.module.utils.Constants.STOPPED;
 @RequiredArgsConstructor
 public class SmppServer implements Runnable {
     private static final AtomicInteger requestCounter = new AtomicInteger();
+    private static final AtomicInteger bindCounter = new AtomicInteger();
 
     private final JedisCluster jedisCluster;
     private final CdrProcessor cdrProcessor;
-    private final SocketSession socketSession;
+    private final SessionStatusNotifier sessionStatusNotifier;
     private final ServerHandler serverHandler;
     private final AppProperties appProperties;
-    private final Set<ServiceProvider> providers;
+    private final ServiceProviderRegistry providerRegistry;
     private final ConcurrentMap<Integer, SpSession> spSessionMap;
     private final GeneralSettingsCacheConfig generalSettingsCacheConfig;
+    private final IngressQueueWriter ingressQueueWriter;
+    private final MultipartReassemblyStore multipartReassemblyStore;
+    private final PendingDeliverSmDrainer pendingDeliverSmDrainer;
+    private final ServiceProviderStateWriter serviceProviderStateWriter;
     private final ThreadFactory factory = Thread.ofVirtual().name("server_session-", 0).factory();
     private final ExecutorService execService = Executors.newThreadPerTaskExecutor(factory);
 
@@ -66,6 +72,7 @@ public class SmppServer implements Runnable {
         this.loadServiceProviders();
         Thread.startVirtualThread(this);
         Thread.startVirtualThread(() -> new Watcher("SMPPWatcher", requestCounter, 1));
+        Thread.startVirtualThread(() -> new Watcher("BindWatcher", bindCounter, 1));
     }
 
     @Override
@@ -73,8 +80,9 @@ public class SmppServer implements Runnable {
         boolean isRunning = true;
         try {
             var sessionListener = createListener();
+            var bindPermits = createBindPermits();
             while (isRunning) {
-                isRunning = manageSession(sessionListener);
+                isRunning = manageSession(sessionListener, bindPermits);
             }
         } catch (IOException e) {
             log.error("IO error occurred", e);
@@ -94,53 +102,84 @@ public class SmppServer implements Runnable {
         return sessionListener;
     }
 
-    private boolean manageSession(SMPPServerSessionListener sessionListener) {
+    /**
+     * Limits the number of handshakes (accept, wait for bind and bind decision) running at the same time.
+     * A value lower than 1 for smpp.server.maxConcurrentBinds means no limit.
+     */
+    private Semaphore createBindPermits() {
+        int maxConcurrentBinds = appProperties.getSmppServerMaxConcurrentBinds();
+        log.warn("Handshakes in flight limited to {}", maxConcurrentBinds > 0 ? maxConcurrentBinds : "unlimited");
+        return new Semaphore(maxConcurrentBinds > 0 ? maxConcurrentBinds : Integer.MAX_VALUE);
+    }
+
+    private boolean manageSession(SMPPServerSessionListener sessionListener, Semaphore bindPermits) {
         boolean isRunning = true;
-        SMPPServerSession serverSession;
         try {
-            serverSession = sessionListener.accept();
+            bindPermits.acquire();
+        } catch (InterruptedException e) {
+            log.warn("Interrupted while waiting for a handshake slot: {}", e.getMessage());
+            Thread.currentThread().interrupt();
+            return false;
+        }
+
+        try {
+            SMPPServerSession serverSession = sessionListener.accept();
             serverSession.setTransactionTimer(appProperties.getSmppServerTransactionTimer());
             log.info("Accepted connection with session {}", serverSession.getSessionId());
-            Future<Boolean> bindResultFuture = execService.submit(
-                    new WaitBindTask(
-                            serverSession, appProperties.getSmppServerWaitForBind(),
-                            providers, spSessionMap, jedisCluster,
-                            socketSession.getStompSession(), serverHandler,
-                            appProperties, generalSettingsCacheConfig, cdrProcessor
-                    ));
+            execService.execute(() -> handleBind(serverSession, bindPermits));
+        } catch (IOException e) {
+            log.error("IO error occurred while managing session", e);
+            bindPermits.release();
+            isRunning = false;
+        } catch (RejectedExecutionException e) {
+            log.error("Unable to schedule WaitBind task: {}", e.getMessage());
+            bindPermits.release();
+            isRunning = false;
+        }
+        return isRunning;
+    }
+
+    private void handleBind(SMPPServerSession serverSession, Semaphore bindPermits) {
+        try {
+            boolean isBound = new WaitBindTask(
+                    serverSession, appProperties.getSmppServerWaitForBind(),
+                    providerRegistry, spSessionMap, jedisCluster,
+                    sessionStatusNotifier, serverHandler,
+                    appProperties, generalSettingsCacheConfig, cdrProcessor,
+                    ingressQueueWriter, multipartReassemblyStore, pendingDeliverSmDrainer,
+                    serviceProviderStateWriter
+            ).call();
 
-            boolean isBound = bindResultFuture.get();
             if (isBound) {
+                bindCounter.incrementAndGet();
                 log.info("The session is now in state {}", serverSession.getSessionState());
             } else {
                 log.warn("Closing session {} not bound", serverSession.getSessionId());
                 serverSession.close();
             }
-        } catch (InterruptedException e) {
-            log.warn("Interrupted WaitBind  task: {}", e.getMessage());
-            Thread.currentThread().interrupt();
-            isRunning = false;
-        } catch (ExecutionException e) {
+        } catch (Exception e) {
             log.error("Exception on execute WaitBind task: {}", e.getMessage());
-            isRunning = false;
-        } catch (IOException e) {
-            log.error("IO error occurred while managing session", e);
-            isRunning = false;
+            serverSession.close();
+        } finally {
+            bindPermits.release();
         }
-        return isRunning;
     }
 
     private record WaitBindTask(
             SMPPServerSession serverSession,
             long timeout,
-            Set<ServiceProvider> providers,
+            ServiceProviderRegistry providerRegistry,
             ConcurrentMap<Integer, SpSession> spSessionMap,
             JedisCluster jedisCluster,
-            StompSession wsSession,
+            SessionStatusNotifier sessionStatusNotifier,
             ServerHandler serverHandler,
             AppProperties properties,
             GeneralSettingsCacheConfig generalSettingsCacheConfig,
-            CdrProcessor cdrProcessor
+            CdrProcessor cdrProcessor,
+            IngressQueueWriter ingressQueueWriter,
+            MultipartReassemblyStore multipartReassemblyStore,
+            PendingDeliverSmDrainer pendingDeliverSmDrainer,
+            ServiceProviderStateWriter serviceProviderStateWriter
     ) implements Callable<Boolean> {
         @Override
         public Boolean call() {
@@ -165,9 +204,7 @@ public class SmppServer implements Runnable {
 
         private boolean processBindRequest(BindRequest bindRequest) throws IOException {
             try {
-                Optional<ServiceProvider> serviceProviderOpt = providers.stream()
-                        .filter(provider -> provider.getSystemId().equals(bindRequest.getSystemId()))
-                        .findFirst();
+                Optional<ServiceProvider> serviceProviderOpt = providerRegistry.findBySystemId(bindRequest.getSystemId());
 
                 if (serviceProviderOpt.isEmpty()) {
                     bindRequest.reject(SMPPConstant.STAT_ESME_RINVSYSID);
@@ -201,26 +238,36 @@ public class SmppServer implements Runnable {
                         key -> new SpSession(jedisCluster, currentProvider, properties)
                 );
 
-                log.info("Accepting bind for session {}, interface version {}", serverSession.getSessionId(), bindRequest.getInterfaceVersion());
-                serverSession.setMessageReceiverListener(
-                        new ServerMessageReceiverListenerImpl(
-                                requestCounter,
-                                currentSpSession,
-                                generalSettingsCacheConfig,
-                                properties, cdrProcessor,
-                                new MultiPartsHandler(cdrProcessor, currentSpSession, properties)
-                        )
-                );
-                var smppGeneralSettings = generalSettingsCacheConfig.getCurrentGeneralSettings();
-                serverSession.addSessionStateListener(
-                        new SessionStateListenerImpl(
-                                currentProvider.getNetworkId(),
-                                spSessionMap,
-                                wsSession,
-                                jedisCluster,
-                                smppGeneralSettings,
-                                cdrProcessor));
-                bindRequest.accept(currentProvider.getSystemId(), bindRequest.getInterfaceVersion());
+                // Handshakes run concurrently, the max binds check is repeated while holding the SpSession
+                // so two handshakes of the same provider can not take the last available bind at the same time
+                synchronized (currentSpSession) {
+                    if (currentSpSession.getCurrentServiceProvider().getCurrentBindsCount() >= currentProvider.getMaxBinds()) {
+                        bindRequest.reject(SMPPConstant.STAT_ESME_RBINDFAIL);
+                        return false;
+                    }
+
+                    log.info("Accepting bind for session {}, interface version {}", serverSession.getSessionId(), bindRequest.getInterfaceVersion());
+                    serverSession.setMessageReceiverListener(
+                            new ServerMessageReceiverListenerImpl(
+                                    requestCounter,
+                                    currentSpSession,
+                                    generalSettingsCacheConfig,
+                                    properties,
+                                    new MultiPartsHandler(cdrProcessor, ingressQueueWriter, multipartReassemblyStore),
+                                    ingressQueueWriter,
+                                    new SubmitWindow(properties.getSmppServerSubmitWindowSize(),
+                                            properties.getSmppServerSubmitWindowFullPolicy(), properties.getSmppServerTransactionTimer())
+                            )
+                    );
+                    serverSession.addSessionStateListener(
+                            new SessionStateListenerImpl(
+                                    currentProvider.getNetworkId(),
+                                    spSessionMap,
+                                    sessionStatusNotifier,
+                                    serviceProviderStateWriter,
+                                    pendingDeliverSmDrainer));
+                    bindRequest.accept(currentProvider.getSystemId(), bindRequest.getInterfaceVersion());
+                }
 
                 return true;
             } catch (PDUStringException | IOException e) {
@@ -235,7 +282,6 @@ public class SmppServer implements Runnable {
 
     public void loadServiceProviders() {
         var redisProviders = jedisCluster.hgetAll(appProperties.getServiceProvidersHashName());
-        List<ServiceProvider> providersToAdd = new ArrayList<>();
 
         redisProviders.entrySet().parallelStream().forEach(entry -> {
             try {
@@ -244,21 +290,13 @@ public class SmppServer implements Runnable {
                 data = data.replace("\\", "\\\\");
                 ServiceProvider sp = Converter.stringToObject(data, ServiceProvider.class);
                 Objects.requireNonNull(sp, "Service provider cannot be null");
-                var existingSp = this.providers.stream()
-                        .filter(x -> x.getSystemId().equals(sp.getSystemId()))
-                        .findFirst()
-                        .orElse(null);
-
-                if (existingSp == null && "smpp".equalsIgnoreCase(sp.getProtocol())) {
-                    providersToAdd.add(sp);
+                if ("smpp".equalsIgnoreCase(sp.getProtocol())) {
+                    providerRegistry.putIfAbsent(sp);
                 }
             } catch (Exception e) {
                 log.error("Error loading service provider", e);
             }
         });
-
-        if (!providersToAdd.isEmpty()) {
-            this.providers.addAll(providersToAdd);
-        }
+        log.warn("{} service providers loaded", providerRegistry.size());
     }
 }
\ No newline at end of file
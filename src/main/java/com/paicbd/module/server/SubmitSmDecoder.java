@@ -0,0 +1,47 @@
+package com.paicbd.module.server;
+
+import com.paicbd.smsc.dto.MessageEvent;
+import com.paicbd.smsc.utils.Generated;
+import com.paicbd.smsc.utils.SmppEncoding;
+import org.jsmpp.bean.SubmitSm;
+
+/**
+ * Decoding of the submit_sm received into the {@link MessageEvent} queued.
+ * <p>
+ * The event is built without its text, the short message is decoded with {@link #text(SubmitSm, int)} only when the event
+ * is kept: a part concatenated with a UDH keeps the text of its segment, the text of the whole PDU is only needed when
+ * the part is the first one received, the parent of the message.
+ */
+public class SubmitSmDecoder {
+    @Generated
+    private SubmitSmDecoder() {
+        throw new IllegalStateException("Utility Class");
+    }
+
+    public static MessageEvent toEvent(SubmitSm submitSm) {
+        MessageEvent submitSmEvent = new MessageEvent();
+        submitSmEvent.setRetry(false);
+        submitSmEvent.setRetryDestNetworkId("");
+        submitSmEvent.setCommandStatus(submitSm.getCommandStatus());
+        submitSmEvent.setSequenceNumber(submitSm.getSequenceNumber());
+        submitSmEvent.setSourceAddrTon((int) submitSm.getSourceAddrTon());
+        submitSmEvent.setSourceAddrNpi((int) submitSm.getSourceAddrNpi());
+        submitSmEvent.setSourceAddr(submitSm.getSourceAddr());
+        submitSmEvent.setDestAddrTon((int) submitSm.getDestAddrTon());
+        submitSmEvent.setDestAddrNpi((int) submitSm.getDestAddrNpi());
+        submitSmEvent.setDestinationAddr(submitSm.getDestAddress());
+        submitSmEvent.setEsmClass((int) submitSm.getEsmClass());
+        submitSmEvent.setStringValidityPeriod(submitSm.getValidityPeriod());
+        submitSmEvent.setRegisteredDelivery((int) submitSm.getRegisteredDelivery());
+        submitSmEvent.setDataCoding((int) submitSm.getDataCoding());
+        submitSmEvent.setSmDefaultMsgId(submitSm.getSmDefaultMsgId());
+        return submitSmEvent;
+    }
+
+    /**
+     * @return the whole short message decoded, including the UDH when there is one
+     */
+    public static String text(SubmitSm submitSm, int encodingType) {
+        return SmppEncoding.decodeMessage(submitSm.getShortMessage(), encodingType);
+    }
+}
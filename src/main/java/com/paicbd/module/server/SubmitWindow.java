@@ -0,0 +1,74 @@
+package com.paicbd.module.server;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outstanding submit_sm window of a single bind.
+ * <p>
+ * A permit is taken when the submit_sm is accepted and given back once its event is stored in Redis,
+ * so the number of messages of a bind waiting on the ingress writer never exceeds the window size.
+ * When the window is full the THROTTLE policy rejects the PDU right away, BACKPRESSURE holds the
+ * session PDU processor until a permit is available or the wait timeout expires.
+ */
+@Slf4j
+public class SubmitWindow {
+    public static final String POLICY_THROTTLE = "THROTTLE";
+    public static final String POLICY_BACKPRESSURE = "BACKPRESSURE";
+
+    private final int size;
+    private final Semaphore permits;
+    private final boolean backPressure;
+    private final long maxWaitMillis;
+
+    /**
+     * @param size          maximum outstanding submit_sm, 0 or less means unlimited
+     * @param fullPolicy    THROTTLE or BACKPRESSURE, THROTTLE when null or unknown
+     * @param maxWaitMillis maximum wait for a permit with the BACKPRESSURE policy
+     */
+    public SubmitWindow(int size, String fullPolicy, long maxWaitMillis) {
+        this.size = size;
+        this.permits = size > 0 ? new Semaphore(size) : null;
+        this.backPressure = POLICY_BACKPRESSURE.equalsIgnoreCase(fullPolicy);
+        this.maxWaitMillis = Math.max(0, maxWaitMillis);
+    }
+
+    public boolean tryAcquire() {
+        if (Objects.isNull(permits)) {
+            return true;
+        }
+        if (!backPressure) {
+            return permits.tryAcquire();
+        }
+
+        try {
+            return permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            log.warn("Interrupted while waiting for a submit window permit");
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Gives the permit back once the event is flushed, or right away when there is nothing to wait for.
+     */
+    public void releaseWhenDone(CompletableFuture<Void> queued) {
+        if (Objects.isNull(permits)) {
+            return;
+        }
+        if (Objects.isNull(queued)) {
+            permits.release();
+            return;
+        }
+        queued.whenComplete((result, throwable) -> permits.release());
+    }
+
+    public int getOutstanding() {
+        return Objects.isNull(permits) ? 0 : size - permits.availablePermits();
+    }
+}
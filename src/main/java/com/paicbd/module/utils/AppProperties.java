@@ -59,6 +59,12 @@ public class AppProperties {
     @Value("${smpp.serviceProvidersHashName}")
     private String serviceProvidersHashName;
 
+    @Value("${smpp.serviceProviders.runtimeHashName:service_providers_runtime}")
+    private String serviceProvidersRuntimeHashName;
+
+    @Value("${smpp.serviceProviders.stateMode:FULL}")
+    private String serviceProvidersStateMode;
+
     @Value("${smpp.server.configurationHashName}")
     private String configurationHash;
 
@@ -111,13 +117,120 @@ public class AppProperties {
     @Value("${queue.consumer.batch.size}")
     private int deliverSmBatchSizePerWorker;
 
+    @Value("${queue.consumer.sessionPolicy:ROUND_ROBIN}")
+    private String deliverSmSessionPolicy;
+
+    @Value("${queue.consumer.mode:POLLING}")
+    private String deliverSmConsumerMode;
+
+    @Value("${queue.consumer.blockTimeoutSeconds:1}")
+    private int deliverSmBlockTimeoutSeconds;
+
+    @Value("${queue.consumer.stream.key:smpp_dlr_stream}")
+    private String deliverSmStreamKey;
+
+    @Value("${queue.consumer.stream.group:smpp-server}")
+    private String deliverSmStreamGroup;
+
+    @Value("${queue.consumer.stream.field:message}")
+    private String deliverSmStreamField;
+
+    @Value("${queue.consumer.stream.claimIdleMillis:60000}")
+    private long deliverSmStreamClaimIdleMillis;
+
+    @Value("${queue.consumer.stream.maxDeliveries:5}")
+    private int deliverSmStreamMaxDeliveries;
+
+    @Value("${queue.consumer.window.size:10}")
+    private int deliverSmWindowSize;
+
+    @Value("${queue.consumer.window.overrides:}")
+    private String deliverSmWindowOverrides;
+
+    @Value("${queue.consumer.window.maxPending:10000}")
+    private int deliverSmMaxPending;
+
+    @Value("${queue.consumer.routing.enabled:false}")
+    private boolean deliverSmRoutingEnabled;
+
+    @Value("${queue.consumer.routing.hash:smpp_dlr_routes}")
+    private String deliverSmRoutingHash;
+
+    @Value("${queue.consumer.routing.ttlMillis:15000}")
+    private long deliverSmRoutingTtlMillis;
+
+    @Value("${queue.consumer.retry.key:smpp_dlr_retry}")
+    private String deliverSmRetryKey;
+
+    @Value("${queue.consumer.retry.deadLetterQueue:smpp_dlr_dead_letter}")
+    private String deliverSmDeadLetterQueue;
+
+    @Value("${queue.consumer.retry.maxAttempts:5}")
+    private int deliverSmRetryMaxAttempts;
+
+    @Value("${queue.consumer.retry.baseDelayMillis:1000}")
+    private long deliverSmRetryBaseDelayMillis;
+
+    @Value("${queue.consumer.retry.maxDelayMillis:60000}")
+    private long deliverSmRetryMaxDelayMillis;
+
+    @Value("${queue.consumer.pending.chunkSize:500}")
+    private int pendingDeliverSmChunkSize;
+
+    @Value("${queue.consumer.pending.bufferCapacity:10000}")
+    private int pendingDeliverSmBufferCapacity;
+
+    @Value("${queue.consumer.pending.batchSize:500}")
+    private int pendingDeliverSmBatchSize;
+
+    @Value("${queue.consumer.pending.maxBatchDelayMillis:5}")
+    private long pendingDeliverSmMaxBatchDelayMillis;
+
     // Message Lists
     @Value("${redis.preMessageList}")
     private String preMessageList;
 
+    @Value("${redis.payloadFormat:JSON}")
+    private String payloadFormat;
+
     @Value("${queue.smpp.messageParts}")
     private String messagePartsHash;
 
+    // Multipart reassembly
+    @Value("${smpp.server.multipart.ttlMillis:120000}")
+    private long multipartTtlMillis;
+
+    @Value("${smpp.server.multipart.tickMillis:1000}")
+    private long multipartTickMillis;
+
+    @Value("${smpp.server.multipart.maxEntries:100000}")
+    private int multipartMaxEntries;
+
+    @Value("${smpp.server.multipart.expiryPolicy:DROP}")
+    private String multipartExpiryPolicy;
+
+    @Value("${smpp.server.multipart.persistenceMode:FULL}")
+    private String multipartPersistenceMode;
+
+    @Value("${smpp.server.multipart.writeBatchSize:500}")
+    private int multipartWriteBatchSize;
+
+    // Ingress write-behind for preMessage list
+    @Value("${smpp.server.ingress.ackMode:AFTER_FLUSH}")
+    private String ingressAckMode;
+
+    @Value("${smpp.server.ingress.batchSize:500}")
+    private int ingressBatchSize;
+
+    @Value("${smpp.server.ingress.maxBatchDelayMicros:500}")
+    private int ingressMaxBatchDelayMicros;
+
+    @Value("${smpp.server.ingress.queueCapacity:50000}")
+    private int ingressQueueCapacity;
+
+    @Value("${smpp.server.ingress.flushWorkers:4}")
+    private int ingressFlushWorkers;
+
     // SMPP Server
     @Value("${smpp.server.ip}")
     private String smppServerIp;
@@ -136,4 +249,29 @@ public class AppProperties {
 
     @Value("${smpp.server.waitForBind}")
     private int smppServerWaitForBind;
+
+    @Value("${smpp.server.maxConcurrentBinds:500}")
+    private int smppServerMaxConcurrentBinds;
+
+    @Value("${smpp.server.tasks.maxQueued:10000}")
+    private int smppServerTasksMaxQueued;
+
+    @Value("${smpp.server.submitWindow.size:1000}")
+    private int smppServerSubmitWindowSize;
+
+    @Value("${smpp.server.submitWindow.fullPolicy:THROTTLE}")
+    private String smppServerSubmitWindowFullPolicy;
+
+    // Service provider TPS
+    @Value("${smpp.server.tps.mode:LOCAL}")
+    private String tpsMode;
+
+    @Value("${smpp.server.tps.leaseIntervalMillis:100}")
+    private int tpsLeaseIntervalMillis;
+
+    @Value("${smpp.server.tps.leaseTimeoutMillis:20}")
+    private int tpsLeaseTimeoutMillis;
+
+    @Value("${smpp.server.tps.leaseKeyPrefix:smpp_tps_lease}")
+    private String tpsLeaseKeyPrefix;
 }
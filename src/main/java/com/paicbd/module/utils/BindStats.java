@@ -0,0 +1,46 @@
+package com.paicbd.module.utils;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load of a single bind, used to select the session that receives the next deliver_sm.
+ * The latency is an exponentially weighted moving average with a weight of 1/8 for the newest sample.
+ */
+public class BindStats {
+    private static final int EWMA_SHIFT = 3;
+
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicLong latencyEwmaNanos = new AtomicLong();
+
+    /**
+     * Counts a request as started only if the bind has less than windowSize requests waiting for response.
+     *
+     * @return false when the window of the bind is full
+     */
+    public boolean tryReserve(int windowSize) {
+        int current;
+        do {
+            current = outstanding.get();
+            if (current >= windowSize) {
+                return false;
+            }
+        } while (!outstanding.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    public void requestCompleted(long startNanos) {
+        outstanding.decrementAndGet();
+        long sample = Math.max(0, System.nanoTime() - startNanos);
+        latencyEwmaNanos.accumulateAndGet(sample, (current, newSample) ->
+                current == 0 ? newSample : current + ((newSample - current) >> EWMA_SHIFT));
+    }
+
+    public int getOutstanding() {
+        return outstanding.get();
+    }
+
+    public long getLatencyEwmaNanos() {
+        return latencyEwmaNanos.get();
+    }
+}
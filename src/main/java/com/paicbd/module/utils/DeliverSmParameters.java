@@ -0,0 +1,121 @@
+package com.paicbd.module.utils;
+
+import com.paicbd.smsc.dto.UtilsRecords;
+import com.paicbd.smsc.utils.Generated;
+import com.paicbd.smsc.utils.SmppEncoding;
+import com.paicbd.smsc.utils.UtilsEnum;
+import org.jsmpp.bean.DataCoding;
+import org.jsmpp.bean.ESMClass;
+import org.jsmpp.bean.GSMSpecificFeature;
+import org.jsmpp.bean.MessageMode;
+import org.jsmpp.bean.MessageType;
+import org.jsmpp.bean.NumberingPlanIndicator;
+import org.jsmpp.bean.RegisteredDelivery;
+import org.jsmpp.bean.TypeOfNumber;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntFunction;
+
+/**
+ * Parameters of the deliver_sm shared by every deliver_sm sent.
+ * <p>
+ * The type of number, numbering plan indicator, esm_class and data_coding of each byte value are resolved on first use
+ * and reused afterwards. The receipted_message_id TLV is replaced in place.
+ * <p>
+ * The jsmpp beans returned are shared by every thread sending deliver_sm and {@link ESMClass} and {@link RegisteredDelivery}
+ * have setters, callers must pass them to the session as they are and never modify them.
+ */
+public class DeliverSmParameters {
+    @Generated
+    private DeliverSmParameters() {
+        throw new IllegalStateException("Utility Class");
+    }
+
+    public static final short RECEIPTED_MESSAGE_ID = 30;
+    private static final RegisteredDelivery NO_RECEIPT = new RegisteredDelivery(0);
+    private static final ESMClass DELIVERY_RECEIPT = new ESMClass(MessageMode.DEFAULT, MessageType.SMSC_DEL_RECEIPT, GSMSpecificFeature.DEFAULT);
+
+    private static final int BYTE_VALUES = 256;
+    private static final AtomicReferenceArray<TypeOfNumber> typeOfNumbers = new AtomicReferenceArray<>(BYTE_VALUES);
+    private static final AtomicReferenceArray<NumberingPlanIndicator> numberingPlanIndicators = new AtomicReferenceArray<>(BYTE_VALUES);
+    private static final AtomicReferenceArray<DataCoding> dataCodings = new AtomicReferenceArray<>(BYTE_VALUES);
+    // esm_class without UDHI followed by the same values with UDHI
+    private static final AtomicReferenceArray<ESMClass> esmClasses = new AtomicReferenceArray<>(BYTE_VALUES * 2);
+
+    /**
+     * @return registered_delivery without receipt, shared, must not be modified
+     */
+    public static RegisteredDelivery noReceipt() {
+        return NO_RECEIPT;
+    }
+
+    public static TypeOfNumber typeOfNumber(Integer ton) {
+        if (Objects.isNull(ton) || !isByte(ton)) {
+            return UtilsEnum.getTypeOfNumber(ton);
+        }
+        return cached(typeOfNumbers, ton, UtilsEnum::getTypeOfNumber);
+    }
+
+    public static NumberingPlanIndicator numberingPlanIndicator(Integer npi) {
+        if (Objects.isNull(npi) || !isByte(npi)) {
+            return UtilsEnum.getNumberingPlanIndicator(npi);
+        }
+        return cached(numberingPlanIndicators, npi, UtilsEnum::getNumberingPlanIndicator);
+    }
+
+    public static DataCoding dataCoding(int dataCoding) {
+        if (!isByte(dataCoding)) {
+            return SmppEncoding.getDataCoding(dataCoding);
+        }
+        return cached(dataCodings, dataCoding, SmppEncoding::getDataCoding);
+    }
+
+    /**
+     * @return the esm_class with the UDHI feature when udhi is "1", the delivery receipt esm_class when there is no esm_class,
+     * shared, must not be modified
+     */
+    public static ESMClass esmClass(Integer esmClass, String udhi) {
+        if (Objects.isNull(esmClass)) {
+            return DELIVERY_RECEIPT;
+        }
+        boolean withUdhi = "1".equals(udhi);
+        if (!isByte(esmClass)) {
+            return newEsmClass(esmClass, withUdhi);
+        }
+        return cached(esmClasses, withUdhi ? BYTE_VALUES + esmClass : esmClass, index -> newEsmClass(index % BYTE_VALUES, index >= BYTE_VALUES));
+    }
+
+    /**
+     * Replaces the value of the receipted_message_id TLV, keeping its position in the list.
+     */
+    public static void patchReceiptedMessageId(List<UtilsRecords.OptionalParameter> optionalParameters, String receiptedMessageId) {
+        for (int i = 0; i < optionalParameters.size(); i++) {
+            if (optionalParameters.get(i).tag() == RECEIPTED_MESSAGE_ID) {
+                optionalParameters.set(i, new UtilsRecords.OptionalParameter(RECEIPTED_MESSAGE_ID, receiptedMessageId));
+                return;
+            }
+        }
+    }
+
+    private static ESMClass newEsmClass(int esmClass, boolean withUdhi) {
+        var esmeClass = new ESMClass(esmClass);
+        esmeClass.setSpecificFeature(withUdhi ? GSMSpecificFeature.UDHI : GSMSpecificFeature.DEFAULT);
+        return esmeClass;
+    }
+
+    private static boolean isByte(int value) {
+        return value >= 0 && value < BYTE_VALUES;
+    }
+
+    // concurrent first uses may build the same value more than once, any of them can be kept
+    private static <T> T cached(AtomicReferenceArray<T> cache, int index, IntFunction<T> factory) {
+        T value = cache.get(index);
+        if (Objects.isNull(value)) {
+            value = factory.apply(index);
+            cache.set(index, value);
+        }
+        return value;
+    }
+}
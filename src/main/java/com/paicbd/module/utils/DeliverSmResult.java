@@ -0,0 +1,19 @@
+package com.paicbd.module.utils;
+
+/**
+ * Result of sending a deliver_sm to a service provider.
+ */
+public enum DeliverSmResult {
+    SENT,
+    // rejected with ESME_RTHROTTLED or ESME_RMSGQFUL, the service provider can accept it later
+    THROTTLED,
+    // the deliver_sm_resp did not arrive in time
+    TIMEOUT,
+    FAILED,
+    // the service provider has no binds in this instance, the deliver_sm was not sent
+    NO_SESSION;
+
+    public boolean isRetryable() {
+        return this == THROTTLED || this == TIMEOUT;
+    }
+}
@@ -0,0 +1,118 @@
+package com.paicbd.module.utils;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.BeanDescription;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.introspect.BeanPropertyDefinition;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.module.blackbird.BlackbirdModule;
+import com.paicbd.smsc.dto.MessageEvent;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.Objects;
+
+/**
+ * Jackson readers and writers of the {@link MessageEvent}, built once for the whole module. The events are read as JSON,
+ * Smile is only written, to the preMessage list.
+ * <p>
+ * The mappers use generated accessors (Blackbird) instead of reflection. {@link #peek(String)} reads only the id and the
+ * destination network id with the streaming parser and stops as soon as both are found, so a deliver_sm that can not be
+ * delivered by this instance is requeued without building the whole event.
+ */
+@Slf4j
+public final class MessageEventCodec {
+    private static final ObjectMapper jsonMapper = configure(new ObjectMapper());
+    private static final ObjectMapper smileMapper = configure(new ObjectMapper(new SmileFactory()));
+    private static final ObjectReader jsonReader = jsonMapper.readerFor(MessageEvent.class);
+    private static final ObjectWriter smileWriter = smileMapper.writerFor(MessageEvent.class);
+    private static final String ID_PROPERTY = propertyName("id");
+    private static final String DEST_NETWORK_ID_PROPERTY = propertyName("destNetworkId");
+
+    private MessageEventCodec() {
+    }
+
+    /**
+     * Fields of the event needed to route it.
+     */
+    public record Route(String id, int destNetworkId) {
+    }
+
+    /**
+     * @return the event in the JSON payload, or null if it is not valid
+     */
+    public static MessageEvent decode(String payload) {
+        if (Objects.isNull(payload) || payload.isEmpty()) {
+            return null;
+        }
+        try {
+            return jsonReader.readValue(payload);
+        } catch (IOException e) {
+            log.error("Error decoding payload: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    public static byte[] encodeSmile(MessageEvent messageEvent) throws IOException {
+        return smileWriter.writeValueAsBytes(messageEvent);
+    }
+
+    /**
+     * @return the route of the event in the JSON payload, or null if it is not valid or has no destination network id
+     */
+    public static Route peek(String payload) {
+        if (Objects.isNull(payload) || payload.isEmpty()) {
+            return null;
+        }
+        try (JsonParser parser = jsonMapper.getFactory().createParser(payload)) {
+            return readRoute(parser);
+        } catch (IOException e) {
+            log.error("Error reading the route of payload: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private static Route readRoute(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            return null;
+        }
+        String id = null;
+        Integer destNetworkId = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if (ID_PROPERTY.equals(name)) {
+                id = value == JsonToken.VALUE_NULL ? null : parser.getValueAsString();
+            } else if (DEST_NETWORK_ID_PROPERTY.equals(name) && value != JsonToken.VALUE_NULL) {
+                destNetworkId = parser.getValueAsInt();
+            } else {
+                parser.skipChildren();
+            }
+            if (Objects.nonNull(id) && Objects.nonNull(destNetworkId)) {
+                break;
+            }
+        }
+        return Objects.isNull(destNetworkId) ? null : new Route(id, destNetworkId);
+    }
+
+    private static ObjectMapper configure(ObjectMapper mapper) {
+        return mapper.registerModule(new BlackbirdModule())
+                .setSerializationInclusion(JsonInclude.Include.NON_NULL)
+                .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    }
+
+    // the name written for the field, following the annotations of MessageEvent
+    private static String propertyName(String field) {
+        BeanDescription description = jsonMapper.getSerializationConfig().introspect(jsonMapper.constructType(MessageEvent.class));
+        return description.findProperties().stream()
+                .filter(property -> property.getInternalName().equals(field))
+                .map(BeanPropertyDefinition::getName)
+                .findFirst()
+                .orElse(field);
+    }
+}
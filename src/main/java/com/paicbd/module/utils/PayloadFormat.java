@@ -0,0 +1,55 @@
+package com.paicbd.module.utils;
+
+import com.paicbd.smsc.dto.MessageEvent;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encoding of the {@link MessageEvent} pushed to the preMessage list.
+ * <p>
+ * {@code JSON} is the format of {@link MessageEvent#toString()}. {@code SMILE} is the binary JSON format of Jackson,
+ * field-tagged with back references to the names already written. Its header carries the version of the Smile format,
+ * not of the {@link MessageEvent} fields, which are read by name as in JSON. Smile is not valid UTF-8, so it is written
+ * with the {@code byte[]} commands of Jedis, the {@code String} ones would replace the invalid sequences.
+ * <p>
+ * The deliver_sm queues, pending lists and retries are produced by other modules as JSON, and this module moves them
+ * between lists as the raw {@code String} it popped, so they are read with {@link #decode(String)} and stay JSON.
+ */
+public enum PayloadFormat {
+    JSON {
+        @Override
+        public byte[] encode(MessageEvent messageEvent) {
+            return messageEvent.toString().getBytes(StandardCharsets.UTF_8);
+        }
+    },
+    SMILE {
+        @Override
+        public byte[] encode(MessageEvent messageEvent) {
+            try {
+                return MessageEventCodec.encodeSmile(messageEvent);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    };
+
+    public abstract byte[] encode(MessageEvent messageEvent);
+
+    /**
+     * @return the event in the JSON payload, or null if it is not valid
+     */
+    public static MessageEvent decode(String payload) {
+        return MessageEventCodec.decode(payload);
+    }
+
+    public static PayloadFormat fromValue(String value) {
+        for (PayloadFormat format : values()) {
+            if (format.name().equalsIgnoreCase(value)) {
+                return format;
+            }
+        }
+        return JSON;
+    }
+}
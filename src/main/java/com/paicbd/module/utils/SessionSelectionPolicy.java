@@ -0,0 +1,19 @@
+package com.paicbd.module.utils;
+
+/**
+ * Strategy used to pick the bind of a service provider that receives the next deliver_sm.
+ */
+public enum SessionSelectionPolicy {
+    ROUND_ROBIN,
+    LEAST_OUTSTANDING,
+    LOWEST_LATENCY;
+
+    public static SessionSelectionPolicy fromValue(String value) {
+        for (SessionSelectionPolicy policy : values()) {
+            if (policy.name().equalsIgnoreCase(value)) {
+                return policy;
+            }
+        }
+        return ROUND_ROBIN;
+    }
+}
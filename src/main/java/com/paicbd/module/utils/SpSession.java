@@ -7,9 +7,14 @@ import com.paicbd.smsc.dto.ServiceProvider;
 import redis.clients.jedis.JedisCluster;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.paicbd.module.utils.Constants.STOPPED;
 
@@ -20,19 +25,33 @@ public class SpSession {
     private final AppProperties appProperties;
     @Getter
     private final ServiceProvider currentServiceProvider;
+    // copy on write, binds change rarely and are iterated by every deliver_sm worker
     @Getter
-    private final List<Session> currentSmppSessions = new ArrayList<>();
+    private final List<Session> currentSmppSessions = new CopyOnWriteArrayList<>();
+    private final ConcurrentMap<Session, BindStats> bindStats = new ConcurrentHashMap<>();
+    private final AtomicInteger roundRobinIndex = new AtomicInteger();
+    private final SessionSelectionPolicy selectionPolicy;
     private final ThreadFactory factory = Thread.ofVirtual().name("Scheduled", 0).factory();
     private final ScheduledExecutorService deliveryExecService = Executors.newScheduledThreadPool(0, factory);
+    // shared by all the binds of the service provider
+    @Getter
+    private final TpsLimiter tpsLimiter;
 
 
     private Boolean hasAvailableCredit;
-    private int currentIndexRoundRobin = 0;
+
+    /**
+     * Bind reserved for a deliver_sm, the request must be completed with {@link #onRequestCompleted(Session, long)}.
+     */
+    public record Reservation(Session session, long startNanos) {
+    }
 
     public SpSession(JedisCluster jedisCluster, ServiceProvider serviceProvider, AppProperties appProperties) {
         this.jedisCluster = jedisCluster;
         this.currentServiceProvider = serviceProvider;
         this.appProperties = appProperties;
+        this.tpsLimiter = new TpsLimiter(tpsOf(serviceProvider));
+        this.selectionPolicy = SessionSelectionPolicy.fromValue(appProperties.getDeliverSmSessionPolicy());
         this.init();
     }
 
@@ -41,16 +60,14 @@ public class SpSession {
         this.hasAvailableCredit = currentServiceProvider.getHasAvailableCredit();
     }
 
-    public void updateRedis() {
-        // Using this to skip backslash coming from regex in redis
-        this.jedisCluster.hset(this.appProperties.getServiceProvidersHashName(),
-                String.valueOf(this.currentServiceProvider.getNetworkId()), this.currentServiceProvider.toString());
-    }
-
     public Boolean hasAvailableCredit() {
         return this.hasAvailableCredit;
     }
 
+    public boolean tryAcquireTps() {
+        return this.tpsLimiter.tryAcquire();
+    }
+
     // This method returns true only if the service provider is stopped, is necessary return true to send notification to backend app via websocket
     public boolean updateCurrentServiceProvider(ServiceProvider newSp) {
         log.debug("Sp: {}", newSp.toString());
@@ -75,6 +92,7 @@ public class SpSession {
         this.currentServiceProvider.setHasAvailableCredit(newSp.getHasAvailableCredit());
         this.currentServiceProvider.setBindType(newSp.getBindType());
         this.hasAvailableCredit = newSp.getHasAvailableCredit();
+        this.tpsLimiter.updateTps(tpsOf(newSp));
 
         if (newSp.getEnabled() == 0) { // enabled = 0 means that the service provider is stopped
             log.debug("Stopping service provider {}", this.currentServiceProvider.getSystemId());
@@ -92,29 +110,90 @@ public class SpSession {
 
             this.currentServiceProvider.setCurrentBindsCount(0);
             this.currentSmppSessions.clear();
-            this.updateRedis();
+            this.bindStats.clear();
             return true;
         }
 
-        this.updateRedis();
         return false;
     }
 
-    public Session getNextRoundRobinSession() {
-        if (currentSmppSessions.isEmpty()) {
+    public void addSmppSession(Session session) {
+        this.bindStats.putIfAbsent(session, new BindStats());
+        this.currentSmppSessions.add(session);
+    }
+
+    public void removeSmppSession(Session session) {
+        this.currentSmppSessions.remove(session);
+        this.bindStats.remove(session);
+    }
+
+    /**
+     * Selects with the configured {@link SessionSelectionPolicy} a bind among the ones with less than windowSize
+     * deliver_sm waiting for response, and counts the request as started.
+     *
+     * @return the reservation or null if there are no binds or all of them have the window full
+     */
+    public Reservation tryReserveSession(int windowSize) {
+        Object[] sessions = this.currentSmppSessions.toArray();
+        if (sessions.length == 0) {
             return null;
         }
-        if(currentIndexRoundRobin >= currentSmppSessions.size()) {
-            currentIndexRoundRobin = 0;
+
+        int offset = Math.floorMod(roundRobinIndex.getAndIncrement(), sessions.length);
+        // another worker can take the last slot of the selected bind, then the selection is repeated
+        for (int attempt = 0; attempt < sessions.length; attempt++) {
+            Session selected = null;
+            long selectedLoad = Long.MAX_VALUE;
+            for (int i = 0; i < sessions.length; i++) {
+                Session session = (Session) sessions[(offset + i) % sessions.length];
+                BindStats stats = getBindStats(session);
+                if (Objects.isNull(stats) || stats.getOutstanding() >= windowSize) {
+                    continue;
+                }
+                if (selectionPolicy == SessionSelectionPolicy.ROUND_ROBIN) {
+                    selected = session;
+                    break;
+                }
+                long load = selectionPolicy == SessionSelectionPolicy.LEAST_OUTSTANDING
+                        ? stats.getOutstanding()
+                        : stats.getLatencyEwmaNanos();
+                if (load < selectedLoad) {
+                    selected = session;
+                    selectedLoad = load;
+                }
+            }
+            if (Objects.isNull(selected)) {
+                return null;
+            }
+            BindStats stats = getBindStats(selected);
+            if (Objects.nonNull(stats) && stats.tryReserve(windowSize)) {
+                return new Reservation(selected, System.nanoTime());
+            }
         }
-        Session nextSession = currentSmppSessions.get(currentIndexRoundRobin);
-        currentIndexRoundRobin = (currentIndexRoundRobin + 1) % currentSmppSessions.size();
-        return nextSession;
+        return null;
+    }
+
+    /**
+     * @return the stats of the bind, or null when the bind was already removed and is only in a stale snapshot
+     */
+    public BindStats getBindStats(Session session) {
+        return this.bindStats.get(session);
+    }
+
+    public void onRequestCompleted(Session session, long startNanos) {
+        BindStats stats = this.bindStats.get(session);
+        if (Objects.nonNull(stats)) {
+            stats.requestCompleted(startNanos);
+        }
+    }
+
+    private static int tpsOf(ServiceProvider serviceProvider) {
+        Integer tps = serviceProvider.getTps();
+        return Objects.isNull(tps) ? 0 : tps;
     }
 
     public void autoDestroy() {
         log.info("Auto destroy SpSession for systemId {}", this.currentServiceProvider.getSystemId());
-        this.updateRedis();
         this.deliveryExecService.shutdown();
     }
 }
@@ -9,15 +9,12 @@ import com.paicbd.smsc.utils.SmppEncoding;
 import com.paicbd.smsc.utils.SmppUtils;
 import com.paicbd.smsc.utils.UtilsEnum;
 import lombok.extern.slf4j.Slf4j;
+import org.jsmpp.SMPPConstant;
 import org.jsmpp.bean.DataCoding;
-import org.jsmpp.bean.ESMClass;
-import org.jsmpp.bean.GSMSpecificFeature;
-import org.jsmpp.bean.MessageMode;
-import org.jsmpp.bean.MessageType;
-import org.jsmpp.bean.RegisteredDelivery;
+import org.jsmpp.extra.NegativeResponseException;
+import org.jsmpp.extra.ResponseTimeoutException;
 import org.jsmpp.session.SMPPServerSession;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
@@ -31,64 +28,67 @@ public class StaticMethods {
 
     private static final Set<Integer> validDataCodings = Set.of(SmppEncoding.GSM7, SmppEncoding.ISO88591, 8);
 
-    public static void sendDeliverSm(SMPPServerSession serverSession, MessageEvent deliverSmEvent, GeneralSettings smppGeneralSettings, CdrProcessor cdrProcessor) {
+    /**
+     * @return SENT when the service provider accepted the deliver_sm, THROTTLED or TIMEOUT when it can be sent again
+     * and FAILED when it failed and the FAILED CDR was written
+     */
+    public static DeliverSmResult sendDeliverSm(SMPPServerSession serverSession, MessageEvent deliverSmEvent, GeneralSettings smppGeneralSettings, CdrProcessor cdrProcessor) {
         try {
-            List<UtilsRecords.OptionalParameter> optionalParameters = new ArrayList<>();
-            if (deliverSmEvent.getOptionalParameters() != null) {
-                optionalParameters = deliverSmEvent.getOptionalParameters();
-                replaceOptionalParameter(optionalParameters, deliverSmEvent);
-                deliverSmEvent.setOptionalParameters(optionalParameters);
+            List<UtilsRecords.OptionalParameter> optionalParameters = deliverSmEvent.getOptionalParameters();
+            boolean withTlv = Objects.nonNull(optionalParameters) && !optionalParameters.isEmpty();
+            if (withTlv) {
+                DeliverSmParameters.patchReceiptedMessageId(optionalParameters, deliverSmEvent.getDeliverSmServerId());
             }
 
             int dataCodingDlr = Objects.isNull(deliverSmEvent.getDataCoding()) ? 0 : deliverSmEvent.getDataCoding() ;
 
             int encodingType = SmppUtils.determineEncodingType(dataCodingDlr, smppGeneralSettings);
-            DataCoding dataCoding = SmppEncoding.getDataCoding(dataCodingDlr);
+            DataCoding dataCoding = DeliverSmParameters.dataCoding(dataCodingDlr);
             byte[] encodedShortMessage = SmppEncoding.encodeMessage(deliverSmEvent.getDelReceipt(), encodingType);
 
             serverSession.deliverShortMessage(
                     "",
-                    UtilsEnum.getTypeOfNumber(deliverSmEvent.getSourceAddrTon()),
-                    UtilsEnum.getNumberingPlanIndicator(deliverSmEvent.getSourceAddrNpi()),
+                    DeliverSmParameters.typeOfNumber(deliverSmEvent.getSourceAddrTon()),
+                    DeliverSmParameters.numberingPlanIndicator(deliverSmEvent.getSourceAddrNpi()),
                     deliverSmEvent.getSourceAddr(),
-                    UtilsEnum.getTypeOfNumber(deliverSmEvent.getDestAddrTon()),
-                    UtilsEnum.getNumberingPlanIndicator(deliverSmEvent.getDestAddrNpi()),
+                    DeliverSmParameters.typeOfNumber(deliverSmEvent.getDestAddrTon()),
+                    DeliverSmParameters.numberingPlanIndicator(deliverSmEvent.getDestAddrNpi()),
                     deliverSmEvent.getDestinationAddr(),
-                    getEsmClass(deliverSmEvent.getEsmClass(), deliverSmEvent.getUdhi()),
+                    DeliverSmParameters.esmClass(deliverSmEvent.getEsmClass(), deliverSmEvent.getUdhi()),
                     (byte)0,
                     (byte)0,
-                    new RegisteredDelivery(0),
+                    DeliverSmParameters.noReceipt(),
                     dataCoding,
                     encodedShortMessage,
-                    optionalParameters.isEmpty() ? null : SmppUtils.getTLV(deliverSmEvent));
+                    withTlv ? SmppUtils.getTLV(deliverSmEvent) : null);
 
             cdrDetailToDeliver(deliverSmEvent, cdrProcessor);
+            return DeliverSmResult.SENT;
         } catch (Exception e) {
+            DeliverSmResult result = resultOf(e);
+            if (result.isRetryable()) {
+                // the CDR is written when the retries are exhausted
+                log.warn("deliver_sm with id {} not accepted, result {} -> {}", deliverSmEvent.getId(), result, e.getMessage());
+                return result;
+            }
             cdrProcessor.putCdrDetailOnRedis(
                     deliverSmEvent.toCdrDetail(UtilsEnum.Module.SMPP_SERVER, UtilsEnum.MessageType.DELIVER, UtilsEnum.CdrStatus.FAILED, e.getMessage()));
             cdrProcessor.createCdr(deliverSmEvent.getMessageId());
             log.error("Error on process deliverSm {} ex -> {}", deliverSmEvent, e.getMessage());
+            return DeliverSmResult.FAILED;
         }
     }
 
-    private static void replaceOptionalParameter(
-            List<UtilsRecords.OptionalParameter> optionalParameters,
-            MessageEvent deliverSmEvent) {
-        UtilsRecords.OptionalParameter currentRecord = null;
-        UtilsRecords.OptionalParameter newRecord = null;
-        if (!optionalParameters.isEmpty()) {
-            for (UtilsRecords.OptionalParameter op : optionalParameters) {
-                if (op.tag() == 30) {
-                    currentRecord = op;
-                    newRecord = new UtilsRecords.OptionalParameter(op.tag(), deliverSmEvent.getDeliverSmServerId());
-                    break;
-                }
-            }
+    static DeliverSmResult resultOf(Exception e) {
+        if (e instanceof ResponseTimeoutException) {
+            return DeliverSmResult.TIMEOUT;
         }
-        if (Objects.nonNull(newRecord)) {
-            optionalParameters.remove(currentRecord);
-            optionalParameters.add(newRecord);
+        if (e instanceof NegativeResponseException negativeResponse
+                && (negativeResponse.getCommandStatus() == SMPPConstant.STAT_ESME_RTHROTTLED
+                || negativeResponse.getCommandStatus() == SMPPConstant.STAT_ESME_RMSGQFUL)) {
+            return DeliverSmResult.THROTTLED;
         }
+        return DeliverSmResult.FAILED;
     }
 
     private static void cdrDetailToDeliver(
@@ -102,13 +102,4 @@ public class StaticMethods {
     public static boolean isValidDataCoding(int dataCoding) {
         return validDataCodings.contains(dataCoding);
     }
-
-    private static ESMClass getEsmClass(Integer esmClass, String udhi) {
-        if (Objects.nonNull(esmClass)) {
-            var esmeClass = new ESMClass(esmClass);
-            esmeClass.setSpecificFeature(("1".equals(udhi)) ? GSMSpecificFeature.UDHI: GSMSpecificFeature.DEFAULT);
-            return esmeClass;
-        }
-        return new ESMClass(MessageMode.DEFAULT, MessageType.SMSC_DEL_RECEIPT, GSMSpecificFeature.DEFAULT);
-    }
 }
@@ -0,0 +1,138 @@
+package com.paicbd.module.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free rate limiter based on the generic cell rate algorithm (GCRA).
+ * <p>
+ * The only shared state is the theoretical arrival time of the next request, updated with a CAS,
+ * so the hot path does not allocate nor lock. A full second of traffic can be admitted as a burst,
+ * which matches a token bucket with a capacity of {@code tps} tokens refilled at {@code tps} per second.
+ * <p>
+ * When a lease is granted the limiter switches to the leased permits, renewed by the cluster lease manager
+ * on every lease interval, until the lease is cleared.
+ */
+public class TpsLimiter {
+    private static final long ONE_SECOND_NANOS = 1_000_000_000L;
+    private static final Rate UNLIMITED = new Rate(0, 0, 0);
+    private static final long NO_LEASE = -1L;
+
+    private final AtomicLong theoreticalArrivalTime = new AtomicLong(System.nanoTime());
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final AtomicLong leasedPermits = new AtomicLong(NO_LEASE);
+    private final LongAdder demand = new LongAdder();
+    private volatile Rate rate = UNLIMITED;
+
+    private record Rate(int tps, long emissionIntervalNanos, long burstLimitNanos) {
+    }
+
+    /**
+     * @param tps transactions per second allowed, 0 or less means unlimited
+     */
+    public TpsLimiter(int tps) {
+        this.updateTps(tps);
+    }
+
+    public void updateTps(int tps) {
+        if (tps <= 0) {
+            this.rate = UNLIMITED;
+            return;
+        }
+        if (tps == this.rate.tps()) {
+            return;
+        }
+        long emissionIntervalNanos = Math.max(1L, ONE_SECOND_NANOS / tps);
+        this.rate = new Rate(tps, emissionIntervalNanos, emissionIntervalNanos * tps);
+    }
+
+    public boolean tryAcquire() {
+        Rate current = this.rate;
+        if (current.emissionIntervalNanos() == 0) {
+            admitted.increment();
+            return true;
+        }
+        if (leasedPermits.get() != NO_LEASE) {
+            return tryAcquireLeased();
+        }
+
+        long now = System.nanoTime();
+        while (true) {
+            long tat = theoreticalArrivalTime.get();
+            long newTat = (tat - now > 0 ? tat : now) + current.emissionIntervalNanos();
+            if (newTat - now > current.burstLimitNanos()) {
+                rejected.increment();
+                return false;
+            }
+            if (theoreticalArrivalTime.compareAndSet(tat, newTat)) {
+                admitted.increment();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return nanoseconds until {@link #tryAcquire()} can admit the next request, 0 when it can already, an emission
+     * interval when the leased permits are exhausted, since they are renewed by the lease manager
+     */
+    public long nanosToNextPermit() {
+        Rate current = this.rate;
+        if (current.emissionIntervalNanos() == 0) {
+            return 0;
+        }
+        if (leasedPermits.get() != NO_LEASE) {
+            return leasedPermits.get() > 0 ? 0 : current.emissionIntervalNanos();
+        }
+        long wait = theoreticalArrivalTime.get() + current.emissionIntervalNanos() - current.burstLimitNanos() - System.nanoTime();
+        return Math.max(0, wait);
+    }
+
+    private boolean tryAcquireLeased() {
+        demand.increment();
+        while (true) {
+            long permits = leasedPermits.get();
+            if (permits == NO_LEASE) {
+                return tryAcquire();
+            }
+            if (permits <= 0) {
+                rejected.increment();
+                return false;
+            }
+            if (leasedPermits.compareAndSet(permits, permits - 1)) {
+                admitted.increment();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Replaces the permits left of the previous lease, they belong to a window that is already closed.
+     */
+    public void grantLease(long permits) {
+        leasedPermits.set(Math.max(0, permits));
+    }
+
+    public void clearLease() {
+        leasedPermits.set(NO_LEASE);
+    }
+
+    /**
+     * Returns the requests received under lease since the previous call.
+     */
+    public long drainDemand() {
+        return demand.sumThenReset();
+    }
+
+    public int getTps() {
+        return this.rate.tps();
+    }
+
+    public long getAdmitted() {
+        return admitted.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+}
@@ -1,8 +1,20 @@
 package com.paicbd.module;
 
+import com.paicbd.module.components.DeliverSmDispatcher;
 import com.paicbd.module.components.DeliverSmQueueConsumer;
+import com.paicbd.module.components.DeliverSmRetryQueue;
+import com.paicbd.module.components.DeliverSmRouter;
 import com.paicbd.module.components.GeneralSettingsCacheConfig;
+import com.paicbd.module.components.IngressQueueWriter;
+import com.paicbd.module.components.MultipartPartsWriter;
+import com.paicbd.module.components.MultipartReassemblyStore;
+import com.paicbd.module.components.NetworkTaskScheduler;
+import com.paicbd.module.components.PendingDeliverSmDrainer;
+import com.paicbd.module.components.PendingDeliverSmStore;
 import com.paicbd.module.components.ServerHandler;
+import com.paicbd.module.components.ServiceProviderRegistry;
+import com.paicbd.module.components.ServiceProviderStateWriter;
+import com.paicbd.module.components.SessionStatusNotifier;
 import com.paicbd.module.e2e.SmppClientMock;
 import com.paicbd.module.server.SmppServer;
 import com.paicbd.module.utils.AppProperties;
@@ -26,10 +38,8 @@ import redis.clients.jedis.JedisCluster;
 
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CountDownLatch;
@@ -82,6 +92,8 @@ class SmppServerModuleApplicationTest {
     ServiceProvider invalidBindTypeServiceProvider;
 
     ExecutorService executor;
+    IngressQueueWriter ingressQueueWriter;
+    MultipartReassemblyStore multipartReassemblyStore;
     List<ServiceProvider> serviceProviders = new ArrayList<>();
     String host = "127.0.0.1";
     int port = 7777;
@@ -110,6 +122,7 @@ class SmppServerModuleApplicationTest {
     void tearDown() {
         smppSession.unbindAndClose();
         executor.shutdownNow();
+        ingressQueueWriter.shutdown();
     }
 
     @Test
@@ -133,14 +146,14 @@ class SmppServerModuleApplicationTest {
     private void startSmppServer(String host, int port) throws InterruptedException {
         CountDownLatch serverReadyLatch = new CountDownLatch(1);
         ConcurrentMap<Integer, SpSession> realSpSessionMap = new ConcurrentHashMap<>();
-        Set<ServiceProvider> realProviders = new HashSet<>();
+        ServiceProviderRegistry providerRegistry = new ServiceProviderRegistry();
         Map<String, String> serviceProviderMapMock = new HashMap<>();
 
         for (ServiceProvider serviceProvider : serviceProviders) {
             SpSession realSpSession = new SpSession(jedisCluster, serviceProvider, appProperties);
             realSpSession.updateCurrentServiceProvider(serviceProvider);
             SpSession realSpSessionSpy = spy(realSpSession);
-            realProviders.add(serviceProvider);
+            providerRegistry.put(serviceProvider);
             realSpSessionMap.put(serviceProvider.getNetworkId(), realSpSessionSpy);
             serviceProviderMapMock.put(String.valueOf(serviceProvider.getNetworkId()), serviceProvider.toString());
         }
@@ -156,11 +169,23 @@ class SmppServerModuleApplicationTest {
         when(appProperties.getServiceProvidersHashName()).thenReturn("service_providers");
         when(appProperties.getSmppServerTransactionTimer()).thenReturn(5000);
         when(appProperties.getSmppServerWaitForBind()).thenReturn(5000);
-        when(socketSession.getStompSession()).thenReturn(null);
         when(generalSettingsCacheConfig.getCurrentGeneralSettings()).thenReturn(getGeneralSettings());
         when(jedisCluster.hgetAll("service_providers")).thenReturn(serviceProviderMapMock);
 
-        smppServer = new SmppServer(jedisCluster, cdrProcessor, socketSession, serverHandler, appProperties, realProviders, spSessionMapSpy, generalSettingsCacheConfig);
+        ingressQueueWriter = new IngressQueueWriter(jedisCluster, cdrProcessor, appProperties);
+        ingressQueueWriter.init();
+        when(appProperties.getMultipartTtlMillis()).thenReturn(120000L);
+        when(appProperties.getMultipartTickMillis()).thenReturn(1000L);
+        multipartReassemblyStore = new MultipartReassemblyStore(cdrProcessor, appProperties, ingressQueueWriter, new MultipartPartsWriter(jedisCluster, appProperties));
+        multipartReassemblyStore.init();
+
+        DeliverSmDispatcher deliverSmDispatcher = new DeliverSmDispatcher(cdrProcessor, appProperties, generalSettingsCacheConfig);
+        DeliverSmRetryQueue deliverSmRetryQueue = new DeliverSmRetryQueue(jedisCluster, appProperties, cdrProcessor);
+        PendingDeliverSmStore pendingDeliverSmStore = new PendingDeliverSmStore(jedisCluster, appProperties);
+        smppServer = new SmppServer(jedisCluster, cdrProcessor, new SessionStatusNotifier(socketSession), serverHandler, appProperties, providerRegistry, spSessionMapSpy, generalSettingsCacheConfig, ingressQueueWriter, multipartReassemblyStore,
+                new PendingDeliverSmDrainer(pendingDeliverSmStore, appProperties, spSessionMapSpy, deliverSmDispatcher, deliverSmRetryQueue,
+                        new NetworkTaskScheduler(appProperties)),
+                new ServiceProviderStateWriter(jedisCluster, appProperties));
         executor.submit(() -> {
             smppServer.init();
             serverReadyLatch.countDown();
@@ -174,7 +199,9 @@ class SmppServerModuleApplicationTest {
         when(this.appProperties.getDeliverSmQueue()).thenReturn("smpp_dlr");
         when(this.appProperties.getDeliverSmBatchSizePerWorker()).thenReturn(1);
         when(this.generalSettingsCacheConfig.getCurrentGeneralSettings()).thenReturn(getGeneralSettings());
-        this.deliverSmQueueConsumer = new DeliverSmQueueConsumer(jedisCluster, cdrProcessor, appProperties, spSessionMapSpy, generalSettingsCacheConfig);
+        this.deliverSmQueueConsumer = new DeliverSmQueueConsumer(jedisCluster, appProperties, spSessionMapSpy,
+                new DeliverSmRouter(jedisCluster, appProperties, spSessionMapSpy),
+                deliverSmDispatcher, deliverSmRetryQueue, pendingDeliverSmStore);
     }
 
     // Sending single submitSm and get deliverSm response
@@ -0,0 +1,40 @@
+package com.paicbd.module.benchmark;
+
+import com.sun.management.ThreadMXBean;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.lang.management.ManagementFactory;
+import java.util.function.Consumer;
+
+/**
+ * Bytes allocated per call of a benchmark method by the current thread, measured without JMH so the allocation
+ * budgets of the benchmarks are checked by {@code mvn test}. The GC profiler of the main methods stays the reference.
+ */
+final class AllocationMeter {
+    private static final int WARMUP_OPERATIONS = 50_000;
+    private static final int MEASURED_OPERATIONS = 100_000;
+
+    private AllocationMeter() {
+        throw new IllegalStateException("Utility Class");
+    }
+
+    static double bytesPerOperation(Consumer<Blackhole> benchmark) {
+        Blackhole blackhole = new Blackhole("Today's password is swordfish. I understand instantiating Blackholes directly is dangerous.");
+        for (int i = 0; i < WARMUP_OPERATIONS; i++) {
+            benchmark.accept(blackhole);
+        }
+
+        ThreadMXBean threadMXBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long before = threadMXBean.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < MEASURED_OPERATIONS; i++) {
+            benchmark.accept(blackhole);
+        }
+        long allocated = threadMXBean.getCurrentThreadAllocatedBytes() - before;
+        blackhole.evaporate("Yes, I am Stephen Hawking, and know a thing or two about black holes.");
+        return (double) allocated / MEASURED_OPERATIONS;
+    }
+
+    static double budget(double defaultBudget) {
+        return Double.parseDouble(System.getProperty("allocation.budget", String.valueOf(defaultBudget)));
+    }
+}
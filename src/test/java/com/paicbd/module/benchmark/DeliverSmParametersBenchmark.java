@@ -0,0 +1,170 @@
+package com.paicbd.module.benchmark;
+
+import com.paicbd.module.utils.DeliverSmParameters;
+import com.paicbd.smsc.dto.GeneralSettings;
+import com.paicbd.smsc.dto.MessageEvent;
+import com.paicbd.smsc.dto.UtilsRecords;
+import com.paicbd.smsc.utils.SmppEncoding;
+import com.paicbd.smsc.utils.SmppUtils;
+import com.paicbd.smsc.utils.UtilsEnum;
+import lombok.extern.slf4j.Slf4j;
+import org.jsmpp.bean.ESMClass;
+import org.jsmpp.bean.GSMSpecificFeature;
+import org.jsmpp.bean.MessageMode;
+import org.jsmpp.bean.MessageType;
+import org.jsmpp.bean.RegisteredDelivery;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Everything built for a DLR before calling deliverShortMessage, the encoded receipt, the parameters and the TLVs,
+ * as it was done for every deliver_sm before {@link DeliverSmParameters} and as {@code StaticMethods.sendDeliverSm} does it now.
+ * Run with the main method from the test classpath, the GC profiler reports the bytes allocated per deliver_sm
+ * as {@code gc.alloc.rate.norm}; they are logged for both and it fails when the current path allocates as much as
+ * the previous one, or more than {@link #DEFAULT_ALLOCATION_BUDGET} or the bytes given with {@code -Dallocation.budget}.
+ * {@code DeliverSmParametersBenchmarkTest} checks the same in {@code mvn test}.
+ * <p>
+ * The cached parameters save a few small objects per deliver_sm, not an order of magnitude: most of the bytes are
+ * the receipt encoded by {@code SmppEncoding.encodeMessage} and the TLVs built by {@code SmppUtils.getTLV}.
+ */
+@Slf4j
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DeliverSmParametersBenchmark {
+    static final double DEFAULT_ALLOCATION_BUDGET = 4096;
+
+    private MessageEvent deliverSmEvent;
+    private GeneralSettings generalSettings;
+
+    @Setup
+    public void setup() {
+        deliverSmEvent = PayloadFormatBenchmark.deliverSmEvent();
+        deliverSmEvent.setUdhi("0");
+        deliverSmEvent.setDelReceipt(deliverSmEvent.getShortMessage());
+        deliverSmEvent.setDeliverSmServerId("1722446896082-7645587481074");
+        deliverSmEvent.setOptionalParameters(new ArrayList<>(List.of(
+                new UtilsRecords.OptionalParameter((short) 30, "1722446896082-7645587481074"),
+                new UtilsRecords.OptionalParameter((short) 1063, "2"))));
+        generalSettings = GeneralSettings.builder()
+                .id(1)
+                .encodingIso88591(SmppEncoding.ISO88591)
+                .encodingGsm7(SmppEncoding.GSM7)
+                .encodingUcs2(SmppEncoding.UCS2)
+                .build();
+    }
+
+    @Benchmark
+    public void perDeliverSm(Blackhole blackhole) {
+        List<UtilsRecords.OptionalParameter> optionalParameters = new ArrayList<>();
+        if (deliverSmEvent.getOptionalParameters() != null) {
+            optionalParameters = deliverSmEvent.getOptionalParameters();
+            UtilsRecords.OptionalParameter currentRecord = null;
+            UtilsRecords.OptionalParameter newRecord = null;
+            for (UtilsRecords.OptionalParameter op : optionalParameters) {
+                if (op.tag() == 30) {
+                    currentRecord = op;
+                    newRecord = new UtilsRecords.OptionalParameter(op.tag(), deliverSmEvent.getDeliverSmServerId());
+                    break;
+                }
+            }
+            if (newRecord != null) {
+                optionalParameters.remove(currentRecord);
+                optionalParameters.add(newRecord);
+            }
+            deliverSmEvent.setOptionalParameters(optionalParameters);
+        }
+
+        int dataCodingDlr = Objects.isNull(deliverSmEvent.getDataCoding()) ? 0 : deliverSmEvent.getDataCoding();
+        int encodingType = SmppUtils.determineEncodingType(dataCodingDlr, generalSettings);
+        blackhole.consume(SmppEncoding.getDataCoding(dataCodingDlr));
+        blackhole.consume(SmppEncoding.encodeMessage(deliverSmEvent.getDelReceipt(), encodingType));
+        blackhole.consume(UtilsEnum.getTypeOfNumber(deliverSmEvent.getSourceAddrTon()));
+        blackhole.consume(UtilsEnum.getNumberingPlanIndicator(deliverSmEvent.getSourceAddrNpi()));
+        blackhole.consume(UtilsEnum.getTypeOfNumber(deliverSmEvent.getDestAddrTon()));
+        blackhole.consume(UtilsEnum.getNumberingPlanIndicator(deliverSmEvent.getDestAddrNpi()));
+        blackhole.consume(esmClass(deliverSmEvent.getEsmClass(), deliverSmEvent.getUdhi()));
+        blackhole.consume(new RegisteredDelivery(0));
+        blackhole.consume(optionalParameters.isEmpty() ? null : SmppUtils.getTLV(deliverSmEvent));
+    }
+
+    @Benchmark
+    public void cached(Blackhole blackhole) {
+        List<UtilsRecords.OptionalParameter> optionalParameters = deliverSmEvent.getOptionalParameters();
+        boolean withTlv = Objects.nonNull(optionalParameters) && !optionalParameters.isEmpty();
+        if (withTlv) {
+            DeliverSmParameters.patchReceiptedMessageId(optionalParameters, deliverSmEvent.getDeliverSmServerId());
+        }
+
+        int dataCodingDlr = Objects.isNull(deliverSmEvent.getDataCoding()) ? 0 : deliverSmEvent.getDataCoding();
+        int encodingType = SmppUtils.determineEncodingType(dataCodingDlr, generalSettings);
+        blackhole.consume(DeliverSmParameters.dataCoding(dataCodingDlr));
+        blackhole.consume(SmppEncoding.encodeMessage(deliverSmEvent.getDelReceipt(), encodingType));
+        blackhole.consume(DeliverSmParameters.typeOfNumber(deliverSmEvent.getSourceAddrTon()));
+        blackhole.consume(DeliverSmParameters.numberingPlanIndicator(deliverSmEvent.getSourceAddrNpi()));
+        blackhole.consume(DeliverSmParameters.typeOfNumber(deliverSmEvent.getDestAddrTon()));
+        blackhole.consume(DeliverSmParameters.numberingPlanIndicator(deliverSmEvent.getDestAddrNpi()));
+        blackhole.consume(DeliverSmParameters.esmClass(deliverSmEvent.getEsmClass(), deliverSmEvent.getUdhi()));
+        blackhole.consume(DeliverSmParameters.noReceipt());
+        blackhole.consume(withTlv ? SmppUtils.getTLV(deliverSmEvent) : null);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Collection<RunResult> results = new Runner(new OptionsBuilder()
+                .include(DeliverSmParametersBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+
+        double perDeliverSm = allocatedBytes(results, "perDeliverSm");
+        double cached = allocatedBytes(results, "cached");
+        double budget = AllocationMeter.budget(DEFAULT_ALLOCATION_BUDGET);
+        log.info("Bytes allocated per deliver_sm: perDeliverSm {}, cached {}, budget {}", perDeliverSm, cached, budget);
+        if (cached >= perDeliverSm || cached > budget) {
+            throw new IllegalStateException("cached allocates " + cached + " bytes per deliver_sm, perDeliverSm " + perDeliverSm + ", budget " + budget);
+        }
+    }
+
+    // esm_class of a deliver_sm as it was built before DeliverSmParameters
+    private static ESMClass esmClass(Integer esmClass, String udhi) {
+        if (Objects.nonNull(esmClass)) {
+            ESMClass deliverSmEsmClass = new ESMClass(esmClass);
+            deliverSmEsmClass.setSpecificFeature("1".equals(udhi) ? GSMSpecificFeature.UDHI : GSMSpecificFeature.DEFAULT);
+            return deliverSmEsmClass;
+        }
+        return new ESMClass(MessageMode.DEFAULT, MessageType.SMSC_DEL_RECEIPT, GSMSpecificFeature.DEFAULT);
+    }
+
+    private static double allocatedBytes(Collection<RunResult> results, String benchmark) {
+        return results.stream()
+                .filter(result -> result.getParams().getBenchmark().endsWith("." + benchmark))
+                .map(result -> result.getSecondaryResults().get("gc.alloc.rate.norm"))
+                .filter(Objects::nonNull)
+                .mapToDouble(Result::getScore)
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("No gc.alloc.rate.norm for " + benchmark));
+    }
+}
@@ -0,0 +1,27 @@
+package com.paicbd.module.benchmark;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DeliverSmParametersBenchmarkTest {
+    private final DeliverSmParametersBenchmark benchmark = new DeliverSmParametersBenchmark();
+
+    @BeforeEach
+    void setUp() {
+        benchmark.setup();
+    }
+
+    @Test
+    @DisplayName("cached when a deliver_sm is built then it allocates less than perDeliverSm and stays within the budget")
+    void cachedWhenDeliverSmBuiltThenAllocateWithinBudget() {
+        double perDeliverSm = AllocationMeter.bytesPerOperation(benchmark::perDeliverSm);
+        double cached = AllocationMeter.bytesPerOperation(benchmark::cached);
+        double budget = AllocationMeter.budget(DeliverSmParametersBenchmark.DEFAULT_ALLOCATION_BUDGET);
+
+        assertTrue(cached < perDeliverSm, "cached allocates " + cached + " bytes per deliver_sm, perDeliverSm " + perDeliverSm);
+        assertTrue(cached <= budget, "cached allocates " + cached + " bytes per deliver_sm, budget " + budget);
+    }
+}
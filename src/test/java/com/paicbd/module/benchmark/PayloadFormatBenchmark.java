@@ -0,0 +1,105 @@
+package com.paicbd.module.benchmark;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.paicbd.module.utils.MessageEventCodec;
+import com.paicbd.module.utils.PayloadFormat;
+import com.paicbd.smsc.dto.MessageEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding of an event with the JSON and Smile payload formats, Smile is decoded as the readers of the
+ * preMessage list in other modules would. Reading only the route is measured on the JSON of the deliver_sm queues.
+ * The size of each payload in bytes, as stored in Redis, is printed at setup.
+ * Run with the main method from the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PayloadFormatBenchmark {
+    @Param({"JSON", "SMILE"})
+    String format;
+
+    private PayloadFormat payloadFormat;
+    private MessageEvent deliverSmEvent;
+    private byte[] payload;
+    private String deliverSmJson;
+    private ObjectReader reader;
+
+    @Setup
+    public void setup() {
+        payloadFormat = PayloadFormat.valueOf(format);
+        deliverSmEvent = deliverSmEvent();
+        payload = payloadFormat.encode(deliverSmEvent);
+        deliverSmJson = deliverSmEvent.toString();
+        ObjectMapper mapper = payloadFormat == PayloadFormat.SMILE ? new ObjectMapper(new SmileFactory()) : new ObjectMapper();
+        reader = mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false).readerFor(MessageEvent.class);
+        System.out.printf("%n%s payload: %d bytes%n", format, payload.length);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return payloadFormat.encode(deliverSmEvent);
+    }
+
+    @Benchmark
+    public MessageEvent decode() throws IOException {
+        return reader.readValue(payload);
+    }
+
+    @Benchmark
+    public MessageEventCodec.Route peek() {
+        return MessageEventCodec.peek(deliverSmJson);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(PayloadFormatBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    static MessageEvent deliverSmEvent() {
+        return MessageEvent.builder()
+                .id("1722446896082-7645587481074")
+                .messageId("1722446896082-7645587481074")
+                .systemId("smppSP")
+                .sourceAddrTon(1)
+                .sourceAddrNpi(1)
+                .sourceAddr("50510201020")
+                .destAddrTon(1)
+                .destAddrNpi(1)
+                .destinationAddr("50582368999")
+                .esmClass(4)
+                .registeredDelivery(0)
+                .dataCoding(0)
+                .isDlr(true)
+                .shortMessage("id:1722446896082-7645587481074 sub:001 dlvrd:001 submit date:2408011728 done date:2408011728 stat:DELIVRD err:000 text:Hello")
+                .originNetworkId(3)
+                .destNetworkId(1)
+                .originProtocol("HTTP")
+                .destProtocol("SMPP")
+                .originNetworkType("GW")
+                .destNetworkType("SP")
+                .routingId(1)
+                .build();
+    }
+}
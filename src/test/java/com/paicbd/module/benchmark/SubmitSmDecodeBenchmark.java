@@ -0,0 +1,109 @@
+package com.paicbd.module.benchmark;
+
+import com.paicbd.module.server.ConcatenatedSegment;
+import com.paicbd.module.server.SubmitSmDecoder;
+import com.paicbd.smsc.dto.MessageEvent;
+import com.paicbd.smsc.utils.SmppEncoding;
+import lombok.extern.slf4j.Slf4j;
+import org.jsmpp.bean.GSMSpecificFeature;
+import org.jsmpp.bean.SubmitSm;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of a part concatenated with a UDH that is not the first one received, with the text of the whole PDU decoded
+ * for every part and with {@link SubmitSmDecoder}, which leaves it to the parent.
+ * Run with the main method from the test classpath, the GC profiler reports the bytes allocated per submit_sm
+ * as {@code gc.alloc.rate.norm}; it fails when the lean path allocates as much as the eager one, or more than
+ * {@link #DEFAULT_ALLOCATION_BUDGET} bytes, overridden with {@code -Dallocation.budget}. The same check runs in
+ * {@code mvn test} with {@link AllocationMeter}.
+ */
+@Slf4j
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SubmitSmDecodeBenchmark {
+    // bytes per submit_sm, the event and the segment of a part without its text
+    static final double DEFAULT_ALLOCATION_BUDGET = 4096;
+
+    private SubmitSm submitSm;
+
+    @Setup
+    public void setup() {
+        byte[] udh = {0x05, 0x00, 0x03, 0x07, 0x02, 0x02};
+        byte[] text = "Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod tempor incididunt ut labore et dolore"
+                .getBytes(StandardCharsets.ISO_8859_1);
+        byte[] shortMessage = new byte[udh.length + text.length];
+        System.arraycopy(udh, 0, shortMessage, 0, udh.length);
+        System.arraycopy(text, 0, shortMessage, udh.length, text.length);
+
+        submitSm = new SubmitSm();
+        submitSm.setSourceAddr("50510201020");
+        submitSm.setDestAddress("50582368999");
+        submitSm.setEsmClass(GSMSpecificFeature.UDHI.value());
+        submitSm.setDataCoding((byte) 3);
+        submitSm.setShortMessage(shortMessage);
+    }
+
+    @Benchmark
+    public void eagerText(Blackhole blackhole) {
+        MessageEvent submitSmEvent = SubmitSmDecoder.toEvent(submitSm);
+        submitSmEvent.setShortMessage(SubmitSmDecoder.text(submitSm, SmppEncoding.ISO88591));
+        blackhole.consume(submitSmEvent);
+        blackhole.consume(ConcatenatedSegment.fromUdh(submitSm.getShortMessage(), SmppEncoding.ISO88591));
+    }
+
+    @Benchmark
+    public void textOnParent(Blackhole blackhole) {
+        blackhole.consume(SubmitSmDecoder.toEvent(submitSm));
+        blackhole.consume(ConcatenatedSegment.fromUdh(submitSm.getShortMessage(), SmppEncoding.ISO88591));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Collection<RunResult> results = new Runner(new OptionsBuilder()
+                .include(SubmitSmDecodeBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+
+        double eager = allocatedBytes(results, "eagerText");
+        double lean = allocatedBytes(results, "textOnParent");
+        double budget = AllocationMeter.budget(DEFAULT_ALLOCATION_BUDGET);
+        log.info("Bytes per submit_sm: eagerText {}, textOnParent {}, budget {}", eager, lean, budget);
+        if (lean >= eager || lean > budget) {
+            throw new IllegalStateException("textOnParent allocates " + lean + " bytes per submit_sm, eagerText " + eager + ", budget " + budget);
+        }
+    }
+
+    private static double allocatedBytes(Collection<RunResult> results, String benchmark) {
+        return results.stream()
+                .filter(result -> result.getParams().getBenchmark().endsWith("." + benchmark))
+                .map(result -> result.getSecondaryResults().get("gc.alloc.rate.norm"))
+                .filter(Objects::nonNull)
+                .mapToDouble(Result::getScore)
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("No gc.alloc.rate.norm for " + benchmark));
+    }
+}
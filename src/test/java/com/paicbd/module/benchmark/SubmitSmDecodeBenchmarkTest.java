@@ -0,0 +1,27 @@
+package com.paicbd.module.benchmark;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SubmitSmDecodeBenchmarkTest {
+    private final SubmitSmDecodeBenchmark benchmark = new SubmitSmDecodeBenchmark();
+
+    @BeforeEach
+    void setUp() {
+        benchmark.setup();
+    }
+
+    @Test
+    @DisplayName("textOnParent when a part is decoded then it allocates less than eagerText and stays within the budget")
+    void textOnParentWhenPartDecodedThenAllocateWithinBudget() {
+        double eager = AllocationMeter.bytesPerOperation(benchmark::eagerText);
+        double lean = AllocationMeter.bytesPerOperation(benchmark::textOnParent);
+        double budget = AllocationMeter.budget(SubmitSmDecodeBenchmark.DEFAULT_ALLOCATION_BUDGET);
+
+        assertTrue(lean < eager, "textOnParent allocates " + lean + " bytes per submit_sm, eagerText " + eager);
+        assertTrue(lean <= budget, "textOnParent allocates " + lean + " bytes per submit_sm, budget " + budget);
+    }
+}
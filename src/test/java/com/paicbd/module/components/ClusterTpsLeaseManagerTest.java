@@ -0,0 +1,207 @@
+package com.paicbd.module.components;
+
+import com.paicbd.module.utils.AppProperties;
+import com.paicbd.module.utils.SpSession;
+import com.paicbd.smsc.dto.ServiceProvider;
+import org.jsmpp.session.SMPPServerSession;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import redis.clients.jedis.JedisCluster;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ClusterTpsLeaseManagerTest {
+    @Mock
+    JedisCluster jedisCluster;
+
+    @Mock
+    AppProperties appProperties;
+
+    @Mock
+    SMPPServerSession serverSession;
+
+    ConcurrentMap<Integer, SpSession> spSessionMap;
+    SpSession spSession;
+    ClusterTpsLeaseManager clusterTpsLeaseManager;
+
+    @BeforeEach
+    void setUp() {
+        ServiceProvider serviceProvider = ServiceProvider.builder()
+                .networkId(1)
+                .systemId("smppSP")
+                .tps(500)
+                .protocol("SMPP")
+                .binds(new ArrayList<>())
+                .enabled(1)
+                .build();
+        spSession = new SpSession(jedisCluster, serviceProvider, appProperties);
+        spSessionMap = new ConcurrentHashMap<>();
+        spSessionMap.put(1, spSession);
+        clusterTpsLeaseManager = new ClusterTpsLeaseManager(jedisCluster, appProperties, spSessionMap);
+    }
+
+    @AfterEach
+    void tearDown() {
+        clusterTpsLeaseManager.shutdown();
+    }
+
+    @Test
+    @DisplayName("renewLeases when mode is local then Redis is not used")
+    void renewLeasesWhenModeIsLocalThenDoNothing() {
+        when(appProperties.getTpsMode()).thenReturn("LOCAL");
+        clusterTpsLeaseManager.renewLeases();
+        verifyNoInteractions(jedisCluster);
+    }
+
+    @Test
+    @DisplayName("renewLeases when other instances consumed part of the window then only the remaining budget is granted")
+    void renewLeasesWhenBudgetIsPartiallyUsedThenGrantRemaining() {
+        mockClusterMode();
+        spSession.getCurrentSmppSessions().add(serverSession);
+        when(appProperties.getTpsLeaseTimeoutMillis()).thenReturn(5000);
+        when(appProperties.getInstanceProtocol()).thenReturn("SMPP");
+        when(jedisCluster.hgetAll("configurations")).thenReturn(Map.of(
+                "smpp-server-instance-01", "{\"name\":\"smpp-server-instance-01\",\"protocol\":\"SMPP\",\"state\":\"STARTED\"}",
+                "smpp-server-instance-02", "{\"name\":\"smpp-server-instance-02\",\"protocol\":\"SMPP\",\"state\":\"STARTED\"}",
+                "http-server-instance-01", "{\"name\":\"http-server-instance-01\",\"protocol\":\"HTTP\",\"state\":\"STARTED\"}"
+        ));
+        // budget 50 per window, fair share 25 with two SMPP instances, the other instance already took 40
+        when(jedisCluster.incrBy(anyString(), eq(25L))).thenReturn(65L);
+
+        clusterTpsLeaseManager.renewLeases();
+
+        assertEquals(2, clusterTpsLeaseManager.getActiveInstances());
+        int admitted = 0;
+        for (int i = 0; i < 20; i++) {
+            if (spSession.tryAcquireTps()) {
+                admitted++;
+            }
+        }
+        assertEquals(10, admitted);
+    }
+
+    @Test
+    @DisplayName("renewLeases when Redis fails then the fair share is granted")
+    void renewLeasesWhenRedisFailsThenGrantFairShare() {
+        mockClusterMode();
+        spSession.getCurrentSmppSessions().add(serverSession);
+        when(appProperties.getTpsLeaseTimeoutMillis()).thenReturn(5000);
+        when(jedisCluster.hgetAll("configurations")).thenReturn(Map.of());
+        when(jedisCluster.incrBy(anyString(), anyLong())).thenThrow(new IllegalStateException("Redis is down"));
+
+        clusterTpsLeaseManager.renewLeases();
+
+        int admitted = 0;
+        for (int i = 0; i < 100; i++) {
+            if (spSession.tryAcquireTps()) {
+                admitted++;
+            }
+        }
+        assertEquals(50, admitted);
+    }
+
+    @Test
+    @DisplayName("renewLeases when the first lease of the window is taken then the key expiration is set")
+    void renewLeasesWhenFirstLeaseThenSetExpiration() {
+        mockClusterMode();
+        spSession.getCurrentSmppSessions().add(serverSession);
+        when(appProperties.getTpsLeaseTimeoutMillis()).thenReturn(5000);
+        when(jedisCluster.hgetAll("configurations")).thenReturn(Map.of());
+        when(jedisCluster.incrBy(anyString(), eq(50L))).thenReturn(50L);
+
+        clusterTpsLeaseManager.renewLeases();
+
+        verify(jedisCluster).pexpire(anyString(), eq(1000L));
+        assertTrue(spSession.tryAcquireTps());
+    }
+
+    @Test
+    @DisplayName("renewLeases when the service provider has no binds then no lease is requested")
+    void renewLeasesWhenNoBindsThenSkip() {
+        mockClusterMode();
+        when(jedisCluster.hgetAll("configurations")).thenReturn(Map.of());
+
+        clusterTpsLeaseManager.renewLeases();
+
+        verify(jedisCluster).hgetAll("configurations");
+        verify(jedisCluster, never()).incrBy(anyString(), anyLong());
+    }
+
+    @Test
+    @DisplayName("renewLeases when Redis is slow then every lease waits on the same deadline")
+    void renewLeasesWhenRedisIsSlowThenWaitOnce() {
+        mockClusterMode();
+        for (int networkId = 2; networkId <= 4; networkId++) {
+            SpSession other = new SpSession(jedisCluster, ServiceProvider.builder()
+                    .networkId(networkId)
+                    .systemId("smppSP" + networkId)
+                    .tps(500)
+                    .protocol("SMPP")
+                    .binds(new ArrayList<>())
+                    .enabled(1)
+                    .build(), appProperties);
+            other.getCurrentSmppSessions().add(serverSession);
+            spSessionMap.put(networkId, other);
+        }
+        spSession.getCurrentSmppSessions().add(serverSession);
+        when(appProperties.getTpsLeaseTimeoutMillis()).thenReturn(200);
+        when(jedisCluster.hgetAll("configurations")).thenReturn(Map.of());
+        when(jedisCluster.incrBy(anyString(), anyLong())).thenAnswer(invocation -> {
+            Thread.sleep(5000);
+            return 0L;
+        });
+
+        long start = System.nanoTime();
+        clusterTpsLeaseManager.renewLeases();
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // one after the other the four leases would take at least 800 ms
+        assertTrue(elapsedMillis < 600, "renewLeases took " + elapsedMillis + " ms");
+        spSessionMap.values().forEach(session -> assertTrue(session.tryAcquireTps()));
+    }
+
+    @Test
+    @DisplayName("windowBudget when the tps is not a multiple of the windows per second then the fraction is carried")
+    void windowBudgetWhenFractionThenCarryIt() {
+        long budget = 0;
+        for (long window = 17_000; window < 17_010; window++) {
+            long windowBudget = ClusterTpsLeaseManager.windowBudget(5, 100, window);
+            assertTrue(windowBudget == 0 || windowBudget == 1);
+            budget += windowBudget;
+        }
+        assertEquals(5, budget);
+
+        budget = 0;
+        for (long window = 0; window < 10; window++) {
+            budget += ClusterTpsLeaseManager.windowBudget(123, 100, window);
+        }
+        assertEquals(123, budget);
+        assertEquals(50, ClusterTpsLeaseManager.windowBudget(500, 100, 42));
+    }
+
+    private void mockClusterMode() {
+        when(appProperties.getTpsMode()).thenReturn(ClusterTpsLeaseManager.MODE_CLUSTER);
+        when(appProperties.getTpsLeaseIntervalMillis()).thenReturn(100);
+        when(appProperties.getConfigurationHash()).thenReturn("configurations");
+    }
+}
@@ -23,11 +23,8 @@ import org.springframework.messaging.simp.stomp.StompSession;
 import redis.clients.jedis.JedisCluster;
 
 import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.function.Predicate;
 
 import static com.paicbd.module.utils.Constants.GENERAL_SETTINGS_SMPP_HTTP_ENDPOINT;
 import static com.paicbd.module.utils.Constants.PARAM_UPDATE_STATUS;
@@ -39,6 +36,7 @@ import static com.paicbd.module.utils.Constants.UPDATE_SERVER_HANDLER_ENDPOINT;
 import static com.paicbd.module.utils.Constants.UPDATE_SERVICE_PROVIDER_ENDPOINT;
 import static com.paicbd.module.utils.Constants.WEBSOCKET_STATUS_ENDPOINT;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
@@ -72,11 +70,14 @@ class CustomFrameHandlerTest {
     AppProperties appProperties;
 
     @Mock
-    Set<ServiceProvider> providers;
+    ServiceProviderRegistry providerRegistry;
 
     @Mock
     ServerHandler serverHandler;
 
+    @Mock
+    ServiceProviderStateWriter serviceProviderStateWriter;
+
     @InjectMocks
     CustomFrameHandler customFrameHandler;
 
@@ -90,7 +91,7 @@ class CustomFrameHandlerTest {
     void setUp() {
         generalSettingsCacheConfig = new GeneralSettingsCacheConfig(jedisCluster, appProperties);
         serverHandler = new ServerHandler(jedisCluster, appProperties);
-        customFrameHandler = new CustomFrameHandler(socketSession, generalSettingsCacheConfig, spSessionMap, jedisCluster, appProperties, providers, serverHandler);
+        customFrameHandler = new CustomFrameHandler(socketSession, generalSettingsCacheConfig, spSessionMap, jedisCluster, appProperties, providerRegistry, serverHandler, serviceProviderStateWriter);
     }
 
     @Test
@@ -111,28 +112,24 @@ class CustomFrameHandlerTest {
 
         ConcurrentMap<Integer, SpSession> realSpSessionMap = new ConcurrentHashMap<>();
         ConcurrentMap<Integer, SpSession> spSessionMapSpy = spy(realSpSessionMap);
-        Set<ServiceProvider> realProviders = new HashSet<>();
-        Set<ServiceProvider> providersSpy = spy(realProviders);
+        ServiceProviderRegistry providerRegistrySpy = spy(new ServiceProviderRegistry());
 
         when(socketSession.getStompSession()).thenReturn(stompSession);
         when(stompHeaders.getDestination()).thenReturn(UPDATE_SERVICE_PROVIDER_ENDPOINT);
         when(this.appProperties.getServiceProvidersHashName()).thenReturn("service_providers");
         when(this.jedisCluster.hget("service_providers", payload)).thenReturn(serviceProviderMock.toString());
 
-        customFrameHandler = new CustomFrameHandler(socketSession, generalSettingsCacheConfig, spSessionMapSpy, jedisCluster, appProperties, providersSpy, serverHandler);
+        customFrameHandler = new CustomFrameHandler(socketSession, generalSettingsCacheConfig, spSessionMapSpy, jedisCluster, appProperties, providerRegistrySpy, serverHandler, serviceProviderStateWriter);
         customFrameHandler.handleFrameLogic(stompHeaders, payload);
 
         // compare stored data
         verify(spSessionMapSpy).put(eq(networkId), any(SpSession.class));
-        verify(providersSpy).add(any(ServiceProvider.class));
+        verify(providerRegistrySpy).put(any(ServiceProvider.class));
 
         SpSession spSessionStored = spSessionMapSpy.get(networkId);
         assertEquals(spSessionStored.getCurrentServiceProvider().getNetworkId(), serviceProviderMock.getNetworkId());
         assertEquals(Constants.STOPPED, spSessionStored.getCurrentServiceProvider().getStatus());
-
-        boolean containsExpectedProvider = providersSpy.stream()
-                .anyMatch(provider -> provider.getNetworkId() == networkId);
-        assertTrue(containsExpectedProvider);
+        assertTrue(providerRegistrySpy.findByNetworkId(networkId).isPresent());
 
         // socket notification parameters
         ArgumentCaptor<String> destinationCaptor = ArgumentCaptor.forClass(String.class);
@@ -146,7 +143,6 @@ class CustomFrameHandlerTest {
 
     @Test
     @DisplayName("handleFrameLogic updating service provider from stopped to started")
-    @SuppressWarnings("unchecked")
     void handleFrameLogicWhenUpdateServiceProviderThenDoItSuccessfully() {
         int networkId = 1;
         String payload = String.valueOf(networkId);
@@ -180,8 +176,7 @@ class CustomFrameHandlerTest {
 
         ConcurrentMap<Integer, SpSession> realSpSessionMap = new ConcurrentHashMap<>();
         ConcurrentMap<Integer, SpSession> spSessionMapSpy = spy(realSpSessionMap);
-        Set<ServiceProvider> realProviders = new HashSet<>();
-        Set<ServiceProvider> providersSpy = spy(realProviders);
+        ServiceProviderRegistry providerRegistrySpy = spy(new ServiceProviderRegistry());
 
         when(socketSession.getStompSession()).thenReturn(stompSession);
         when(this.appProperties.getServiceProvidersHashName()).thenReturn("service_providers");
@@ -189,7 +184,7 @@ class CustomFrameHandlerTest {
         when(stompHeaders.getDestination()).thenReturn(UPDATE_SERVICE_PROVIDER_ENDPOINT);
         when(spSessionMapSpy.get(Integer.valueOf(payload))).thenReturn(spSessionData);
 
-        customFrameHandler = new CustomFrameHandler(socketSession, generalSettingsCacheConfig, spSessionMapSpy, jedisCluster, appProperties, providersSpy, serverHandler);
+        customFrameHandler = new CustomFrameHandler(socketSession, generalSettingsCacheConfig, spSessionMapSpy, jedisCluster, appProperties, providerRegistrySpy, serverHandler, serviceProviderStateWriter);
         customFrameHandler.handleFrameLogic(stompHeaders, payload);
 
         // spSession map updated
@@ -201,19 +196,17 @@ class CustomFrameHandlerTest {
         assertEquals(updatedSpMock.getSystemId(), spSessionStored.getCurrentServiceProvider().getSystemId());
         assertEquals(updatedSpMock.getSystemType(), spSessionStored.getCurrentServiceProvider().getSystemType());
 
-        // testing set removeIf function
-        ArgumentCaptor<Predicate<ServiceProvider>> captor = ArgumentCaptor.forClass(Predicate.class);
-        verify(providersSpy).removeIf(captor.capture());
-        Predicate<ServiceProvider> predicate = captor.getValue();
-        assertTrue(predicate.test(currentSpMock)); // deleted and added again
-
-        // set providers updated
-        verify(providersSpy).add(any(ServiceProvider.class));
-        ServiceProvider updatedSp = providersSpy.stream()
-                .filter(provider -> provider.getNetworkId() == networkId)
-                .findFirst().orElse(null);
+        // registry updated, the provider is replaced by networkId and indexed by its new systemId
+        verify(providerRegistrySpy).put(any(ServiceProvider.class));
+        ServiceProvider updatedSp = providerRegistrySpy.findByNetworkId(networkId).orElse(null);
         assertNotNull(updatedSp);
         assertEquals(Constants.STARTED, updatedSp.getStatus());
+        assertTrue(providerRegistrySpy.findBySystemId(updatedSpMock.getSystemId()).isPresent());
+        assertFalse(providerRegistrySpy.findBySystemId(currentSpMock.getSystemId()).isPresent());
+
+        // bind state written through the state writer only
+        verify(serviceProviderStateWriter).markChanged(spSessionStored.getCurrentServiceProvider());
+        verify(jedisCluster, never()).hset(anyString(), anyString(), anyString());
 
         // socket notification parameters
         verify(stompSession).send(RESPONSE_SMPP_SERVER_ENDPOINT, "OK");
@@ -233,7 +226,7 @@ class CustomFrameHandlerTest {
 
         // verify updating service provider
         verifyNoMoreInteractions(spSessionMap);
-        verifyNoMoreInteractions(providers);
+        verifyNoMoreInteractions(providerRegistry);
         verifyNoMoreInteractions(jedisCluster);
 
         // socket notification parameters
@@ -254,7 +247,7 @@ class CustomFrameHandlerTest {
         // updating service provider
         verifyNoMoreInteractions(socketSession);
         verifyNoMoreInteractions(spSessionMap);
-        verifyNoMoreInteractions(providers);
+        verifyNoMoreInteractions(providerRegistry);
 
         // socket notification parameters
         verifyNoMoreInteractions(stompSession);
@@ -262,7 +255,6 @@ class CustomFrameHandlerTest {
 
     @Test
     @DisplayName("handleFrameLogic deleting service providers")
-    @SuppressWarnings("unchecked")
     void handleFrameLogicWhenDeleteServiceProviderThenDoItSuccessfully() {
         int networkId = 10;
         String payload = String.valueOf(networkId);
@@ -283,28 +275,29 @@ class CustomFrameHandlerTest {
         ConcurrentMap<Integer, SpSession> realSpSessionMap = new ConcurrentHashMap<>();
         ConcurrentMap<Integer, SpSession> spSessionMapSpy = spy(realSpSessionMap);
         spSessionMapSpy.put(networkId, spSessionData);
-        Set<ServiceProvider> realProviders = new HashSet<>();
-        Set<ServiceProvider> providersSpy = spy(realProviders);
-        providersSpy.add(currentSp);
+        ServiceProviderRegistry providerRegistrySpy = spy(new ServiceProviderRegistry());
+        providerRegistrySpy.put(currentSp);
 
         when(this.socketSession.getStompSession()).thenReturn(stompSession);
         when(this.appProperties.getServiceProvidersHashName()).thenReturn("service_providers");
         when(this.stompHeaders.getDestination()).thenReturn(SERVICE_PROVIDER_DELETED_ENDPOINT);
 
-        customFrameHandler = new CustomFrameHandler(socketSession, generalSettingsCacheConfig, spSessionMapSpy, jedisCluster, appProperties, providersSpy, serverHandler);
+        customFrameHandler = new CustomFrameHandler(socketSession, generalSettingsCacheConfig, spSessionMapSpy, jedisCluster, appProperties, providerRegistrySpy, serverHandler, serviceProviderStateWriter);
         customFrameHandler.handleFrameLogic(stompHeaders, payload);
 
         // count element after remove
         assertEquals(0, spSessionMapSpy.size());
-        assertEquals(0, providersSpy.size());
+        assertEquals(0, providerRegistrySpy.size());
 
-        // processing spSession and providers list
+        // processing spSession and providers registry
         verify(spSessionMapSpy).get(10);
         verify(spSessionMapSpy).remove(10);
-        verify(providersSpy).removeIf(any(Predicate.class));
+        verify(providerRegistrySpy).removeByNetworkId(10);
 
         // redis
         verify(jedisCluster).hdel("service_providers", payload);
+        verify(jedisCluster, never()).hset(anyString(), anyString(), anyString());
+        verify(serviceProviderStateWriter).remove(networkId);
 
         // socket notification parameters
         verify(stompSession).send(RESPONSE_SMPP_SERVER_ENDPOINT, "OK");
@@ -312,7 +305,6 @@ class CustomFrameHandlerTest {
 
     @Test
     @DisplayName("handleFrameLogic deleting service providers when networkId does not exists")
-    @SuppressWarnings("unchecked")
     void handleFrameLogicWhenDeleteServiceProviderAndNetworkIdNotExistsThenDoNothing() {
         int networkId = 2;
         String payload = String.valueOf(networkId);
@@ -334,25 +326,24 @@ class CustomFrameHandlerTest {
         ConcurrentMap<Integer, SpSession> realSpSessionMap = new ConcurrentHashMap<>();
         ConcurrentMap<Integer, SpSession> spSessionMapSpy = spy(realSpSessionMap);
         spSessionMapSpy.put(currentSp.getNetworkId(), spSessionData);
-        Set<ServiceProvider> realProviders = new HashSet<>();
-        Set<ServiceProvider> providersSpy = spy(realProviders);
-        providersSpy.add(currentSp);
+        ServiceProviderRegistry providerRegistrySpy = spy(new ServiceProviderRegistry());
+        providerRegistrySpy.put(currentSp);
 
         when(this.socketSession.getStompSession()).thenReturn(stompSession);
         when(this.appProperties.getServiceProvidersHashName()).thenReturn("service_providers");
         when(this.stompHeaders.getDestination()).thenReturn(SERVICE_PROVIDER_DELETED_ENDPOINT);
 
-        customFrameHandler = new CustomFrameHandler(socketSession, generalSettingsCacheConfig, spSessionMapSpy, jedisCluster, appProperties, providersSpy, serverHandler);
+        customFrameHandler = new CustomFrameHandler(socketSession, generalSettingsCacheConfig, spSessionMapSpy, jedisCluster, appProperties, providerRegistrySpy, serverHandler, serviceProviderStateWriter);
         customFrameHandler.handleFrameLogic(stompHeaders, payload);
 
         // count init and count after remove was not changed
         assertEquals(1, spSessionMapSpy.size());
-        assertEquals(1, providersSpy.size());
+        assertEquals(1, providerRegistrySpy.size());
 
-        // processing spSession and providers list
+        // processing spSession and providers registry
         verify(spSessionMapSpy).get(networkId);
         verify(spSessionMapSpy, never()).remove(networkId);
-        verify(providersSpy).removeIf(any(Predicate.class));
+        verify(providerRegistrySpy).removeByNetworkId(networkId);
 
         // socket notification parameters
         verify(stompSession).send(RESPONSE_SMPP_SERVER_ENDPOINT, "OK");
@@ -369,7 +360,7 @@ class CustomFrameHandlerTest {
         // verify not updating or deleting service provider
         verifyNoMoreInteractions(spSessionMap);
         verifyNoMoreInteractions(socketSession);
-        verifyNoMoreInteractions(providers);
+        verifyNoMoreInteractions(providerRegistry);
         verifyNoMoreInteractions(jedisCluster);
         verifyNoMoreInteractions(stompSession);
     }
@@ -392,7 +383,7 @@ class CustomFrameHandlerTest {
 
         // updating
         when(this.jedisCluster.hget("configurations", "smpp_server")).thenReturn("{\"state\":\"STARTED\"}");
-        customFrameHandler = new CustomFrameHandler(socketSession, generalSettingsCacheConfig, spSessionMap, jedisCluster, appProperties, providers, realServerHandler);
+        customFrameHandler = new CustomFrameHandler(socketSession, generalSettingsCacheConfig, spSessionMap, jedisCluster, appProperties, providerRegistry, realServerHandler);
         customFrameHandler.handleFrameLogic(stompHeaders, payload);
         assertEquals("STARTED", realServerHandler.getState());
 
@@ -418,7 +409,7 @@ class CustomFrameHandlerTest {
 
         // updating
         when(this.jedisCluster.hget("configurations", "smpp_server")).thenReturn(null);
-        customFrameHandler = new CustomFrameHandler(socketSession, generalSettingsCacheConfig, spSessionMap, jedisCluster, appProperties, providers, realServerHandler);
+        customFrameHandler = new CustomFrameHandler(socketSession, generalSettingsCacheConfig, spSessionMap, jedisCluster, appProperties, providerRegistry, realServerHandler);
         customFrameHandler.handleFrameLogic(stompHeaders, payload);
 
         // after updating state was not changed
@@ -474,7 +465,7 @@ class CustomFrameHandlerTest {
         // updating
         when(this.jedisCluster.hget("general_settings", "smpp_http"))
                 .thenReturn(updatedGeneralSettings.toString());
-        customFrameHandler = new CustomFrameHandler(socketSession, realGeneralSettings, spSessionMap, jedisCluster, appProperties, providers, serverHandler);
+        customFrameHandler = new CustomFrameHandler(socketSession, realGeneralSettings, spSessionMap, jedisCluster, appProperties, providerRegistry, serverHandler, serviceProviderStateWriter);
         customFrameHandler.handleFrameLogic(stompHeaders, payload);
         assertEquals(updatedGeneralSettings.toString(), realGeneralSettings.getCurrentGeneralSettings().toString());
 
@@ -515,7 +506,7 @@ class CustomFrameHandlerTest {
         // updating
         when(this.jedisCluster.hget("general_settings", "smpp_http"))
                 .thenReturn(null);
-        customFrameHandler = new CustomFrameHandler(socketSession, realGeneralSettings, spSessionMap, jedisCluster, appProperties, providers, serverHandler);
+        customFrameHandler = new CustomFrameHandler(socketSession, realGeneralSettings, spSessionMap, jedisCluster, appProperties, providerRegistry, serverHandler, serviceProviderStateWriter);
         customFrameHandler.handleFrameLogic(stompHeaders, payload);
 
         // after updating general settings was not changed
@@ -535,7 +526,7 @@ class CustomFrameHandlerTest {
         // verify deleting execution
         verifyNoMoreInteractions(spSessionMap);
         verifyNoMoreInteractions(socketSession);
-        verifyNoMoreInteractions(providers);
+        verifyNoMoreInteractions(providerRegistry);
         verifyNoMoreInteractions(jedisCluster);
         verifyNoMoreInteractions(stompSession);
     }
@@ -0,0 +1,224 @@
+package com.paicbd.module.components;
+
+import com.paicbd.module.utils.AppProperties;
+import com.paicbd.module.utils.DeliverSmResult;
+import com.paicbd.module.utils.SpSession;
+import com.paicbd.smsc.cdr.CdrProcessor;
+import com.paicbd.smsc.dto.GeneralSettings;
+import com.paicbd.smsc.dto.MessageEvent;
+import com.paicbd.smsc.dto.ServiceProvider;
+import com.paicbd.smsc.utils.SmppEncoding;
+import org.jsmpp.session.SMPPServerSession;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import redis.clients.jedis.JedisCluster;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class DeliverSmDispatcherTest {
+    @Mock
+    CdrProcessor cdrProcessor;
+
+    @Mock
+    AppProperties appProperties;
+
+    @Mock
+    GeneralSettingsCacheConfig generalSettingsCacheConfig;
+
+    @Mock
+    JedisCluster jedisCluster;
+
+    @Mock
+    SMPPServerSession slowSession;
+
+    @Mock
+    SMPPServerSession fastSession;
+
+    private final CountDownLatch responseLatch = new CountDownLatch(1);
+    private DeliverSmDispatcher dispatcher;
+
+    @AfterEach
+    void tearDown() {
+        responseLatch.countDown();
+        if (dispatcher != null) {
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("dispatch when the window of the bind is full then the deliver_sm waits for a response without blocking the caller")
+    void dispatchWhenWindowFullThenWaitForResponse() throws Exception {
+        when(appProperties.getDeliverSmWindowSize()).thenReturn(1);
+        blockFirstSend();
+        SpSession spSession = spSession(1, slowSession);
+        dispatcher = new DeliverSmDispatcher(cdrProcessor, appProperties, generalSettingsCacheConfig);
+
+        CompletableFuture<DeliverSmResult> first = dispatcher.dispatch(1, spSession, deliverSmEvent("1"));
+        CompletableFuture<DeliverSmResult> second = dispatcher.dispatch(1, spSession, deliverSmEvent("2"));
+
+        assertFalse(first.isDone());
+        assertFalse(second.isDone());
+        assertEquals(1, dispatcher.getWaiting(1));
+        assertEquals(2, dispatcher.getPending());
+        assertEquals(1, spSession.getBindStats(slowSession).getOutstanding());
+
+        responseLatch.countDown();
+        assertEquals(DeliverSmResult.SENT, first.get(2, TimeUnit.SECONDS));
+        assertEquals(DeliverSmResult.SENT, second.get(2, TimeUnit.SECONDS));
+        assertEquals(0, dispatcher.getWaiting(1));
+        assertEquals(0, spSession.getBindStats(slowSession).getOutstanding());
+    }
+
+    @Test
+    @DisplayName("dispatch when a service provider is slow then the deliver_sm of other service providers are not delayed")
+    void dispatchWhenOtherProviderIsSlowThenNotDelayed() throws Exception {
+        when(appProperties.getDeliverSmWindowSize()).thenReturn(1);
+        blockFirstSend();
+        dispatcher = new DeliverSmDispatcher(cdrProcessor, appProperties, generalSettingsCacheConfig);
+
+        CompletableFuture<DeliverSmResult> slow = dispatcher.dispatch(1, spSession(1, slowSession), deliverSmEvent("1"));
+        // the second send is the first one to get the general settings after the slow one
+        Thread.sleep(50);
+        CompletableFuture<DeliverSmResult> fast = dispatcher.dispatch(2, spSession(2, fastSession), deliverSmEvent("2"));
+
+        assertEquals(DeliverSmResult.SENT, fast.get(2, TimeUnit.SECONDS));
+        assertFalse(slow.isDone());
+    }
+
+    @Test
+    @DisplayName("dispatch when the service provider has no binds then the outcome is NO_SESSION")
+    void dispatchWhenNoBindsThenNoSession() throws Exception {
+        dispatcher = new DeliverSmDispatcher(cdrProcessor, appProperties, generalSettingsCacheConfig);
+
+        CompletableFuture<DeliverSmResult> outcome = dispatcher.dispatch(1, spSession(1, null), deliverSmEvent("1"));
+
+        assertEquals(DeliverSmResult.NO_SESSION, outcome.get(2, TimeUnit.SECONDS));
+        assertEquals(0, dispatcher.getPending());
+    }
+
+    @Test
+    @DisplayName("awaitCapacity when a deliver_sm completes then the waiter is woken before the timeout")
+    void awaitCapacityWhenDeliverSmCompletesThenWake() throws Exception {
+        when(appProperties.getDeliverSmWindowSize()).thenReturn(1);
+        when(appProperties.getDeliverSmMaxPending()).thenReturn(1);
+        blockFirstSend();
+        dispatcher = new DeliverSmDispatcher(cdrProcessor, appProperties, generalSettingsCacheConfig);
+        CompletableFuture<DeliverSmResult> first = dispatcher.dispatch(1, spSession(1, slowSession), deliverSmEvent("1"));
+        assertEquals(0, dispatcher.remainingCapacity());
+
+        CompletableFuture<Void> waiter = CompletableFuture.runAsync(() -> {
+            try {
+                dispatcher.awaitCapacity(10_000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        Thread.sleep(50);
+        assertFalse(waiter.isDone());
+
+        responseLatch.countDown();
+        waiter.get(2, TimeUnit.SECONDS);
+        assertEquals(DeliverSmResult.SENT, first.get(2, TimeUnit.SECONDS));
+        assertEquals(1, dispatcher.remainingCapacity());
+    }
+
+    @Test
+    @DisplayName("remainingCapacity and windowSize then the configured limits are applied")
+    void remainingCapacityAndWindowSizeThenApplyConfiguration() {
+        when(appProperties.getDeliverSmMaxPending()).thenReturn(0).thenReturn(100);
+        when(appProperties.getDeliverSmWindowSize()).thenReturn(10);
+        when(appProperties.getDeliverSmWindowOverrides()).thenReturn("1:50, 2:0, invalid, 3:x");
+        dispatcher = new DeliverSmDispatcher(cdrProcessor, appProperties, generalSettingsCacheConfig);
+
+        assertEquals(Integer.MAX_VALUE, dispatcher.remainingCapacity());
+        assertEquals(100, dispatcher.remainingCapacity());
+        assertEquals(50, dispatcher.windowSize(1));
+        assertEquals(1, dispatcher.windowSize(2));
+        assertEquals(10, dispatcher.windowSize(3));
+        assertTrue(DeliverSmDispatcher.parseWindowOverrides(null).isEmpty());
+        assertEquals(Map.of(4, 5), DeliverSmDispatcher.parseWindowOverrides("4:5"));
+    }
+
+    @Test
+    @DisplayName("adjustWindow when the service provider throttles then the window is halved and recovers with accepted deliver_sm")
+    void adjustWindowWhenThrottledThenHalveAndRecover() throws Exception {
+        when(appProperties.getDeliverSmWindowSize()).thenReturn(10);
+        dispatcher = new DeliverSmDispatcher(cdrProcessor, appProperties, generalSettingsCacheConfig);
+        // creates the lane of the service provider
+        dispatcher.dispatch(1, spSession(1, null), deliverSmEvent("1")).get(2, TimeUnit.SECONDS);
+
+        dispatcher.adjustWindow(1, DeliverSmResult.THROTTLED);
+        assertEquals(5, dispatcher.effectiveWindowSize(1));
+        dispatcher.adjustWindow(1, DeliverSmResult.THROTTLED);
+        dispatcher.adjustWindow(1, DeliverSmResult.THROTTLED);
+        dispatcher.adjustWindow(1, DeliverSmResult.THROTTLED);
+        assertEquals(1, dispatcher.effectiveWindowSize(1));
+        dispatcher.adjustWindow(1, DeliverSmResult.TIMEOUT);
+        assertEquals(1, dispatcher.effectiveWindowSize(1));
+
+        for (int i = 0; i < 9; i++) {
+            dispatcher.adjustWindow(1, DeliverSmResult.SENT);
+        }
+        assertEquals(10, dispatcher.effectiveWindowSize(1));
+        assertEquals(10, dispatcher.effectiveWindowSize(2));
+    }
+
+    /**
+     * The first send waits for the latch before getting the general settings, as a bind that takes long to answer.
+     */
+    private void blockFirstSend() {
+        GeneralSettings generalSettings = GeneralSettings.builder()
+                .encodingIso88591(SmppEncoding.ISO88591)
+                .encodingGsm7(SmppEncoding.GSM7)
+                .encodingUcs2(SmppEncoding.UCS2)
+                .build();
+        when(generalSettingsCacheConfig.getCurrentGeneralSettings())
+                .thenAnswer(invocation -> {
+                    assertTrue(responseLatch.await(5, TimeUnit.SECONDS));
+                    return generalSettings;
+                })
+                .thenReturn(generalSettings);
+    }
+
+    private SpSession spSession(int networkId, SMPPServerSession session) {
+        ServiceProvider serviceProvider = ServiceProvider.builder()
+                .networkId(networkId)
+                .systemId("smpp_" + networkId)
+                .binds(new ArrayList<>())
+                .build();
+        SpSession spSession = new SpSession(jedisCluster, serviceProvider, appProperties);
+        if (session != null) {
+            spSession.addSmppSession(session);
+        }
+        return spSession;
+    }
+
+    private static MessageEvent deliverSmEvent(String id) {
+        return MessageEvent.builder()
+                .id(id)
+                .messageId(id)
+                .sourceAddrTon(1)
+                .sourceAddrNpi(1)
+                .sourceAddr("50510201020")
+                .destAddrTon(1)
+                .destAddrNpi(1)
+                .destinationAddr("50582368999")
+                .dataCoding(0)
+                .delReceipt("id:" + id + " sub:001 dlvrd:001 submit date:2101010000 done date:2101010000 stat:DELIVRD err:000 text:Test")
+                .build();
+    }
+}
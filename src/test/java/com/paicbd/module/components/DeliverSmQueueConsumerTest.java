@@ -1,6 +1,7 @@
 package com.paicbd.module.components;
 
 import com.paicbd.module.utils.AppProperties;
+import com.paicbd.module.utils.DeliverSmResult;
 import com.paicbd.module.utils.SpSession;
 import com.paicbd.smsc.cdr.CdrProcessor;
 import com.paicbd.smsc.dto.GeneralSettings;
@@ -10,6 +11,7 @@ import com.paicbd.smsc.utils.SmppEncoding;
 import com.paicbd.smsc.utils.UtilsEnum;
 import org.jsmpp.InvalidResponseException;
 import org.jsmpp.PDUException;
+import org.jsmpp.SMPPConstant;
 import org.jsmpp.bean.DataCoding;
 import org.jsmpp.bean.ESMClass;
 import org.jsmpp.bean.MessageType;
@@ -27,10 +29,19 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import redis.clients.jedis.ClusterPipeline;
 import redis.clients.jedis.JedisCluster;
+import redis.clients.jedis.StreamEntryID;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.params.XAutoClaimParams;
+import redis.clients.jedis.params.XPendingParams;
+import redis.clients.jedis.params.XReadGroupParams;
+import redis.clients.jedis.resps.StreamEntry;
+import redis.clients.jedis.resps.StreamPendingEntry;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentMap;
 import static org.awaitility.Awaitility.await;
 import static org.awaitility.Durations.ONE_SECOND;
@@ -39,9 +50,16 @@ import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyByte;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyMap;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
@@ -62,6 +80,18 @@ class DeliverSmQueueConsumerTest {
     @Mock
     private GeneralSettingsCacheConfig generalSettingsCacheConfig;
 
+    @Mock
+    private DeliverSmRouter deliverSmRouter;
+
+    @Mock
+    private DeliverSmRetryQueue deliverSmRetryQueue;
+
+    @Mock
+    private PendingDeliverSmStore pendingDeliverSmStore;
+
+    @Mock
+    private ClusterPipeline pipeline;
+
     @InjectMocks
     private DeliverSmQueueConsumer deliverSmQueueConsumer;
 
@@ -121,19 +151,22 @@ class DeliverSmQueueConsumerTest {
         when(this.appProperties.getDeliverSmWorkers()).thenReturn(1);
         when(this.appProperties.getDeliverSmQueue()).thenReturn("smpp_dlr");
         when(this.appProperties.getDeliverSmBatchSizePerWorker()).thenReturn(1);
-        when(this.spSessionMock.getNextRoundRobinSession()).thenReturn(serverSession);
+        when(this.spSessionMock.getCurrentSmppSessions()).thenReturn(List.of(serverSession));
+        when(this.spSessionMock.tryReserveSession(1)).thenReturn(new SpSession.Reservation(serverSession, System.nanoTime()));
         when(this.spSessionMap.get(1)).thenReturn(spSessionMock);
         when(this.jedisCluster.lpop("smpp_dlr", 1)).thenReturn(List.of(deliverSmEvent.toString()));
         when(this.generalSettingsCacheConfig.getCurrentGeneralSettings()).thenReturn(generalSettingsMock);
 
-        this.deliverSmQueueConsumer = new DeliverSmQueueConsumer(jedisCluster, cdrProcessor, appProperties, spSessionMap, generalSettingsCacheConfig );
+        this.deliverSmQueueConsumer = new DeliverSmQueueConsumer(jedisCluster, appProperties, spSessionMap, deliverSmRouter, deliverSmDispatcher(), deliverSmRetryQueue, pendingDeliverSmStore);
         this.deliverSmQueueConsumer.startScheduler();
         toSleep();
 
+        // the deliver_sm is sent by the dispatcher in a virtual thread
+        verify(this.cdrProcessor, timeout(2000)).createCdr(deliverSmEvent.getMessageId());
         verify(this.spSessionMap).get(1);
         verify(this.generalSettingsCacheConfig).getCurrentGeneralSettings();
         verify(this.cdrProcessor).putCdrDetailOnRedis(any(UtilsRecords.CdrDetail.class));
-        verify(this.cdrProcessor).createCdr(deliverSmEvent.getMessageId());
+        verify(this.spSessionMock).onRequestCompleted(eq(serverSession), anyLong());
 
         // verify deliverSmEvent got from Redis vs sent
         ArgumentCaptor<String> sourceAddrCaptor = ArgumentCaptor.forClass(String.class);
@@ -211,15 +244,18 @@ class DeliverSmQueueConsumerTest {
         when(this.appProperties.getDeliverSmBatchSizePerWorker()).thenReturn(1);
         when(this.appProperties.getDeliverSmQueue()).thenReturn("smpp_dlr");
         when(this.jedisCluster.lpop("smpp_dlr", 1)).thenReturn(List.of(deliverSmEvent.toString()));
-        when(this.spSessionMock.getNextRoundRobinSession()).thenReturn(null);
+        when(this.spSessionMock.getCurrentSmppSessions()).thenReturn(List.of());
         when(this.spSessionMap.get(destNetworkId)).thenReturn(spSessionMock);
+        when(this.jedisCluster.pipelined()).thenReturn(pipeline);
 
-        this.deliverSmQueueConsumer = new DeliverSmQueueConsumer(jedisCluster, cdrProcessor, appProperties, spSessionMap, generalSettingsCacheConfig );
+        this.deliverSmQueueConsumer = new DeliverSmQueueConsumer(jedisCluster, appProperties, spSessionMap, deliverSmRouter, deliverSmDispatcher(), deliverSmRetryQueue, pendingDeliverSmStore);
         this.deliverSmQueueConsumer.startScheduler();
         toSleep();
 
-        // Redis SMS in pending queue
-        verify(this.jedisCluster).lpush("1_smpp_pending_dlr", deliverSmEvent.toString());
+        // Redis SMS in pending queue, untouched
+        verify(this.pipeline, timeout(2000)).lpush("1_smpp_pending_dlr", deliverSmEvent.toString());
+        verify(this.pipeline).sync();
+        verify(this.pendingDeliverSmStore, never()).add(1, deliverSmEvent.toString());
 
         // verify execution
         verify(this.spSessionMap).get(1);
@@ -264,13 +300,15 @@ class DeliverSmQueueConsumerTest {
         when(this.appProperties.getDeliverSmQueue()).thenReturn("smpp_dlr");
         when(this.jedisCluster.lpop("smpp_dlr", 1)).thenReturn(List.of(deliverSmEvent.toString()));
         when(this.spSessionMap.get(destNetworkId)).thenReturn(null);
+        when(this.jedisCluster.pipelined()).thenReturn(pipeline);
 
-        this.deliverSmQueueConsumer = new DeliverSmQueueConsumer(jedisCluster, cdrProcessor, appProperties, spSessionMap, generalSettingsCacheConfig );
+        this.deliverSmQueueConsumer = new DeliverSmQueueConsumer(jedisCluster, appProperties, spSessionMap, deliverSmRouter, deliverSmDispatcher(), deliverSmRetryQueue, pendingDeliverSmStore);
         this.deliverSmQueueConsumer.startScheduler();
         toSleep();
 
         // Redis SMS in pending queue
-        verify(this.jedisCluster).lpush("1_smpp_pending_dlr", deliverSmEvent.toString());
+        verify(this.pipeline, timeout(2000)).lpush("1_smpp_pending_dlr", deliverSmEvent.toString());
+        verify(this.pipeline).sync();
 
         // never executed
         verifyNoMoreInteractions(this.spSessionMock);
@@ -287,7 +325,7 @@ class DeliverSmQueueConsumerTest {
         when(this.appProperties.getDeliverSmQueue()).thenReturn("smpp_dlr");
         when(this.jedisCluster.lpop("smpp_dlr", 1)).thenReturn(null);
 
-        this.deliverSmQueueConsumer = new DeliverSmQueueConsumer(jedisCluster, cdrProcessor, appProperties, null, generalSettingsCacheConfig );
+        this.deliverSmQueueConsumer = new DeliverSmQueueConsumer(jedisCluster, appProperties, null, deliverSmRouter, deliverSmDispatcher(), deliverSmRetryQueue, pendingDeliverSmStore);
         this.deliverSmQueueConsumer.startScheduler();
         toSleep();
 
@@ -311,12 +349,13 @@ class DeliverSmQueueConsumerTest {
         when(this.appProperties.getDeliverSmQueue()).thenReturn("smpp_dlr");
         when(this.jedisCluster.lpop("smpp_dlr", 1)).thenReturn(List.of("incorrect:json}"));
 
-        this.deliverSmQueueConsumer = new DeliverSmQueueConsumer(jedisCluster, cdrProcessor, appProperties, spSessionMap, generalSettingsCacheConfig );
+        this.deliverSmQueueConsumer = new DeliverSmQueueConsumer(jedisCluster, appProperties, spSessionMap, deliverSmRouter, deliverSmDispatcher(), deliverSmRetryQueue, pendingDeliverSmStore);
         this.deliverSmQueueConsumer.startScheduler();
         toSleep();
 
         //Redis
         verify(this.jedisCluster).lpop("smpp_dlr", 1);
+        verify(this.deliverSmRetryQueue).deadLetterInvalid("incorrect:json}");
 
         // never executed
         verifyNoMoreInteractions(this.spSessionMap);
@@ -363,9 +402,9 @@ class DeliverSmQueueConsumerTest {
         when(this.appProperties.getDeliverSmQueue()).thenReturn("smpp_dlr");
         when(this.jedisCluster.lpop("smpp_dlr", 1)).thenReturn(List.of(deliverSmEvent.toString()));
         when(this.spSessionMap.get(destNetworkId)).thenReturn(spSessionMock);
-        when(this.spSessionMock.getNextRoundRobinSession()).thenThrow(new RuntimeException("exception to get getNextRoundRobinSession"));
+        when(this.spSessionMock.getCurrentSmppSessions()).thenThrow(new RuntimeException("exception to get the binds"));
 
-        this.deliverSmQueueConsumer = new DeliverSmQueueConsumer(jedisCluster, cdrProcessor, appProperties, spSessionMap, generalSettingsCacheConfig );
+        this.deliverSmQueueConsumer = new DeliverSmQueueConsumer(jedisCluster, appProperties, spSessionMap, deliverSmRouter, deliverSmDispatcher(), deliverSmRetryQueue, pendingDeliverSmStore);
         this.deliverSmQueueConsumer.startScheduler();
         toSleep();
 
@@ -376,6 +415,336 @@ class DeliverSmQueueConsumerTest {
         verifyNoMoreInteractions(this.serverSession);
     }
 
+    @Test
+    @DisplayName("Testing the blocking mode when the queue is empty then the worker waits on BLPOP and sends the deliver_sm popped")
+    void startQueueProcessingWhenBlockingModeAndQueueEmptyThenBlpop() {
+        MessageEvent deliverSmEvent = MessageEvent.builder()
+                .id("1719421854353-11028072268459")
+                .systemId("systemId123")
+                .destNetworkId(1)
+                .isDlr(true)
+                .build();
+
+        when(this.appProperties.getDeliverSmConsumerMode()).thenReturn(DeliverSmQueueConsumer.MODE_BLOCKING);
+        when(this.appProperties.getDeliverSmWorkers()).thenReturn(1);
+        when(this.appProperties.getDeliverSmBatchSizePerWorker()).thenReturn(10);
+        when(this.appProperties.getDeliverSmBlockTimeoutSeconds()).thenReturn(1);
+        when(this.appProperties.getDeliverSmQueue()).thenReturn("smpp_dlr");
+        when(this.jedisCluster.lpop("smpp_dlr", 1)).thenReturn(null);
+        when(this.jedisCluster.blpop(1, "smpp_dlr"))
+                .thenReturn(List.of("smpp_dlr", deliverSmEvent.toString()))
+                .thenReturn(null);
+        when(this.spSessionMap.get(1)).thenReturn(null);
+        when(this.jedisCluster.pipelined()).thenReturn(pipeline);
+
+        this.deliverSmQueueConsumer = new DeliverSmQueueConsumer(jedisCluster, appProperties, spSessionMap, deliverSmRouter, deliverSmDispatcher(), deliverSmRetryQueue, pendingDeliverSmStore);
+        this.deliverSmQueueConsumer.startQueueProcessing();
+        try {
+            verify(this.pipeline, timeout(2000)).lpush("1_smpp_pending_dlr", deliverSmEvent.toString());
+            // the scheduled polling is disabled in blocking mode
+            this.deliverSmQueueConsumer.startScheduler();
+            verify(this.jedisCluster, never()).lpop("smpp_dlr", 10);
+        } finally {
+            this.deliverSmQueueConsumer.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("Testing the blocking mode when the queue returns full batches then the batch size grows")
+    void startQueueProcessingWhenBlockingModeAndFullBatchesThenGrowBatch() {
+        when(this.appProperties.getDeliverSmConsumerMode()).thenReturn(DeliverSmQueueConsumer.MODE_BLOCKING);
+        when(this.appProperties.getDeliverSmWorkers()).thenReturn(1);
+        when(this.appProperties.getDeliverSmBatchSizePerWorker()).thenReturn(4);
+        when(this.appProperties.getDeliverSmBlockTimeoutSeconds()).thenReturn(1);
+        when(this.appProperties.getDeliverSmQueue()).thenReturn("smpp_dlr");
+        // invalid items are dead-lettered, only the batch sizes requested matter
+        when(this.jedisCluster.lpop("smpp_dlr", 1)).thenReturn(List.of("a")).thenReturn(null);
+        when(this.jedisCluster.lpop("smpp_dlr", 2)).thenReturn(List.of("b", "c"));
+        when(this.jedisCluster.lpop("smpp_dlr", 4)).thenReturn(List.of("d", "e", "f", "g")).thenReturn(List.of("h"));
+        when(this.jedisCluster.blpop(1, "smpp_dlr")).thenReturn(null);
+
+        this.deliverSmQueueConsumer = new DeliverSmQueueConsumer(jedisCluster, appProperties, spSessionMap, deliverSmRouter, deliverSmDispatcher(), deliverSmRetryQueue, pendingDeliverSmStore);
+        this.deliverSmQueueConsumer.startQueueProcessing();
+        try {
+            // 1 -> 2 -> 4 -> capped at 4 -> shrinks to the single item returned
+            verify(this.jedisCluster, timeout(2000).times(2)).lpop("smpp_dlr", 4);
+            verify(this.jedisCluster, timeout(2000).atLeastOnce()).blpop(1, "smpp_dlr");
+        } finally {
+            this.deliverSmQueueConsumer.shutdown();
+        }
+        verifyNoMoreInteractions(this.cdrProcessor);
+    }
+
+    @Test
+    @DisplayName("Testing the stream mode when the deliver_sm is moved to the pending list then the entry is acknowledged")
+    void startQueueProcessingWhenStreamModeAndEntryHandledThenAcknowledge() {
+        MessageEvent deliverSmEvent = MessageEvent.builder()
+                .id("1719421854353-11028072268459")
+                .systemId("systemId123")
+                .destNetworkId(1)
+                .isDlr(true)
+                .build();
+        StreamEntryID entryId = new StreamEntryID(1719421854353L, 0);
+
+        mockStreamProperties();
+        when(this.jedisCluster.xreadGroup(eq("smpp-server"), eq("smpp-server-instance-01"), any(XReadGroupParams.class), anyMap()))
+                .thenReturn(List.of(Map.entry("smpp_dlr_stream", List.of(new StreamEntry(entryId, Map.of("message", deliverSmEvent.toString()))))))
+                .thenReturn(null);
+        when(this.spSessionMap.get(1)).thenReturn(null);
+        when(this.jedisCluster.pipelined()).thenReturn(pipeline);
+
+        this.deliverSmQueueConsumer = new DeliverSmQueueConsumer(jedisCluster, appProperties, spSessionMap, deliverSmRouter, deliverSmDispatcher(), deliverSmRetryQueue, pendingDeliverSmStore);
+        this.deliverSmQueueConsumer.startQueueProcessing();
+        try {
+            verify(this.jedisCluster).xgroupCreate("smpp_dlr_stream", "smpp-server", new StreamEntryID(), true);
+            verify(this.jedisCluster, timeout(2000)).xdel("smpp_dlr_stream", entryId);
+            verify(this.pipeline).lpush("1_smpp_pending_dlr", deliverSmEvent.toString());
+            verify(this.jedisCluster).xack("smpp_dlr_stream", "smpp-server", entryId);
+            // the scheduled polling is disabled in stream mode
+            this.deliverSmQueueConsumer.startScheduler();
+            verify(this.jedisCluster, never()).lpop("smpp_dlr", 10);
+        } finally {
+            this.deliverSmQueueConsumer.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("Testing the stream mode when stale entries are reclaimed then the ones over the max deliveries are discarded")
+    void reclaimStaleDeliverSmWhenMaxDeliveriesExceededThenDiscard() {
+        StreamEntryID exhaustedId = new StreamEntryID(1, 0);
+        StreamEntryID retriedId = new StreamEntryID(2, 0);
+
+        mockStreamProperties();
+        when(this.appProperties.getDeliverSmStreamClaimIdleMillis()).thenReturn(60000L);
+        when(this.appProperties.getDeliverSmStreamMaxDeliveries()).thenReturn(5);
+        when(this.jedisCluster.xreadGroup(eq("smpp-server"), eq("smpp-server-instance-01"), any(XReadGroupParams.class), anyMap()))
+                .thenReturn(null);
+        when(this.jedisCluster.xautoclaim(eq("smpp_dlr_stream"), eq("smpp-server"), eq("smpp-server-instance-01"), eq(60000L),
+                eq(new StreamEntryID()), any(XAutoClaimParams.class)))
+                .thenReturn(Map.entry(new StreamEntryID(), List.of(
+                        new StreamEntry(exhaustedId, Map.of("message", "incorrect:json}")),
+                        new StreamEntry(retriedId, Map.of("message", "incorrect:json}")))));
+        when(this.jedisCluster.xpending(eq("smpp_dlr_stream"), eq("smpp-server"), any(XPendingParams.class)))
+                .thenReturn(List.of(
+                        new StreamPendingEntry(exhaustedId, "smpp-server-instance-01", 60000L, 6L),
+                        new StreamPendingEntry(retriedId, "smpp-server-instance-01", 60000L, 2L)));
+
+        this.deliverSmQueueConsumer = new DeliverSmQueueConsumer(jedisCluster, appProperties, spSessionMap, deliverSmRouter, deliverSmDispatcher(), deliverSmRetryQueue, pendingDeliverSmStore);
+        this.deliverSmQueueConsumer.startQueueProcessing();
+        try {
+            this.deliverSmQueueConsumer.reclaimStaleDeliverSm();
+        } finally {
+            this.deliverSmQueueConsumer.shutdown();
+        }
+
+        // the exhausted entry is discarded first, the other one is processed and, being invalid, dead-lettered and acknowledged
+        verify(this.jedisCluster).xack("smpp_dlr_stream", "smpp-server", exhaustedId);
+        verify(this.deliverSmRetryQueue).deadLetterInvalid("incorrect:json}");
+        verify(this.jedisCluster).xack("smpp_dlr_stream", "smpp-server", retriedId);
+        verifyNoMoreInteractions(this.spSessionMap);
+        verifyNoMoreInteractions(this.cdrProcessor);
+    }
+
+    @Test
+    @DisplayName("Testing the routing when the service provider is bound to another instance then the deliver_sm is forwarded to its network queue")
+    void distributeGlobalQueueWhenBoundToOtherInstanceThenForward() {
+        MessageEvent deliverSmEvent = MessageEvent.builder()
+                .id("1719421854353-11028072268459")
+                .systemId("systemId123")
+                .destNetworkId(1)
+                .isDlr(true)
+                .build();
+
+        when(this.appProperties.getDeliverSmWorkers()).thenReturn(1);
+        when(this.appProperties.getDeliverSmBatchSizePerWorker()).thenReturn(2);
+        when(this.appProperties.getDeliverSmQueue()).thenReturn("smpp_dlr");
+        when(this.deliverSmRouter.isEnabled()).thenReturn(true);
+        when(this.jedisCluster.lpop("smpp_dlr", 2)).thenReturn(List.of(deliverSmEvent.toString()));
+        when(this.spSessionMap.get(1)).thenReturn(null);
+        when(this.deliverSmRouter.isHeldByOther(1)).thenReturn(true);
+        when(this.deliverSmRouter.networkQueue(1)).thenReturn("{smpp_dlr}:1");
+        when(this.jedisCluster.pipelined()).thenReturn(pipeline);
+
+        this.deliverSmQueueConsumer = new DeliverSmQueueConsumer(jedisCluster, appProperties, spSessionMap, deliverSmRouter, deliverSmDispatcher(), deliverSmRetryQueue, pendingDeliverSmStore);
+        this.deliverSmQueueConsumer.distributeGlobalQueue();
+
+        verify(this.pipeline).lpush("{smpp_dlr}:1", deliverSmEvent.toString());
+        // the batch was not full, the global queue is empty
+        verify(this.jedisCluster).lpop("smpp_dlr", 2);
+        verify(this.pendingDeliverSmStore, never()).add(1, deliverSmEvent.toString());
+        verifyNoMoreInteractions(this.cdrProcessor);
+    }
+
+    @Test
+    @DisplayName("Testing the routing when it is enabled then the workers pop only the network queues of the local binds")
+    void startSchedulerWhenRoutingThenPopOnlyLocalQueues() {
+        String deliverSmRaw = MessageEvent.builder().id("1").destNetworkId(2).isDlr(true).build().toString();
+
+        when(this.appProperties.getDeliverSmWorkers()).thenReturn(1);
+        when(this.appProperties.getDeliverSmBatchSizePerWorker()).thenReturn(2);
+        when(this.deliverSmRouter.isEnabled()).thenReturn(true);
+        when(this.deliverSmRouter.popLocal(2)).thenReturn(List.of(deliverSmRaw));
+        when(this.jedisCluster.pipelined()).thenReturn(pipeline);
+
+        this.deliverSmQueueConsumer = new DeliverSmQueueConsumer(jedisCluster, appProperties, spSessionMap, deliverSmRouter, deliverSmDispatcher(), deliverSmRetryQueue, pendingDeliverSmStore);
+        this.deliverSmQueueConsumer.startScheduler();
+
+        verify(this.pipeline, timeout(2000)).lpush("2_smpp_pending_dlr", deliverSmRaw);
+        verify(this.jedisCluster, never()).lpop(eq("smpp_dlr"), anyInt());
+        verifyNoMoreInteractions(this.cdrProcessor);
+    }
+
+    @Test
+    @DisplayName("distributeGlobalQueue when routing is disabled then the global queue is left to the workers")
+    void distributeGlobalQueueWhenRoutingDisabledThenDoNothing() {
+        this.deliverSmQueueConsumer = new DeliverSmQueueConsumer(jedisCluster, appProperties, spSessionMap, deliverSmRouter, deliverSmDispatcher(), deliverSmRetryQueue, pendingDeliverSmStore);
+        this.deliverSmQueueConsumer.distributeGlobalQueue();
+
+        verifyNoInteractions(this.jedisCluster);
+    }
+
+    @Test
+    @DisplayName("Testing the routing pre-pass when a batch has deliver_sm for several unbound service providers then they are requeued with one push per list")
+    void startSchedulerWhenBatchWithoutBindsThenRequeueGroupedInOnePipeline() {
+        String first = MessageEvent.builder().id("1").destNetworkId(1).isDlr(true).build().toString();
+        String second = MessageEvent.builder().id("2").destNetworkId(2).isDlr(true).build().toString();
+        String third = MessageEvent.builder().id("3").destNetworkId(1).isDlr(true).build().toString();
+
+        when(this.appProperties.getDeliverSmWorkers()).thenReturn(1);
+        when(this.appProperties.getDeliverSmBatchSizePerWorker()).thenReturn(3);
+        when(this.appProperties.getDeliverSmQueue()).thenReturn("smpp_dlr");
+        when(this.jedisCluster.lpop("smpp_dlr", 3)).thenReturn(List.of(first, second, third));
+        when(this.jedisCluster.pipelined()).thenReturn(pipeline);
+
+        this.deliverSmQueueConsumer = new DeliverSmQueueConsumer(jedisCluster, appProperties, spSessionMap, deliverSmRouter, deliverSmDispatcher(), deliverSmRetryQueue, pendingDeliverSmStore);
+        this.deliverSmQueueConsumer.startScheduler();
+
+        verify(this.pipeline, timeout(2000)).sync();
+        verify(this.pipeline).lpush("1_smpp_pending_dlr", first, third);
+        verify(this.pipeline).lpush("2_smpp_pending_dlr", second);
+        verify(this.jedisCluster).pipelined();
+        verifyNoMoreInteractions(this.pendingDeliverSmStore);
+        verifyNoMoreInteractions(this.cdrProcessor);
+    }
+
+    @Test
+    @DisplayName("Testing the routing pre-pass when the pipeline fails then the deliver_sm are requeued one by one")
+    void startSchedulerWhenRequeuePipelineFailsThenRequeueOneByOne() {
+        String deliverSmRaw = MessageEvent.builder().id("1").destNetworkId(1).isDlr(true).build().toString();
+
+        when(this.appProperties.getDeliverSmWorkers()).thenReturn(1);
+        when(this.appProperties.getDeliverSmBatchSizePerWorker()).thenReturn(1);
+        when(this.appProperties.getDeliverSmQueue()).thenReturn("smpp_dlr");
+        when(this.jedisCluster.lpop("smpp_dlr", 1)).thenReturn(List.of(deliverSmRaw));
+        when(this.jedisCluster.pipelined()).thenReturn(pipeline);
+        doThrow(new JedisConnectionException("down")).when(this.pipeline).sync();
+
+        this.deliverSmQueueConsumer = new DeliverSmQueueConsumer(jedisCluster, appProperties, spSessionMap, deliverSmRouter, deliverSmDispatcher(), deliverSmRetryQueue, pendingDeliverSmStore);
+        this.deliverSmQueueConsumer.startScheduler();
+
+        verify(this.pendingDeliverSmStore, timeout(2000)).add(1, deliverSmRaw);
+        verifyNoMoreInteractions(this.cdrProcessor);
+    }
+
+    @Test
+    @DisplayName("dispatchDueRetries when the service provider throttles the retry then it is scheduled with the next attempt")
+    void dispatchDueRetriesWhenThrottledThenScheduleNextAttempt() throws Exception {
+        MessageEvent deliverSmEvent = MessageEvent.builder()
+                .id("1")
+                .messageId("1")
+                .sourceAddrTon(1)
+                .sourceAddrNpi(1)
+                .sourceAddr("50510201020")
+                .destAddrTon(1)
+                .destAddrNpi(1)
+                .destinationAddr("50582368999")
+                .destNetworkId(1)
+                .dataCoding(0)
+                .delReceipt("id:1 sub:001 dlvrd:001 submit date:2101010000 done date:2101010000 stat:DELIVRD err:000 text:Test")
+                .optionalParameters(List.of(new UtilsRecords.OptionalParameter((short) 30, "1")))
+                .build();
+        String deliverSmRaw = deliverSmEvent.toString();
+        when(this.appProperties.getDeliverSmBatchSizePerWorker()).thenReturn(1);
+        when(this.deliverSmRetryQueue.pollDue(1)).thenReturn(List.of(new DeliverSmRetryQueue.Retry(2, deliverSmRaw)));
+        when(this.spSessionMap.get(1)).thenReturn(spSessionMock);
+        when(this.spSessionMock.getCurrentSmppSessions()).thenReturn(List.of(serverSession));
+        when(this.spSessionMock.tryReserveSession(1)).thenReturn(new SpSession.Reservation(serverSession, System.nanoTime()));
+        when(this.generalSettingsCacheConfig.getCurrentGeneralSettings()).thenReturn(GeneralSettings.builder()
+                .encodingIso88591(SmppEncoding.ISO88591)
+                .encodingGsm7(SmppEncoding.GSM7)
+                .encodingUcs2(SmppEncoding.UCS2)
+                .build());
+        doThrow(new NegativeResponseException(SMPPConstant.STAT_ESME_RTHROTTLED)).when(this.serverSession).deliverShortMessage(
+                eq(""), any(), any(), any(), any(), any(), any(), any(), anyByte(), anyByte(), any(), any(), any(), any(OptionalParameter.class));
+
+        this.deliverSmQueueConsumer = new DeliverSmQueueConsumer(jedisCluster, appProperties, spSessionMap, deliverSmRouter, deliverSmDispatcher(), deliverSmRetryQueue, pendingDeliverSmStore);
+        this.deliverSmQueueConsumer.dispatchDueRetries();
+
+        verify(this.deliverSmRetryQueue, timeout(2000)).schedule(eq(1), any(MessageEvent.class), eq(deliverSmRaw), eq(3), eq(DeliverSmResult.THROTTLED));
+        verify(this.deliverSmRetryQueue, never()).onSent(1);
+        verifyNoMoreInteractions(this.cdrProcessor);
+    }
+
+    @Test
+    @DisplayName("Testing the stream mode when the deliver_sm fails with a non retryable error then its FAILED CDR is written and the entry is acknowledged")
+    void startQueueProcessingWhenStreamModeAndDeliverSmFailedThenAcknowledge() throws Exception {
+        MessageEvent deliverSmEvent = MessageEvent.builder()
+                .id("1")
+                .messageId("1")
+                .sourceAddrTon(1)
+                .sourceAddrNpi(1)
+                .sourceAddr("50510201020")
+                .destAddrTon(1)
+                .destAddrNpi(1)
+                .destinationAddr("50582368999")
+                .destNetworkId(1)
+                .dataCoding(0)
+                .delReceipt("id:1 sub:001 dlvrd:001 submit date:2101010000 done date:2101010000 stat:DELIVRD err:000 text:Test")
+                .optionalParameters(List.of(new UtilsRecords.OptionalParameter((short) 30, "1")))
+                .build();
+        StreamEntryID entryId = new StreamEntryID(1719421854353L, 0);
+
+        mockStreamProperties();
+        when(this.jedisCluster.xreadGroup(eq("smpp-server"), eq("smpp-server-instance-01"), any(XReadGroupParams.class), anyMap()))
+                .thenReturn(List.of(Map.entry("smpp_dlr_stream", List.of(new StreamEntry(entryId, Map.of("message", deliverSmEvent.toString()))))))
+                .thenReturn(null);
+        when(this.spSessionMap.get(1)).thenReturn(spSessionMock);
+        when(this.spSessionMock.getCurrentSmppSessions()).thenReturn(List.of(serverSession));
+        when(this.spSessionMock.tryReserveSession(1)).thenReturn(new SpSession.Reservation(serverSession, System.nanoTime()));
+        when(this.generalSettingsCacheConfig.getCurrentGeneralSettings()).thenReturn(GeneralSettings.builder()
+                .encodingIso88591(SmppEncoding.ISO88591)
+                .encodingGsm7(SmppEncoding.GSM7)
+                .encodingUcs2(SmppEncoding.UCS2)
+                .build());
+        doThrow(new NegativeResponseException(SMPPConstant.STAT_ESME_RSYSERR)).when(this.serverSession).deliverShortMessage(
+                eq(""), any(), any(), any(), any(), any(), any(), any(), anyByte(), anyByte(), any(), any(), any(), any(OptionalParameter.class));
+
+        this.deliverSmQueueConsumer = new DeliverSmQueueConsumer(jedisCluster, appProperties, spSessionMap, deliverSmRouter, deliverSmDispatcher(), deliverSmRetryQueue, pendingDeliverSmStore);
+        this.deliverSmQueueConsumer.startQueueProcessing();
+        try {
+            verify(this.jedisCluster, timeout(2000)).xack("smpp_dlr_stream", "smpp-server", entryId);
+            verify(this.cdrProcessor).createCdr("1");
+            verify(this.deliverSmRetryQueue, never()).schedule(anyInt(), any(), any(), anyInt(), any());
+        } finally {
+            this.deliverSmQueueConsumer.shutdown();
+        }
+    }
+
+    private DeliverSmDispatcher deliverSmDispatcher() {
+        return new DeliverSmDispatcher(cdrProcessor, appProperties, generalSettingsCacheConfig);
+    }
+
+    private void mockStreamProperties() {
+        when(this.appProperties.getDeliverSmConsumerMode()).thenReturn(DeliverSmQueueConsumer.MODE_STREAM);
+        when(this.appProperties.getDeliverSmWorkers()).thenReturn(1);
+        when(this.appProperties.getDeliverSmBatchSizePerWorker()).thenReturn(10);
+        when(this.appProperties.getDeliverSmBlockTimeoutSeconds()).thenReturn(1);
+        when(this.appProperties.getDeliverSmStreamKey()).thenReturn("smpp_dlr_stream");
+        when(this.appProperties.getDeliverSmStreamGroup()).thenReturn("smpp-server");
+        when(this.appProperties.getDeliverSmStreamField()).thenReturn("message");
+        when(this.appProperties.getInstanceName()).thenReturn("smpp-server-instance-01");
+    }
+
     private static void toSleep() {
         await().atMost(ONE_SECOND).until(() -> true);
     }
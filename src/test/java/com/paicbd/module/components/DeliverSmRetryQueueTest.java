@@ -0,0 +1,183 @@
+package com.paicbd.module.components;
+
+import com.paicbd.module.utils.AppProperties;
+import com.paicbd.module.utils.DeliverSmResult;
+import com.paicbd.smsc.cdr.CdrProcessor;
+import com.paicbd.smsc.dto.MessageEvent;
+import com.paicbd.smsc.dto.UtilsRecords;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import redis.clients.jedis.JedisCluster;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class DeliverSmRetryQueueTest {
+    private static final String KEY = "smpp_dlr_retry";
+
+    @Mock
+    JedisCluster jedisCluster;
+
+    @Mock
+    AppProperties appProperties;
+
+    @Mock
+    CdrProcessor cdrProcessor;
+
+    @Test
+    @DisplayName("deadLetterInvalid then the deliver_sm is pushed to the dead letter list without a CDR")
+    void deadLetterInvalidThenPushWithoutCdr() {
+        when(appProperties.getDeliverSmDeadLetterQueue()).thenReturn("smpp_dlr_dead_letter");
+        DeliverSmRetryQueue retryQueue = new DeliverSmRetryQueue(jedisCluster, appProperties, cdrProcessor);
+
+        retryQueue.deadLetterInvalid(1, "{invalid");
+
+        verify(jedisCluster).lpush("smpp_dlr_dead_letter", "{invalid");
+        verify(cdrProcessor, never()).createCdr(anyString());
+    }
+
+    @Test
+    @DisplayName("deadLetterInvalid when the route can not be read then the deliver_sm is pushed to the dead letter list")
+    void deadLetterInvalidWhenNoRouteThenPush() {
+        when(appProperties.getDeliverSmDeadLetterQueue()).thenReturn("smpp_dlr_dead_letter");
+        DeliverSmRetryQueue retryQueue = new DeliverSmRetryQueue(jedisCluster, appProperties, cdrProcessor);
+
+        retryQueue.deadLetterInvalid("incorrect:json}");
+
+        verify(jedisCluster).lpush("smpp_dlr_dead_letter", "incorrect:json}");
+    }
+
+    @Test
+    @DisplayName("schedule when the attempts are not exhausted then the retry is added with an exponential delay")
+    void scheduleWhenAttemptsLeftThenAddWithBackOff() {
+        mockDelays();
+        when(appProperties.getDeliverSmRetryKey()).thenReturn(KEY);
+        when(appProperties.getDeliverSmRetryMaxAttempts()).thenReturn(5);
+        DeliverSmRetryQueue retryQueue = new DeliverSmRetryQueue(jedisCluster, appProperties, cdrProcessor);
+        long before = System.currentTimeMillis();
+
+        assertTrue(retryQueue.schedule(1, deliverSmEvent(), "deliverSm", 3, DeliverSmResult.TIMEOUT));
+
+        ArgumentCaptor<Double> scoreCaptor = ArgumentCaptor.forClass(Double.class);
+        ArgumentCaptor<String> memberCaptor = ArgumentCaptor.forClass(String.class);
+        verify(jedisCluster).zadd(eq(KEY), scoreCaptor.capture(), memberCaptor.capture());
+        assertTrue(memberCaptor.getValue().matches("3:[0-9a-f-]{36}:deliverSm"), memberCaptor.getValue());
+        double delay = scoreCaptor.getValue() - before;
+        assertTrue(delay >= 4000 && delay <= 4400 + (System.currentTimeMillis() - before), "delay " + delay);
+        verify(cdrProcessor, never()).createCdr(anyString());
+    }
+
+    @Test
+    @DisplayName("schedule when the service provider keeps throttling then its retries are delayed more until a deliver_sm is accepted")
+    void scheduleWhenThrottlingThenIncreaseDelayUntilSent() {
+        mockDelays();
+        when(appProperties.getDeliverSmRetryKey()).thenReturn(KEY);
+        when(appProperties.getDeliverSmRetryMaxAttempts()).thenReturn(5);
+        DeliverSmRetryQueue retryQueue = new DeliverSmRetryQueue(jedisCluster, appProperties, cdrProcessor);
+
+        for (int i = 0; i < 3; i++) {
+            retryQueue.schedule(1, deliverSmEvent(), "deliverSm", 1, DeliverSmResult.THROTTLED);
+        }
+        assertTrue(retryQueue.delayOf(1, 1) >= 8000);
+        // capped by the max delay
+        assertTrue(retryQueue.delayOf(1, 10) <= 66000);
+        assertTrue(retryQueue.delayOf(2, 1) < 1200);
+
+        retryQueue.onSent(1);
+        assertTrue(retryQueue.delayOf(1, 1) < 1200);
+    }
+
+    @Test
+    @DisplayName("schedule when the attempts are exhausted then the deliver_sm is dead-lettered and the FAILED CDR written")
+    void scheduleWhenAttemptsExhaustedThenDeadLetter() {
+        when(appProperties.getDeliverSmRetryMaxAttempts()).thenReturn(5);
+        when(appProperties.getDeliverSmDeadLetterQueue()).thenReturn("smpp_dlr_dead_letter");
+        DeliverSmRetryQueue retryQueue = new DeliverSmRetryQueue(jedisCluster, appProperties, cdrProcessor);
+
+        assertFalse(retryQueue.schedule(1, deliverSmEvent(), "deliverSm", 6, DeliverSmResult.THROTTLED));
+
+        verify(jedisCluster).lpush("smpp_dlr_dead_letter", "deliverSm");
+        verify(jedisCluster, never()).zadd(anyString(), anyDouble(), anyString());
+        verify(cdrProcessor).putCdrDetailOnRedis(any(UtilsRecords.CdrDetail.class));
+        verify(cdrProcessor).createCdr("1");
+    }
+
+    @Test
+    @DisplayName("schedule when the same deliver_sm is scheduled twice then each retry gets its own member")
+    void scheduleWhenSameDeliverSmTwiceThenDistinctMembers() {
+        mockDelays();
+        when(appProperties.getDeliverSmRetryKey()).thenReturn(KEY);
+        when(appProperties.getDeliverSmRetryMaxAttempts()).thenReturn(5);
+        DeliverSmRetryQueue retryQueue = new DeliverSmRetryQueue(jedisCluster, appProperties, cdrProcessor);
+
+        retryQueue.schedule(1, deliverSmEvent(), "deliverSm", 1, DeliverSmResult.TIMEOUT);
+        retryQueue.schedule(1, deliverSmEvent(), "deliverSm", 1, DeliverSmResult.TIMEOUT);
+
+        ArgumentCaptor<String> memberCaptor = ArgumentCaptor.forClass(String.class);
+        verify(jedisCluster, times(2)).zadd(eq(KEY), anyDouble(), memberCaptor.capture());
+        assertNotEquals(memberCaptor.getAllValues().get(0), memberCaptor.getAllValues().get(1));
+    }
+
+    @Test
+    @DisplayName("pollDue then the due retries are claimed in one script and the invalid ones discarded")
+    void pollDueThenClaimInOneScript() {
+        when(appProperties.getDeliverSmRetryKey()).thenReturn(KEY);
+        when(jedisCluster.eval(anyString(), eq(List.of(KEY)), anyList()))
+                .thenReturn(List.of("1:4f1c0a9e-7d3b-4b8e-9a51-0c2d6e8f1a37:{\"id\":\"1\"}", "2:{\"id\":\"2\"}", "invalid", "3:no-token"));
+        DeliverSmRetryQueue retryQueue = new DeliverSmRetryQueue(jedisCluster, appProperties, cdrProcessor);
+
+        List<DeliverSmRetryQueue.Retry> due = retryQueue.pollDue(10);
+
+        // the second one was scheduled before the token was added
+        assertEquals(List.of(new DeliverSmRetryQueue.Retry(1, "{\"id\":\"1\"}"), new DeliverSmRetryQueue.Retry(2, "{\"id\":\"2\"}")), due);
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<String>> argsCaptor = ArgumentCaptor.forClass(List.class);
+        verify(jedisCluster).eval(anyString(), eq(List.of(KEY)), argsCaptor.capture());
+        assertEquals("10", argsCaptor.getValue().get(1));
+        verify(jedisCluster, never()).zrem(anyString(), any(String[].class));
+    }
+
+    @Test
+    @DisplayName("pollDue when nothing is due or max is 0 then no retry is returned")
+    void pollDueWhenNothingDueThenEmpty() {
+        when(appProperties.getDeliverSmRetryKey()).thenReturn(KEY);
+        when(jedisCluster.eval(anyString(), eq(List.of(KEY)), anyList())).thenReturn(List.of());
+        DeliverSmRetryQueue retryQueue = new DeliverSmRetryQueue(jedisCluster, appProperties, cdrProcessor);
+
+        assertTrue(retryQueue.pollDue(10).isEmpty());
+        assertTrue(retryQueue.pollDue(0).isEmpty());
+    }
+
+    private void mockDelays() {
+        when(appProperties.getDeliverSmRetryBaseDelayMillis()).thenReturn(1000L);
+        when(appProperties.getDeliverSmRetryMaxDelayMillis()).thenReturn(60000L);
+    }
+
+    private static MessageEvent deliverSmEvent() {
+        return MessageEvent.builder()
+                .id("1")
+                .messageId("1")
+                .sourceAddr("50510201020")
+                .destinationAddr("50582368999")
+                .destNetworkId(1)
+                .build();
+    }
+}
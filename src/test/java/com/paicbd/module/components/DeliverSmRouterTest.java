@@ -0,0 +1,239 @@
+package com.paicbd.module.components;
+
+import com.paicbd.module.utils.AppProperties;
+import com.paicbd.module.utils.SpSession;
+import org.jsmpp.session.Session;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import redis.clients.jedis.JedisCluster;
+import redis.clients.jedis.params.ScanParams;
+import redis.clients.jedis.resps.ScanResult;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class DeliverSmRouterTest {
+    private static final String HASH = "smpp_dlr_routes";
+
+    @Mock
+    JedisCluster jedisCluster;
+
+    @Mock
+    AppProperties appProperties;
+
+    @Mock
+    SpSession boundSpSession;
+
+    @Mock
+    SpSession unboundSpSession;
+
+    @Mock
+    Session session;
+
+    @Test
+    @DisplayName("advertise then the networkIds with binds are written and the expired routes are discarded")
+    void advertiseThenWriteHeldNetworkIdsAndReadRoutes() {
+        mockRouting();
+        when(appProperties.getDeliverSmQueue()).thenReturn("smpp_dlr");
+        when(appProperties.getDeliverSmRoutingTtlMillis()).thenReturn(15000L);
+        when(boundSpSession.getCurrentSmppSessions()).thenReturn(List.of(session));
+        when(unboundSpSession.getCurrentSmppSessions()).thenReturn(List.of());
+        String future = String.valueOf(System.currentTimeMillis() + 60000);
+        Map<String, String> fields = new HashMap<>();
+        fields.put("1|smpp-server-instance-01", future);
+        fields.put("2|smpp-server-instance-02", future);
+        fields.put("3|smpp-server-instance-03", "1");
+        when(jedisCluster.hgetAll(HASH)).thenReturn(fields);
+        DeliverSmRouter router = new DeliverSmRouter(jedisCluster, appProperties, spSessionMap(Map.of(1, boundSpSession, 2, unboundSpSession)));
+
+        router.advertise();
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<Map<String, String>> advertisedCaptor = ArgumentCaptor.forClass(Map.class);
+        verify(jedisCluster).hset(eq(HASH), advertisedCaptor.capture());
+        assertEquals(Set.of("1|smpp-server-instance-01"), advertisedCaptor.getValue().keySet());
+        verify(jedisCluster).hdel(HASH, "3|smpp-server-instance-03");
+        assertEquals(Map.of(1, Set.of("smpp-server-instance-01"), 2, Set.of("smpp-server-instance-02")), router.getRoutes());
+        assertEquals(List.of("{smpp_dlr}:1"), router.localQueues());
+    }
+
+    @Test
+    @DisplayName("forward when the networkId is bound to another instance then push to its network queue")
+    void forwardWhenBoundToOtherInstanceThenPush() {
+        mockRouting();
+        when(appProperties.getDeliverSmQueue()).thenReturn("smpp_dlr");
+        Map<String, String> fields = new HashMap<>();
+        String future = String.valueOf(System.currentTimeMillis() + 60000);
+        fields.put("1|smpp-server-instance-01", future);
+        fields.put("2|smpp-server-instance-02", future);
+        when(jedisCluster.hgetAll(HASH)).thenReturn(fields);
+        DeliverSmRouter router = new DeliverSmRouter(jedisCluster, appProperties, spSessionMap(Map.of()));
+        router.advertise();
+
+        assertTrue(router.isHeldByOther(2));
+        assertFalse(router.isHeldByOther(1));
+        assertTrue(router.forward(2, "deliverSm"));
+        // only this instance advertised it, the binds were lost so the pending list is used
+        assertFalse(router.forward(1, "deliverSm"));
+        assertFalse(router.forward(3, "deliverSm"));
+
+        verify(jedisCluster).lpush("{smpp_dlr}:2", "deliverSm");
+        verify(jedisCluster, never()).lpush(eq("{smpp_dlr}:1"), any(String.class));
+        verify(jedisCluster, never()).hset(eq(HASH), anyMap());
+    }
+
+    @Test
+    @DisplayName("advertise when the binds of a networkId are closed then its route is withdrawn and its network queue moved back")
+    void advertiseWhenBindsClosedThenWithdraw() {
+        mockRouting();
+        when(appProperties.getDeliverSmQueue()).thenReturn("smpp_dlr");
+        when(appProperties.getDeliverSmRoutingTtlMillis()).thenReturn(15000L);
+        when(boundSpSession.getCurrentSmppSessions()).thenReturn(List.of(session)).thenReturn(List.of());
+        when(jedisCluster.hgetAll(HASH)).thenReturn(Map.of());
+        DeliverSmRouter router = new DeliverSmRouter(jedisCluster, appProperties, spSessionMap(Map.of(1, boundSpSession)));
+
+        router.advertise();
+        router.advertise();
+
+        verify(jedisCluster).hdel(HASH, "1|smpp-server-instance-01");
+        verify(jedisCluster).eval(anyString(), eq(List.of("{smpp_dlr}:1", "smpp_dlr")), eq(List.of()));
+    }
+
+    @Test
+    @DisplayName("advertise when the binds of a networkId are held by another instance then its network queue is kept")
+    void advertiseWhenBindsClosedAndHeldByOtherThenKeepNetworkQueue() {
+        mockRouting();
+        when(appProperties.getDeliverSmRoutingTtlMillis()).thenReturn(15000L);
+        when(boundSpSession.getCurrentSmppSessions()).thenReturn(List.of(session)).thenReturn(List.of());
+        when(jedisCluster.hgetAll(HASH)).thenReturn(Map.of("1|smpp-server-instance-02", String.valueOf(System.currentTimeMillis() + 60000)));
+        DeliverSmRouter router = new DeliverSmRouter(jedisCluster, appProperties, spSessionMap(Map.of(1, boundSpSession)));
+
+        router.advertise();
+        router.advertise();
+
+        verify(jedisCluster).hdel(HASH, "1|smpp-server-instance-01");
+        verify(jedisCluster, never()).eval(anyString(), anyList(), anyList());
+    }
+
+    @Test
+    @DisplayName("withdraw when the instance stops then its routes are removed and its network queues moved back")
+    void withdrawThenRemoveRoutesAndDrainNetworkQueues() {
+        mockRouting();
+        when(appProperties.getDeliverSmQueue()).thenReturn("smpp_dlr");
+        when(boundSpSession.getCurrentSmppSessions()).thenReturn(List.of(session));
+        when(jedisCluster.hgetAll(HASH)).thenReturn(Map.of());
+        when(jedisCluster.eval(anyString(), anyList(), anyList())).thenReturn(3L);
+        DeliverSmRouter router = new DeliverSmRouter(jedisCluster, appProperties, spSessionMap(Map.of(1, boundSpSession)));
+        router.advertise();
+
+        router.withdraw();
+
+        verify(jedisCluster).hdel(HASH, "1|smpp-server-instance-01");
+        verify(jedisCluster).eval(anyString(), eq(List.of("{smpp_dlr}:1", "smpp_dlr")), eq(List.of()));
+    }
+
+    @Test
+    @DisplayName("popLocal when several networkIds are bound then their network queues are popped in one script")
+    void popLocalWhenSeveralBindsThenPopInOneScript() {
+        mockRouting();
+        when(appProperties.getDeliverSmQueue()).thenReturn("smpp_dlr");
+        when(boundSpSession.getCurrentSmppSessions()).thenReturn(List.of(session));
+        when(unboundSpSession.getCurrentSmppSessions()).thenReturn(List.of(session));
+        when(jedisCluster.eval(anyString(), eq(List.of("{smpp_dlr}:1", "{smpp_dlr}:2")), eq(List.of("10"))))
+                .thenReturn(List.of("first", "second"));
+        DeliverSmRouter router = new DeliverSmRouter(jedisCluster, appProperties, spSessionMap(Map.of(1, boundSpSession, 2, unboundSpSession)));
+
+        assertEquals(List.of("first", "second"), router.popLocal(10));
+        verify(jedisCluster, never()).lpop(anyString(), anyInt());
+    }
+
+    @Test
+    @DisplayName("popLocal when one networkId is bound then its network queue is popped with LPOP")
+    void popLocalWhenOneBindThenLpop() {
+        mockRouting();
+        when(appProperties.getDeliverSmQueue()).thenReturn("smpp_dlr");
+        when(boundSpSession.getCurrentSmppSessions()).thenReturn(List.of(session));
+        when(jedisCluster.lpop("{smpp_dlr}:1", 10)).thenReturn(null);
+        DeliverSmRouter router = new DeliverSmRouter(jedisCluster, appProperties, spSessionMap(Map.of(1, boundSpSession)));
+
+        assertTrue(router.popLocal(10).isEmpty());
+        verify(jedisCluster, never()).eval(anyString(), anyList(), anyList());
+    }
+
+    @Test
+    @DisplayName("advertise when the routing is disabled then the network queues left are moved back once")
+    void advertiseWhenDisabledThenDrainNetworkQueuesOnce() {
+        when(appProperties.getDeliverSmQueue()).thenReturn("smpp_dlr");
+        when(jedisCluster.scan(eq(ScanParams.SCAN_POINTER_START), any(ScanParams.class)))
+                .thenReturn(new ScanResult<>(ScanParams.SCAN_POINTER_START, List.of("{smpp_dlr}:1")));
+        DeliverSmRouter router = new DeliverSmRouter(jedisCluster, appProperties, spSessionMap(Map.of(1, boundSpSession)));
+
+        router.advertise();
+        router.advertise();
+
+        verify(jedisCluster).scan(eq(ScanParams.SCAN_POINTER_START), any(ScanParams.class));
+        verify(jedisCluster).eval(anyString(), eq(List.of("{smpp_dlr}:1", "smpp_dlr")), eq(List.of()));
+        verifyNoInteractions(boundSpSession);
+    }
+
+    @Test
+    @DisplayName("forward and localQueues when the routing is disabled then Redis is not used")
+    void forwardWhenDisabledThenDoNothing() {
+        DeliverSmRouter router = new DeliverSmRouter(jedisCluster, appProperties, spSessionMap(Map.of(1, boundSpSession)));
+
+        assertFalse(router.forward(1, "deliverSm"));
+        assertFalse(router.isHeldByOther(1));
+        assertTrue(router.localQueues().isEmpty());
+        assertTrue(router.popLocal(10).isEmpty());
+        verifyNoInteractions(jedisCluster);
+    }
+
+    @Test
+    @DisplayName("forward and advertise when the consumer mode is STREAM then routing is disabled and Redis is not used")
+    void forwardWhenStreamModeThenDoNothing() {
+        when(appProperties.isDeliverSmRoutingEnabled()).thenReturn(true);
+        when(appProperties.getDeliverSmConsumerMode()).thenReturn("STREAM");
+        DeliverSmRouter router = new DeliverSmRouter(jedisCluster, appProperties, spSessionMap(Map.of(1, boundSpSession)));
+
+        router.warnIfDisabledByStreamMode();
+        router.advertise();
+
+        assertFalse(router.isEnabled());
+        assertFalse(router.forward(1, "deliverSm"));
+        assertTrue(router.localQueues().isEmpty());
+        verifyNoInteractions(jedisCluster, boundSpSession);
+    }
+
+    private void mockRouting() {
+        when(appProperties.isDeliverSmRoutingEnabled()).thenReturn(true);
+        when(appProperties.getDeliverSmRoutingHash()).thenReturn(HASH);
+        when(appProperties.getInstanceName()).thenReturn("smpp-server-instance-01");
+    }
+
+    private static ConcurrentMap<Integer, SpSession> spSessionMap(Map<Integer, SpSession> sessions) {
+        return new ConcurrentHashMap<>(sessions);
+    }
+}
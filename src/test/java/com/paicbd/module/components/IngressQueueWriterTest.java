@@ -0,0 +1,138 @@
+package com.paicbd.module.components;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.paicbd.module.utils.AppProperties;
+import com.paicbd.smsc.cdr.CdrProcessor;
+import com.paicbd.smsc.dto.MessageEvent;
+import com.paicbd.smsc.dto.UtilsRecords;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import redis.clients.jedis.JedisCluster;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class IngressQueueWriterTest {
+    @Mock
+    JedisCluster jedisCluster;
+
+    @Mock
+    CdrProcessor cdrProcessor;
+
+    @Mock
+    AppProperties appProperties;
+
+    IngressQueueWriter ingressQueueWriter;
+
+    @AfterEach
+    void tearDown() {
+        ingressQueueWriter.shutdown();
+    }
+
+    @Test
+    @DisplayName("enqueue when the batch is full then all events are pushed in a single LPUSH")
+    void enqueueWhenBatchIsFullThenPushItOnce() throws Exception {
+        when(appProperties.getIngressFlushWorkers()).thenReturn(1);
+        when(appProperties.getIngressQueueCapacity()).thenReturn(10);
+        when(appProperties.getIngressBatchSize()).thenReturn(2);
+        when(appProperties.getIngressMaxBatchDelayMicros()).thenReturn((int) TimeUnit.SECONDS.toMicros(5));
+        when(appProperties.getPreMessageList()).thenReturn("preMessage");
+        ingressQueueWriter = new IngressQueueWriter(jedisCluster, cdrProcessor, appProperties);
+        ingressQueueWriter.init();
+
+        CompletableFuture<Void> first = ingressQueueWriter.enqueue(getMessageEvent("1"), "Received");
+        CompletableFuture<Void> second = ingressQueueWriter.enqueue(getMessageEvent("2"), "Received");
+        CompletableFuture.allOf(first, second).get(2, TimeUnit.SECONDS);
+
+        verify(jedisCluster).lpush(eq("preMessage"), any(String.class), any(String.class));
+        verify(cdrProcessor, times(2)).putCdrDetailOnRedis(any(UtilsRecords.CdrDetail.class));
+    }
+
+    @Test
+    @DisplayName("enqueue when the push fails then the futures are completed exceptionally and no CDR is written")
+    void enqueueWhenPushFailsThenCompleteExceptionally() {
+        when(appProperties.getIngressFlushWorkers()).thenReturn(1);
+        when(appProperties.getIngressQueueCapacity()).thenReturn(10);
+        when(appProperties.getIngressBatchSize()).thenReturn(1);
+        when(appProperties.getPreMessageList()).thenReturn("preMessage");
+        when(jedisCluster.lpush(eq("preMessage"), any(String.class))).thenThrow(new IllegalStateException("Redis is down"));
+        ingressQueueWriter = new IngressQueueWriter(jedisCluster, cdrProcessor, appProperties);
+        ingressQueueWriter.init();
+
+        CompletableFuture<Void> queued = ingressQueueWriter.enqueue(getMessageEvent("1"), "Received");
+
+        assertThrows(Exception.class, () -> queued.get(2, TimeUnit.SECONDS));
+        assertTrue(queued.isCompletedExceptionally());
+        verify(cdrProcessor, times(0)).putCdrDetailOnRedis(any(UtilsRecords.CdrDetail.class));
+    }
+
+    @Test
+    @DisplayName("enqueue when the payload format is SMILE then the events are pushed in Smile and can be decoded")
+    void enqueueWhenPayloadFormatIsSmileThenPushSmile() throws Exception {
+        when(appProperties.getIngressFlushWorkers()).thenReturn(1);
+        when(appProperties.getIngressQueueCapacity()).thenReturn(10);
+        when(appProperties.getIngressBatchSize()).thenReturn(1);
+        when(appProperties.getPreMessageList()).thenReturn("preMessage");
+        when(appProperties.getPayloadFormat()).thenReturn("SMILE");
+        ingressQueueWriter = new IngressQueueWriter(jedisCluster, cdrProcessor, appProperties);
+        ingressQueueWriter.init();
+
+        ingressQueueWriter.enqueue(getMessageEvent("1"), "Received").get(2, TimeUnit.SECONDS);
+
+        ArgumentCaptor<byte[]> payloadCaptor = ArgumentCaptor.forClass(byte[].class);
+        verify(jedisCluster).lpush(eq("preMessage".getBytes(StandardCharsets.UTF_8)), payloadCaptor.capture());
+        assertEquals(':', payloadCaptor.getValue()[0]);
+        MessageEvent decoded = new ObjectMapper(new SmileFactory())
+                .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+                .readValue(payloadCaptor.getValue(), MessageEvent.class);
+        assertNotNull(decoded);
+        assertEquals("1", decoded.getMessageId());
+        assertEquals("Hello", decoded.getShortMessage());
+    }
+
+    @Test
+    @DisplayName("enqueue when the writer is stopped then the event is rejected")
+    void enqueueWhenStoppedThenReject() {
+        when(appProperties.getIngressAckMode()).thenReturn("IMMEDIATE");
+        ingressQueueWriter = new IngressQueueWriter(jedisCluster, cdrProcessor, appProperties);
+        ingressQueueWriter.init();
+        ingressQueueWriter.shutdown();
+
+        MessageEvent messageEvent = getMessageEvent("1");
+        assertThrows(RejectedExecutionException.class, () -> ingressQueueWriter.enqueue(messageEvent, "Received"));
+        assertFalse(ingressQueueWriter.isAckAfterFlush());
+    }
+
+    private static MessageEvent getMessageEvent(String messageId) {
+        return MessageEvent.builder()
+                .id(messageId)
+                .messageId(messageId)
+                .systemId("smppSP")
+                .sourceAddr("50510201020")
+                .destinationAddr("50582368999")
+                .shortMessage("Hello")
+                .originNetworkId(1)
+                .build();
+    }
+}
@@ -0,0 +1,133 @@
+package com.paicbd.module.components;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.paicbd.module.utils.AppProperties;
+import com.paicbd.smsc.dto.MessageEvent;
+import com.paicbd.smsc.dto.MessagePart;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import redis.clients.jedis.JedisCluster;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class MultipartPartsWriterTest {
+    @Mock
+    JedisCluster jedisCluster;
+
+    @Mock
+    AppProperties appProperties;
+
+    @Test
+    @DisplayName("writeFull and remove when the mode is full then Redis is written synchronously")
+    void writeFullWhenModeIsFullThenWriteParent() {
+        when(appProperties.getMessagePartsHash()).thenReturn("smpp_message_parts");
+        MultipartPartsWriter writer = new MultipartPartsWriter(jedisCluster, appProperties);
+        writer.init();
+
+        assertFalse(writer.isIncremental());
+        writer.writeFull("key", "{\"id\":\"1\"}");
+        writer.remove("key", 2);
+
+        verify(jedisCluster).hset("smpp_message_parts", "key", "{\"id\":\"1\"}");
+        verify(jedisCluster).hdel("smpp_message_parts", "key");
+    }
+
+    @Test
+    @DisplayName("append when the mode is incremental then the parent and the parts are written in a single command")
+    void appendWhenModeIsIncrementalThenBatchWrites() {
+        when(appProperties.getMultipartPersistenceMode()).thenReturn(MultipartPartsWriter.MODE_INCREMENTAL);
+        when(appProperties.getMessagePartsHash()).thenReturn("smpp_message_parts");
+        when(appProperties.getInstanceName()).thenReturn("smpp-server-instance-01");
+        when(appProperties.getMultipartWriteBatchSize()).thenReturn(100);
+        MultipartPartsWriter writer = new MultipartPartsWriter(jedisCluster, appProperties);
+
+        // queued before the worker starts so all of them are flushed together
+        writer.append("key", "{\"id\":\"1\"}", messagePart(2, 1));
+        writer.append("key", null, messagePart(2, 2));
+        writer.init();
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<Map<String, String>> fieldsCaptor = ArgumentCaptor.forClass(Map.class);
+        verify(jedisCluster, timeout(2000)).hset(eq("smpp_message_parts"), fieldsCaptor.capture());
+        writer.shutdown();
+
+        Map<String, String> fields = fieldsCaptor.getValue();
+        assertEquals(3, fields.size());
+        assertEquals("{\"id\":\"1\"}", fields.get("smpp-server-instance-01|key"));
+        assertTrue(fields.containsKey("smpp-server-instance-01|key#1"));
+        assertTrue(fields.containsKey("smpp-server-instance-01|key#2"));
+    }
+
+    @Test
+    @DisplayName("remove when the fields were not flushed yet then only the delete is sent")
+    void removeWhenNotFlushedThenOnlyDelete() {
+        when(appProperties.getMultipartPersistenceMode()).thenReturn(MultipartPartsWriter.MODE_INCREMENTAL);
+        when(appProperties.getMessagePartsHash()).thenReturn("smpp_message_parts");
+        when(appProperties.getInstanceName()).thenReturn("smpp-server-instance-01");
+        when(appProperties.getMultipartWriteBatchSize()).thenReturn(100);
+        MultipartPartsWriter writer = new MultipartPartsWriter(jedisCluster, appProperties);
+
+        writer.append("key", "{\"id\":\"1\"}", messagePart(2, 1));
+        writer.remove("key", 2);
+        writer.init();
+
+        verify(jedisCluster, timeout(2000)).hdel("smpp_message_parts",
+                "smpp-server-instance-01|key", "smpp-server-instance-01|key#1", "smpp-server-instance-01|key#2");
+        writer.shutdown();
+        verify(jedisCluster, never()).hset(eq("smpp_message_parts"), anyMap());
+    }
+
+    @Test
+    @DisplayName("recover then the parts are merged in their parent and the incomplete fields are discarded")
+    void recoverThenMergePartsAndDiscardOrphans() throws JsonProcessingException {
+        when(appProperties.getMessagePartsHash()).thenReturn("smpp_message_parts");
+        when(appProperties.getInstanceName()).thenReturn("smpp-server-instance-01");
+        ObjectMapper objectMapper = new ObjectMapper();
+        String parent = MessageEvent.builder().id("1").messageId("1").parentId("1").systemId("smppSp").build().toString();
+        Map<String, String> fields = new HashMap<>();
+        fields.put("smpp-server-instance-01|key", parent);
+        fields.put("smpp-server-instance-01|key#2", objectMapper.writeValueAsString(messagePart(3, 2)));
+        fields.put("smpp-server-instance-01|key#1", objectMapper.writeValueAsString(messagePart(3, 1)));
+        fields.put("smpp-server-instance-01|orphan#1", objectMapper.writeValueAsString(messagePart(2, 1)));
+        fields.put("smpp-server-instance-02|other", parent);
+        fields.put("smpp-server-instance-02|other#1", objectMapper.writeValueAsString(messagePart(2, 1)));
+        when(jedisCluster.hgetAll("smpp_message_parts")).thenReturn(fields);
+        MultipartPartsWriter writer = new MultipartPartsWriter(jedisCluster, appProperties);
+
+        Map<String, MessageEvent> recovered = writer.recover();
+
+        assertEquals(1, recovered.size());
+        MessageEvent recoveredParent = recovered.get("key");
+        assertEquals("1", recoveredParent.getParentId());
+        assertEquals(2, recoveredParent.getMessageParts().size());
+        assertEquals("segment 1", recoveredParent.getMessageParts().get(0).getShortMessage());
+        assertEquals("segment 2", recoveredParent.getMessageParts().get(1).getShortMessage());
+        verify(jedisCluster).hdel("smpp_message_parts", "smpp-server-instance-01|orphan#1");
+    }
+
+    private static MessagePart messagePart(int totalSegments, int sequence) {
+        MessagePart messagePart = new MessagePart();
+        messagePart.setMsgReferenceNumber("1");
+        messagePart.setShortMessage("segment " + sequence);
+        messagePart.setTotalSegment(totalSegments);
+        messagePart.setSegmentSequence(sequence);
+        return messagePart;
+    }
+}
@@ -0,0 +1,324 @@
+package com.paicbd.module.components;
+
+import com.paicbd.module.utils.AppProperties;
+import com.paicbd.smsc.cdr.CdrProcessor;
+import com.paicbd.smsc.dto.MessageEvent;
+import com.paicbd.smsc.dto.MessagePart;
+import com.paicbd.smsc.dto.UtilsRecords;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class MultipartReassemblyStoreTest {
+    @Mock
+    CdrProcessor cdrProcessor;
+
+    @Mock
+    AppProperties appProperties;
+
+    @Mock
+    IngressQueueWriter ingressQueueWriter;
+
+    @Mock
+    MultipartPartsWriter multipartPartsWriter;
+
+    @Test
+    @DisplayName("addPart when all the segments are received then the parent holds every part")
+    void addPartWhenAllSegmentsReceivedThenComplete() {
+        MultipartReassemblyStore store = createStore(120000, 1000, 0);
+
+        MessageEvent first = messageEvent("1");
+        MultipartReassemblyStore.Progress progress = store.addPart("key", first, messagePart(2, 1));
+        assertFalse(progress.complete());
+        assertEquals(1, progress.received());
+        assertEquals(progress.parent().getId(), progress.parent().getParentId());
+
+        // a duplicated segment is not counted twice
+        progress = store.addPart("key", messageEvent("2"), messagePart(2, 1));
+        assertFalse(progress.complete());
+        assertEquals(1, progress.received());
+
+        progress = store.addPart("key", messageEvent("3"), messagePart(2, 2));
+        assertTrue(progress.complete());
+        assertEquals(first, progress.parent());
+        assertEquals(2, progress.parent().getMessageParts().size());
+        // kept until the message is queued
+        assertEquals(new MultipartReassemblyStore.Stats(1, 0, 0, 0), store.getStats());
+        verify(multipartPartsWriter, never()).remove(any(String.class), anyInt());
+
+        store.release("key", progress, true);
+        assertEquals(new MultipartReassemblyStore.Stats(0, 1, 0, 0), store.getStats());
+        verifyNoInteractions(cdrProcessor);
+        // FULL persistence writes the parent once per distinct segment until it is completed
+        verify(multipartPartsWriter).writeFull(eq("key"), any(String.class));
+        verify(multipartPartsWriter).remove("key", 2);
+    }
+
+    @Test
+    @DisplayName("release when the message could not be queued then the resent segment completes the reassembly again")
+    void releaseWhenNotQueuedThenCompleteAgain() {
+        MultipartReassemblyStore store = createStore(120000, 1000, 0);
+
+        MessageEvent parent = messageEvent("1");
+        store.addPart("key", parent, messagePart(2, 1));
+        MultipartReassemblyStore.Progress progress = store.addPart("key", messageEvent("2"), messagePart(2, 2));
+        assertTrue(progress.complete());
+        // a segment received while the message is being queued does not complete it twice
+        assertFalse(store.addPart("key", messageEvent("3"), messagePart(2, 2)).complete());
+
+        store.release("key", progress, false);
+        assertEquals(new MultipartReassemblyStore.Stats(1, 0, 0, 0), store.getStats());
+        verify(multipartPartsWriter, never()).remove(any(String.class), anyInt());
+
+        progress = store.addPart("key", messageEvent("4"), messagePart(2, 2));
+        assertTrue(progress.complete());
+        assertEquals(parent, progress.parent());
+        assertEquals(2, parent.getMessageParts().size());
+        store.release("key", progress, true);
+        verify(multipartPartsWriter).remove("key", 2);
+        assertEquals(new MultipartReassemblyStore.Stats(0, 1, 0, 0), store.getStats());
+    }
+
+    @Test
+    @DisplayName("expireDue when the message of the reassembly is being queued then it is not expired")
+    void expireDueWhenQueueingThenKeep() throws InterruptedException {
+        MultipartReassemblyStore store = createStore(1, 1, 0);
+
+        store.addPart("key", messageEvent("1"), messagePart(2, 1));
+        MultipartReassemblyStore.Progress progress = store.addPart("key", messageEvent("2"), messagePart(2, 2));
+        Thread.sleep(10);
+        store.expireDue();
+
+        assertEquals(new MultipartReassemblyStore.Stats(1, 0, 0, 0), store.getStats());
+        verifyNoInteractions(cdrProcessor);
+
+        store.release("key", progress, false);
+        Thread.sleep(10);
+        store.expireDue();
+        assertEquals(new MultipartReassemblyStore.Stats(0, 0, 1, 0), store.getStats());
+    }
+
+    @Test
+    @DisplayName("addPart when the persistence is incremental then only the new part is written")
+    void addPartWhenIncrementalThenAppendPart() {
+        when(multipartPartsWriter.isIncremental()).thenReturn(true);
+        MultipartReassemblyStore store = createStore(120000, 1000, 0);
+
+        MessagePart first = messagePart(3, 1);
+        MessagePart second = messagePart(3, 2);
+        store.addPart("key", messageEvent("1"), first);
+        store.addPart("key", messageEvent("2"), second);
+        MultipartReassemblyStore.Progress progress = store.addPart("key", messageEvent("3"), messagePart(3, 3));
+        assertTrue(progress.complete());
+        store.release("key", progress, true);
+
+        verify(multipartPartsWriter).append(eq("key"), any(String.class), eq(first));
+        verify(multipartPartsWriter).append("key", null, second);
+        verify(multipartPartsWriter).remove("key", 3);
+        verify(multipartPartsWriter, never()).writeFull(any(String.class), any(String.class));
+    }
+
+    @Test
+    @DisplayName("init when the persistence is incremental then the reassemblies of the instance are recovered")
+    void initWhenIncrementalThenRecover() {
+        when(multipartPartsWriter.isIncremental()).thenReturn(true);
+        MessageEvent pending = messageEvent("1");
+        pending.setParentId("1");
+        pending.setMessageParts(new ArrayList<>(List.of(messagePart(2, 1))));
+        MessageEvent completedParent = messageEvent("2");
+        completedParent.setParentId("2");
+        completedParent.setMessageParts(new ArrayList<>(List.of(messagePart(2, 1), messagePart(2, 2))));
+        when(multipartPartsWriter.recover()).thenReturn(Map.of("pending", pending, "completed", completedParent));
+        when(ingressQueueWriter.enqueue(completedParent, "MULTIPART MESSAGE RECEIVED 2 OF 2"))
+                .thenReturn(CompletableFuture.completedFuture(null));
+
+        MultipartReassemblyStore store = createStore(120000, 1000, 0);
+
+        verify(multipartPartsWriter).remove("completed", 2);
+        assertEquals(new MultipartReassemblyStore.Stats(1, 1, 0, 0), store.getStats());
+        MultipartReassemblyStore.Progress progress = store.addPart("pending", messageEvent("3"), messagePart(2, 2));
+        assertTrue(progress.complete());
+        assertEquals(pending, progress.parent());
+    }
+
+    @Test
+    @DisplayName("init when a recovered reassembly is not valid then the others are recovered")
+    void initWhenRecoveredEntryIsInvalidThenRecoverOthers() {
+        when(multipartPartsWriter.isIncremental()).thenReturn(true);
+        MessageEvent invalid = messageEvent("1");
+        invalid.setMessageParts(new ArrayList<>());
+        MessageEvent pending = messageEvent("2");
+        pending.setParentId("2");
+        pending.setMessageParts(new ArrayList<>(List.of(messagePart(2, 1))));
+        when(multipartPartsWriter.recover()).thenReturn(Map.of("invalid", invalid, "pending", pending));
+
+        MultipartReassemblyStore store = createStore(120000, 1000, 0);
+
+        assertEquals(new MultipartReassemblyStore.Stats(1, 0, 0, 0), store.getStats());
+        assertEquals(pending, store.addPart("pending", messageEvent("3"), messagePart(2, 2)).parent());
+    }
+
+    @Test
+    @DisplayName("expireDue when the ttl elapsed and the policy is drop then a FAILED CDR is written")
+    void expireDueWhenPolicyIsDropThenWriteFailedCdr() throws InterruptedException {
+        when(appProperties.getMultipartExpiryPolicy()).thenReturn(MultipartReassemblyStore.EXPIRY_DROP);
+        MultipartReassemblyStore store = createStore(1, 1, 0);
+
+        store.addPart("key", messageEvent("1"), messagePart(3, 1));
+        Thread.sleep(10);
+        store.expireDue();
+
+        ArgumentCaptor<UtilsRecords.CdrDetail> cdrCaptor = ArgumentCaptor.forClass(UtilsRecords.CdrDetail.class);
+        verify(cdrProcessor).putCdrDetailOnRedis(cdrCaptor.capture());
+        assertTrue(cdrCaptor.getValue().toString().contains("MULTIPART MESSAGE EXPIRED RECEIVED 1 OF 3"));
+        verify(multipartPartsWriter).remove("key", 3);
+        verifyNoInteractions(ingressQueueWriter);
+        assertEquals(new MultipartReassemblyStore.Stats(0, 0, 1, 0), store.getStats());
+    }
+
+    @Test
+    @DisplayName("expireDue when the ttl elapsed and the policy is forward partial then the parts received are queued")
+    void expireDueWhenPolicyIsForwardPartialThenQueue() throws InterruptedException {
+        when(appProperties.getMultipartExpiryPolicy()).thenReturn(MultipartReassemblyStore.EXPIRY_FORWARD_PARTIAL);
+        when(ingressQueueWriter.enqueue(any(MessageEvent.class), eq("MULTIPART MESSAGE EXPIRED RECEIVED 2 OF 3")))
+                .thenReturn(CompletableFuture.completedFuture(null));
+        MultipartReassemblyStore store = createStore(1, 1, 0);
+
+        MessageEvent parent = messageEvent("1");
+        store.addPart("key", parent, messagePart(3, 1));
+        store.addPart("key", messageEvent("2"), messagePart(3, 3));
+        Thread.sleep(10);
+        store.expireDue();
+
+        verify(ingressQueueWriter).enqueue(parent, "MULTIPART MESSAGE EXPIRED RECEIVED 2 OF 3");
+        verify(cdrProcessor, never()).putCdrDetailOnRedis(any(UtilsRecords.CdrDetail.class));
+        assertEquals(2, parent.getMessageParts().size());
+    }
+
+    @Test
+    @DisplayName("expireDue when the partial message can not be queued then a FAILED CDR is written")
+    void expireDueWhenForwardIsRejectedThenWriteFailedCdr() throws InterruptedException {
+        when(appProperties.getMultipartExpiryPolicy()).thenReturn(MultipartReassemblyStore.EXPIRY_FORWARD_PARTIAL);
+        when(ingressQueueWriter.enqueue(any(MessageEvent.class), any(String.class)))
+                .thenThrow(new RejectedExecutionException("Ingress buffer is full"));
+        MultipartReassemblyStore store = createStore(1, 1, 0);
+
+        store.addPart("key", messageEvent("1"), messagePart(2, 1));
+        Thread.sleep(10);
+        store.expireDue();
+
+        verify(cdrProcessor).putCdrDetailOnRedis(any(UtilsRecords.CdrDetail.class));
+    }
+
+    @Test
+    @DisplayName("expireDue when the partial message queued fails to be stored then a FAILED CDR is written")
+    void expireDueWhenForwardFailsThenWriteFailedCdr() throws InterruptedException {
+        when(appProperties.getMultipartExpiryPolicy()).thenReturn(MultipartReassemblyStore.EXPIRY_FORWARD_PARTIAL);
+        when(ingressQueueWriter.enqueue(any(MessageEvent.class), eq("MULTIPART MESSAGE EXPIRED RECEIVED 1 OF 2")))
+                .thenReturn(CompletableFuture.failedFuture(new IllegalStateException("Redis down")));
+        MultipartReassemblyStore store = createStore(1, 1, 0);
+
+        store.addPart("key", messageEvent("1"), messagePart(2, 1));
+        Thread.sleep(10);
+        store.expireDue();
+
+        verify(cdrProcessor).putCdrDetailOnRedis(any(UtilsRecords.CdrDetail.class));
+    }
+
+    @Test
+    @DisplayName("expireDue when the ttl did not elapse then the reassembly is kept")
+    void expireDueWhenNotDueThenKeep() {
+        MultipartReassemblyStore store = createStore(120000, 1000, 0);
+
+        store.addPart("key", messageEvent("1"), messagePart(2, 1));
+        store.expireDue();
+
+        assertEquals(new MultipartReassemblyStore.Stats(1, 0, 0, 0), store.getStats());
+        verifyNoInteractions(cdrProcessor);
+        verify(multipartPartsWriter, never()).remove(any(String.class), anyInt());
+    }
+
+    @Test
+    @DisplayName("addPart when the max entries are exceeded then the oldest reassembly is evicted")
+    void addPartWhenMaxEntriesExceededThenEvictOldest() throws InterruptedException {
+        MultipartReassemblyStore store = createStore(1000, 1, 2);
+
+        store.addPart("oldest", messageEvent("1"), messagePart(2, 1));
+        Thread.sleep(5);
+        store.addPart("middle", messageEvent("2"), messagePart(2, 1));
+        Thread.sleep(5);
+        store.addPart("newest", messageEvent("3"), messagePart(2, 1));
+
+        verify(multipartPartsWriter).remove("oldest", 2);
+        verify(cdrProcessor).putCdrDetailOnRedis(any(UtilsRecords.CdrDetail.class));
+        assertEquals(new MultipartReassemblyStore.Stats(2, 0, 0, 1), store.getStats());
+        assertTrue(store.addPart("middle", messageEvent("4"), messagePart(2, 2)).complete());
+    }
+
+    @Test
+    @DisplayName("addPart when the reference is reused with another total of segments then the old reassembly is replaced")
+    void addPartWhenReferenceIsReusedThenReplace() {
+        MultipartReassemblyStore store = createStore(120000, 1000, 0);
+
+        MessageEvent old = messageEvent("1");
+        store.addPart("key", old, messagePart(3, 1));
+        MultipartReassemblyStore.Progress progress = store.addPart("key", messageEvent("2"), messagePart(2, 1));
+
+        assertNotEquals(old, progress.parent());
+        assertEquals(1, progress.received());
+        verify(cdrProcessor).putCdrDetailOnRedis(any(UtilsRecords.CdrDetail.class));
+        assertEquals(new MultipartReassemblyStore.Stats(1, 0, 1, 0), store.getStats());
+    }
+
+    private MultipartReassemblyStore createStore(long ttlMillis, long tickMillis, int maxEntries) {
+        when(appProperties.getMultipartTtlMillis()).thenReturn(ttlMillis);
+        when(appProperties.getMultipartTickMillis()).thenReturn(tickMillis);
+        when(appProperties.getMultipartMaxEntries()).thenReturn(maxEntries);
+        MultipartReassemblyStore store = new MultipartReassemblyStore(cdrProcessor, appProperties, ingressQueueWriter, multipartPartsWriter);
+        store.init();
+        return store;
+    }
+
+    private static MessageEvent messageEvent(String id) {
+        return MessageEvent.builder()
+                .id(id)
+                .messageId(id)
+                .systemId("smppSp")
+                .sourceAddr("50510201020")
+                .destinationAddr("50582368999")
+                .esmClass(64)
+                .dataCoding(0)
+                .build();
+    }
+
+    private static MessagePart messagePart(int totalSegments, int sequence) {
+        MessagePart messagePart = new MessagePart();
+        messagePart.setMsgReferenceNumber("1");
+        messagePart.setShortMessage("segment " + sequence);
+        messagePart.setTotalSegment(totalSegments);
+        messagePart.setSegmentSequence(sequence);
+        return messagePart;
+    }
+}
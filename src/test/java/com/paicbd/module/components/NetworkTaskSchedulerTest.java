@@ -0,0 +1,90 @@
+package com.paicbd.module.components;
+
+import com.paicbd.module.utils.AppProperties;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.awaitility.Awaitility.await;
+import static org.awaitility.Durations.TWO_SECONDS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class NetworkTaskSchedulerTest {
+    @Mock
+    AppProperties appProperties;
+
+    @Test
+    @DisplayName("submit then the tasks of a networkId run one after the other in order, even when one of them fails")
+    void submitThenRunInOrderPerNetworkId() {
+        NetworkTaskScheduler scheduler = new NetworkTaskScheduler(appProperties);
+        List<Integer> executed = new CopyOnWriteArrayList<>();
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+
+        for (int i = 1; i <= 5; i++) {
+            int task = i;
+            assertTrue(scheduler.submit(1, "task", () -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                sleep(5);
+                executed.add(task);
+                running.decrementAndGet();
+                if (task == 2) {
+                    throw new IllegalStateException("failed");
+                }
+            }));
+        }
+
+        await().atMost(TWO_SECONDS).until(() -> scheduler.getStats().get(1).completed() == 5);
+        assertEquals(List.of(1, 2, 3, 4, 5), executed);
+        assertEquals(1, maxRunning.get());
+        assertEquals(0, scheduler.getStats().get(1).queued());
+        scheduler.shutdown();
+    }
+
+    @Test
+    @DisplayName("submit when the scheduler is full then the task is rejected and counted")
+    void submitWhenFullThenReject() throws InterruptedException {
+        when(appProperties.getSmppServerTasksMaxQueued()).thenReturn(1);
+        NetworkTaskScheduler scheduler = new NetworkTaskScheduler(appProperties);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+
+        assertTrue(scheduler.submit(1, "blocking", () -> {
+            started.countDown();
+            await().atMost(TWO_SECONDS).until(() -> release.getCount() == 0);
+        }));
+        assertTrue(started.await(2, TimeUnit.SECONDS));
+        assertFalse(scheduler.submit(2, "rejected", () -> {
+        }));
+
+        NetworkTaskScheduler.Stats stats = scheduler.getStats().get(2);
+        assertEquals(1, stats.rejected());
+        assertEquals(0, stats.completed());
+        assertEquals(1, scheduler.getStats().get(1).queued());
+
+        release.countDown();
+        await().atMost(TWO_SECONDS).until(() -> scheduler.submit(2, "accepted", () -> {
+        }));
+        scheduler.shutdown();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.paicbd.module.components;
+
+import com.paicbd.module.utils.AppProperties;
+import com.paicbd.module.utils.DeliverSmResult;
+import com.paicbd.module.utils.SpSession;
+import com.paicbd.module.utils.TpsLimiter;
+import com.paicbd.smsc.dto.MessageEvent;
+import org.jsmpp.session.Session;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.awaitility.Awaitility.await;
+import static org.awaitility.Durations.TWO_SECONDS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class PendingDeliverSmDrainerTest {
+    @Mock
+    PendingDeliverSmStore pendingDeliverSmStore;
+
+    @Mock
+    AppProperties appProperties;
+
+    @Mock
+    DeliverSmDispatcher deliverSmDispatcher;
+
+    @Mock
+    DeliverSmRetryQueue deliverSmRetryQueue;
+
+    @Mock
+    SpSession spSession;
+
+    @Mock
+    Session session;
+
+    @Test
+    @DisplayName("drainPending then the pending list is popped in chunks until it is empty")
+    void drainPendingThenPopInChunks() throws InterruptedException {
+        mockDrain(2);
+        when(spSession.getCurrentSmppSessions()).thenReturn(List.of(session));
+        when(pendingDeliverSmStore.pop(1, 2)).thenReturn(List.of(raw("1"), raw("2")), List.of(raw("3")), List.of());
+        when(deliverSmDispatcher.dispatch(eq(1), eq(spSession), any(MessageEvent.class)))
+                .thenReturn(CompletableFuture.completedFuture(DeliverSmResult.SENT));
+
+        assertEquals(3, drainer().drainPending(1));
+
+        verify(deliverSmDispatcher, times(3)).dispatch(eq(1), eq(spSession), any(MessageEvent.class));
+        verify(deliverSmRetryQueue, times(3)).onSent(1);
+        verify(pendingDeliverSmStore, never()).pushBack(eq(1), any());
+    }
+
+    @Test
+    @DisplayName("drainPending when a deliver_sm can not be decoded then it is dead-lettered and not counted as drained")
+    void drainPendingWhenInvalidThenDeadLetter() throws InterruptedException {
+        mockDrain(2);
+        when(spSession.getCurrentSmppSessions()).thenReturn(List.of(session));
+        when(pendingDeliverSmStore.pop(1, 2)).thenReturn(List.of("{invalid", raw("2")), List.of());
+        when(deliverSmDispatcher.dispatch(eq(1), eq(spSession), any(MessageEvent.class)))
+                .thenReturn(CompletableFuture.completedFuture(DeliverSmResult.SENT));
+
+        assertEquals(1, drainer().drainPending(1));
+
+        verify(deliverSmRetryQueue).deadLetterInvalid(1, "{invalid");
+        verify(deliverSmDispatcher, times(1)).dispatch(eq(1), eq(spSession), any(MessageEvent.class));
+        verify(pendingDeliverSmStore, never()).pushBack(eq(1), any());
+    }
+
+    @Test
+    @DisplayName("drainPending when deliver_sm are buffered and not flushed then wait for them before ending")
+    void drainPendingWhenBufferedThenWaitForFlush() throws InterruptedException {
+        mockDrain(2);
+        when(spSession.getCurrentSmppSessions()).thenReturn(List.of(session));
+        when(pendingDeliverSmStore.pop(1, 2)).thenReturn(List.of(), List.of(raw("1")), List.of());
+        when(pendingDeliverSmStore.getBuffered(1)).thenReturn(1, 0);
+        when(deliverSmDispatcher.dispatch(eq(1), eq(spSession), any(MessageEvent.class)))
+                .thenReturn(CompletableFuture.completedFuture(DeliverSmResult.SENT));
+
+        assertEquals(1, drainer().drainPending(1));
+
+        verify(pendingDeliverSmStore, times(3)).pop(1, 2);
+        verify(pendingDeliverSmStore).awaitFlushed(eq(1), anyLong());
+    }
+
+    @Test
+    @DisplayName("drainPending when the binds are lost during the drain then the deliver_sm not sent return to the head of the pending list")
+    void drainPendingWhenBindsLostThenPushBackInOrder() throws InterruptedException {
+        mockDrain(4);
+        // checked before the chunk and before each deliver_sm
+        when(spSession.getCurrentSmppSessions()).thenReturn(List.of(session), List.of(session), List.of(session), List.of());
+        when(pendingDeliverSmStore.pop(1, 4)).thenReturn(List.of(raw("1"), raw("2"), raw("3"), raw("4")));
+        when(deliverSmDispatcher.dispatch(eq(1), eq(spSession), any(MessageEvent.class)))
+                .thenReturn(CompletableFuture.completedFuture(DeliverSmResult.NO_SESSION))
+                .thenReturn(CompletableFuture.completedFuture(DeliverSmResult.THROTTLED));
+
+        assertEquals(1, drainer().drainPending(1));
+
+        verify(deliverSmRetryQueue).schedule(eq(1), any(MessageEvent.class), eq(raw("2")), eq(1), eq(DeliverSmResult.THROTTLED));
+        verify(pendingDeliverSmStore).pushBack(1, List.of(raw("1"), raw("3"), raw("4")));
+        verify(pendingDeliverSmStore, times(1)).pop(1, 4);
+    }
+
+    @Test
+    @DisplayName("drain when the service provider has no binds then the pending list is not popped")
+    void drainWhenNoBindsThenDoNothing() {
+        when(spSession.getCurrentSmppSessions()).thenReturn(List.of());
+        PendingDeliverSmDrainer drainer = drainer();
+
+        drainer.drain(1);
+
+        verify(spSession, timeout(2000)).getCurrentSmppSessions();
+        verify(pendingDeliverSmStore, never()).pop(anyInt(), anyInt());
+        verify(deliverSmDispatcher, never()).dispatch(anyInt(), any(), any());
+        await().atMost(TWO_SECONDS).until(() -> !drainer.isDraining(1));
+    }
+
+    private void mockDrain(int chunkSize) {
+        when(appProperties.getPendingDeliverSmChunkSize()).thenReturn(chunkSize);
+        when(spSession.getTpsLimiter()).thenReturn(new TpsLimiter(0));
+        when(deliverSmDispatcher.remainingCapacity()).thenReturn(Integer.MAX_VALUE);
+    }
+
+    private PendingDeliverSmDrainer drainer() {
+        return new PendingDeliverSmDrainer(pendingDeliverSmStore, appProperties, new ConcurrentHashMap<>(Map.of(1, spSession)),
+                deliverSmDispatcher, deliverSmRetryQueue, new NetworkTaskScheduler(appProperties));
+    }
+
+    private static String raw(String id) {
+        return MessageEvent.builder().id(id).messageId(id).destNetworkId(1).build().toString();
+    }
+}
@@ -0,0 +1,102 @@
+package com.paicbd.module.components;
+
+import com.paicbd.module.utils.AppProperties;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import redis.clients.jedis.ClusterPipeline;
+import redis.clients.jedis.JedisCluster;
+
+import java.util.List;
+
+import static org.awaitility.Awaitility.await;
+import static org.awaitility.Durations.TWO_SECONDS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class PendingDeliverSmStoreTest {
+    @Mock
+    JedisCluster jedisCluster;
+
+    @Mock
+    AppProperties appProperties;
+
+    @Mock
+    ClusterPipeline pipeline;
+
+    @Test
+    @DisplayName("add then the deliver_sm of each networkId are pushed with a single LPUSH in one pipeline")
+    void addThenPushGroupedByNetworkId() {
+        when(appProperties.getPendingDeliverSmBufferCapacity()).thenReturn(100);
+        when(appProperties.getPendingDeliverSmBatchSize()).thenReturn(100);
+        when(appProperties.getPendingDeliverSmMaxBatchDelayMillis()).thenReturn(500L);
+        when(jedisCluster.pipelined()).thenReturn(pipeline);
+        when(jedisCluster.llen("1_smpp_pending_dlr")).thenReturn(2L);
+        PendingDeliverSmStore store = new PendingDeliverSmStore(jedisCluster, appProperties);
+        store.init();
+
+        store.add(1, "deliverSm1");
+        store.add(2, "deliverSm2");
+        store.add(1, "deliverSm3");
+
+        verify(pipeline, timeout(2000)).sync();
+        verify(pipeline).lpush("1_smpp_pending_dlr", "deliverSm1", "deliverSm3");
+        verify(pipeline).lpush("2_smpp_pending_dlr", "deliverSm2");
+        verify(jedisCluster, never()).lpush(anyString(), any(String[].class));
+        await().atMost(TWO_SECONDS).until(() -> store.getBuffered(1) == 0 && store.getBuffered(2) == 0);
+        assertEquals(2, store.depth(1));
+        store.shutdown();
+    }
+
+    @Test
+    @DisplayName("awaitFlushed when the buffered deliver_sm are written then it returns without waiting for the timeout")
+    void awaitFlushedWhenWrittenThenReturn() throws InterruptedException {
+        when(appProperties.getPendingDeliverSmBufferCapacity()).thenReturn(100);
+        when(appProperties.getPendingDeliverSmBatchSize()).thenReturn(100);
+        when(appProperties.getPendingDeliverSmMaxBatchDelayMillis()).thenReturn(50L);
+        when(jedisCluster.pipelined()).thenReturn(pipeline);
+        PendingDeliverSmStore store = new PendingDeliverSmStore(jedisCluster, appProperties);
+        store.init();
+
+        store.add(1, "deliverSm");
+
+        assertTrue(store.awaitFlushed(1, 5000));
+        verify(pipeline).lpush("1_smpp_pending_dlr", "deliverSm");
+        assertTrue(store.awaitFlushed(2, 0));
+        store.shutdown();
+    }
+
+    @Test
+    @DisplayName("add when the flush worker is not running then the deliver_sm is pushed directly")
+    void addWhenNotRunningThenPushDirectly() {
+        PendingDeliverSmStore store = new PendingDeliverSmStore(jedisCluster, appProperties);
+
+        store.add(1, "deliverSm");
+
+        verify(jedisCluster).lpush("1_smpp_pending_dlr", "deliverSm");
+        assertEquals(0, store.getBuffered(1));
+    }
+
+    @Test
+    @DisplayName("pushBack then the first deliver_sm ends at the head of the pending list")
+    void pushBackThenKeepOrder() {
+        when(jedisCluster.lpop("1_smpp_pending_dlr", 3)).thenReturn(null);
+        PendingDeliverSmStore store = new PendingDeliverSmStore(jedisCluster, appProperties);
+
+        store.pushBack(1, List.of("deliverSm1", "deliverSm2", "deliverSm3"));
+        store.pushBack(1, List.of());
+
+        verify(jedisCluster).lpush("1_smpp_pending_dlr", "deliverSm3", "deliverSm2", "deliverSm1");
+        assertTrue(store.pop(1, 3).isEmpty());
+        assertEquals("1_smpp_pending_dlr", PendingDeliverSmStore.key(1));
+    }
+}
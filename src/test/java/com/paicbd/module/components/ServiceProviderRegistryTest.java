@@ -0,0 +1,84 @@
+package com.paicbd.module.components;
+
+import com.paicbd.smsc.dto.ServiceProvider;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ServiceProviderRegistryTest {
+    private final ServiceProviderRegistry providerRegistry = new ServiceProviderRegistry();
+
+    @Test
+    @DisplayName("putIfAbsent when networkId or systemId are already registered then the provider is ignored")
+    void putIfAbsentWhenAlreadyRegisteredThenIgnoreIt() {
+        ServiceProvider first = getServiceProvider(1, "smppSP");
+        assertTrue(providerRegistry.putIfAbsent(first));
+        assertFalse(providerRegistry.putIfAbsent(getServiceProvider(1, "otherSP")));
+        assertFalse(providerRegistry.putIfAbsent(getServiceProvider(2, "smppSP")));
+
+        assertEquals(1, providerRegistry.size());
+        assertSame(first, providerRegistry.findBySystemId("smppSP").orElseThrow());
+        assertSame(first, providerRegistry.findByNetworkId(1).orElseThrow());
+    }
+
+    @Test
+    @DisplayName("put when the provider changes its systemId then the previous systemId is no longer indexed")
+    void putWhenSystemIdChangesThenReplaceBothIndexes() {
+        ServiceProvider serviceProvider = getServiceProvider(1, "smppSP");
+        providerRegistry.put(serviceProvider);
+
+        // service providers are updated in place by the SpSession
+        serviceProvider.setSystemId("renamedSP");
+        providerRegistry.put(serviceProvider);
+
+        assertEquals(1, providerRegistry.size());
+        assertFalse(providerRegistry.findBySystemId("smppSP").isPresent());
+        assertSame(serviceProvider, providerRegistry.findBySystemId("renamedSP").orElseThrow());
+    }
+
+    @Test
+    @DisplayName("removeByNetworkId when the provider exists then both indexes are cleaned")
+    void removeByNetworkIdWhenExistsThenRemoveIt() {
+        providerRegistry.put(getServiceProvider(1, "smppSP"));
+        providerRegistry.put(getServiceProvider(2, "testSP"));
+
+        assertTrue(providerRegistry.removeByNetworkId(1).isPresent());
+        assertFalse(providerRegistry.removeByNetworkId(3).isPresent());
+
+        assertFalse(providerRegistry.findByNetworkId(1).isPresent());
+        assertFalse(providerRegistry.findBySystemId("smppSP").isPresent());
+        assertEquals(1, providerRegistry.size());
+    }
+
+    @Test
+    @DisplayName("snapshot when the registry is updated then the snapshot is not modified")
+    void snapshotWhenRegistryIsUpdatedThenSnapshotIsImmutable() {
+        providerRegistry.put(getServiceProvider(1, "smppSP"));
+        List<ServiceProvider> snapshot = providerRegistry.snapshot();
+        providerRegistry.put(getServiceProvider(2, "testSP"));
+
+        assertEquals(1, snapshot.size());
+        assertEquals(2, providerRegistry.snapshot().size());
+        assertThrows(UnsupportedOperationException.class, () -> snapshot.add(getServiceProvider(3, "newSP")));
+        assertFalse(providerRegistry.findBySystemId(null).isPresent());
+    }
+
+    private static ServiceProvider getServiceProvider(int networkId, String systemId) {
+        return ServiceProvider.builder()
+                .networkId(networkId)
+                .systemId(systemId)
+                .protocol("SMPP")
+                .binds(new ArrayList<>())
+                .enabled(1)
+                .enquireLinkPeriod(5000)
+                .build();
+    }
+}
@@ -0,0 +1,153 @@
+package com.paicbd.module.components;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.paicbd.module.utils.AppProperties;
+import com.paicbd.smsc.dto.ServiceProvider;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import redis.clients.jedis.ClusterPipeline;
+import redis.clients.jedis.JedisCluster;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.paicbd.module.utils.Constants.BOUND;
+import static com.paicbd.module.utils.Constants.STARTED;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ServiceProviderStateWriterTest {
+    @Mock
+    JedisCluster jedisCluster;
+
+    @Mock
+    AppProperties appProperties;
+
+    @Mock
+    ClusterPipeline pipeline;
+
+    @Test
+    @DisplayName("flush when the mode is full then the latest state of each service provider changed is written once in a pipeline")
+    void flushWhenModeIsFullThenWriteLatestStateOnce() {
+        when(appProperties.getServiceProvidersStateMode()).thenReturn(ServiceProviderStateWriter.MODE_FULL);
+        when(appProperties.getServiceProvidersHashName()).thenReturn("service_providers");
+        when(jedisCluster.pipelined()).thenReturn(pipeline);
+        ServiceProviderStateWriter writer = new ServiceProviderStateWriter(jedisCluster, appProperties);
+        ServiceProvider first = serviceProvider(1);
+        ServiceProvider second = serviceProvider(2);
+
+        writer.markChanged(first);
+        first.setCurrentBindsCount(1);
+        first.setStatus(BOUND);
+        writer.markChanged(first);
+        writer.markChanged(second);
+        writer.flush();
+        writer.flush();
+
+        verify(pipeline).hset("service_providers", "1", first.toString());
+        verify(pipeline).hset("service_providers", "2", second.toString());
+        verify(pipeline, times(2)).hset(anyString(), anyString(), anyString());
+        verify(pipeline).sync();
+        verify(jedisCluster, times(1)).pipelined();
+    }
+
+    @Test
+    @DisplayName("flush when the service provider changes after being marked then the state it had when marked is written")
+    void flushWhenChangedAfterMarkThenWriteSnapshot() {
+        when(appProperties.getServiceProvidersStateMode()).thenReturn(ServiceProviderStateWriter.MODE_FULL);
+        when(appProperties.getServiceProvidersHashName()).thenReturn("service_providers");
+        when(jedisCluster.pipelined()).thenReturn(pipeline);
+        ServiceProviderStateWriter writer = new ServiceProviderStateWriter(jedisCluster, appProperties);
+        ServiceProvider serviceProvider = serviceProvider(1);
+        serviceProvider.setStatus(BOUND);
+        serviceProvider.setCurrentBindsCount(1);
+        serviceProvider.getBinds().add("id-1");
+        String marked = serviceProvider.toString();
+
+        writer.markChanged(serviceProvider);
+        serviceProvider.setCurrentBindsCount(2);
+        serviceProvider.getBinds().add("id-2");
+        writer.flush();
+
+        verify(pipeline).hset("service_providers", "1", marked);
+        verify(pipeline, times(1)).hset(anyString(), anyString(), anyString());
+    }
+
+    @Test
+    @DisplayName("flush when the mode is runtime then only the status, binds count and bind ids are written in the runtime hash")
+    void flushWhenModeIsRuntimeThenWriteRuntimeState() throws JsonProcessingException {
+        when(appProperties.getServiceProvidersStateMode()).thenReturn(ServiceProviderStateWriter.MODE_RUNTIME);
+        when(appProperties.getServiceProvidersRuntimeHashName()).thenReturn("service_providers_runtime");
+        when(jedisCluster.pipelined()).thenReturn(pipeline);
+        ServiceProviderStateWriter writer = new ServiceProviderStateWriter(jedisCluster, appProperties);
+        ServiceProvider serviceProvider = serviceProvider(1);
+        serviceProvider.setStatus(BOUND);
+        serviceProvider.setCurrentBindsCount(2);
+        serviceProvider.getBinds().addAll(List.of("id-1", "id-2"));
+
+        writer.markChanged(serviceProvider);
+        writer.shutdown();
+
+        ArgumentCaptor<String> stateCaptor = ArgumentCaptor.forClass(String.class);
+        verify(pipeline).hset(eq("service_providers_runtime"), eq("1"), stateCaptor.capture());
+        assertEquals(new ServiceProviderStateWriter.RuntimeState(BOUND, 2, List.of("id-1", "id-2")),
+                new ObjectMapper().readValue(stateCaptor.getValue(), ServiceProviderStateWriter.RuntimeState.class));
+    }
+
+    @Test
+    @DisplayName("flush when the pipeline fails then the service providers are written with the next flush")
+    void flushWhenPipelineFailsThenRetryNextFlush() {
+        when(appProperties.getServiceProvidersHashName()).thenReturn("service_providers");
+        when(jedisCluster.pipelined()).thenReturn(pipeline);
+        doThrow(new JedisConnectionException("down")).doNothing().when(pipeline).sync();
+        ServiceProviderStateWriter writer = new ServiceProviderStateWriter(jedisCluster, appProperties);
+        ServiceProvider serviceProvider = serviceProvider(1);
+
+        writer.markChanged(serviceProvider);
+        writer.flush();
+        writer.flush();
+
+        verify(pipeline, times(2)).hset("service_providers", "1", serviceProvider.toString());
+        verify(pipeline, times(2)).sync();
+    }
+
+    @Test
+    @DisplayName("remove when the mode is runtime then the pending state is dropped and the runtime state is deleted")
+    void removeWhenModeIsRuntimeThenDropPendingAndDeleteRuntimeState() {
+        when(appProperties.getServiceProvidersStateMode()).thenReturn(ServiceProviderStateWriter.MODE_RUNTIME);
+        when(appProperties.getServiceProvidersRuntimeHashName()).thenReturn("service_providers_runtime");
+        ServiceProviderStateWriter writer = new ServiceProviderStateWriter(jedisCluster, appProperties);
+
+        writer.markChanged(serviceProvider(1));
+        writer.remove(1);
+        writer.flush();
+
+        verify(jedisCluster).hdel("service_providers_runtime", "1");
+        verify(jedisCluster, never()).pipelined();
+    }
+
+    private static ServiceProvider serviceProvider(int networkId) {
+        return ServiceProvider.builder()
+                .networkId(networkId)
+                .systemId("systemId" + networkId)
+                .protocol("SMPP")
+                .binds(new ArrayList<>())
+                .enabled(1)
+                .status(STARTED)
+                .currentBindsCount(0)
+                .build();
+    }
+}
@@ -0,0 +1,75 @@
+package com.paicbd.module.components;
+
+import com.paicbd.smsc.ws.SocketSession;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.messaging.simp.stomp.StompSession;
+
+import static com.paicbd.module.utils.Constants.BINDING;
+import static com.paicbd.module.utils.Constants.BOUND;
+import static com.paicbd.module.utils.Constants.PARAM_UPDATE_SESSIONS;
+import static com.paicbd.module.utils.Constants.PARAM_UPDATE_STATUS;
+import static com.paicbd.module.utils.Constants.STARTED;
+import static com.paicbd.module.utils.Constants.TYPE;
+import static com.paicbd.module.utils.Constants.WEBSOCKET_STATUS_ENDPOINT;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class SessionStatusNotifierTest {
+    @Mock
+    SocketSession socketSession;
+
+    @Mock
+    StompSession stompSession;
+
+    @Test
+    @DisplayName("flush when a parameter changed several times then only its latest value is sent, in the order of the last change")
+    void flushWhenSeveralChangesThenSendLatestInOrder() {
+        when(socketSession.getStompSession()).thenReturn(stompSession);
+        SessionStatusNotifier notifier = new SessionStatusNotifier(socketSession);
+
+        notifier.enqueue(1, PARAM_UPDATE_STATUS, BINDING);
+        notifier.enqueue(1, PARAM_UPDATE_SESSIONS, "1");
+        notifier.enqueue(2, PARAM_UPDATE_STATUS, STARTED);
+        notifier.enqueue(1, PARAM_UPDATE_STATUS, BOUND);
+        notifier.flush();
+
+        InOrder inOrder = inOrder(stompSession);
+        inOrder.verify(stompSession).send(WEBSOCKET_STATUS_ENDPOINT, message(1, PARAM_UPDATE_SESSIONS, "1"));
+        inOrder.verify(stompSession).send(WEBSOCKET_STATUS_ENDPOINT, message(1, PARAM_UPDATE_STATUS, BOUND));
+        verify(stompSession).send(WEBSOCKET_STATUS_ENDPOINT, message(2, PARAM_UPDATE_STATUS, STARTED));
+        verify(stompSession, never()).send(WEBSOCKET_STATUS_ENDPOINT, message(1, PARAM_UPDATE_STATUS, BINDING));
+        verify(stompSession, times(3)).send(anyString(), anyString());
+
+        // already sent
+        notifier.flush();
+        verify(stompSession, times(3)).send(anyString(), anyString());
+    }
+
+    @Test
+    @DisplayName("flush when there is no WebSocket session then the changes are discarded")
+    void flushWhenNoStompSessionThenDiscard() {
+        SessionStatusNotifier notifier = new SessionStatusNotifier(socketSession);
+
+        notifier.enqueue(1, PARAM_UPDATE_SESSIONS, "1");
+        notifier.flush();
+        notifier.flush();
+
+        verify(socketSession, times(1)).getStompSession();
+        verifyNoInteractions(stompSession);
+    }
+
+    private static String message(int networkId, String param, String value) {
+        return String.format("%s,%s,%s,%s", TYPE, networkId, param, value);
+    }
+}
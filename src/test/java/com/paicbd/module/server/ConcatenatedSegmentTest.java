@@ -0,0 +1,135 @@
+package com.paicbd.module.server;
+
+import com.paicbd.smsc.dto.UtilsRecords;
+import com.paicbd.smsc.utils.Converter;
+import com.paicbd.smsc.utils.SmppEncoding;
+import org.jsmpp.bean.OptionalParameter;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConcatenatedSegmentTest {
+
+    @Test
+    @DisplayName("fromUdh when the UDH has an 8 bit reference then parse it")
+    void fromUdhWhen8BitReferenceThenParse() {
+        byte[] shortMessage = withUdh(new byte[]{0x05, 0x00, 0x03, (byte) 0xC8, 0x02, 0x01}, "Hello");
+
+        ConcatenatedSegment segment = ConcatenatedSegment.fromUdh(shortMessage, SmppEncoding.ISO88591);
+
+        assertEquals(new ConcatenatedSegment(200, 2, 1, "Hello"), segment);
+    }
+
+    @Test
+    @DisplayName("fromUdh when the UDH has a 16 bit reference then parse it")
+    void fromUdhWhen16BitReferenceThenParse() {
+        byte[] shortMessage = withUdh(new byte[]{0x06, 0x08, 0x04, 0x01, 0x2C, 0x03, 0x03}, "World");
+
+        ConcatenatedSegment segment = ConcatenatedSegment.fromUdh(shortMessage, SmppEncoding.ISO88591);
+
+        assertEquals(new ConcatenatedSegment(300, 3, 3, "World"), segment);
+    }
+
+    @Test
+    @DisplayName("fromUdh when the concatenation element follows another element then parse it")
+    void fromUdhWhenOtherElementFirstThenParse() {
+        // port addressing 8 bit (IEI 0x04) followed by the concatenation element
+        byte[] shortMessage = withUdh(new byte[]{0x09, 0x04, 0x02, 0x10, 0x20, 0x00, 0x03, 0x07, 0x02, 0x02}, "Bye");
+
+        ConcatenatedSegment segment = ConcatenatedSegment.fromUdh(shortMessage, SmppEncoding.ISO88591);
+
+        assertEquals(new ConcatenatedSegment(7, 2, 2, "Bye"), segment);
+    }
+
+    @Test
+    @DisplayName("fromUdh when the UDH is malformed or has no concatenation element then return null")
+    void fromUdhWhenMalformedThenReturnNull() {
+        assertNull(ConcatenatedSegment.fromUdh(null, SmppEncoding.ISO88591));
+        assertNull(ConcatenatedSegment.fromUdh(new byte[0], SmppEncoding.ISO88591));
+        // UDH length beyond the short message
+        assertNull(ConcatenatedSegment.fromUdh(new byte[]{0x05, 0x00, 0x03}, SmppEncoding.ISO88591));
+        // element length beyond the UDH
+        assertNull(ConcatenatedSegment.fromUdh(withUdh(new byte[]{0x03, 0x00, 0x05, 0x01}, "Hi"), SmppEncoding.ISO88591));
+        // only port addressing
+        assertNull(ConcatenatedSegment.fromUdh(withUdh(new byte[]{0x04, 0x04, 0x02, 0x10, 0x20}, "Hi"), SmppEncoding.ISO88591));
+    }
+
+    @Test
+    @DisplayName("fromSarParameters when the three SAR parameters are present then parse them")
+    void fromSarParametersWhenCompleteThenParse() {
+        List<UtilsRecords.OptionalParameter> optionalParameters = List.of(
+                new UtilsRecords.OptionalParameter((short) 1060, "1"),
+                new UtilsRecords.OptionalParameter((short) 527, "2"),
+                new UtilsRecords.OptionalParameter((short) 524, "40"),
+                new UtilsRecords.OptionalParameter((short) 526, "2")
+        );
+
+        ConcatenatedSegment segment = ConcatenatedSegment.fromSarParameters(optionalParameters, "Hello");
+
+        assertEquals(new ConcatenatedSegment(40, 2, 2, "Hello"), segment);
+    }
+
+    @Test
+    @DisplayName("fromSarParameters when a SAR parameter is missing then return null")
+    void fromSarParametersWhenIncompleteThenReturnNull() {
+        List<UtilsRecords.OptionalParameter> optionalParameters = List.of(
+                new UtilsRecords.OptionalParameter((short) 524, "40"),
+                new UtilsRecords.OptionalParameter((short) 526, "2")
+        );
+
+        assertNull(ConcatenatedSegment.fromSarParameters(optionalParameters, "Hello"));
+        assertNull(ConcatenatedSegment.fromSarParameters(null, "Hello"));
+    }
+
+    @Test
+    @DisplayName("hasSarParameters when the three SAR parameters are received then return true")
+    void hasSarParametersWhenCompleteThenReturnTrue() {
+        OptionalParameter[] optionalParameters = {
+                new OptionalParameter.Sar_segment_seqnum((byte) 1),
+                new OptionalParameter.Sar_msg_ref_num((short) 40),
+                new OptionalParameter.Sar_total_segments((byte) 2)
+        };
+
+        assertTrue(ConcatenatedSegment.hasSarParameters(optionalParameters));
+    }
+
+    @Test
+    @DisplayName("hasSarParameters when a SAR parameter is missing then return false")
+    void hasSarParametersWhenIncompleteThenReturnFalse() {
+        OptionalParameter[] optionalParameters = {
+                new OptionalParameter.Sar_msg_ref_num((short) 40),
+                new OptionalParameter.Sar_total_segments((byte) 2)
+        };
+
+        assertFalse(ConcatenatedSegment.hasSarParameters(optionalParameters));
+        assertFalse(ConcatenatedSegment.hasSarParameters(new OptionalParameter[0]));
+        assertFalse(ConcatenatedSegment.hasSarParameters(null));
+    }
+
+    @Test
+    @DisplayName("toUdhJson then the layout of the message parts is kept")
+    void toUdhJsonThenKeepLayout() {
+        Map<String, Object> udhMap = new HashMap<>();
+        udhMap.put("message", "Hello");
+        udhMap.put("0x00", new int[]{1, 2, 1});
+
+        assertEquals(Converter.udhMapToJson(udhMap), new ConcatenatedSegment(1, 2, 1, "Hello").toUdhJson());
+    }
+
+    private static byte[] withUdh(byte[] udh, String text) {
+        byte[] body = text.getBytes(StandardCharsets.ISO_8859_1);
+        byte[] shortMessage = new byte[udh.length + body.length];
+        System.arraycopy(udh, 0, shortMessage, 0, udh.length);
+        System.arraycopy(body, 0, shortMessage, udh.length, body.length);
+        return shortMessage;
+    }
+}
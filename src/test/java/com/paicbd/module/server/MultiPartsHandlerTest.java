@@ -1,7 +1,9 @@
 package com.paicbd.module.server;
 
+import com.paicbd.module.components.IngressQueueWriter;
+import com.paicbd.module.components.MultipartPartsWriter;
+import com.paicbd.module.components.MultipartReassemblyStore;
 import com.paicbd.module.utils.AppProperties;
-import com.paicbd.module.utils.SpSession;
 import com.paicbd.smsc.cdr.CdrProcessor;
 import com.paicbd.smsc.dto.MessageEvent;
 import com.paicbd.smsc.dto.MessagePart;
@@ -20,9 +22,18 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
@@ -34,10 +45,13 @@ class MultiPartsHandlerTest {
     private CdrProcessor cdrProcessor;
 
     @Mock
-    private SpSession spSession;
+    private AppProperties appProperties;
 
     @Mock
-    private AppProperties appProperties;
+    private IngressQueueWriter ingressQueueWriter;
+
+    @Mock
+    private MultipartReassemblyStore multipartReassemblyStore;
 
     @InjectMocks
     private MultiPartsHandler multiPartsHandler;
@@ -48,21 +62,22 @@ class MultiPartsHandlerTest {
     @Test
     @DisplayName("processPart with multi parts message")
     void processPartWhenMessageHasTwoPartsThenDoItSuccessfully() {
-        when(appProperties.getPreMessageList()).thenReturn("preMessage");
         when(appProperties.getMessagePartsHash()).thenReturn("smpp_message_parts");
-        when(spSession.getJedisCluster()).thenReturn(jedisCluster);
+        when(appProperties.getMultipartTtlMillis()).thenReturn(120000L);
+        when(appProperties.getMultipartTickMillis()).thenReturn(1000L);
+        MultipartPartsWriter partsWriter = new MultipartPartsWriter(jedisCluster, appProperties);
+        MultipartReassemblyStore reassemblyStore = new MultipartReassemblyStore(cdrProcessor, appProperties, ingressQueueWriter, partsWriter);
+        reassemblyStore.init();
+        multiPartsHandler = new MultiPartsHandler(cdrProcessor, ingressQueueWriter, reassemblyStore);
 
         String msgReferenceNumber = "1";
         List<MessagePart> messagePartList = new ArrayList<>();
-        String key = "smppSp" + msgReferenceNumber;
+        String key = "smppSp_50510201020_50582368999_" + msgReferenceNumber;
 
         // first part
         String firstPart = "Hello I hope you are doing well I wanted to remind you that our meeting is tomorrow at three in the afternoon Please remember to bring the documents";
 
-        Map<String, Object> firstMapUdh = new HashMap<>();
-        firstMapUdh.put("message", firstPart);
-        int[] udhFirstPageArray = {Integer.parseInt(msgReferenceNumber), 2, 1};
-        firstMapUdh.put("0x00", udhFirstPageArray);
+        ConcatenatedSegment firstSegment = new ConcatenatedSegment(Integer.parseInt(msgReferenceNumber), 2, 1, firstPart);
 
         List<UtilsRecords.OptionalParameter> firstOptionalParameters = new ArrayList<>();
         firstOptionalParameters.add(new UtilsRecords.OptionalParameter((short) 524, msgReferenceNumber)); // Sar message reference number
@@ -104,16 +119,13 @@ class MultiPartsHandlerTest {
                 .optionalParameters(firstOptionalParameters)
                 .build();
 
-        messagePartList.add(this.createMessagePart(firstMapUdh, firstSubmitSmEvent.getMessageId(),  1));
-        multiPartsHandler.processPart(firstSubmitSmEvent, firstMapUdh);
+        messagePartList.add(this.createMessagePart(firstSegment, firstSubmitSmEvent.getMessageId()));
+        assertNull(multiPartsHandler.processPart(firstSubmitSmEvent, firstSegment));
 
         // second part
         String secondPart = "If you have any questions or need to change the time let me know I am here to help you Looking forward to seeing you soon take care and have a great day";
 
-        Map<String, Object> secondMapUdh = new HashMap<>();
-        secondMapUdh.put("message", secondPart);
-        int[] udhSecondPageArray = {Integer.parseInt(msgReferenceNumber), 2, 2};
-        secondMapUdh.put("0x00", udhSecondPageArray);
+        ConcatenatedSegment secondSegment = new ConcatenatedSegment(Integer.parseInt(msgReferenceNumber), 2, 2, secondPart);
 
         List<UtilsRecords.OptionalParameter> secondOptionalParameters = new ArrayList<>();
         secondOptionalParameters.add(new UtilsRecords.OptionalParameter((short) 524, msgReferenceNumber)); // Sar message reference number
@@ -155,8 +167,10 @@ class MultiPartsHandlerTest {
                 .optionalParameters(secondOptionalParameters)
                 .build();
 
-        messagePartList.add(this.createMessagePart(secondMapUdh, secondSubmitSmEvent.getMessageId(), 2));
-        multiPartsHandler.processPart(secondSubmitSmEvent, secondMapUdh);
+        messagePartList.add(this.createMessagePart(secondSegment, secondSubmitSmEvent.getMessageId()));
+        when(ingressQueueWriter.enqueue(any(MessageEvent.class), eq("MULTIPART MESSAGE RECEIVED 2 OF 2")))
+                .thenReturn(CompletableFuture.completedFuture(null));
+        assertNotNull(multiPartsHandler.processPart(secondSubmitSmEvent, secondSegment));
 
         // capture the first part to get parent id
         ArgumentCaptor<String> firstSubmitSmEventCaptured= ArgumentCaptor.forClass(String.class);
@@ -202,15 +216,66 @@ class MultiPartsHandlerTest {
                 .messageParts(messagePartList)
                 .build();
 
-        // verify submitSmEvent sent to preMessage List
-        verify(jedisCluster).lpush("preMessage", multipartSubmitSmEventResult.toString());
+        // verify submitSmEvent sent to the ingress writer, the RECEIVED CDR is written by it after the flush
+        ArgumentCaptor<MessageEvent> queuedEventCaptured = ArgumentCaptor.forClass(MessageEvent.class);
+        verify(ingressQueueWriter).enqueue(queuedEventCaptured.capture(), eq("MULTIPART MESSAGE RECEIVED 2 OF 2"));
+        assertEquals(multipartSubmitSmEventResult.toString(), queuedEventCaptured.getValue().toString());
 
         verify(jedisCluster).hdel("smpp_message_parts", key);
-        verify(cdrProcessor, times(2)).putCdrDetailOnRedis(any(UtilsRecords.CdrDetail.class));
+        verify(cdrProcessor, times(1)).putCdrDetailOnRedis(any(UtilsRecords.CdrDetail.class));
+        assertEquals(new MultipartReassemblyStore.Stats(0, 1, 0, 0), reassemblyStore.getStats());
+    }
+
+    @Test
+    @DisplayName("processPart when the completed message can not be queued then the reassembly is kept")
+    void processPartWhenQueueIsFullThenKeepReassembly() {
+        MessageEvent parent = MessageEvent.builder()
+                .id("1719421854353-11028072268459")
+                .messageId("1719421854353-11028072268459")
+                .systemId("smppSp")
+                .sourceAddr("50510201020")
+                .destinationAddr("50582368999")
+                .build();
+        ConcatenatedSegment segment = new ConcatenatedSegment(1, 2, 2, "Bye");
+        String key = "smppSp_50510201020_50582368999_1";
+        MultipartReassemblyStore.Progress progress = new MultipartReassemblyStore.Progress(parent, 2, true);
+        when(multipartReassemblyStore.addPart(eq(key), eq(parent), any(MessagePart.class), any())).thenReturn(progress);
+        when(ingressQueueWriter.enqueue(parent, "MULTIPART MESSAGE RECEIVED 2 OF 2"))
+                .thenThrow(new RejectedExecutionException("Ingress buffer is full"));
+
+        assertThrows(RejectedExecutionException.class, () -> multiPartsHandler.processPart(parent, segment));
+
+        verify(multipartReassemblyStore).release(key, progress, false);
+        verifyNoInteractions(cdrProcessor);
+    }
+
+    @Test
+    @DisplayName("processPart when the completed message fails to be stored then the reassembly is kept")
+    void processPartWhenFlushFailsThenKeepReassembly() {
+        MessageEvent parent = MessageEvent.builder()
+                .id("1719421854353-11028072268459")
+                .messageId("1719421854353-11028072268459")
+                .systemId("smppSp")
+                .sourceAddr("50510201020")
+                .destinationAddr("50582368999")
+                .build();
+        ConcatenatedSegment segment = new ConcatenatedSegment(1, 2, 2, "Bye");
+        String key = "smppSp_50510201020_50582368999_1";
+        MultipartReassemblyStore.Progress progress = new MultipartReassemblyStore.Progress(parent, 2, true);
+        CompletableFuture<Void> flushed = new CompletableFuture<>();
+        when(multipartReassemblyStore.addPart(eq(key), eq(parent), any(MessagePart.class), any())).thenReturn(progress);
+        when(ingressQueueWriter.enqueue(parent, "MULTIPART MESSAGE RECEIVED 2 OF 2")).thenReturn(flushed);
+
+        CompletableFuture<Void> queued = multiPartsHandler.processPart(parent, segment);
+        verify(multipartReassemblyStore, never()).release(any(String.class), any(MultipartReassemblyStore.Progress.class), anyBoolean());
+
+        flushed.completeExceptionally(new IllegalStateException("Redis is down"));
+        assertTrue(queued.isCompletedExceptionally());
+        verify(multipartReassemblyStore).release(key, progress, false);
     }
 
     @Test
-    @DisplayName("processPart when map UDH is null")
+    @DisplayName("processPart when the segment is null")
     void processPartWhenMapUDHIsNullThenDoNothing() {
         String msgReferenceNumber = "1";
 
@@ -259,23 +324,25 @@ class MultiPartsHandlerTest {
         multiPartsHandler.processPart(firstSubmitSmEvent, null);
 
         verifyNoInteractions(appProperties);
-        verifyNoInteractions(spSession);
         verifyNoInteractions(jedisCluster);
         verifyNoInteractions(cdrProcessor);
+        verifyNoInteractions(ingressQueueWriter);
+        verifyNoInteractions(multipartReassemblyStore);
     }
 
-    private MessagePart createMessagePart(Map<String, Object> mapUdh, String messageId, int segmentSequence) {
-        MessagePart messagePartEvent = new MessagePart();
+    private MessagePart createMessagePart(ConcatenatedSegment segment, String messageId) {
+        Map<String, Object> mapUdh = new HashMap<>();
+        mapUdh.put("message", segment.message());
+        mapUdh.put("0x00", new int[]{segment.reference(), segment.total(), segment.sequence()});
 
-        String messagePart = Converter.udhMapToJson(mapUdh);
-        String message = mapUdh.get("message").toString();
+        MessagePart messagePartEvent = new MessagePart();
         messagePartEvent.setMessageId(messageId);
-        messagePartEvent.setUdhJson(messagePart);
-        messagePartEvent.setShortMessage(message);
-        messagePartEvent.setMsgReferenceNumber("1");
-        messagePartEvent.setTotalSegment(2);
-        messagePartEvent.setSegmentSequence(segmentSequence);
+        messagePartEvent.setUdhJson(Converter.udhMapToJson(mapUdh));
+        messagePartEvent.setShortMessage(segment.message());
+        messagePartEvent.setMsgReferenceNumber(String.valueOf(segment.reference()));
+        messagePartEvent.setTotalSegment(segment.total());
+        messagePartEvent.setSegmentSequence(segment.sequence());
 
         return messagePartEvent;
     }
-}
\ No newline at end of file
+}
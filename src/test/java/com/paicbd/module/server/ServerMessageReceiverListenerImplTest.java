@@ -1,6 +1,9 @@
 package com.paicbd.module.server;
 
 import com.paicbd.module.components.GeneralSettingsCacheConfig;
+import com.paicbd.module.components.IngressQueueWriter;
+import com.paicbd.module.components.MultipartPartsWriter;
+import com.paicbd.module.components.MultipartReassemblyStore;
 import com.paicbd.module.utils.AppProperties;
 import com.paicbd.module.utils.Constants;
 import com.paicbd.module.utils.SpSession;
@@ -11,6 +14,7 @@ import com.paicbd.smsc.dto.MessagePart;
 import com.paicbd.smsc.dto.ServiceProvider;
 import com.paicbd.smsc.dto.UtilsRecords;
 import com.paicbd.smsc.utils.Converter;
+import org.jsmpp.SMPPConstant;
 import org.jsmpp.bean.GSMSpecificFeature;
 import org.jsmpp.bean.OptionalParameter;
 import org.jsmpp.bean.SubmitSm;
@@ -29,10 +33,14 @@ import redis.clients.jedis.JedisCluster;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
@@ -40,6 +48,7 @@ import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
@@ -64,6 +73,9 @@ class ServerMessageReceiverListenerImplTest {
     @Mock
     MultiPartsHandler multiPartsHandler;
 
+    @Mock
+    IngressQueueWriter ingressQueueWriter;
+
     @InjectMocks
     ServerMessageReceiverListenerImpl serverMessageReceiverListener;
 
@@ -79,8 +91,10 @@ class ServerMessageReceiverListenerImplTest {
                 requestCounter,
                 spSession,
                 generalSettingsCacheConfig,
-                properties, cdrProcessor,
-                new MultiPartsHandler(cdrProcessor, spSession, properties)
+                properties,
+                multiPartsHandler,
+                ingressQueueWriter,
+                new SubmitWindow(0, SubmitWindow.POLICY_THROTTLE, 0)
         );
     }
 
@@ -114,25 +128,29 @@ class ServerMessageReceiverListenerImplTest {
         AtomicInteger requestCounterSpy = spy(requestCounterMock);
 
         when(spSession.hasAvailableCredit()).thenReturn(true);
+        when(spSession.tryAcquireTps()).thenReturn(true);
         when(spSession.getCurrentServiceProvider()).thenReturn(currentSp);
-        when(spSession.getJedisCluster()).thenReturn(jedisCluster);
         when(properties.getPreMessageList()).thenReturn("preMessage");
         when(generalSettingsCacheConfig.getCurrentGeneralSettings()).thenReturn(getGeneralSettings());
+        when(ingressQueueWriter.enqueue(any(MessageEvent.class), eq("Received"))).thenReturn(CompletableFuture.completedFuture(null));
+        when(ingressQueueWriter.isAckAfterFlush()).thenReturn(true);
 
         serverMessageReceiverListener = new ServerMessageReceiverListenerImpl(
                 requestCounterSpy,
                 spSession,
                 generalSettingsCacheConfig,
-                properties, cdrProcessor,
-                multiPartsHandler
+                properties,
+                multiPartsHandler,
+                ingressQueueWriter,
+                new SubmitWindow(0, SubmitWindow.POLICY_THROTTLE, 0)
         );
 
         SubmitSmResult submitSmResult = serverMessageReceiverListener.onAcceptSubmitSm(submitSmSpy, smppServerSession);
         assertNotNull(submitSmResult.getMessageId());
 
         verify(requestCounterSpy).incrementAndGet();
-        verify(jedisCluster).lpush(eq("preMessage"), anyString());
-        verify(cdrProcessor).putCdrDetailOnRedis(any(UtilsRecords.CdrDetail.class));
+        verify(ingressQueueWriter).enqueue(any(MessageEvent.class), eq("Received"));
+        verifyNoInteractions(jedisCluster);
     }
 
     @Test
@@ -185,18 +203,24 @@ class ServerMessageReceiverListenerImplTest {
         AtomicInteger requestCounterSpy = spy(requestCounterMock);
 
         when(spSession.hasAvailableCredit()).thenReturn(true);
+        when(spSession.tryAcquireTps()).thenReturn(true);
         when(spSession.getCurrentServiceProvider()).thenReturn(currentSp);
-        when(spSession.getJedisCluster()).thenReturn(jedisCluster);
-        when(properties.getPreMessageList()).thenReturn("preMessage");
         when(properties.getMessagePartsHash()).thenReturn("smpp_message_parts");
+        when(properties.getMultipartTtlMillis()).thenReturn(120000L);
+        when(properties.getMultipartTickMillis()).thenReturn(1000L);
         when(generalSettingsCacheConfig.getCurrentGeneralSettings()).thenReturn(getGeneralSettings());
+        MultipartReassemblyStore reassemblyStore = new MultipartReassemblyStore(cdrProcessor, properties, ingressQueueWriter,
+                new MultipartPartsWriter(jedisCluster, properties));
+        reassemblyStore.init();
 
         serverMessageReceiverListener = new ServerMessageReceiverListenerImpl(
                 requestCounterSpy,
                 spSession,
                 generalSettingsCacheConfig,
-                properties, cdrProcessor,
-                new MultiPartsHandler(cdrProcessor, spSession, properties)
+                properties,
+                new MultiPartsHandler(cdrProcessor, ingressQueueWriter, reassemblyStore),
+                ingressQueueWriter,
+                new SubmitWindow(0, SubmitWindow.POLICY_THROTTLE, 0)
         );
 
         SubmitSmResult submitSmResult = serverMessageReceiverListener.onAcceptSubmitSm(submitSmSpy, smppServerSession);
@@ -204,7 +228,7 @@ class ServerMessageReceiverListenerImplTest {
 
         // capture the first part to get parent id
         ArgumentCaptor<String> submitSmEventCaptured= ArgumentCaptor.forClass(String.class);
-        verify(jedisCluster).hset(eq("smpp_message_parts"), eq("testSP1"), submitSmEventCaptured.capture());
+        verify(jedisCluster).hset(eq("smpp_message_parts"), eq("testSP_1234567890_1234567890_1"), submitSmEventCaptured.capture());
         MessageEvent submitSmEventDecoded = Converter.stringToObject(submitSmEventCaptured.getValue(), MessageEvent.class);
         List<MessagePart> messagePart = submitSmEventDecoded.getMessageParts();
         List<UtilsRecords.OptionalParameter> decodeOptionalParameterDecoded = submitSmEventDecoded.getOptionalParameters();
@@ -230,9 +254,67 @@ class ServerMessageReceiverListenerImplTest {
 
         verify(requestCounterSpy).incrementAndGet();
         verify(jedisCluster, never()).lpush(eq("preMessage"), anyString());
+        verify(ingressQueueWriter, never()).enqueue(any(MessageEvent.class), anyString());
         verify(cdrProcessor).putCdrDetailOnRedis(any(UtilsRecords.CdrDetail.class));
     }
 
+    @Test
+    @DisplayName("onAcceptSubmitSm when is a part concatenated with a UDH then the text of the PDU is decoded only for the parent")
+    void onAcceptSubmitSmWhenUdhPartThenDecodeTextOnlyForParent() throws ProcessRequestException {
+        SubmitSm submitSm = new SubmitSm();
+        submitSm.setDataCoding((byte) 0);
+        submitSm.setShortMessage(new byte[]{0x05, 0x00, 0x03, 0x07, 0x02, 0x02, 0x48, 0x69});
+        submitSm.setDestAddress("1234567890");
+        submitSm.setSourceAddr("1234567890");
+        submitSm.setEsmClass(GSMSpecificFeature.UDHI.value());
+
+        when(spSession.hasAvailableCredit()).thenReturn(true);
+        when(spSession.tryAcquireTps()).thenReturn(true);
+        when(spSession.getCurrentServiceProvider()).thenReturn(getCurrentServiceProvider());
+        when(generalSettingsCacheConfig.getCurrentGeneralSettings()).thenReturn(getGeneralSettings());
+
+        assertNotNull(serverMessageReceiverListener.onAcceptSubmitSm(submitSm, smppServerSession));
+
+        ArgumentCaptor<MessageEvent> eventCaptor = ArgumentCaptor.forClass(MessageEvent.class);
+        ArgumentCaptor<ConcatenatedSegment> segmentCaptor = ArgumentCaptor.forClass(ConcatenatedSegment.class);
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<Consumer<MessageEvent>> onParentCaptor = ArgumentCaptor.forClass(Consumer.class);
+        verify(multiPartsHandler).processPart(eventCaptor.capture(), segmentCaptor.capture(), onParentCaptor.capture());
+        assertEquals(new ConcatenatedSegment(7, 2, 2, "Hi"), segmentCaptor.getValue());
+        assertNull(eventCaptor.getValue().getShortMessage());
+
+        onParentCaptor.getValue().accept(eventCaptor.getValue());
+        assertTrue(eventCaptor.getValue().getShortMessage().endsWith("Hi"));
+        verify(ingressQueueWriter, never()).enqueue(any(MessageEvent.class), anyString());
+    }
+
+    @Test
+    @DisplayName("onAcceptSubmitSm when the UDH has no concatenation IE and the sar_* TLVs are set then the part is reassembled with them")
+    void onAcceptSubmitSmWhenUdhWithoutConcatenationAndSarThenProcessPart() throws ProcessRequestException {
+        SubmitSm submitSm = new SubmitSm();
+        submitSm.setDataCoding((byte) 0);
+        // application port addressing IE only
+        submitSm.setShortMessage(new byte[]{0x04, 0x04, 0x02, 0x0B, (byte) 0x84, 0x48, 0x69});
+        submitSm.setDestAddress("1234567890");
+        submitSm.setSourceAddr("1234567890");
+        submitSm.setEsmClass(GSMSpecificFeature.UDHI.value());
+        submitSm.setOptionalParameters(getOptionalParameters().toArray(new OptionalParameter[0]));
+
+        when(spSession.hasAvailableCredit()).thenReturn(true);
+        when(spSession.tryAcquireTps()).thenReturn(true);
+        when(spSession.getCurrentServiceProvider()).thenReturn(getCurrentServiceProvider());
+        when(generalSettingsCacheConfig.getCurrentGeneralSettings()).thenReturn(getGeneralSettings());
+
+        assertNotNull(serverMessageReceiverListener.onAcceptSubmitSm(submitSm, smppServerSession));
+
+        ArgumentCaptor<ConcatenatedSegment> segmentCaptor = ArgumentCaptor.forClass(ConcatenatedSegment.class);
+        verify(multiPartsHandler).processPart(any(MessageEvent.class), segmentCaptor.capture());
+        assertEquals(1, segmentCaptor.getValue().reference());
+        assertEquals(2, segmentCaptor.getValue().total());
+        assertEquals(1, segmentCaptor.getValue().sequence());
+        verify(ingressQueueWriter, never()).enqueue(any(MessageEvent.class), anyString());
+    }
+
     @Test
     @DisplayName("onAcceptSubmitSm when data coding is invalid")
     void onAcceptSubmitSmWhenDataCodingIsInvalidThenProcessRequestExceptionAndDoNothing() {
@@ -274,8 +356,10 @@ class ServerMessageReceiverListenerImplTest {
                 requestCounter,
                 spSessionMock,
                 generalSettingsCacheConfig,
-                properties, cdrProcessor,
-                multiPartsHandler
+                properties,
+                multiPartsHandler,
+                ingressQueueWriter,
+                new SubmitWindow(0, SubmitWindow.POLICY_THROTTLE, 0)
         );
         assertThrows(ProcessRequestException.class, () -> serverMessageReceiverListener.onAcceptSubmitSm(submitSm, smppServerSession));
 
@@ -286,6 +370,151 @@ class ServerMessageReceiverListenerImplTest {
         verifyNoInteractions(cdrProcessor);
     }
 
+    @Test
+    @DisplayName("onAcceptSubmitSm when the ingress buffer is full then reply with throttling error")
+    void onAcceptSubmitSmWhenIngressBufferIsFullThenThrottle() {
+        SubmitSm submitSm = getSingleSubmitSm();
+
+        when(spSession.hasAvailableCredit()).thenReturn(true);
+        when(spSession.tryAcquireTps()).thenReturn(true);
+        when(spSession.getCurrentServiceProvider()).thenReturn(getCurrentServiceProvider());
+        when(generalSettingsCacheConfig.getCurrentGeneralSettings()).thenReturn(getGeneralSettings());
+        when(ingressQueueWriter.enqueue(any(MessageEvent.class), eq("Received"))).thenThrow(new RejectedExecutionException("Ingress buffer is full"));
+
+        ProcessRequestException exception = assertThrows(ProcessRequestException.class,
+                () -> serverMessageReceiverListener.onAcceptSubmitSm(submitSm, smppServerSession));
+        assertEquals(SMPPConstant.STAT_ESME_RTHROTTLED, exception.getErrorCode());
+        verify(requestCounter, never()).incrementAndGet();
+    }
+
+    @Test
+    @DisplayName("onAcceptSubmitSm when the ingress flush fails and ack mode is after flush then reply with system error")
+    void onAcceptSubmitSmWhenFlushFailsThenSystemError() {
+        SubmitSm submitSm = getSingleSubmitSm();
+
+        when(spSession.hasAvailableCredit()).thenReturn(true);
+        when(spSession.tryAcquireTps()).thenReturn(true);
+        when(spSession.getCurrentServiceProvider()).thenReturn(getCurrentServiceProvider());
+        when(generalSettingsCacheConfig.getCurrentGeneralSettings()).thenReturn(getGeneralSettings());
+        when(properties.getSmppServerTransactionTimer()).thenReturn(5000);
+        when(ingressQueueWriter.enqueue(any(MessageEvent.class), eq("Received")))
+                .thenReturn(CompletableFuture.failedFuture(new IllegalStateException("Redis is down")));
+        when(ingressQueueWriter.isAckAfterFlush()).thenReturn(true);
+
+        ProcessRequestException exception = assertThrows(ProcessRequestException.class,
+                () -> serverMessageReceiverListener.onAcceptSubmitSm(submitSm, smppServerSession));
+        assertEquals(SMPPConstant.STAT_ESME_RSYSERR, exception.getErrorCode());
+        verify(requestCounter, never()).incrementAndGet();
+    }
+
+    @Test
+    @DisplayName("onAcceptSubmitSm when ack mode is immediate then do not wait for the flush")
+    void onAcceptSubmitSmWhenAckModeIsImmediateThenDoNotWait() throws ProcessRequestException {
+        SubmitSm submitSm = getSingleSubmitSm();
+
+        when(spSession.hasAvailableCredit()).thenReturn(true);
+        when(spSession.tryAcquireTps()).thenReturn(true);
+        when(spSession.getCurrentServiceProvider()).thenReturn(getCurrentServiceProvider());
+        when(generalSettingsCacheConfig.getCurrentGeneralSettings()).thenReturn(getGeneralSettings());
+        when(ingressQueueWriter.enqueue(any(MessageEvent.class), eq("Received"))).thenReturn(new CompletableFuture<>());
+        when(ingressQueueWriter.isAckAfterFlush()).thenReturn(false);
+
+        assertNotNull(serverMessageReceiverListener.onAcceptSubmitSm(submitSm, smppServerSession).getMessageId());
+        verify(requestCounter).incrementAndGet();
+    }
+
+    @Test
+    @DisplayName("onAcceptSubmitSm when the submit window is full then reply with throttling error until the event is flushed")
+    void onAcceptSubmitSmWhenSubmitWindowIsFullThenThrottle() throws ProcessRequestException {
+        CompletableFuture<Void> queued = new CompletableFuture<>();
+        when(spSession.hasAvailableCredit()).thenReturn(true);
+        when(spSession.tryAcquireTps()).thenReturn(true);
+        when(spSession.getCurrentServiceProvider()).thenReturn(getCurrentServiceProvider());
+        when(generalSettingsCacheConfig.getCurrentGeneralSettings()).thenReturn(getGeneralSettings());
+        when(ingressQueueWriter.enqueue(any(MessageEvent.class), eq("Received"))).thenReturn(queued);
+        when(ingressQueueWriter.isAckAfterFlush()).thenReturn(false);
+
+        SubmitWindow submitWindow = new SubmitWindow(1, SubmitWindow.POLICY_THROTTLE, 0);
+        serverMessageReceiverListener = new ServerMessageReceiverListenerImpl(
+                requestCounter,
+                spSession,
+                generalSettingsCacheConfig,
+                properties,
+                multiPartsHandler,
+                ingressQueueWriter,
+                submitWindow
+        );
+
+        SubmitSm firstSubmitSm = getSingleSubmitSm();
+        assertNotNull(serverMessageReceiverListener.onAcceptSubmitSm(firstSubmitSm, smppServerSession).getMessageId());
+        assertEquals(1, submitWindow.getOutstanding());
+
+        SubmitSm secondSubmitSm = getSingleSubmitSm();
+        ProcessRequestException exception = assertThrows(ProcessRequestException.class,
+                () -> serverMessageReceiverListener.onAcceptSubmitSm(secondSubmitSm, smppServerSession));
+        assertEquals(SMPPConstant.STAT_ESME_RTHROTTLED, exception.getErrorCode());
+
+        // the submit_sm rejected by the window did not take a TPS token
+        verify(spSession, times(1)).tryAcquireTps();
+
+        queued.complete(null);
+        assertEquals(0, submitWindow.getOutstanding());
+        assertNotNull(serverMessageReceiverListener.onAcceptSubmitSm(secondSubmitSm, smppServerSession).getMessageId());
+        verify(requestCounter, times(2)).incrementAndGet();
+        verify(spSession, times(2)).tryAcquireTps();
+    }
+
+    @Test
+    @DisplayName("onAcceptSubmitSm when the service provider TPS is exceeded then reply with throttling error")
+    void onAcceptSubmitSmWhenTpsExceededThenThrottle() {
+        SubmitSm submitSm = getSingleSubmitSm();
+        when(spSession.hasAvailableCredit()).thenReturn(true);
+        when(spSession.tryAcquireTps()).thenReturn(false);
+        when(smppServerSession.getSessionId()).thenReturn("session-1234");
+
+        SubmitWindow submitWindow = new SubmitWindow(1, SubmitWindow.POLICY_THROTTLE, 0);
+        serverMessageReceiverListener = new ServerMessageReceiverListenerImpl(
+                requestCounter,
+                spSession,
+                generalSettingsCacheConfig,
+                properties,
+                multiPartsHandler,
+                ingressQueueWriter,
+                submitWindow
+        );
+
+        ProcessRequestException exception = assertThrows(ProcessRequestException.class,
+                () -> serverMessageReceiverListener.onAcceptSubmitSm(submitSm, smppServerSession));
+        assertEquals(SMPPConstant.STAT_ESME_RTHROTTLED, exception.getErrorCode());
+        // the window permit is given back
+        assertEquals(0, submitWindow.getOutstanding());
+        verify(requestCounter, never()).incrementAndGet();
+        verifyNoInteractions(ingressQueueWriter);
+    }
+
+    private static SubmitSm getSingleSubmitSm() {
+        SubmitSm submitSm = new SubmitSm();
+        submitSm.setDataCoding((byte) 0);
+        submitSm.setShortMessage("Test Message".getBytes());
+        submitSm.setDestAddress("1234567890");
+        submitSm.setSourceAddr("1234567890");
+        submitSm.setEsmClass(GSMSpecificFeature.DEFAULT.value());
+        return submitSm;
+    }
+
+    private static ServiceProvider getCurrentServiceProvider() {
+        return ServiceProvider.builder()
+                .networkId(1)
+                .systemId("testSP")
+                .protocol("SMPP")
+                .binds(new ArrayList<>())
+                .enabled(1)
+                .status(Constants.BOUND)
+                .currentBindsCount(1)
+                .enquireLinkPeriod(5000)
+                .build();
+    }
+
     private static List<OptionalParameter> getOptionalParameters() {
         List<OptionalParameter> optionalParameters = new ArrayList<>();
         OptionalParameter.Sar_msg_ref_num sarMsgRefNum = new OptionalParameter.Sar_msg_ref_num((short) 1); // Reference
@@ -1,12 +1,17 @@
 package com.paicbd.module.server;
 
 import com.paicbd.module.components.GeneralSettingsCacheConfig;
+import com.paicbd.module.components.IngressQueueWriter;
+import com.paicbd.module.components.MultipartReassemblyStore;
+import com.paicbd.module.components.PendingDeliverSmDrainer;
 import com.paicbd.module.components.ServerHandler;
+import com.paicbd.module.components.ServiceProviderRegistry;
+import com.paicbd.module.components.ServiceProviderStateWriter;
+import com.paicbd.module.components.SessionStatusNotifier;
 import com.paicbd.module.utils.AppProperties;
 import com.paicbd.module.utils.SpSession;
 import com.paicbd.smsc.cdr.CdrProcessor;
 import com.paicbd.smsc.dto.ServiceProvider;
-import com.paicbd.smsc.ws.SocketSession;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -17,19 +22,12 @@ import redis.clients.jedis.JedisCluster;
 
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
-import static org.mockito.ArgumentMatchers.anyCollection;
-import static org.mockito.ArgumentMatchers.anySet;
-import static org.mockito.Mockito.never;
-import static org.mockito.Mockito.spy;
-import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
@@ -41,7 +39,7 @@ class SmppServerTest {
     CdrProcessor cdrProcessor;
 
     @Mock
-    SocketSession socketSession;
+    SessionStatusNotifier sessionStatusNotifier;
 
     @Mock
     ServerHandler serverHandler;
@@ -55,6 +53,18 @@ class SmppServerTest {
     @Mock
     GeneralSettingsCacheConfig generalSettingsCacheConfig;
 
+    @Mock
+    IngressQueueWriter ingressQueueWriter;
+
+    @Mock
+    MultipartReassemblyStore multipartReassemblyStore;
+
+    @Mock
+    PendingDeliverSmDrainer pendingDeliverSmDrainer;
+
+    @Mock
+    ServiceProviderStateWriter serviceProviderStateWriter;
+
     @InjectMocks
     private SmppServer smppServerMock;
 
@@ -83,26 +93,20 @@ class SmppServerTest {
         serviceProviderMapMock.put("1", firstServiceProviderMock.toString());
         serviceProviderMapMock.put("2", secondServiceProviderMock.toString());
 
-        Set<ServiceProvider> realProviders = new HashSet<>();
-        realProviders.add(firstServiceProviderMock);
-        Set<ServiceProvider> providersSpy = spy(realProviders);
+        ServiceProviderRegistry providerRegistry = new ServiceProviderRegistry();
+        providerRegistry.put(firstServiceProviderMock);
 
         when(appProperties.getSmppServerProcessorDegree()).thenReturn(15);
         when(appProperties.getSmppServerQueueCapacity()).thenReturn(1000);
         when(appProperties.getServiceProvidersHashName()).thenReturn("service_providers");
         when(jedisCluster.hgetAll("service_providers")).thenReturn(serviceProviderMapMock);
 
-        smppServerMock = new SmppServer(jedisCluster, cdrProcessor, socketSession, serverHandler, appProperties, providersSpy, spSessionMap, generalSettingsCacheConfig);
+        smppServerMock = new SmppServer(jedisCluster, cdrProcessor, sessionStatusNotifier, serverHandler, appProperties, providerRegistry, spSessionMap, generalSettingsCacheConfig, ingressQueueWriter, multipartReassemblyStore, pendingDeliverSmDrainer, serviceProviderStateWriter);
         smppServerMock.init();
-        verify(providersSpy).addAll(anyCollection());
-
-        assertEquals(2, providersSpy.size());
-        boolean containsFirsProvider = providersSpy.stream()
-                .anyMatch(provider -> provider.getNetworkId() == firstServiceProviderMock.getNetworkId());
-        assertTrue(containsFirsProvider);
-        boolean containsSecondProvider = providersSpy.stream()
-                .anyMatch(provider -> provider.getNetworkId() == secondServiceProviderMock.getNetworkId());
-        assertTrue(containsSecondProvider);
+
+        assertEquals(2, providerRegistry.size());
+        assertTrue(providerRegistry.findByNetworkId(firstServiceProviderMock.getNetworkId()).isPresent());
+        assertTrue(providerRegistry.findBySystemId(secondServiceProviderMock.getSystemId()).isPresent());
     }
 
     @Test
@@ -131,31 +135,22 @@ class SmppServerTest {
         serviceProviderMapMock.put("3", "{");
         serviceProviderMapMock.put("2", secondServiceProviderMock.toString());
 
-        Set<ServiceProvider> realProviders = new HashSet<>();
-        Set<ServiceProvider> providersSpy = spy(realProviders);
+        ServiceProviderRegistry providerRegistry = new ServiceProviderRegistry();
 
         when(appProperties.getServiceProvidersHashName()).thenReturn("service_providers");
         when(jedisCluster.hgetAll("service_providers")).thenReturn(serviceProviderMapMock);
 
-        smppServerMock = new SmppServer(jedisCluster, cdrProcessor, socketSession, serverHandler, appProperties, providersSpy, spSessionMap, generalSettingsCacheConfig);
+        smppServerMock = new SmppServer(jedisCluster, cdrProcessor, sessionStatusNotifier, serverHandler, appProperties, providerRegistry, spSessionMap, generalSettingsCacheConfig, ingressQueueWriter, multipartReassemblyStore, pendingDeliverSmDrainer, serviceProviderStateWriter);
         smppServerMock.loadServiceProviders();
 
-        verify(providersSpy).addAll(anyCollection());
-        assertEquals(2, providersSpy.size());
+        assertEquals(2, providerRegistry.size());
 
         // verify that service provider with networkId = 3 was not included
-        boolean containsWrongNetworkIdProvider = providersSpy.stream()
-                .anyMatch(provider -> provider.getNetworkId() == 3);
-        assertFalse(containsWrongNetworkIdProvider);
+        assertFalse(providerRegistry.findByNetworkId(3).isPresent());
 
         // other if exists
-        boolean containsFirstProvider = providersSpy.stream()
-                .anyMatch(provider -> provider.getNetworkId() == firstServiceProviderMock.getNetworkId());
-        assertTrue(containsFirstProvider);
-
-        boolean containsSecondProvider = providersSpy.stream()
-                .anyMatch(provider -> provider.getNetworkId() == secondServiceProviderMock.getNetworkId());
-        assertTrue(containsSecondProvider);
+        assertTrue(providerRegistry.findByNetworkId(firstServiceProviderMock.getNetworkId()).isPresent());
+        assertTrue(providerRegistry.findByNetworkId(secondServiceProviderMock.getNetworkId()).isPresent());
     }
 
     @Test
@@ -173,21 +168,16 @@ class SmppServerTest {
         Map<String, String> serviceProviderMapMock = new HashMap<>();
         serviceProviderMapMock.put("1", serviceProviderMock.toString());
 
-        Set<ServiceProvider> realProviders = new HashSet<>();
-        Set<ServiceProvider> providersSpy = spy(realProviders);
+        ServiceProviderRegistry providerRegistry = new ServiceProviderRegistry();
 
         when(appProperties.getServiceProvidersHashName()).thenReturn("service_providers");
         when(jedisCluster.hgetAll("service_providers")).thenReturn(serviceProviderMapMock);
 
-        smppServerMock = new SmppServer(jedisCluster, cdrProcessor, socketSession, serverHandler, appProperties, providersSpy, spSessionMap, generalSettingsCacheConfig);
+        smppServerMock = new SmppServer(jedisCluster, cdrProcessor, sessionStatusNotifier, serverHandler, appProperties, providerRegistry, spSessionMap, generalSettingsCacheConfig, ingressQueueWriter, multipartReassemblyStore, pendingDeliverSmDrainer, serviceProviderStateWriter);
         smppServerMock.loadServiceProviders();
 
-        verify(providersSpy, never()).addAll(anySet());
-        assertEquals(0, providersSpy.size());
-
         // verify that service provider with HTTP protocol was not included
-        boolean containsProvider = providersSpy.stream()
-                .anyMatch(provider -> provider.getNetworkId() == serviceProviderMock.getNetworkId());
-        assertFalse(containsProvider);
+        assertEquals(0, providerRegistry.size());
+        assertFalse(providerRegistry.findByNetworkId(serviceProviderMock.getNetworkId()).isPresent());
     }
 }
\ No newline at end of file
@@ -0,0 +1,52 @@
+package com.paicbd.module.server;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SubmitWindowTest {
+
+    @Test
+    @DisplayName("tryAcquire when size is zero then the window is unlimited")
+    void tryAcquireWhenSizeIsZeroThenUnlimited() {
+        SubmitWindow submitWindow = new SubmitWindow(0, SubmitWindow.POLICY_THROTTLE, 0);
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(submitWindow.tryAcquire());
+        }
+        assertEquals(0, submitWindow.getOutstanding());
+    }
+
+    @Test
+    @DisplayName("releaseWhenDone when the event fails to be stored then the permit is released too")
+    void releaseWhenDoneWhenFlushFailsThenRelease() {
+        SubmitWindow submitWindow = new SubmitWindow(1, SubmitWindow.POLICY_THROTTLE, 0);
+        CompletableFuture<Void> queued = new CompletableFuture<>();
+
+        assertTrue(submitWindow.tryAcquire());
+        submitWindow.releaseWhenDone(queued);
+        assertFalse(submitWindow.tryAcquire());
+
+        queued.completeExceptionally(new IllegalStateException("Redis is down"));
+        assertTrue(submitWindow.tryAcquire());
+        submitWindow.releaseWhenDone(null);
+        assertEquals(0, submitWindow.getOutstanding());
+    }
+
+    @Test
+    @DisplayName("tryAcquire when policy is back-pressure then wait for a permit")
+    void tryAcquireWhenBackPressureThenWaitForPermit() {
+        SubmitWindow submitWindow = new SubmitWindow(1, SubmitWindow.POLICY_BACKPRESSURE, 2000);
+        CompletableFuture<Void> queued = new CompletableFuture<>();
+        assertTrue(submitWindow.tryAcquire());
+        submitWindow.releaseWhenDone(queued);
+
+        Thread.startVirtualThread(() -> queued.complete(null));
+        assertTrue(submitWindow.tryAcquire());
+        assertEquals(1, submitWindow.getOutstanding());
+    }
+}
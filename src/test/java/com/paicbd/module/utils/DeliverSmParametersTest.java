@@ -0,0 +1,57 @@
+package com.paicbd.module.utils;
+
+import com.paicbd.smsc.dto.UtilsRecords;
+import com.paicbd.smsc.utils.SmppEncoding;
+import com.paicbd.smsc.utils.UtilsEnum;
+import org.jsmpp.bean.ESMClass;
+import org.jsmpp.bean.GSMSpecificFeature;
+import org.jsmpp.bean.MessageMode;
+import org.jsmpp.bean.MessageType;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class DeliverSmParametersTest {
+
+    @Test
+    @DisplayName("typeOfNumber, numberingPlanIndicator and dataCoding when called again then the same value is reused")
+    void resolveWhenCalledAgainThenReuseValue() {
+        assertEquals(UtilsEnum.getTypeOfNumber(1), DeliverSmParameters.typeOfNumber(1));
+        assertEquals(UtilsEnum.getNumberingPlanIndicator(1), DeliverSmParameters.numberingPlanIndicator(1));
+        assertEquals(SmppEncoding.getDataCoding(8).toByte(), DeliverSmParameters.dataCoding(8).toByte());
+        assertSame(DeliverSmParameters.dataCoding(8), DeliverSmParameters.dataCoding(8));
+    }
+
+    @Test
+    @DisplayName("esmClass when the udhi changes then each value has its own esm_class and no esm_class is a delivery receipt")
+    void esmClassWhenUdhiChangesThenEachValueCached() {
+        ESMClass withUdhi = DeliverSmParameters.esmClass(4, "1");
+        ESMClass withoutUdhi = DeliverSmParameters.esmClass(4, "0");
+
+        assertSame(withUdhi, DeliverSmParameters.esmClass(4, "1"));
+        assertNotSame(withUdhi, withoutUdhi);
+        assertEquals(new ESMClass(MessageMode.DEFAULT, MessageType.SMSC_DEL_RECEIPT, GSMSpecificFeature.UDHI).value(), withUdhi.value());
+        assertEquals(new ESMClass(MessageMode.DEFAULT, MessageType.SMSC_DEL_RECEIPT, GSMSpecificFeature.DEFAULT).value(), withoutUdhi.value());
+        assertSame(DeliverSmParameters.esmClass(null, "0"), DeliverSmParameters.esmClass(null, "1"));
+        assertEquals(new ESMClass(MessageMode.DEFAULT, MessageType.SMSC_DEL_RECEIPT, GSMSpecificFeature.DEFAULT).value(),
+                DeliverSmParameters.esmClass(null, "1").value());
+    }
+
+    @Test
+    @DisplayName("patchReceiptedMessageId when the TLV is present then its value is replaced in the same position")
+    void patchReceiptedMessageIdWhenPresentThenReplaceInPlace() {
+        UtilsRecords.OptionalParameter other = new UtilsRecords.OptionalParameter((short) 31, "1");
+        List<UtilsRecords.OptionalParameter> optionalParameters = new ArrayList<>(List.of(
+                new UtilsRecords.OptionalParameter((short) 30, "1"), other));
+
+        DeliverSmParameters.patchReceiptedMessageId(optionalParameters, "server-id");
+
+        assertEquals(List.of(new UtilsRecords.OptionalParameter((short) 30, "server-id"), other), optionalParameters);
+    }
+}
@@ -0,0 +1,52 @@
+package com.paicbd.module.utils;
+
+import com.paicbd.smsc.dto.MessageEvent;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class MessageEventCodecTest {
+
+    @Test
+    @DisplayName("peek when the payload is JSON then the id and destination network id are read")
+    void peekWhenJsonThenReadRoute() {
+        MessageEvent messageEvent = deliverSmEvent();
+        MessageEventCodec.Route expected = new MessageEventCodec.Route("1722446896082-7645587481074", 4);
+
+        assertEquals(expected, MessageEventCodec.peek(messageEvent.toString()));
+    }
+
+    @Test
+    @DisplayName("peek when the payload has nested values before the route then they are skipped")
+    void peekWhenNestedValuesThenSkipThem() {
+        String json = deliverSmEvent().toString();
+        String payload = "{\"extra\":{\"values\":[1,{\"destNetworkId\":9}]}," + json.substring(1);
+
+        assertEquals(4, MessageEventCodec.peek(payload).destNetworkId());
+    }
+
+    @Test
+    @DisplayName("peek when the payload is not valid or has no destination network id then null is returned")
+    void peekWhenInvalidThenReturnNull() {
+        assertNull(MessageEventCodec.peek(null));
+        assertNull(MessageEventCodec.peek(""));
+        assertNull(MessageEventCodec.peek("[1,2]"));
+        assertNull(MessageEventCodec.peek("{\"extra\":1}"));
+        assertNull(MessageEventCodec.peek("{invalid"));
+    }
+
+    private static MessageEvent deliverSmEvent() {
+        return MessageEvent.builder()
+                .id("1722446896082-7645587481074")
+                .messageId("1722446896082-7645587481074")
+                .systemId("smppSP")
+                .sourceAddr("50510201020")
+                .destinationAddr("50582368999")
+                .shortMessage("id:1722446896082-7645587481074 sub:001 dlvrd:001 submit date:2408011728 done date:2408011728 stat:DELIVRD err:000 text:Hello")
+                .originNetworkId(3)
+                .destNetworkId(4)
+                .build();
+    }
+}
@@ -0,0 +1,77 @@
+package com.paicbd.module.utils;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.paicbd.smsc.dto.MessageEvent;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PayloadFormatTest {
+
+    @Test
+    @DisplayName("encode when the format is SMILE then the payload is smaller than JSON and decodes to the same event")
+    void encodeWhenSmileThenDecodeSameEvent() throws IOException {
+        MessageEvent messageEvent = deliverSmEvent();
+        ObjectMapper smileMapper = new ObjectMapper(new SmileFactory()).configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+        byte[] smile = PayloadFormat.SMILE.encode(messageEvent);
+        byte[] json = PayloadFormat.JSON.encode(messageEvent);
+
+        assertEquals(':', smile[0]);
+        assertEquals('{', json[0]);
+        assertTrue(smile.length < json.length);
+        assertEquals(messageEvent.toString(), smileMapper.readValue(smile, MessageEvent.class).toString());
+        assertEquals(messageEvent.toString(), PayloadFormat.decode(new String(json, StandardCharsets.UTF_8)).toString());
+        assertEquals(messageEvent.toString(), PayloadFormat.decode(messageEvent.toString()).toString());
+    }
+
+    @Test
+    @DisplayName("decode when the Smile payload was read as a UTF-8 string then it is not valid")
+    void decodeWhenSmileReadAsStringThenReturnNull() {
+        String smileAsText = new String(PayloadFormat.SMILE.encode(deliverSmEvent()), StandardCharsets.UTF_8);
+
+        assertNull(PayloadFormat.decode(smileAsText));
+    }
+
+    @Test
+    @DisplayName("decode when the payload is not valid then null is returned")
+    void decodeWhenInvalidThenReturnNull() {
+        assertNull(PayloadFormat.decode(null));
+        assertNull(PayloadFormat.decode(""));
+        assertNull(PayloadFormat.decode(":)\n\u0001invalid"));
+    }
+
+    @Test
+    @DisplayName("fromValue when the format is unknown then JSON is used")
+    void fromValueWhenUnknownThenJson() {
+        assertEquals(PayloadFormat.SMILE, PayloadFormat.fromValue("smile"));
+        assertEquals(PayloadFormat.JSON, PayloadFormat.fromValue("XML"));
+        assertEquals(PayloadFormat.JSON, PayloadFormat.fromValue(null));
+    }
+
+    private static MessageEvent deliverSmEvent() {
+        MessageEvent messageEvent = MessageEvent.builder()
+                .id("1722446896082-7645587481074")
+                .messageId("1722446896082-7645587481074")
+                .systemId("smppSP")
+                .sourceAddr("50510201020")
+                .destinationAddr("50582368999")
+                .shortMessage("id:1722446896082-7645587481074 sub:001 dlvrd:001 submit date:2408011728 done date:2408011728 stat:DELIVRD err:000 text:Hello")
+                .originNetworkId(3)
+                .destNetworkId(1)
+                .registeredDelivery(1)
+                .dataCoding(0)
+                .build();
+        assertNotNull(messageEvent.toString());
+        return messageEvent;
+    }
+}
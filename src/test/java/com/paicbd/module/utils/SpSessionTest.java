@@ -16,12 +16,21 @@ import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
 import static org.junit.jupiter.api.Assertions.assertNull;
-import static org.mockito.Mockito.spy;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
@@ -82,35 +91,8 @@ class SpSessionTest {
     }
 
     @Test
-    @DisplayName("updateRedis when executed and data is not empty then the update is executed")
-    void updateRedisWhenDataIsNotEmptyThenExecuteSet() {
-        currentServiceProvider = ServiceProvider.builder()
-                .networkId(10)
-                .systemId("smpp_test")
-                .password("password")
-                .systemType("smpp")
-                .interfaceVersion("IF_50")
-                .maxBinds(10)
-                .currentBindsCount(0)
-                .addressTon(1)
-                .addressNpi(1)
-                .protocol("SMPP")
-                .hasAvailableCredit(true)
-                .enquireLinkPeriod(5000)
-                .pduTimeout(5000)
-                .enabled(1)
-                .build();
-
-        when(appProperties.getServiceProvidersHashName()).thenReturn("service_providers");
-        spSession = new SpSession(jedisCluster, currentServiceProvider, appProperties);
-        spSession.updateRedis();
-        verify(jedisCluster).hset(appProperties.getServiceProvidersHashName(),
-                String.valueOf(currentServiceProvider.getNetworkId()), currentServiceProvider.toString());
-    }
-
-    @Test
-    @DisplayName("updateCurrentServiceProvider when the method is called then the service provider is updated alongside the redis new data")
-    void updateCurrentServiceProviderWhenIsEnabledThenUpdateRedis() {
+    @DisplayName("updateCurrentServiceProvider when the method is called then the service provider is updated without writing to redis")
+    void updateCurrentServiceProviderWhenIsEnabledThenUpdateWithoutRedis() {
         currentServiceProvider = ServiceProvider.builder()
                 .networkId(10)
                 .systemId("smpp_test")
@@ -149,10 +131,8 @@ class SpSessionTest {
                 .build();
 
         currentSmppSessions.add(mockSession);
-        SpSession spSessionSpy = spy(spSession);
-        spSessionSpy.updateCurrentServiceProvider(serviceProviderUpdates);
         assertFalse(spSession.updateCurrentServiceProvider(serviceProviderUpdates));
-        verify(spSessionSpy).updateRedis();
+        verifyNoInteractions(jedisCluster);
         assertEquals(serviceProviderUpdates.toString(), spSession.getCurrentServiceProvider().toString());
     }
 
@@ -202,16 +182,15 @@ class SpSessionTest {
                 .build();
 
         currentSmppSessions.add(mockSession);
-        SpSession spSessionSpy = spy(spSession);
-        spSessionSpy.updateCurrentServiceProvider(serviceProviderUpdates);
-        verify(spSessionSpy).updateRedis();
+        assertTrue(spSession.updateCurrentServiceProvider(serviceProviderUpdates));
         verify(mockSession).unbindAndClose();
+        verifyNoInteractions(jedisCluster);
         assertEquals(serviceProviderUpdates.toString(), spSession.getCurrentServiceProvider().toString());
     }
 
     @Test
-    @DisplayName("getNextRoundRobinSession when executed and no session then return null")
-    void getNextRoundRobinSessionWhenNoSessionThenReturnNull() {
+    @DisplayName("tryReserveSession when executed and no session then return null")
+    void tryReserveSessionWhenNoSessionThenReturnNull() {
         currentServiceProvider = ServiceProvider.builder()
                 .networkId(10)
                 .systemId("smpp_test")
@@ -231,12 +210,12 @@ class SpSessionTest {
                 .status(Constants.STOPPED)
                 .build();
         spSession = new SpSession(jedisCluster, currentServiceProvider , appProperties);
-        assertNull(spSession.getNextRoundRobinSession());
+        assertNull(spSession.tryReserveSession(1));
     }
 
     @Test
-    @DisplayName("getNextRoundRobinSession when executed and service provider has session the return next object")
-    void getNextRoundRobinSessionWhenNoSessionThenGetNext() {
+    @DisplayName("tryReserveSession when executed and service provider has session then the session is reserved")
+    void tryReserveSessionWhenSessionThenReserve() {
         currentServiceProvider = ServiceProvider.builder()
                 .networkId(10)
                 .systemId("smpp_test")
@@ -257,10 +236,194 @@ class SpSessionTest {
                 .build();
         spSession = new SpSession(jedisCluster, currentServiceProvider, appProperties);
         Session sessionTest = new SMPPSession();
+        spSession.addSmppSession(sessionTest);
         spSession.getCurrentSmppSessions().add(sessionTest);
-        spSession.getCurrentSmppSessions().add(sessionTest);
-        assertEquals(sessionTest, spSession.getNextRoundRobinSession());
+        assertEquals(sessionTest, spSession.tryReserveSession(10).session());
         spSession.getCurrentSmppSessions().remove(1);
-        assertEquals(sessionTest, spSession.getNextRoundRobinSession());
+        assertEquals(sessionTest, spSession.tryReserveSession(10).session());
+    }
+
+    @Test
+    @DisplayName("updateCurrentServiceProvider when the tps changes then the limiter is reloaded")
+    void updateCurrentServiceProviderWhenTpsChangesThenReloadLimiter() {
+        currentServiceProvider = ServiceProvider.builder()
+                .networkId(10)
+                .systemId("smpp_test")
+                .tps(1)
+                .maxBinds(10)
+                .binds(new ArrayList<>())
+                .protocol("SMPP")
+                .hasAvailableCredit(true)
+                .enabled(1)
+                .build();
+        spSession = new SpSession(jedisCluster, currentServiceProvider, appProperties);
+        assertTrue(spSession.tryAcquireTps());
+        assertFalse(spSession.tryAcquireTps());
+
+        ServiceProvider serviceProviderUpdates = ServiceProvider.builder()
+                .networkId(10)
+                .systemId("smpp_test")
+                .tps(0)
+                .maxBinds(10)
+                .binds(new ArrayList<>())
+                .protocol("SMPP")
+                .hasAvailableCredit(true)
+                .enabled(1)
+                .build();
+        spSession.updateCurrentServiceProvider(serviceProviderUpdates);
+
+        assertTrue(spSession.tryAcquireTps());
+        assertEquals(2, spSession.getTpsLimiter().getAdmitted());
+        assertEquals(1, spSession.getTpsLimiter().getRejected());
+    }
+
+    @Test
+    @DisplayName("tryReserveSession when policy is least outstanding then the bind with fewer pending requests is selected")
+    void tryReserveSessionWhenLeastOutstandingThenSelectLeastLoaded() {
+        when(appProperties.getDeliverSmSessionPolicy()).thenReturn("LEAST_OUTSTANDING");
+        spSession = new SpSession(jedisCluster, getServiceProvider(), appProperties);
+        Session firstSession = new SMPPSession();
+        Session secondSession = new SMPPSession();
+        spSession.addSmppSession(firstSession);
+        spSession.addSmppSession(secondSession);
+
+        SpSession.Reservation busy = spSession.tryReserveSession(10);
+        assertNotNull(busy);
+        Session idle = busy.session() == firstSession ? secondSession : firstSession;
+        for (int i = 0; i < 10; i++) {
+            SpSession.Reservation reservation = spSession.tryReserveSession(10);
+            assertSame(idle, reservation.session());
+            spSession.onRequestCompleted(reservation.session(), reservation.startNanos());
+        }
+
+        spSession.removeSmppSession(idle);
+        assertSame(busy.session(), spSession.tryReserveSession(10).session());
+    }
+
+    @Test
+    @DisplayName("tryReserveSession when policy is lowest latency then the fastest bind is selected")
+    void tryReserveSessionWhenLowestLatencyThenSelectFastest() {
+        when(appProperties.getDeliverSmSessionPolicy()).thenReturn("LOWEST_LATENCY");
+        spSession = new SpSession(jedisCluster, getServiceProvider(), appProperties);
+        Session firstSession = new SMPPSession();
+        Session secondSession = new SMPPSession();
+        spSession.addSmppSession(firstSession);
+        spSession.addSmppSession(secondSession);
+
+        // the first bind reserved answers slowly, the other one is reserved next because it has no latency yet
+        SpSession.Reservation slow = spSession.tryReserveSession(10);
+        spSession.onRequestCompleted(slow.session(), slow.startNanos() - 50_000_000L);
+        SpSession.Reservation fast = spSession.tryReserveSession(10);
+        assertNotSame(slow.session(), fast.session());
+        spSession.onRequestCompleted(fast.session(), fast.startNanos());
+
+        for (int i = 0; i < 10; i++) {
+            SpSession.Reservation reservation = spSession.tryReserveSession(10);
+            assertSame(fast.session(), reservation.session());
+            spSession.onRequestCompleted(reservation.session(), reservation.startNanos());
+        }
+        assertEquals(0, spSession.getBindStats(slow.session()).getOutstanding());
+        assertTrue(spSession.getBindStats(slow.session()).getLatencyEwmaNanos() > spSession.getBindStats(fast.session()).getLatencyEwmaNanos());
+    }
+
+    @Test
+    @DisplayName("tryReserveSession when the window of a bind is full then another bind is reserved until all are full")
+    void tryReserveSessionWhenWindowFullThenSelectOtherBind() {
+        spSession = new SpSession(jedisCluster, getServiceProvider(), appProperties);
+        assertNull(spSession.tryReserveSession(2));
+        Session firstSession = new SMPPSession();
+        Session secondSession = new SMPPSession();
+        spSession.addSmppSession(firstSession);
+        spSession.addSmppSession(secondSession);
+
+        for (int i = 0; i < 4; i++) {
+            assertNotNull(spSession.tryReserveSession(2));
+        }
+        assertNull(spSession.tryReserveSession(2));
+        assertEquals(2, spSession.getBindStats(firstSession).getOutstanding());
+        assertEquals(2, spSession.getBindStats(secondSession).getOutstanding());
+
+        SpSession.Reservation reservation = spSession.tryReserveSession(3);
+        assertNotNull(reservation);
+        spSession.onRequestCompleted(reservation.session(), reservation.startNanos());
+        assertEquals(2, spSession.getBindStats(reservation.session()).getOutstanding());
+    }
+
+    @Test
+    @DisplayName("tryReserveSession when a bind was removed but is still in the snapshot then it is not selected and its stats are not recreated")
+    void tryReserveSessionWhenBindRemovedThenNotSelected() {
+        when(appProperties.getDeliverSmSessionPolicy()).thenReturn("LEAST_OUTSTANDING");
+        spSession = new SpSession(jedisCluster, getServiceProvider(), appProperties);
+        Session removedSession = new SMPPSession();
+        Session openSession = new SMPPSession();
+        spSession.addSmppSession(removedSession);
+        spSession.addSmppSession(openSession);
+        spSession.removeSmppSession(removedSession);
+        spSession.getCurrentSmppSessions().add(removedSession);
+
+        for (int i = 0; i < 2; i++) {
+            SpSession.Reservation reservation = spSession.tryReserveSession(2);
+            assertNotNull(reservation);
+            assertSame(openSession, reservation.session());
+        }
+        assertNull(spSession.tryReserveSession(2));
+        spSession.onRequestCompleted(removedSession, System.nanoTime());
+        assertNull(spSession.getBindStats(removedSession));
+    }
+
+    @Test
+    @DisplayName("tryReserveSession when called concurrently while binds change then the sessions are evenly distributed and no error is thrown")
+    void tryReserveSessionWhenConcurrentThenDistributeEvenly() throws InterruptedException {
+        spSession = new SpSession(jedisCluster, getServiceProvider(), appProperties);
+        Session firstSession = new SMPPSession();
+        Session secondSession = new SMPPSession();
+        spSession.addSmppSession(firstSession);
+        spSession.addSmppSession(secondSession);
+
+        Map<Session, AtomicInteger> selections = new ConcurrentHashMap<>();
+        AtomicInteger emptySelections = new AtomicInteger();
+        Thread churn = Thread.ofVirtual().start(() -> {
+            for (int i = 0; i < 1000; i++) {
+                Session transientSession = new SMPPSession();
+                spSession.addSmppSession(transientSession);
+                spSession.removeSmppSession(transientSession);
+            }
+        });
+        try (ExecutorService executor = Executors.newFixedThreadPool(4)) {
+            for (int i = 0; i < 4; i++) {
+                executor.execute(() -> {
+                    for (int j = 0; j < 10_000; j++) {
+                        SpSession.Reservation reservation = spSession.tryReserveSession(Integer.MAX_VALUE);
+                        if (reservation == null) {
+                            emptySelections.incrementAndGet();
+                            continue;
+                        }
+                        spSession.onRequestCompleted(reservation.session(), reservation.startNanos());
+                        selections.computeIfAbsent(reservation.session(), key -> new AtomicInteger()).incrementAndGet();
+                    }
+                });
+            }
+        }
+        churn.join();
+
+        assertEquals(0, emptySelections.get());
+        assertNotNull(selections.get(firstSession));
+        assertNotNull(selections.get(secondSession));
+        int first = selections.get(firstSession).get();
+        int second = selections.get(secondSession).get();
+        assertTrue(Math.abs(first - second) < 10_000, "first " + first + " second " + second);
+        assertEquals(2, spSession.getCurrentSmppSessions().size());
+    }
+
+    private static ServiceProvider getServiceProvider() {
+        return ServiceProvider.builder()
+                .networkId(10)
+                .systemId("smpp_test")
+                .maxBinds(10)
+                .binds(new ArrayList<>())
+                .protocol("SMPP")
+                .hasAvailableCredit(true)
+                .enabled(1)
+                .build();
     }
 }
@@ -9,6 +9,7 @@ import com.paicbd.smsc.utils.SmppUtils;
 import lombok.extern.slf4j.Slf4j;
 import org.jsmpp.InvalidResponseException;
 import org.jsmpp.PDUException;
+import org.jsmpp.SMPPConstant;
 import org.jsmpp.bean.DataCoding;
 import org.jsmpp.bean.ESMClass;
 import org.jsmpp.bean.GSMSpecificFeature;
@@ -110,7 +111,8 @@ class StaticMethodsTest {
         ArgumentCaptor<OptionalParameter[]> optionalParametersCaptor = ArgumentCaptor.forClass(OptionalParameter[].class);
 
         SMPPServerSession session = mock(SMPPServerSession.class);
-        StaticMethods.sendDeliverSm(session, messageEvent, generalSettings, cdrProcessor);
+        DeliverSmResult result = StaticMethods.sendDeliverSm(session, messageEvent, generalSettings, cdrProcessor);
+        assertEquals(delReceipt != null ? DeliverSmResult.SENT : DeliverSmResult.FAILED, result);
         messageEvent.setDeliverSmServerId("UpdatedValue");
 
         // When delReceipt is null then the exception part is evaluated so deliverShortMessage() won't be executed
@@ -169,4 +171,22 @@ class StaticMethodsTest {
     void isValidDataCodingWhenInValidThenReturnFalse(int dataCoding) {
         assertFalse(StaticMethods.isValidDataCoding(dataCoding));
     }
+
+    @ParameterizedTest
+    @MethodSource("resultOfParameters")
+    @DisplayName("resultOf when the service provider throttles or does not answer then the deliver_sm can be retried")
+    void resultOfThenClassifyException(Exception exception, DeliverSmResult expected) {
+        assertEquals(expected, StaticMethods.resultOf(exception));
+        assertEquals(expected == DeliverSmResult.THROTTLED || expected == DeliverSmResult.TIMEOUT, expected.isRetryable());
+    }
+
+    static Stream<Arguments> resultOfParameters() {
+        return Stream.of(
+                Arguments.of(new NegativeResponseException(SMPPConstant.STAT_ESME_RTHROTTLED), DeliverSmResult.THROTTLED),
+                Arguments.of(new NegativeResponseException(SMPPConstant.STAT_ESME_RMSGQFUL), DeliverSmResult.THROTTLED),
+                Arguments.of(new NegativeResponseException(SMPPConstant.STAT_ESME_RSYSERR), DeliverSmResult.FAILED),
+                Arguments.of(new ResponseTimeoutException(), DeliverSmResult.TIMEOUT),
+                Arguments.of(new IOException("closed"), DeliverSmResult.FAILED)
+        );
+    }
 }
@@ -0,0 +1,95 @@
+package com.paicbd.module.utils;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TpsLimiterTest {
+
+    @Test
+    @DisplayName("tryAcquire when tps is zero then every request is admitted")
+    void tryAcquireWhenTpsIsZeroThenUnlimited() {
+        TpsLimiter tpsLimiter = new TpsLimiter(0);
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(tpsLimiter.tryAcquire());
+        }
+        assertEquals(10_000, tpsLimiter.getAdmitted());
+        assertEquals(0, tpsLimiter.getRejected());
+    }
+
+    @Test
+    @DisplayName("tryAcquire when a burst exceeds the tps then the extra requests are rejected")
+    void tryAcquireWhenBurstExceedsTpsThenReject() {
+        TpsLimiter tpsLimiter = new TpsLimiter(10);
+        int admitted = 0;
+        for (int i = 0; i < 100; i++) {
+            if (tpsLimiter.tryAcquire()) {
+                admitted++;
+            }
+        }
+        // the burst is one second of traffic, a request may be refilled while looping
+        assertTrue(admitted >= 10 && admitted <= 11, "admitted " + admitted);
+        assertEquals(admitted, tpsLimiter.getAdmitted());
+        assertEquals(100 - admitted, tpsLimiter.getRejected());
+    }
+
+    @Test
+    @DisplayName("updateTps when the limit is removed then the requests are admitted again")
+    void updateTpsWhenLimitIsRemovedThenAdmit() {
+        TpsLimiter tpsLimiter = new TpsLimiter(1);
+        assertTrue(tpsLimiter.tryAcquire());
+        assertFalse(tpsLimiter.tryAcquire());
+
+        tpsLimiter.updateTps(0);
+        assertTrue(tpsLimiter.tryAcquire());
+        assertEquals(0, tpsLimiter.getTps());
+    }
+
+    @Test
+    @DisplayName("nanosToNextPermit when the burst is spent then it returns the wait until the next request is admitted")
+    void nanosToNextPermitWhenBurstSpentThenReturnWait() throws InterruptedException {
+        TpsLimiter tpsLimiter = new TpsLimiter(100);
+        assertEquals(0, tpsLimiter.nanosToNextPermit());
+        while (tpsLimiter.tryAcquire()) {
+            // spend the burst
+        }
+
+        long wait = tpsLimiter.nanosToNextPermit();
+        assertTrue(wait >= 0 && wait <= TimeUnit.MILLISECONDS.toNanos(10), "wait " + wait);
+        TimeUnit.NANOSECONDS.sleep(wait);
+        assertTrue(tpsLimiter.tryAcquire());
+        assertEquals(0, new TpsLimiter(0).nanosToNextPermit());
+    }
+
+    @Test
+    @DisplayName("tryAcquire when called concurrently then the burst is never exceeded")
+    void tryAcquireWhenConcurrentThenBurstIsHonored() throws InterruptedException {
+        TpsLimiter tpsLimiter = new TpsLimiter(1000);
+        int threads = 8;
+        CountDownLatch done = new CountDownLatch(threads);
+        try (ExecutorService executor = Executors.newFixedThreadPool(threads)) {
+            for (int i = 0; i < threads; i++) {
+                executor.execute(() -> {
+                    for (int j = 0; j < 1000; j++) {
+                        tpsLimiter.tryAcquire();
+                    }
+                    done.countDown();
+                });
+            }
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+        }
+
+        assertEquals(8000, tpsLimiter.getAdmitted() + tpsLimiter.getRejected());
+        assertTrue(tpsLimiter.getAdmitted() >= 1000);
+        // one second of burst plus what is refilled while the test runs
+        assertTrue(tpsLimiter.getAdmitted() < 8000);
+    }
+}